@@ -0,0 +1,74 @@
+package org.tio.chat.bench;
+
+import org.tio.chat.model.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 基准测试使用的典型消息，字段取值参照 chat-client-uniapp/utils/socket.js 实际发出的帧
+ */
+final class BenchPayloads {
+
+    private BenchPayloads() {
+    }
+
+    /** cmd=99 送达确认，线上占比最高的帧 */
+    static ChatMessage ack() {
+        ChatMessage msg = new ChatMessage();
+        msg.setCmd(99);
+        msg.setMsgId(UUID.randomUUID().toString());
+        return msg;
+    }
+
+    /** cmd=2 私聊，中英混排正文 */
+    static ChatMessage privateMessage(String from, String to) {
+        ChatMessage msg = new ChatMessage();
+        msg.setCmd(2);
+        msg.setType("private");
+        msg.setFrom(from);
+        msg.setTo(to);
+        msg.setNickname("小八");
+        msg.setMessage("今晚一起吃饭吗？See you at 7pm 🍜 地点还是上次那家");
+        msg.setTimestamp(System.currentTimeMillis());
+        msg.setMsgId(UUID.randomUUID().toString());
+        return msg;
+    }
+
+    /** cmd=3 群聊，正文约 bodyChars 个字符 */
+    static ChatMessage groupMessage(String groupId, int bodyChars) {
+        ChatMessage msg = new ChatMessage();
+        msg.setCmd(3);
+        msg.setType("group");
+        msg.setFrom("user-1");
+        msg.setTo(groupId);
+        msg.setNickname("乌萨奇");
+        StringBuilder body = new StringBuilder(bodyChars);
+        String pattern = "群公告：周末活动改到周日下午 Sunday 3pm, ";
+        while (body.length() < bodyChars) {
+            body.append(pattern);
+        }
+        body.setLength(bodyChars);
+        msg.setMessage(body.toString());
+        msg.setTimestamp(System.currentTimeMillis());
+        msg.setMsgId(UUID.randomUUID().toString());
+        return msg;
+    }
+
+    /** cmd=100 已读回执 */
+    static ChatMessage readAck(List<String> msgIds) {
+        ChatMessage msg = new ChatMessage();
+        msg.setCmd(100);
+        msg.setMsgIds(msgIds);
+        return msg;
+    }
+
+    static List<String> msgIds(int n) {
+        List<String> ids = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ids.add(UUID.randomUUID().toString());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,100 @@
+package org.tio.chat.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tio.chat.util.KeyedSerialExecutor;
+import org.tio.chat.util.OrderedExecutor;
+import org.tio.chat.util.PartitionedExecutor;
+import org.tio.chat.util.VirtualThreads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 业务执行器吞吐：模拟 ChatWsHandler 把一批用户的消息提交到 BusinessExecutor，每条消息的业务处理阻塞 blockMicros
+ * （存储、鉴权、推送等 I/O），测量全部处理完的吞吐（条/ms）。
+ *
+ *  - platform：PartitionedExecutor，threads 个平台线程，阻塞期间整条通道停顿；
+ *  - virtual ：KeyedSerialExecutor + 虚拟线程，阻塞只挂起该用户的虚拟线程。需要 JDK 21+，且 chat-server 以 jdk21 profile 构建，
+ *              否则该组参数在 Setup 中失败、JMH 跳过。
+ *
+ * blockMicros=0 时对比的是纯调度开销。
+ *
+ * 只测执行器本身，不含解码、网络与存储；虚拟线程与平台线程的对比目前只有本基准的数据，
+ * 没有用 chat-client 对分别以 / 不以 jdk21 profile 构建的服务端做过端到端压测。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class BusinessExecutorBenchmark {
+
+    private static final int MESSAGES = 10_000;
+
+    @Param({"platform", "virtual"})
+    public String executor;
+
+    @Param({"0", "200"})
+    public int blockMicros;
+
+    @Param({"16"})
+    public int threads;
+
+    @Param({"10000"})
+    public int users;
+
+    private OrderedExecutor ordered;
+    private String[] keys;
+
+    @Setup(Level.Trial)
+    public void start() {
+        if ("virtual".equals(executor)) {
+            if (!VirtualThreads.supported()) {
+                throw new IllegalStateException("虚拟线程需要 JDK 21+ 与 jdk21 profile 构建的 chat-server");
+            }
+            ordered = new KeyedSerialExecutor("bench", VirtualThreads.newExecutor("bench"), MESSAGES);
+        } else {
+            ordered = new PartitionedExecutor("bench", threads, MESSAGES);
+        }
+        keys = new String[users];
+        for (int i = 0; i < users; i++) {
+            keys[i] = "user-" + i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        ordered.shutdown(10_000);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void dispatch() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(MESSAGES);
+        long blockNanos = TimeUnit.MICROSECONDS.toNanos(blockMicros);
+        for (int i = 0; i < MESSAGES; i++) {
+            ordered.execute(keys[i % keys.length], () -> {
+                if (blockNanos > 0) {
+                    LockSupport.parkNanos(blockNanos);
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,64 @@
+package org.tio.chat.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.service.BroadcastService;
+import org.tio.chat.util.JsonUtil;
+import org.tio.chat.util.WsFrameEncoder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 群发扇出：一次群消息在业务线程上的开销（逐成员编码帧 vs 编码一次、每个成员只包装共享帧视图）。
+ *
+ * 不经过网络，配合 gc profile 看每次群发的分配字节数（gc.alloc.rate.norm）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FanoutBenchmark {
+
+    @Param({"100", "5000"})
+    public int members;
+
+    @Param({"256"})
+    public int bodyChars;
+
+    private ChatMessage message;
+
+    @Setup
+    public void setup() {
+        message = BenchPayloads.groupMessage("showcase-websocket", bodyChars);
+    }
+
+    @Benchmark
+    public void encodePerMember(Blackhole bh) {
+        byte[] body = JsonUtil.toJsonBytes(message);
+        for (int i = 0; i < members; i++) {
+            bh.consume(WsFrameEncoder.encodeText(body));
+        }
+    }
+
+    @Benchmark
+    public void encodeOnce(Blackhole bh) {
+        ByteBuffer frame = BroadcastService.encode(message);
+        for (int i = 0; i < members; i++) {
+            bh.consume(BroadcastService.packet(frame));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.tio.chat.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tio.chat.util.SnowflakeIdGenerator;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息 id 生成：16 个线程共用一个生成器（对应业务线程池并发处理消息）。
+ *
+ * uuid 为原先 ChatWsHandler 的做法，所有线程争用同一个 SecureRandom；
+ * snowflake 为一次 CAS，snowflakeString 额外包含 11 位 base62 字符串的生成。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class IdGeneratorBenchmark {
+
+    private final SnowflakeIdGenerator snowflake = new SnowflakeIdGenerator(1);
+
+    @Benchmark
+    public String uuid() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    public long snowflake() {
+        return snowflake.nextLong();
+    }
+
+    @Benchmark
+    public String snowflakeString() {
+        return snowflake.nextId();
+    }
+}
@@ -0,0 +1,122 @@
+package org.tio.chat.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tio.chat.store.ConversationLog;
+import org.tio.chat.store.MessageStoreConfig;
+import org.tio.chat.store.SegmentedMessageStore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 索引全量重建：日志中已有 messages 条消息，删除 index.checkpoint 与索引目录后重新打开存储的耗时。
+ *
+ *  - offline     ：离线消息存储（SegmentedMessageStore），只解析记录头；
+ *  - conversation：会话日志（ConversationLog），按记录头中的 seq 对齐条目下标。
+ *
+ * 每次迭代重建一次；日志只在 Trial 开始时写入一次，页缓存是热的，结果不含冷盘读取。
+ * java -jar target/benchmarks.jar IndexRebuildBenchmark -p messages=10000000
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class IndexRebuildBenchmark {
+
+    @Param({"offline", "conversation"})
+    public String impl;
+
+    @Param({"1000000"})
+    public int messages;
+
+    @Param({"10000"})
+    public int recipients;
+
+    private File dir;
+    private Closeable opened;
+
+    @Setup(Level.Trial)
+    public void fill() throws IOException {
+        dir = Files.createTempDirectory("chat-bench-rebuild").toFile();
+        if ("conversation".equals(impl)) {
+            ConversationLog conversations = ConversationLog.open(config(), 0, 0);
+            try {
+                for (int i = 0; i < messages; i++) {
+                    String to = "user-" + (i % recipients);
+                    conversations.appendNoWait("p:sender:" + to, BenchPayloads.privateMessage("sender", to));
+                }
+            } finally {
+                conversations.close();
+            }
+        } else {
+            SegmentedMessageStore store = SegmentedMessageStore.open(config());
+            try {
+                for (int i = 0; i < messages; i++) {
+                    store.appendNoWait(BenchPayloads.privateMessage("sender", "user-" + (i % recipients)));
+                }
+            } finally {
+                store.close();
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void dropIndex() throws IOException {
+        Files.deleteIfExists(new File(dir, "index.checkpoint").toPath());
+        deleteRecursively(new File(dir, "index").toPath());
+    }
+
+    @Benchmark
+    public void rebuild() throws IOException {
+        opened = "conversation".equals(impl) ? ConversationLog.open(config(), 0, 0) : SegmentedMessageStore.open(config());
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeStore() throws IOException {
+        if (opened != null) {
+            opened.close();
+            opened = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        deleteRecursively(dir.toPath());
+    }
+
+    private MessageStoreConfig config() {
+        return new MessageStoreConfig()
+                .setDir(dir)
+                .setFlushMode(MessageStoreConfig.FLUSH_ASYNC)
+                .setIndexCacheSize(1024);
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.tio.chat.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tio.chat.codec.BinaryChatCodec;
+import org.tio.chat.codec.JsonChatCodec;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.util.JsonUtil;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息（反）序列化：JsonUtil 数据绑定、JsonChatCodec 流式解码、BinaryChatCodec 二进制编码
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    @Param({"ack", "private", "group", "readAck"})
+    public String payload;
+
+    private ChatMessage message;
+    private String json;
+    private byte[] binary;
+
+    @Setup
+    public void setup() {
+        switch (payload) {
+            case "ack":
+                message = BenchPayloads.ack();
+                break;
+            case "private":
+                message = BenchPayloads.privateMessage("user-1", "user-2");
+                break;
+            case "group":
+                message = BenchPayloads.groupMessage("showcase-websocket", 512);
+                break;
+            default:
+                message = BenchPayloads.readAck(BenchPayloads.msgIds(20));
+        }
+        json = JsonUtil.toJson(message);
+        binary = BinaryChatCodec.encode(message);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return JsonUtil.toJson(message);
+    }
+
+    @Benchmark
+    public byte[] toJsonBytes() {
+        return JsonUtil.toJsonBytes(message);
+    }
+
+    @Benchmark
+    public ChatMessage fromJson() {
+        return JsonUtil.fromJson(json, ChatMessage.class);
+    }
+
+    @Benchmark
+    public ChatMessage streamingDecode() {
+        return JsonChatCodec.decode(json);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return BinaryChatCodec.encode(message);
+    }
+
+    @Benchmark
+    public ChatMessage binaryDecode() {
+        return BinaryChatCodec.decode(binary);
+    }
+}
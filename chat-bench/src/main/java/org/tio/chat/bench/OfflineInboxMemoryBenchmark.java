@@ -0,0 +1,190 @@
+package org.tio.chat.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.store.MessageStoreConfig;
+import org.tio.chat.store.SegmentedMessageStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 离线消息常驻内存：users 个不在线用户各积压 perUser 条消息后，Full GC 后的堆增量与 mapped 缓冲池增量。
+ *
+ *  - list     ：每个用户一个 ArrayList&lt;ChatMessage&gt;（旧实现的离线消息表），消息对象一直留在堆上；
+ *  - segmented：SegmentedMessageStore，消息体在日志中，索引条目在收件人 mmap 文件中。
+ *
+ * 结果按测量值原样报告（辅助计数器），不做推算：
+ *  - heapBytesPerMessage / mappedBytesPerMessage：堆与 mapped 缓冲池增量除以消息数，GC 误差可能使很小的值为负；
+ *  - indexFilesPerRecipient / indexFileBytesPerRecipient：segmented 下每个收件人的索引文件数与文件大小。
+ *    每个收件人仍有自己的索引文件（初始 32 + 64 × 16 = 1056 字节，按文件系统块向上取整，另占一个 inode），
+ *    打开时建立自己的映射，LRU 缓存（indexCacheSize）之外的映射会释放；
+ *    因此数百万不在线用户对应数百万个索引文件，占用的是磁盘、inode 与目录项，而不是堆。
+ *
+ * 需要足够的堆放下 list 的全部对象（默认参数约 1GB）：
+ * java -jar target/benchmarks.jar OfflineInboxMemoryBenchmark -p users=1000000 -p perUser=2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class OfflineInboxMemoryBenchmark {
+
+    @Param({"list", "segmented"})
+    public String impl;
+
+    @Param({"100000"})
+    public int users;
+
+    @Param({"20"})
+    public int perUser;
+
+    @Param({"64"})
+    public int messageBytes;
+
+    private static volatile Object sink;
+
+    /**
+     * 本次迭代测得的占用，JMH 按辅助计数器输出
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public double heapBytesPerMessage;
+        public double mappedBytesPerMessage;
+        public double indexFilesPerRecipient;
+        public double indexFileBytesPerRecipient;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            heapBytesPerMessage = 0;
+            mappedBytesPerMessage = 0;
+            indexFilesPerRecipient = 0;
+            indexFileBytesPerRecipient = 0;
+        }
+    }
+
+    @Benchmark
+    public void fill(Footprint footprint) throws Exception {
+        long total = (long) users * perUser;
+        long heapBase = usedHeap();
+        long mappedBase = mappedBytes();
+        if ("list".equals(impl)) {
+            Map<String, List<ChatMessage>> inbox = new HashMap<>();
+            for (int i = 0; i < perUser; i++) {
+                for (int u = 0; u < users; u++) {
+                    String to = "user-" + u;
+                    inbox.computeIfAbsent(to, k -> new ArrayList<>()).add(message(to, u, i));
+                }
+            }
+            sink = inbox;
+            footprint.heapBytesPerMessage = (double) (usedHeap() - heapBase) / total;
+            sink = null;
+            return;
+        }
+
+        File dir = Files.createTempDirectory("chat-inbox-memory").toFile();
+        // 存储自身的固定开销（锁、索引缓存、当前 segment）也计入
+        SegmentedMessageStore store = SegmentedMessageStore.open(new MessageStoreConfig()
+                .setDir(dir)
+                .setFlushMode(MessageStoreConfig.FLUSH_ASYNC));
+        try {
+            for (int i = 0; i < perUser; i++) {
+                for (int u = 0; u < users; u++) {
+                    String to = "user-" + u;
+                    store.appendNoWait(message(to, u, i));
+                }
+            }
+            footprint.heapBytesPerMessage = (double) (usedHeap() - heapBase) / total;
+            footprint.mappedBytesPerMessage = (double) (mappedBytes() - mappedBase) / total;
+            long[] files = indexFiles(dir);
+            footprint.indexFilesPerRecipient = (double) files[0] / users;
+            footprint.indexFileBytesPerRecipient = (double) files[1] / users;
+            if (store.read("user-0", perUser).size() != perUser) {
+                throw new IllegalStateException("user-0 回放条数不符");
+            }
+        } finally {
+            store.close();
+            deleteRecursively(dir.toPath());
+        }
+    }
+
+    private ChatMessage message(String to, int u, int i) {
+        ChatMessage msg = new ChatMessage();
+        msg.setCmd(2);
+        msg.setFrom("user-" + ((u + 1) % 1000));
+        msg.setTo(to);
+        msg.setMsgId(String.format("%016x%08x", System.nanoTime(), u * 31 + i));
+        msg.setTimestamp(System.currentTimeMillis());
+        msg.setConv("p:" + msg.getFrom() + ":" + to);
+        msg.setSeq((long) i + 1);
+        StringBuilder text = new StringBuilder(messageBytes);
+        while (text.length() < messageBytes) {
+            text.append((char) ('a' + (text.length() + i) % 26));
+        }
+        msg.setMessage(text.toString());
+        return msg;
+    }
+
+    /**
+     * 索引文件数与总字节数（文件长度，不含文件系统块取整）
+     */
+    private static long[] indexFiles(File dir) throws IOException {
+        long[] result = new long[2];
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            files.filter(p -> p.getFileName().toString().endsWith(".idx")).forEach(p -> {
+                result[0]++;
+                result[1] += p.toFile().length();
+            });
+        }
+        return result;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long mappedBytes() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("mapped".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.tio.chat.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.service.ChatService;
+import org.tio.chat.service.DeliveryStateIndex;
+import org.tio.chat.store.MessageStoreConfig;
+import org.tio.chat.store.SegmentedMessageStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * 离线消息存储：ChatService.saveOfflineMessage 与 processClientAck 在并发下的开销。
+ *
+ *  - save / ack：单独测量，配合 -t N（mt profile）观察多线程扩展性；
+ *  - contended：4 个线程写入、4 个线程确认同时进行，测量两者互相争用时的吞吐。
+ *
+ * flushMode=group 时每次写入都等待组提交 fsync，结果受磁盘影响很大；对比 CPU 开销时看 async。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class OfflineStoreBenchmark {
+
+    /** 每个确认线程预先写入的消息数，确认完后继续确认将走重复确认路径 */
+    private static final int PRELOADED_PER_THREAD = 50_000;
+
+    @Param({MessageStoreConfig.FLUSH_ASYNC, MessageStoreConfig.FLUSH_GROUP})
+    public String flushMode;
+
+    @Param({"10000"})
+    public int recipients;
+
+    private File dir;
+    private SegmentedMessageStore store;
+    private DeliveryStateIndex deliveryStates;
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        dir = Files.createTempDirectory("chat-bench-store").toFile();
+        store = SegmentedMessageStore.open(new MessageStoreConfig()
+                .setDir(dir)
+                .setFlushMode(flushMode)
+                .setFlushIntervalMs(10)
+                .setIndexCacheSize(1024));
+        deliveryStates = new DeliveryStateIndex(1_000_000, TimeUnit.MINUTES.toMillis(10));
+        ChatService.setMessageStore(store);
+        ChatService.setDeliveryStateIndex(deliveryStates);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        store.close();
+        deliveryStates.close();
+        try (Stream<Path> files = Files.walk(dir.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * 写入线程：轮流写给不同收件人，覆盖索引缓存命中与淘汰
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+        int next;
+        String from;
+
+        @Setup(Level.Trial)
+        public void setup(OfflineStoreBenchmark bench) {
+            from = "writer-" + bench.threadIds.incrementAndGet();
+        }
+
+        ChatMessage nextMessage(int recipients) {
+            return BenchPayloads.privateMessage(from, "user-" + (next++ % recipients));
+        }
+    }
+
+    /**
+     * 确认线程：各自的收件人预先积压一批消息，按写入顺序逐条确认
+     */
+    @State(Scope.Thread)
+    public static class Acker {
+        String userId;
+        String[] msgIds;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup(OfflineStoreBenchmark bench) {
+            userId = "acker-" + bench.threadIds.incrementAndGet();
+            msgIds = new String[PRELOADED_PER_THREAD];
+            for (int i = 0; i < msgIds.length; i++) {
+                ChatMessage msg = BenchPayloads.privateMessage("sender", userId);
+                msgIds[i] = msg.getMsgId();
+                bench.store.append(msg);
+            }
+        }
+
+        String nextMsgId() {
+            String id = msgIds[next];
+            next = (next + 1) % msgIds.length;
+            return id;
+        }
+    }
+
+    @Benchmark
+    public void save(Writer writer) {
+        ChatService.saveOfflineMessage(writer.nextMessage(recipients));
+    }
+
+    @Benchmark
+    public void ack(Acker acker) {
+        ChatService.processClientAck(acker.nextMsgId(), acker.userId);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public void contendedSave(Writer writer) {
+        ChatService.saveOfflineMessage(writer.nextMessage(recipients));
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public void contendedAck(Acker acker) {
+        ChatService.processClientAck(acker.nextMsgId(), acker.userId);
+    }
+}
@@ -0,0 +1,110 @@
+package org.tio.chat.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.service.ChatService;
+import org.tio.chat.service.DeliveryStateIndex;
+import org.tio.chat.store.MessageStore;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 已读回执：ChatService.processReadAck 处理一次携带大量 msgId 的 cmd=100 的耗时。
+ *
+ * 存储替换为空实现，只测量去重、投递状态更新与回执组装；服务未启动，回执发送为空操作。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadAckBenchmark {
+
+    /** 每条消息分属的发件人数，回执按发件人分组时影响分组数 */
+    private static final int SENDERS = 16;
+
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    private List<String> msgIds;
+    private DeliveryStateIndex deliveryStates;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        msgIds = BenchPayloads.msgIds(size);
+        deliveryStates = new DeliveryStateIndex(size * 2, TimeUnit.MINUTES.toMillis(10));
+        for (int i = 0; i < msgIds.size(); i++) {
+            deliveryStates.track(msgIds.get(i), "sender-" + (i % SENDERS), false);
+        }
+        ChatService.setDeliveryStateIndex(deliveryStates);
+        ChatService.setMessageStore(new NoopStore());
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        deliveryStates.close();
+    }
+
+    @Benchmark
+    public void processReadAck() {
+        ChatService.processReadAck(msgIds, "reader");
+    }
+
+    /**
+     * 不落盘的存储，避免磁盘开销掩盖回执处理本身
+     */
+    private static final class NoopStore implements MessageStore {
+        @Override
+        public void append(ChatMessage msg) {
+        }
+
+        @Override
+        public List<ChatMessage> read(String recipient, int max) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public int ack(String recipient, Collection<String> msgIds) {
+            return 0;
+        }
+
+        @Override
+        public void ackAll(String recipient) {
+        }
+
+        @Override
+        public List<String> markRead(String recipient, Collection<String> msgIds) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<String> markReadUpTo(String recipient, String from, long upToTimestamp) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public long pendingCount(String recipient) {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
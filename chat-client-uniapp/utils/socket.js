@@ -11,6 +11,19 @@ let onReadAck = null;
 const msgStatusCallbacks = new Map();
 const ackTimers = new Map();
 
+// 会话游标：会话 id → 已连续收到的最大 seq，持久化后登录时带给服务端补齐缺口
+const CURSOR_KEY = 'socket_cursors';
+const SYNC_RETRY_MS = 5000;
+let cursors = {};
+let cursorOwner = null;
+let cursorSaveTimer = null;
+const heldSeqs = new Map();      // 会话 id → 游标之后已收到、但前面还有缺口的 seq
+const syncRequested = new Map(); // 会话 id → 上次请求补齐（cmd=104）的时间
+const historyCallbacks = new Map(); // 历史 / 搜索请求（cmd=108 / 109）msgId → 回调
+// 会话恢复令牌（cmd=110）：断线后带着它重连，服务端在宽限期内接管原会话，不广播下线 / 上线
+let resumeToken = null;
+let resumeOwner = null;
+
 const CONNECT_STATUS = {
     DISCONNECTED: 0,
     CONNECTING: 1,
@@ -25,10 +38,13 @@ export function connectSocket(userId, onMessage) {
     }
 
     currentUserId = userId;
+    if (cursorOwner !== userId) loadCursors();
     connectStatus = CONNECT_STATUS.CONNECTING;
     console.log('[socket] 准备连接 WebSocket，用户ID:', userId);
 
-    const wsUrl = `ws://192.168.110.238:9326?name=${encodeURIComponent(userId)}`;
+    if (resumeOwner !== userId) resumeToken = null;
+    let wsUrl = `ws://192.168.110.238:9326?name=${encodeURIComponent(userId)}`;
+    if (resumeToken) wsUrl += `&resume=${encodeURIComponent(resumeToken)}`;
 
     try {
         socketTask = uni.connectSocket({
@@ -47,7 +63,11 @@ export function connectSocket(userId, onMessage) {
         connectStatus = CONNECT_STATUS.CONNECTED;
         reconnectCount = 0;
 
+        // 登录携带会话游标：服务端先补发各会话缺口（cmd=104），离线批次中已覆盖的消息不再重复下发
+        heldSeqs.clear();
+        syncRequested.clear();
         const loginData = { cmd: 1, from: currentUserId };
+        if (Object.keys(cursors).length > 0) loginData.cursors = cursors;
         sendRaw(loginData);
 
         loadQueueFromStorage();
@@ -62,22 +82,65 @@ export function connectSocket(userId, onMessage) {
         try {
             const data = JSON.parse(dataStr);
 
-            // 已读回执 101 只更新发送方
-            if (data.cmd === 101 && data.msgIds && Array.isArray(data.msgIds)) {
-                if (currentUserId === data.from) {
-                    onReadAck && onReadAck(data.msgIds);
+            // 已读回执 101 只更新发送方（to 为发送方，from 为读者）：
+            // 带 msgIds 为逐条回执（同一读者的一批合并在一帧），只带 timestamp 为会话已读水位
+            if (data.cmd === 101) {
+                if (currentUserId === data.to) {
+                    if (Array.isArray(data.msgIds)) {
+                        onReadAck && onReadAck(data.msgIds);
+                    } else if (data.timestamp) {
+                        onReadAck && onReadAck([], { from: data.from, upTo: data.timestamp });
+                    }
                 }
             }
+            // 会话恢复令牌 110：每次连接（含恢复成功的重连）都会换发，只保留最新的
+            else if (data.cmd === 110 && data.message) {
+                resumeToken = data.message;
+                resumeOwner = currentUserId;
+            }
             // ACK确认 -1
             else if (data.cmd === -1 && data.msgId) {
+                // 自己发出的消息同样占用会话 seq
+                if (data.conv) noteSeq(data.conv, data.seq);
                 const cb = msgStatusCallbacks.get(data.msgId);
                 if (cb) { cb('success'); msgStatusCallbacks.delete(data.msgId); }
                 if (ackTimers.has(data.msgId)) { clearTimeout(ackTimers.get(data.msgId)); ackTimers.delete(data.msgId); }
             }
+            // 历史消息 108 / 搜索结果 109：按请求的 msgId 交给回调，不更新会话游标
+            else if ((data.cmd === 108 || data.cmd === 109) && data.msgId) {
+                const cb = historyCallbacks.get(data.msgId);
+                if (cb) { historyCallbacks.delete(data.msgId); cb(data.messages || [], data.seq); }
+            }
+            // 服务端拒绝 -2（BUSY 管道已满 / STORE_ERROR 写入失败 / INVALID / NOT_MEMBER 不是群成员）：消息未保存，标记失败由用户重发
+            else if (data.cmd === -2 && data.msgId) {
+                const historyCb = historyCallbacks.get(data.msgId);
+                if (historyCb) { historyCallbacks.delete(data.msgId); historyCb(null); return; }
+                console.warn('[socket] 服务端拒绝消息', data.msgId, data.message);
+                const cb = msgStatusCallbacks.get(data.msgId);
+                if (cb) { cb('failed'); msgStatusCallbacks.delete(data.msgId); }
+                if (ackTimers.has(data.msgId)) { clearTimeout(ackTimers.get(data.msgId)); ackTimers.delete(data.msgId); }
+            }
+            // 离线消息批量同步 102：逐条交给页面，再对批次 msgId 回 ACK，服务端收到后才下发下一批
+            else if (data.cmd === 102 && Array.isArray(data.messages)) {
+                data.messages.forEach(item => {
+                    noteSeq(item.conv, item.seq, false);
+                    onMessage && onMessage(item);
+                });
+                if (data.msgId) sendAck(data.msgId);
+            }
+            // 会话缺口补齐 104：seq 为会话当前最大 seq，游标仍落后时继续请求下一页
+            else if (data.cmd === 104 && data.conv) {
+                handleSync(data, onMessage);
+            }
             // 普通消息处理
             else {
+                // 不大于游标的 seq 已经收到过（补齐与实时推送可能重叠），只回 ACK 不再交给页面
+                if (data.conv && !noteSeq(data.conv, data.seq)) {
+                    if (data.msgId) sendAck(data.msgId, data.conv);
+                    return;
+                }
                 onMessage && onMessage(data);
-                if (data.msgId && data.cmd !== 101 && data.cmd !== -1) sendAck(data.msgId);
+                if (data.msgId && data.cmd !== 101 && data.cmd !== -1) sendAck(data.msgId, data.conv);
             }
         } catch (e) {
             console.error('消息解析错误', e, dataStr);
@@ -97,6 +160,111 @@ export function connectSocket(userId, onMessage) {
     });
 }
 
+function loadCursors() {
+    cursorOwner = currentUserId;
+    heldSeqs.clear();
+    syncRequested.clear();
+    try {
+        const saved = uni.getStorageSync(CURSOR_KEY);
+        cursors = (saved && saved.userId === currentUserId && saved.cursors) ? saved.cursors : {};
+    } catch (e) {
+        console.error('[socket] 读取会话游标异常', e);
+        cursors = {};
+    }
+}
+
+// 游标变化频繁，合并到 1 秒内写一次
+function persistCursors() {
+    if (cursorSaveTimer) return;
+    cursorSaveTimer = setTimeout(() => {
+        cursorSaveTimer = null;
+        try {
+            uni.setStorageSync(CURSOR_KEY, { userId: cursorOwner, cursors });
+        } catch (e) {
+            console.error('[socket] 持久化会话游标异常', e);
+        }
+    }, 1000);
+}
+
+// 记录收到的会话 seq，返回 false 表示重复。track=false 时不为未跟踪的会话建立游标（离线批次可能从中间开始）
+function noteSeq(conv, seq, track = true) {
+    if (!conv || typeof seq !== 'number') return true;
+    if (cursors[conv] === undefined) {
+        if (!track) return true;
+        // 第一次见到的会话从这条开始跟踪，更早的历史由离线批次下发
+        cursors[conv] = seq - 1;
+    }
+    if (seq <= cursors[conv]) return false;
+    let held = heldSeqs.get(conv);
+    if (!held) {
+        held = new Set();
+        heldSeqs.set(conv, held);
+    }
+    if (held.has(seq)) return false;
+    held.add(seq);
+    advanceCursor(conv);
+    // 仍有跳号：中间的消息丢了，请求补齐
+    if (heldSeqs.has(conv)) requestSync(conv);
+    return true;
+}
+
+function advanceCursor(conv) {
+    const held = heldSeqs.get(conv);
+    let cursor = cursors[conv];
+    if (held) {
+        held.forEach(seq => { if (seq <= cursor) held.delete(seq); });
+        while (held.has(cursor + 1)) {
+            cursor++;
+            held.delete(cursor);
+        }
+        if (held.size === 0) heldSeqs.delete(conv);
+    }
+    if (cursor !== cursors[conv]) {
+        cursors[conv] = cursor;
+    }
+    persistCursors();
+}
+
+function requestSync(conv) {
+    const last = syncRequested.get(conv);
+    if (last && Date.now() - last < SYNC_RETRY_MS) return;
+    syncRequested.set(conv, Date.now());
+    sendRaw({ cmd: 104, cursors: { [conv]: cursors[conv] } });
+}
+
+function handleSync(data, onMessage) {
+    const conv = data.conv;
+    const head = typeof data.seq === 'number' ? data.seq : 0;
+    const list = Array.isArray(data.messages) ? data.messages : [];
+    if (cursors[conv] === undefined) {
+        cursors[conv] = 0;
+    } else if (head < cursors[conv]) {
+        // 服务端会话被重置时以服务端为准
+        cursors[conv] = head;
+        heldSeqs.delete(conv);
+    }
+    // 缺口开头的消息已过服务端保留期，无法补回，游标直接越过
+    if (list.length > 0 && list[0].seq > cursors[conv] + 1) {
+        cursors[conv] = list[0].seq - 1;
+    } else if (list.length === 0 && cursors[conv] < head) {
+        cursors[conv] = head;
+    }
+    // 处理本页期间仍视为请求在途，页内的跳号不重复请求
+    syncRequested.set(conv, Date.now());
+    list.forEach(item => {
+        if (noteSeq(conv, item.seq)) onMessage && onMessage(item);
+    });
+    syncRequested.delete(conv);
+    advanceCursor(conv);
+    if (cursors[conv] < head) requestSync(conv);
+    // 群会话补齐完成：上报游标，服务端下次登录从这里补发
+    else if (isGroupConv(conv)) sendAck(null, conv);
+}
+
+function isGroupConv(conv) {
+    return typeof conv === 'string' && conv.indexOf('g:') === 0;
+}
+
 // 自动发送离线消息已读回执，只发送接收方消息
 function autoSendOfflineReadAck() {
     if (!messageQueue.length) return;
@@ -149,7 +317,9 @@ function attemptReconnect(onMessage) {
     if (reconnectTimer) return;
 
     reconnectCount++;
-    const delay = Math.min(30000, 5000 * Math.pow(2, reconnectCount - 1));
+    // 持有恢复令牌时首次重连更快，尽量落在服务端的宽限期内
+    const base = resumeToken ? 1000 : 5000;
+    const delay = Math.min(30000, base * Math.pow(2, reconnectCount - 1));
     console.log(`第${reconnectCount}次重连，${delay}ms后尝试`);
 
     reconnectTimer = setTimeout(() => {
@@ -285,6 +455,40 @@ export function sendGroupMsg(groupId, msg, fromUserId, onStatusChange) {
     sendData(data, onStatusChange);
 }
 
+// 群组管理：创建 105 / 加入 106 / 退出 107，群 id 放在 to；成功回 -1，失败回 -2（EXISTS / NOT_FOUND / OPEN_GROUP 等）
+export function createGroup(groupId, onStatusChange) {
+    sendData({ cmd: 105, to: groupId, timestamp: Date.now() }, onStatusChange);
+}
+
+export function joinGroup(groupId, onStatusChange) {
+    sendData({ cmd: 106, to: groupId, timestamp: Date.now() }, onStatusChange);
+}
+
+export function leaveGroup(groupId, onStatusChange) {
+    sendData({ cmd: 107, to: groupId, timestamp: Date.now() }, onStatusChange);
+}
+
+// 历史消息：返回会话中 seq 小于 beforeSeq 的最新 limit 条（按 seq 升序），beforeSeq 为空时从最新开始；
+// 下一页以返回的最小 seq 为 beforeSeq，返回空数组表示没有更早的消息，被拒绝时回调 null
+export function loadHistory(conv, beforeSeq, limit, callback) {
+    const msgId = generateUUID();
+    historyCallbacks.set(msgId, callback);
+    const data = { cmd: 108, msgId, conv, limit };
+    if (beforeSeq) data.seq = beforeSeq;
+    sendRaw(data);
+}
+
+// 全文搜索：在自己所在的会话中搜索包含 query 的消息（conv 为空时搜索全部会话），按从新到旧返回；
+// 回调 (messages, cursor)，cursor 不为空时作为下一页的 cursor 参数，被拒绝时回调 null
+export function searchMessages(query, conv, cursor, limit, callback) {
+    const msgId = generateUUID();
+    historyCallbacks.set(msgId, callback);
+    const data = { cmd: 109, msgId, message: query, limit };
+    if (conv) data.conv = conv;
+    if (cursor) data.seq = cursor;
+    sendRaw(data);
+}
+
 export function retrySend(msgObj, onStatusChange) {
     if (!msgObj.msgId) {
         console.warn('retrySend 缺少 msgId，无法重发');
@@ -294,12 +498,15 @@ export function retrySend(msgObj, onStatusChange) {
     sendData(msgObj, onStatusChange);
 }
 
-function sendAck(msgId) {
+// 群会话的确认带上已连续收到的 seq（游标），服务端据此记录成员的已送达位置
+function sendAck(msgId, conv) {
     if (socketTask && connectStatus === CONNECT_STATUS.CONNECTED) {
-        const ackData = {
-            cmd: 99,
-            msgId: msgId,
-        };
+        const ackData = { cmd: 99 };
+        if (msgId) ackData.msgId = msgId;
+        if (isGroupConv(conv) && typeof cursors[conv] === 'number') {
+            ackData.conv = conv;
+            ackData.seq = cursors[conv];
+        }
         try {
             socketTask.send({ data: JSON.stringify(ackData) });
             console.log('[socket] 发送ACK确认消息:', ackData);
@@ -328,6 +535,36 @@ export function sendReadAck(msgIds) {
     }
 }
 
+// 群已读游标：群会话（conv 为 "g:群id"）中 seq 不大于 seq 的消息全部已读，服务端保存为该成员的已读位置
+export function sendGroupRead(conv, seq) {
+    if (!isGroupConv(conv) || typeof seq !== 'number') {
+        console.warn('[socket] sendGroupRead 缺少群会话或 seq');
+        return;
+    }
+    sendRaw({ cmd: 100, conv, seq });
+}
+
+// 会话已读水位：与 peerId 的会话中时间戳不晚于 timestamp 的消息全部已读，一帧代替逐条 msgId
+export function sendReadWatermark(peerId, timestamp) {
+    if (!peerId || !timestamp) {
+        console.warn('[socket] sendReadWatermark 缺少 peerId 或 timestamp');
+        return;
+    }
+    if (socketTask && connectStatus === CONNECT_STATUS.CONNECTED) {
+        const ackData = {
+            cmd: 100,
+            to: peerId,
+            timestamp: timestamp
+        };
+        try {
+            socketTask.send({ data: JSON.stringify(ackData) });
+            console.log('[socket] 发送已读水位:', ackData);
+        } catch (e) {
+            console.error('[socket] 发送已读水位失败', e);
+        }
+    }
+}
+
 export function setReadAckHandler(callback) {
     onReadAck = callback;
 }
@@ -335,6 +572,7 @@ export function setReadAckHandler(callback) {
 export function closeSocket() {
     if (socketTask) {
         console.log('[socket] 主动关闭 WebSocket 连接');
+        resumeToken = null;
         socketTask.close();
         socketTask = null;
         connectStatus = CONNECT_STATUS.DISCONNECTED;
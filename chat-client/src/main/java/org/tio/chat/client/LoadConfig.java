@@ -0,0 +1,220 @@
+package org.tio.chat.client;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * 压测参数。默认值读取 classpath 下的 load.properties，命令行 key=value（可带 -- 前缀）覆盖，
+ * 也可以用 config=文件路径 指定另一份配置。
+ */
+public class LoadConfig {
+
+    /** 服务端地址 */
+    private String host = "127.0.0.1";
+    private int port = 9326;
+    /** 模拟用户数，每个用户一条连接，userId 为 userPrefix + 序号 */
+    private int users = 1000;
+    private String userPrefix = "lg-";
+    /** 建连速率（连接/秒），避免瞬间打满 accept 队列 */
+    private int connectRate = 500;
+    /** 本地绑定地址（逗号分隔），单个 IP 对同一服务端口只有约 2.8 万个临时端口，更多用户需多个回环地址 */
+    private String[] bindAddresses = new String[0];
+    /** IO 线程数 */
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+    /** 每个用户每秒发送的消息数，可小于 1 */
+    private double msgRatePerUser = 0.2;
+    /** 发送群聊（cmd=3）的比例，其余为私聊（cmd=2）；群消息会扇出给所有在线连接 */
+    private double groupRatio = 0.0;
+    private String groupId = "showcase-websocket";
+    /** 消息正文字符数 */
+    private int bodyChars = 64;
+    /** 收到消息后回已读（cmd=100）的比例，已读按 readAckIntervalMs 合并发送 */
+    private double readRatio = 0.5;
+    private long readAckIntervalMs = 1000;
+    /** 服务端 ACK 超时，与 socket.js 一致 */
+    private long ackTimeoutMs = 5000;
+    /** 重连：退避 min(reconnectMaxDelayMs, reconnectBaseDelayMs * 2^(n-1))，最多 reconnectMax 次 */
+    private int reconnectMax = 6;
+    private long reconnectBaseDelayMs = 5000;
+    private long reconnectMaxDelayMs = 30000;
+    /** 每秒主动断开的连接数，用于观察重连与离线补发；0 表示不断开 */
+    private double churnPerSec = 0;
+    /** 压测时长与统计输出周期 */
+    private int durationSec = 60;
+    private int reportIntervalSec = 5;
+    private long connectTimeoutMs = 10000;
+
+    public static LoadConfig fromArgs(String[] args) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = LoadConfig.class.getClassLoader().getResourceAsStream("load.properties")) {
+            if (in != null) {
+                props.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+            }
+        }
+        Properties cli = new Properties();
+        for (String arg : args) {
+            String kv = arg.startsWith("--") ? arg.substring(2) : arg;
+            int eq = kv.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("参数格式应为 key=value: " + arg);
+            }
+            cli.setProperty(kv.substring(0, eq).trim(), kv.substring(eq + 1).trim());
+        }
+        String file = cli.getProperty("config");
+        if (file != null) {
+            try (InputStream in = new FileInputStream(file)) {
+                props.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+            }
+        }
+        props.putAll(cli);
+        return from(props);
+    }
+
+    static LoadConfig from(Properties p) {
+        LoadConfig c = new LoadConfig();
+        c.host = p.getProperty("host", c.host);
+        c.port = intOf(p, "port", c.port);
+        c.users = intOf(p, "users", c.users);
+        c.userPrefix = p.getProperty("user.prefix", c.userPrefix);
+        c.connectRate = intOf(p, "connect.rate", c.connectRate);
+        String bind = p.getProperty("bind.addresses", "").trim();
+        c.bindAddresses = bind.isEmpty() ? new String[0] : bind.split("\\s*,\\s*");
+        c.ioThreads = intOf(p, "io.threads", c.ioThreads);
+        c.msgRatePerUser = doubleOf(p, "msg.rate.per.user", c.msgRatePerUser);
+        c.groupRatio = doubleOf(p, "group.ratio", c.groupRatio);
+        c.groupId = p.getProperty("group.id", c.groupId);
+        c.bodyChars = intOf(p, "body.chars", c.bodyChars);
+        c.readRatio = doubleOf(p, "read.ratio", c.readRatio);
+        c.readAckIntervalMs = longOf(p, "read.ack.interval.ms", c.readAckIntervalMs);
+        c.ackTimeoutMs = longOf(p, "ack.timeout.ms", c.ackTimeoutMs);
+        c.reconnectMax = intOf(p, "reconnect.max", c.reconnectMax);
+        c.reconnectBaseDelayMs = longOf(p, "reconnect.base.delay.ms", c.reconnectBaseDelayMs);
+        c.reconnectMaxDelayMs = longOf(p, "reconnect.max.delay.ms", c.reconnectMaxDelayMs);
+        c.churnPerSec = doubleOf(p, "churn.per.sec", c.churnPerSec);
+        c.durationSec = intOf(p, "duration.sec", c.durationSec);
+        c.reportIntervalSec = intOf(p, "report.interval.sec", c.reportIntervalSec);
+        c.connectTimeoutMs = longOf(p, "connect.timeout.ms", c.connectTimeoutMs);
+        if (c.users <= 0 || c.ioThreads <= 0 || c.connectRate <= 0 || c.reportIntervalSec <= 0) {
+            throw new IllegalArgumentException("users、io.threads、connect.rate、report.interval.sec 必须大于 0");
+        }
+        return c;
+    }
+
+    private static int intOf(Properties p, String key, int def) {
+        String v = p.getProperty(key);
+        return v == null || v.trim().isEmpty() ? def : Integer.parseInt(v.trim());
+    }
+
+    private static long longOf(Properties p, String key, long def) {
+        String v = p.getProperty(key);
+        return v == null || v.trim().isEmpty() ? def : Long.parseLong(v.trim());
+    }
+
+    private static double doubleOf(Properties p, String key, double def) {
+        String v = p.getProperty(key);
+        return v == null || v.trim().isEmpty() ? def : Double.parseDouble(v.trim());
+    }
+
+    /**
+     * 第 index 个用户的 userId
+     */
+    public String userId(int index) {
+        return userPrefix + index;
+    }
+
+    /**
+     * 重连第 attempt 次（从 1 开始）前的等待时间
+     */
+    public long reconnectDelayMs(int attempt) {
+        long delay = reconnectBaseDelayMs << Math.min(attempt - 1, 20);
+        return Math.min(reconnectMaxDelayMs, delay);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    public String getUserPrefix() {
+        return userPrefix;
+    }
+
+    public int getConnectRate() {
+        return connectRate;
+    }
+
+    public String[] getBindAddresses() {
+        return bindAddresses;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public double getMsgRatePerUser() {
+        return msgRatePerUser;
+    }
+
+    public double getGroupRatio() {
+        return groupRatio;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public int getBodyChars() {
+        return bodyChars;
+    }
+
+    public double getReadRatio() {
+        return readRatio;
+    }
+
+    public long getReadAckIntervalMs() {
+        return readAckIntervalMs;
+    }
+
+    public long getAckTimeoutMs() {
+        return ackTimeoutMs;
+    }
+
+    public int getReconnectMax() {
+        return reconnectMax;
+    }
+
+    public double getChurnPerSec() {
+        return churnPerSec;
+    }
+
+    public int getDurationSec() {
+        return durationSec;
+    }
+
+    public int getReportIntervalSec() {
+        return reportIntervalSec;
+    }
+
+    public long getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    @Override
+    public String toString() {
+        return "host=" + host + ":" + port + ", users=" + users + ", ioThreads=" + ioThreads
+                + ", connectRate=" + connectRate + "/s, msgRatePerUser=" + msgRatePerUser
+                + ", groupRatio=" + groupRatio + ", readRatio=" + readRatio
+                + ", churnPerSec=" + churnPerSec + ", duration=" + durationSec + "s";
+    }
+}
@@ -0,0 +1,136 @@
+package org.tio.chat.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 无界面的 WebSocket 压测客户端：模拟大量用户连接本地 ChatServerStarter，
+ * 协议与 chat-client-uniapp/utils/socket.js 相同（cmd 1 登录、2/3 发送、99 送达确认、100 已读）。
+ *
+ * 周期输出在线数、吞吐、送达延迟与 ACK 往返的分位数，结束时输出全程汇总。
+ *
+ * 运行：java -jar chat-client/target/chat-client.jar users=20000 msg.rate.per.user=0.1 duration.sec=120
+ * 参数见 load.properties。超过约 2.8 万个连接时需配置 bind.addresses 使用多个本地回环地址，
+ * 并调大 ulimit -n 与 net.ipv4.ip_local_port_range。
+ */
+public class LoadGeneratorStarter {
+    private static final Logger log = LoggerFactory.getLogger(LoadGeneratorStarter.class);
+
+    /** 发送、建连、断线节奏的调度粒度 */
+    private static final long PACE_MS = 10;
+
+    private final LoadConfig config;
+    private final LoadStats stats = new LoadStats();
+    private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(1, r -> {
+        Thread t = new Thread(r, "lg-timer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final WsClientLoop[] loops;
+    private final WsClientConnection[] connections;
+
+    private int connectedSoFar;
+    private double connectCredit;
+    private double sendCredit;
+    private double churnCredit;
+
+    public LoadGeneratorStarter(LoadConfig config) throws Exception {
+        this.config = config;
+        this.loops = new WsClientLoop[config.getIoThreads()];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new WsClientLoop(timer);
+        }
+        this.connections = new WsClientConnection[config.getUsers()];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = new WsClientConnection(i, loops[i % loops.length], config, stats);
+        }
+    }
+
+    public void run() throws InterruptedException {
+        log.info("压测开始: {}", config);
+        for (int i = 0; i < loops.length; i++) {
+            loops[i].start("lg-io-" + i);
+        }
+        long start = System.nanoTime();
+
+        ScheduledFuture<?> pacing = timer.scheduleAtFixedRate(this::pace, PACE_MS, PACE_MS, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> ticking = timer.scheduleAtFixedRate(() -> {
+            for (WsClientLoop loop : loops) {
+                loop.tick();
+            }
+        }, config.getReadAckIntervalMs(), config.getReadAckIntervalMs(), TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> reporting = timer.scheduleAtFixedRate(() -> log.info(stats.interval()),
+                config.getReportIntervalSec(), config.getReportIntervalSec(), TimeUnit.SECONDS);
+
+        TimeUnit.SECONDS.sleep(config.getDurationSec());
+
+        // 停止发送，等待在途消息的 ACK 到达或超时（重连定时器仍在 timer 上，不能直接关闭）
+        pacing.cancel(false);
+        ticking.cancel(false);
+        reporting.cancel(false);
+        log.info("停止发送，等待在途消息 {}ms", config.getAckTimeoutMs());
+        TimeUnit.MILLISECONDS.sleep(config.getAckTimeoutMs());
+        for (WsClientLoop loop : loops) {
+            loop.tick();
+        }
+        TimeUnit.MILLISECONDS.sleep(200);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        log.info(stats.interval());
+        for (WsClientLoop loop : loops) {
+            loop.shutdown();
+        }
+        timer.shutdown();
+        log.info("压测结束\n{}", stats.summary(seconds));
+    }
+
+    /**
+     * 每个调度周期：按建连速率发起新连接，按总发送速率挑选随机在线用户发消息，按断线速率模拟闪断
+     */
+    private void pace() {
+        double tickSeconds = PACE_MS / 1000.0;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        if (connectedSoFar < connections.length) {
+            connectCredit += config.getConnectRate() * tickSeconds;
+            while (connectCredit >= 1 && connectedSoFar < connections.length) {
+                connectCredit--;
+                int i = connectedSoFar++;
+                loopOf(i).execute(connections[i]::connect);
+            }
+        }
+
+        sendCredit += config.getMsgRatePerUser() * connectedSoFar * tickSeconds;
+        while (sendCredit >= 1) {
+            sendCredit--;
+            int i = random.nextInt(connectedSoFar);
+            loopOf(i).execute(connections[i]::sendChat);
+        }
+
+        if (config.getChurnPerSec() > 0 && connectedSoFar > 0) {
+            churnCredit += config.getChurnPerSec() * tickSeconds;
+            while (churnCredit >= 1) {
+                churnCredit--;
+                int i = random.nextInt(connectedSoFar);
+                loopOf(i).execute(connections[i]::drop);
+            }
+        }
+    }
+
+    /**
+     * 第 i 个用户所属的 IO 线程（与构造时的分配一致）
+     */
+    private WsClientLoop loopOf(int i) {
+        return loops[i % loops.length];
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadGeneratorStarter(LoadConfig.fromArgs(args)).run();
+    }
+}
@@ -0,0 +1,143 @@
+package org.tio.chat.client;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压测统计：计数器 + HdrHistogram。
+ *
+ * 延迟记录在 Recorder 中（多线程无锁写入），周期输出时取区间直方图并累加到全程直方图，
+ * 因此每行既能看到当前区间的分位数，结束时又能给出整场压测的汇总。单位统一为微秒。
+ */
+public class LoadStats {
+
+    private static final long MAX_TRACKABLE_US = TimeUnit.MINUTES.toMicros(10);
+
+    /** 发送 → 接收方收到（私聊/群聊，实时投递） */
+    final Recorder deliverLatency = new Recorder(MAX_TRACKABLE_US, 3);
+    /** 发送 → 收到服务端 ACK（cmd=-1） */
+    final Recorder ackRtt = new Recorder(MAX_TRACKABLE_US, 3);
+    /** 断开 → 重新登录成功 */
+    final Recorder reconnectTime = new Recorder(MAX_TRACKABLE_US, 3);
+
+    private final Histogram totalDeliver = new Histogram(MAX_TRACKABLE_US, 3);
+    private final Histogram totalAck = new Histogram(MAX_TRACKABLE_US, 3);
+    private final Histogram totalReconnect = new Histogram(MAX_TRACKABLE_US, 3);
+    private Histogram intervalDeliver;
+    private Histogram intervalAck;
+    private Histogram intervalReconnect;
+
+    final LongAdder sent = new LongAdder();
+    final LongAdder acked = new LongAdder();
+    final LongAdder ackTimeouts = new LongAdder();
+    /** 服务端拒绝（cmd=-2，如持久化管道已满） */
+    final LongAdder rejected = new LongAdder();
+    final LongAdder delivered = new LongAdder();
+    /** 离线补发（cmd=102 批次内）收到的消息数 */
+    final LongAdder offlineDelivered = new LongAdder();
+    final LongAdder offlineBatches = new LongAdder();
+    final LongAdder readAcksSent = new LongAdder();
+    final LongAdder readReceipts = new LongAdder();
+    final LongAdder presence = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+
+    /** 当前已完成握手的连接数 */
+    final AtomicInteger online = new AtomicInteger();
+    final LongAdder connected = new LongAdder();
+    final LongAdder connectFailures = new LongAdder();
+    final LongAdder disconnects = new LongAdder();
+    final LongAdder reconnectAttempts = new LongAdder();
+    final LongAdder reconnectGiveUps = new LongAdder();
+    final LongAdder protocolErrors = new LongAdder();
+
+    private long lastReportNanos = System.nanoTime();
+    private long lastSent;
+    private long lastDelivered;
+    private long lastAcked;
+    private long lastBytesIn;
+    private long lastBytesOut;
+
+    static long micros(long sinceNanos) {
+        return Math.min(MAX_TRACKABLE_US, Math.max(0, (System.nanoTime() - sinceNanos) / 1000));
+    }
+
+    /**
+     * 输出当前区间统计并累加到全程直方图
+     */
+    synchronized String interval() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - lastReportNanos) / 1e9);
+        lastReportNanos = now;
+
+        intervalDeliver = deliverLatency.getIntervalHistogram(intervalDeliver);
+        intervalAck = ackRtt.getIntervalHistogram(intervalAck);
+        intervalReconnect = reconnectTime.getIntervalHistogram(intervalReconnect);
+        totalDeliver.add(intervalDeliver);
+        totalAck.add(intervalAck);
+        totalReconnect.add(intervalReconnect);
+
+        long s = sent.sum();
+        long d = delivered.sum();
+        long a = acked.sum();
+        long in = bytesIn.sum();
+        long out = bytesOut.sum();
+        String line = String.format("online=%d send=%.0f/s deliver=%.0f/s ack=%.0f/s in=%.1fMB/s out=%.1fMB/s"
+                        + " | deliver %s | ack %s | reconnect %s | timeouts=%d rejected=%d disconnects=%d",
+                online.get(), (s - lastSent) / seconds, (d - lastDelivered) / seconds, (a - lastAcked) / seconds,
+                (in - lastBytesIn) / seconds / 1e6, (out - lastBytesOut) / seconds / 1e6,
+                percentiles(intervalDeliver), percentiles(intervalAck), percentiles(intervalReconnect),
+                ackTimeouts.sum(), rejected.sum(), disconnects.sum());
+        lastSent = s;
+        lastDelivered = d;
+        lastAcked = a;
+        lastBytesIn = in;
+        lastBytesOut = out;
+        return line;
+    }
+
+    /**
+     * 全程汇总（调用前先调用一次 interval 把最后一段计入）
+     */
+    synchronized String summary(double seconds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("时长 %.1fs，发送 %d（%.0f/s），实时送达 %d（%.0f/s），ACK %d，ACK 超时 %d，拒绝 %d%n",
+                seconds, sent.sum(), sent.sum() / seconds, delivered.sum(), delivered.sum() / seconds,
+                acked.sum(), ackTimeouts.sum(), rejected.sum()));
+        sb.append(String.format("离线补发 %d 条 / %d 批，已读回执 发出 %d 收到 %d，上下线通知 %d%n",
+                offlineDelivered.sum(), offlineBatches.sum(), readAcksSent.sum(), readReceipts.sum(), presence.sum()));
+        sb.append(String.format("连接成功 %d，失败 %d，断开 %d，重连尝试 %d，放弃重连 %d，协议错误 %d%n",
+                connected.sum(), connectFailures.sum(), disconnects.sum(), reconnectAttempts.sum(),
+                reconnectGiveUps.sum(), protocolErrors.sum()));
+        sb.append("送达延迟(us)   ").append(detail(totalDeliver)).append('\n');
+        sb.append("ACK 往返(us)   ").append(detail(totalAck)).append('\n');
+        sb.append("重连耗时(us)   ").append(detail(totalReconnect));
+        return sb.toString();
+    }
+
+    private static String percentiles(Histogram h) {
+        if (h.getTotalCount() == 0) {
+            return "-";
+        }
+        return String.format("p50=%s p99=%s max=%s", ms(h.getValueAtPercentile(50)),
+                ms(h.getValueAtPercentile(99)), ms(h.getMaxValue()));
+    }
+
+    private static String detail(Histogram h) {
+        if (h.getTotalCount() == 0) {
+            return "无样本";
+        }
+        return String.format("n=%d mean=%.0f p50=%d p90=%d p99=%d p99.9=%d p99.99=%d max=%d",
+                h.getTotalCount(), h.getMean(), h.getValueAtPercentile(50), h.getValueAtPercentile(90),
+                h.getValueAtPercentile(99), h.getValueAtPercentile(99.9), h.getValueAtPercentile(99.99),
+                h.getMaxValue());
+    }
+
+    private static String ms(long micros) {
+        return String.format("%.1fms", micros / 1000.0);
+    }
+}
@@ -0,0 +1,686 @@
+package org.tio.chat.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个模拟用户：一条 WebSocket 连接，行为与 chat-client-uniapp/utils/socket.js 一致。
+ *
+ *  - 打开后发送 cmd=1 登录；
+ *  - 发送 cmd=2 私聊 / cmd=3 群聊，等待服务端 cmd=-1 ACK（超时计为失败）；
+ *  - 收到带 msgId 的消息回 cmd=99 送达确认，收到 cmd=102 离线批次时逐条计数后确认批次 msgId；
+ *  - 按比例对收到的消息回 cmd=100 已读，周期合并成一帧；
+ *  - 断开后按 socket.js 的指数退避重连，成功登录后重置重连次数。
+ *
+ * 发出的消息正文以发送时的 System.nanoTime() 开头，接收方（同一进程内）据此计算送达延迟。
+ * 所有方法只在所属 WsClientLoop 线程上调用。
+ */
+public class WsClientConnection {
+    private static final Logger log = LoggerFactory.getLogger(WsClientConnection.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String WS_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+    /** 握手响应与单帧的上限，超过视为协议错误 */
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    private enum State {
+        DISCONNECTED, CONNECTING, HANDSHAKING, OPEN, CLOSED
+    }
+
+    private final int index;
+    private final String userId;
+    private final WsClientLoop loop;
+    private final LoadConfig config;
+    private final LoadStats stats;
+    private final InetSocketAddress remote;
+    private final InetSocketAddress local;
+
+    private State state = State.DISCONNECTED;
+    private SocketChannel channel;
+    private SelectionKey key;
+    /** 每次建连加一，用于识别过期的超时任务 */
+    private int generation;
+    private String secKey;
+    private ByteBuffer inbound = ByteBuffer.allocate(4 * 1024);
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    /** 分片消息的累积缓冲 */
+    private ByteArrayOutputStream fragments;
+
+    /** 已发送未收到 ACK 的消息：msgId → 发送时间 */
+    private final Map<String, Long> pendingAcks = new HashMap<>();
+    /** 待合并发送的已读 msgId */
+    private List<String> pendingReads = new ArrayList<>();
+    private long seq;
+    private int reconnectCount;
+    /** 断开时间，非 0 表示本次登录是一次重连 */
+    private long disconnectedAtNanos;
+
+    public WsClientConnection(int index, WsClientLoop loop, LoadConfig config, LoadStats stats) {
+        this.index = index;
+        this.userId = config.userId(index);
+        this.loop = loop;
+        this.config = config;
+        this.stats = stats;
+        this.remote = new InetSocketAddress(config.getHost(), config.getPort());
+        String[] binds = config.getBindAddresses();
+        this.local = binds.length == 0 ? null : new InetSocketAddress(binds[index % binds.length], 0);
+        loop.add(this);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public boolean isOpen() {
+        return state == State.OPEN;
+    }
+
+    /**
+     * 发起连接（首次或重连）
+     */
+    public void connect() {
+        if (state != State.DISCONNECTED) {
+            return;
+        }
+        final int gen = ++generation;
+        state = State.CONNECTING;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            if (local != null) {
+                channel.bind(local);
+            }
+            if (channel.connect(remote)) {
+                key = channel.register(loop.selector(), 0, this);
+                onConnected();
+            } else {
+                key = channel.register(loop.selector(), SelectionKey.OP_CONNECT, this);
+            }
+        } catch (IOException e) {
+            stats.connectFailures.increment();
+            disconnect("连接失败: " + e.getMessage());
+            return;
+        }
+        loop.schedule(() -> {
+            if (generation == gen && (state == State.CONNECTING || state == State.HANDSHAKING)) {
+                stats.connectFailures.increment();
+                disconnect("连接超时");
+            }
+        }, config.getConnectTimeoutMs());
+    }
+
+    void onSelected(SelectionKey selected) {
+        try {
+            if (selected.isConnectable()) {
+                if (channel.finishConnect()) {
+                    onConnected();
+                }
+                return;
+            }
+            if (selected.isWritable()) {
+                flush();
+            }
+            if (selected.isValid() && selected.isReadable()) {
+                read();
+            }
+        } catch (IOException e) {
+            if (state == State.CONNECTING) {
+                stats.connectFailures.increment();
+            }
+            disconnect(e.getMessage());
+        }
+    }
+
+    private void onConnected() throws IOException {
+        state = State.HANDSHAKING;
+        key.interestOps(SelectionKey.OP_READ);
+        byte[] nonce = new byte[16];
+        ThreadLocalRandom.current().nextBytes(nonce);
+        secKey = Base64.getEncoder().encodeToString(nonce);
+        String request = "GET /?name=" + URLEncoder.encode(userId, "UTF-8") + " HTTP/1.1\r\n"
+                + "Host: " + config.getHost() + ":" + config.getPort() + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + secKey + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n";
+        write(ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private void read() throws IOException {
+        ByteBuffer buf = loop.readBuffer();
+        while (true) {
+            buf.clear();
+            int n = channel.read(buf);
+            if (n < 0) {
+                disconnect("服务端关闭连接");
+                return;
+            }
+            if (n == 0) {
+                return;
+            }
+            stats.bytesIn.add(n);
+            buf.flip();
+            ensureInbound(n);
+            inbound.put(buf);
+            inbound.flip();
+            try {
+                if (state == State.HANDSHAKING && !readHandshake()) {
+                    continue;
+                }
+                while (state == State.OPEN && readFrame()) {
+                    // 逐帧处理
+                }
+            } finally {
+                if (channel != null) {
+                    inbound.compact();
+                }
+            }
+            if (channel == null) {
+                return;
+            }
+        }
+    }
+
+    private void ensureInbound(int more) {
+        if (inbound.remaining() < more) {
+            int size = Math.max(inbound.capacity() * 2, inbound.position() + more);
+            ByteBuffer bigger = ByteBuffer.allocate(size);
+            inbound.flip();
+            bigger.put(inbound);
+            inbound = bigger;
+        }
+    }
+
+    /**
+     * 解析握手响应，成功后进入 OPEN 并登录
+     * @return 响应是否已完整读到
+     */
+    private boolean readHandshake() throws IOException {
+        int end = indexOf(inbound, HEADER_END);
+        if (end < 0) {
+            if (inbound.remaining() > MAX_HEADER_BYTES) {
+                protocolError("握手响应过长");
+            }
+            return false;
+        }
+        byte[] header = new byte[end + HEADER_END.length];
+        inbound.get(header);
+        String response = new String(header, StandardCharsets.ISO_8859_1);
+        String statusLine = response.substring(0, response.indexOf('\r'));
+        if (!statusLine.contains(" 101")) {
+            protocolError("握手被拒绝: " + statusLine);
+            return true;
+        }
+        String accept = headerValue(response, "sec-websocket-accept");
+        if (accept == null || !accept.equals(expectedAccept(secKey))) {
+            protocolError("Sec-WebSocket-Accept 校验失败");
+            return true;
+        }
+        onOpen();
+        return true;
+    }
+
+    private void onOpen() {
+        state = State.OPEN;
+        stats.online.incrementAndGet();
+        stats.connected.increment();
+        if (disconnectedAtNanos != 0) {
+            stats.reconnectTime.recordValue(LoadStats.micros(disconnectedAtNanos));
+            disconnectedAtNanos = 0;
+        }
+        reconnectCount = 0;
+
+        ObjectNode login = MAPPER.createObjectNode();
+        login.put("cmd", 1);
+        login.put("from", userId);
+        sendJson(login);
+    }
+
+    /**
+     * 解析一帧（服务端帧不带掩码）
+     * @return 是否读到完整的一帧
+     */
+    private boolean readFrame() throws IOException {
+        int start = inbound.position();
+        if (inbound.remaining() < 2) {
+            return false;
+        }
+        int b0 = inbound.get() & 0xFF;
+        int b1 = inbound.get() & 0xFF;
+        boolean fin = (b0 & 0x80) != 0;
+        int opcode = b0 & 0x0F;
+        long len = b1 & 0x7F;
+        if (len == 126) {
+            if (inbound.remaining() < 2) {
+                inbound.position(start);
+                return false;
+            }
+            len = inbound.getShort() & 0xFFFF;
+        } else if (len == 127) {
+            if (inbound.remaining() < 8) {
+                inbound.position(start);
+                return false;
+            }
+            len = inbound.getLong();
+        }
+        if ((b1 & 0x80) != 0 || len < 0 || len > MAX_FRAME_BYTES) {
+            protocolError("非法帧，opcode=" + opcode + "，长度=" + len);
+            return false;
+        }
+        if (inbound.remaining() < len) {
+            inbound.position(start);
+            return false;
+        }
+        byte[] payload = new byte[(int) len];
+        inbound.get(payload);
+
+        switch (opcode) {
+            case OPCODE_TEXT:
+            case OPCODE_CONTINUATION:
+                if (!fin || fragments != null) {
+                    if (fragments == null) {
+                        fragments = new ByteArrayOutputStream();
+                    }
+                    fragments.write(payload, 0, payload.length);
+                    if (!fin) {
+                        return true;
+                    }
+                    payload = fragments.toByteArray();
+                    fragments = null;
+                }
+                onText(payload);
+                break;
+            case OPCODE_PING:
+                writeFrame(OPCODE_PONG, payload);
+                break;
+            case OPCODE_CLOSE:
+                writeFrame(OPCODE_CLOSE, payload);
+                disconnect("服务端发送关闭帧");
+                return false;
+            default:
+                // 未协商二进制子协议，其他帧忽略
+                break;
+        }
+        return true;
+    }
+
+    private void onText(byte[] payload) {
+        JsonNode msg;
+        try {
+            msg = MAPPER.readTree(payload);
+        } catch (IOException e) {
+            stats.protocolErrors.increment();
+            return;
+        }
+        if (msg == null || !msg.isObject()) {
+            return;
+        }
+        int cmd = msg.path("cmd").asInt(Integer.MIN_VALUE);
+        String msgId = msg.path("msgId").asText(null);
+        switch (cmd) {
+            case -1:
+                Long sentAt = msgId == null ? null : pendingAcks.remove(msgId);
+                if (sentAt != null) {
+                    stats.acked.increment();
+                    stats.ackRtt.recordValue(LoadStats.micros(sentAt));
+                }
+                break;
+            case -2:
+                if (msgId != null && pendingAcks.remove(msgId) != null) {
+                    stats.rejected.increment();
+                }
+                break;
+            case 101:
+                stats.readReceipts.increment();
+                break;
+            case 102:
+                stats.offlineBatches.increment();
+                JsonNode messages = msg.path("messages");
+                stats.offlineDelivered.add(messages.size());
+                for (JsonNode item : messages) {
+                    maybeRead(item.path("msgId").asText(null));
+                }
+                if (msgId != null) {
+                    sendAck(msgId);
+                }
+                break;
+            case 103:
+                stats.presence.increment();
+                break;
+            case 2:
+            case 3:
+                if (userId.equals(msg.path("from").asText(null))) {
+                    // 群聊会回到自己，不计入送达
+                    break;
+                }
+                stats.delivered.increment();
+                long sendNanos = sendNanosOf(msg.path("message").asText(""));
+                if (sendNanos != 0) {
+                    stats.deliverLatency.recordValue(LoadStats.micros(sendNanos));
+                }
+                if (msgId != null) {
+                    sendAck(msgId);
+                    maybeRead(msgId);
+                }
+                break;
+            default:
+                if (msgId != null) {
+                    sendAck(msgId);
+                }
+        }
+    }
+
+    private void maybeRead(String msgId) {
+        if (msgId != null && ThreadLocalRandom.current().nextDouble() < config.getReadRatio()) {
+            pendingReads.add(msgId);
+        }
+    }
+
+    /**
+     * 发送一条聊天消息：按比例选择私聊（随机另一用户）或群聊
+     */
+    public void sendChat() {
+        if (state != State.OPEN) {
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean group = random.nextDouble() < config.getGroupRatio();
+        ObjectNode msg = MAPPER.createObjectNode();
+        String msgId = userId + "-" + (++seq);
+        long now = System.nanoTime();
+        if (group) {
+            msg.put("cmd", 3);
+            msg.put("type", "group");
+            msg.put("to", config.getGroupId());
+        } else {
+            int to = config.getUsers() == 1 ? index : random.nextInt(config.getUsers() - 1);
+            if (to >= index && config.getUsers() > 1) {
+                to++;
+            }
+            msg.put("cmd", 2);
+            msg.put("type", "private");
+            msg.put("to", config.userId(to));
+        }
+        msg.put("from", userId);
+        msg.put("message", body(now, config.getBodyChars()));
+        msg.put("timestamp", System.currentTimeMillis());
+        msg.put("msgId", msgId);
+        pendingAcks.put(msgId, now);
+        stats.sent.increment();
+        sendJson(msg);
+    }
+
+    private void sendAck(String msgId) {
+        ObjectNode ack = MAPPER.createObjectNode();
+        ack.put("cmd", 99);
+        ack.put("msgId", msgId);
+        sendJson(ack);
+    }
+
+    /**
+     * 周期任务：合并发送已读，清理超时未 ACK 的消息
+     */
+    void tick(long nowNanos) {
+        if (state != State.OPEN) {
+            return;
+        }
+        if (!pendingReads.isEmpty()) {
+            ObjectNode read = MAPPER.createObjectNode();
+            read.put("cmd", 100);
+            ArrayNode ids = read.putArray("msgIds");
+            for (String id : pendingReads) {
+                ids.add(id);
+            }
+            pendingReads = new ArrayList<>();
+            stats.readAcksSent.increment();
+            sendJson(read);
+        }
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getAckTimeoutMs());
+        Iterator<Long> it = pendingAcks.values().iterator();
+        while (it.hasNext()) {
+            if (nowNanos - it.next() > timeoutNanos) {
+                it.remove();
+                stats.ackTimeouts.increment();
+            }
+        }
+    }
+
+    /**
+     * 模拟网络闪断：直接断开，随后按退避策略重连
+     */
+    public void drop() {
+        if (state == State.OPEN) {
+            disconnect("模拟断线");
+        }
+    }
+
+    /**
+     * 压测结束时关闭，不再重连
+     */
+    public void close() {
+        if (state == State.OPEN) {
+            try {
+                writeFrame(OPCODE_CLOSE, new byte[]{0x03, (byte) 0xE8});
+            } catch (IOException ignored) {
+            }
+        }
+        disconnect(null);
+        state = State.CLOSED;
+    }
+
+    private void protocolError(String reason) {
+        stats.protocolErrors.increment();
+        disconnect(reason);
+    }
+
+    private void disconnect(String reason) {
+        if (state == State.DISCONNECTED || state == State.CLOSED) {
+            return;
+        }
+        boolean wasOpen = state == State.OPEN;
+        state = State.DISCONNECTED;
+        generation++;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        channel = null;
+        key = null;
+        inbound.clear();
+        outbound.clear();
+        fragments = null;
+        pendingReads.clear();
+        // 断开时仍未确认的消息按超时计
+        stats.ackTimeouts.add(pendingAcks.size());
+        pendingAcks.clear();
+        if (wasOpen) {
+            stats.online.decrementAndGet();
+        }
+        if (reason == null) {
+            // 压测结束主动关闭，不计断线、不重连
+            return;
+        }
+        if (wasOpen) {
+            stats.disconnects.increment();
+            disconnectedAtNanos = System.nanoTime();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("用户 [{}] 断开: {}", userId, reason);
+        }
+        if (reconnectCount >= config.getReconnectMax()) {
+            stats.reconnectGiveUps.increment();
+            log.warn("用户 [{}] 重连次数达到上限，停止重连，最后原因: {}", userId, reason);
+            return;
+        }
+        reconnectCount++;
+        stats.reconnectAttempts.increment();
+        loop.schedule(this::connect, config.reconnectDelayMs(reconnectCount));
+    }
+
+    private void sendJson(ObjectNode msg) {
+        try {
+            writeFrame(OPCODE_TEXT, MAPPER.writeValueAsBytes(msg));
+        } catch (IOException e) {
+            disconnect(e.getMessage());
+        }
+    }
+
+    /**
+     * 编码客户端帧（必须带掩码）并写出
+     */
+    private void writeFrame(int opcode, byte[] payload) throws IOException {
+        int len = payload.length;
+        int headerLen = len < 126 ? 2 : (len <= 0xFFFF ? 4 : 10);
+        ByteBuffer frame = ByteBuffer.allocate(headerLen + 4 + len);
+        frame.put((byte) (0x80 | opcode));
+        if (len < 126) {
+            frame.put((byte) (0x80 | len));
+        } else if (len <= 0xFFFF) {
+            frame.put((byte) (0x80 | 126));
+            frame.putShort((short) len);
+        } else {
+            frame.put((byte) (0x80 | 127));
+            frame.putLong(len);
+        }
+        int mask = ThreadLocalRandom.current().nextInt();
+        frame.putInt(mask);
+        for (int i = 0; i < len; i++) {
+            frame.put((byte) (payload[i] ^ (mask >>> (24 - 8 * (i & 3)))));
+        }
+        frame.flip();
+        write(frame);
+    }
+
+    private void write(ByteBuffer data) throws IOException {
+        if (channel == null) {
+            return;
+        }
+        stats.bytesOut.add(data.remaining());
+        outbound.add(data);
+        flush();
+    }
+
+    private void flush() throws IOException {
+        while (!outbound.isEmpty()) {
+            ByteBuffer head = outbound.peek();
+            channel.write(head);
+            if (head.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            outbound.poll();
+        }
+        if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    static String expectedAccept(String secKey) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((secKey + WS_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String headerValue(String response, String lowerName) {
+        for (String line : response.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().toLowerCase().equals(lowerName)) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static int indexOf(ByteBuffer buf, byte[] pattern) {
+        int limit = buf.limit() - pattern.length;
+        outer:
+        for (int i = buf.position(); i <= limit; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (buf.get(i + j) != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i - buf.position();
+        }
+        return -1;
+    }
+
+    /**
+     * 消息正文：发送时刻（纳秒）+ '|' + 填充到约 bodyChars 个字符
+     */
+    static String body(long sendNanos, int bodyChars) {
+        StringBuilder sb = new StringBuilder(Math.max(bodyChars, 24));
+        sb.append(sendNanos).append('|');
+        String filler = "压测消息 load test ";
+        while (sb.length() < bodyChars) {
+            sb.append(filler);
+        }
+        if (sb.length() > bodyChars && bodyChars > 0) {
+            sb.setLength(Math.max(bodyChars, sb.indexOf("|") + 1));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 从正文解析发送时刻，不是压测消息时返回 0
+     */
+    static long sendNanosOf(String body) {
+        int bar = body.indexOf('|');
+        if (bar <= 0 || bar > 20) {
+            return 0;
+        }
+        long value = 0;
+        int i = 0;
+        boolean negative = body.charAt(0) == '-';
+        if (negative) {
+            i = 1;
+        }
+        for (; i < bar; i++) {
+            char c = body.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+}
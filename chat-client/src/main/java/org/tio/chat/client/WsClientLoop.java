@@ -0,0 +1,132 @@
+package org.tio.chat.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一个 IO 线程：一个 Selector 驱动一组连接。
+ *
+ * 连接的所有状态只在所属 IO 线程上读写，其他线程（发送节奏、重连定时器）通过 execute 投递任务，
+ * 因此连接内部不需要加锁；几万个连接只需要与 CPU 核数相当的线程。
+ */
+public class WsClientLoop implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(WsClientLoop.class);
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final List<WsClientConnection> connections = new ArrayList<>();
+    private final ScheduledExecutorService timer;
+    /** 所有连接共用的读缓冲，读到的数据立即交给连接解析 */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private volatile boolean running = true;
+    private Thread thread;
+
+    public WsClientLoop(ScheduledExecutorService timer) throws IOException {
+        this.selector = Selector.open();
+        this.timer = timer;
+    }
+
+    public void start(String name) {
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 在 IO 线程上执行任务
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 延迟后在 IO 线程上执行任务
+     */
+    public void schedule(Runnable task, long delayMs) {
+        timer.schedule(() -> execute(task), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    void add(WsClientConnection connection) {
+        connections.add(connection);
+    }
+
+    /**
+     * 周期检查：合并发送已读回执、清理超时未确认的消息
+     */
+    void tick() {
+        execute(() -> {
+            long now = System.nanoTime();
+            for (WsClientConnection connection : connections) {
+                connection.tick(now);
+            }
+        });
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    ByteBuffer readBuffer() {
+        return readBuffer;
+    }
+
+    public void shutdown() {
+        execute(() -> {
+            for (WsClientConnection connection : connections) {
+                connection.close();
+            }
+            running = false;
+        });
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select(100);
+                wakeupPending.set(false);
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        log.error("IO 任务执行异常", e);
+                    }
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    WsClientConnection connection = (WsClientConnection) key.attachment();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    connection.onSelected(key);
+                }
+            } catch (Exception e) {
+                log.error("IO 线程异常", e);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.tio.chat.client;
+
+import junit.framework.TestCase;
+
+import java.util.Properties;
+
+/**
+ * 压测客户端的握手校验、延迟时间戳与参数解析测试
+ */
+public class WsClientConnectionTest extends TestCase {
+
+    public void testAcceptMatchesRfc6455Example() {
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", WsClientConnection.expectedAccept("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    public void testBodyCarriesSendTime() {
+        long now = System.nanoTime();
+        String body = WsClientConnection.body(now, 64);
+        assertEquals(64, body.length());
+        assertEquals(now, WsClientConnection.sendNanosOf(body));
+        assertEquals(now, WsClientConnection.sendNanosOf(WsClientConnection.body(now, 0)));
+
+        assertEquals(0, WsClientConnection.sendNanosOf("你好"));
+        assertEquals(0, WsClientConnection.sendNanosOf("12a|x"));
+        assertEquals(0, WsClientConnection.sendNanosOf("|x"));
+    }
+
+    public void testConfigOverridesAndBackoff() {
+        Properties p = new Properties();
+        p.setProperty("users", "20000");
+        p.setProperty("bind.addresses", "127.0.0.1, 127.0.0.2");
+        p.setProperty("io.threads", "");
+        LoadConfig config = LoadConfig.from(p);
+        assertEquals(20000, config.getUsers());
+        assertEquals(2, config.getBindAddresses().length);
+        assertEquals("127.0.0.2", config.getBindAddresses()[1]);
+        assertEquals("lg-7", config.userId(7));
+
+        assertEquals(5000, config.reconnectDelayMs(1));
+        assertEquals(10000, config.reconnectDelayMs(2));
+        assertEquals(20000, config.reconnectDelayMs(3));
+        assertEquals(30000, config.reconnectDelayMs(4));
+        assertEquals(30000, config.reconnectDelayMs(60));
+    }
+}
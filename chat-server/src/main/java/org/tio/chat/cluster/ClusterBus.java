@@ -0,0 +1,38 @@
+package org.tio.chat.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * ClusterBus
+ *
+ * 节点间消息总线：只负责把一帧字节送到指定节点，帧内容由 {@link ClusterNode} 编解码。
+ *
+ * 实现约定：
+ *  - send 不抛异常，目标节点不可达时返回 false，由调用方丢弃该帧；
+ *  - 发往同一节点的帧按 send 的调用顺序到达；
+ *  - 与某个节点（重新）建立联系时回调 onPeerUp，对方可能刚启动、没有本节点的路由，需要重发快照；
+ *    确认对方已断开时回调 onPeerDown，清除对方的路由。
+ *
+ * 现有实现：{@link LoopbackClusterBus}（同一 JVM 内多个节点，用于测试）、{@link TcpClusterBus}。
+ */
+public interface ClusterBus extends Closeable {
+
+    interface Listener {
+        void onFrame(String fromNode, byte[] frame);
+
+        void onPeerUp(String node);
+
+        void onPeerDown(String node);
+    }
+
+    String nodeId();
+
+    void start(Listener listener) throws IOException;
+
+    /**
+     * 发送一帧给 targetNode
+     * @return 是否已交给传输层
+     */
+    boolean send(String targetNode, byte[] frame);
+}
@@ -0,0 +1,102 @@
+package org.tio.chat.cluster;
+
+import org.tio.chat.codec.BinaryChatCodec;
+import org.tio.chat.model.ChatMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ClusterEnvelope
+ *
+ * 节点间传递的一条指令：投递给用户 / 群组的消息，或路由表变更。
+ * 一批指令编码为一帧：
+ * <pre>
+ *  1 字节版本 | 4 字节条数 | 条目...
+ *  条目：1 字节类型 | key（UTF） | [4 字节长度 + BinaryChatCodec 编码的消息]（仅 USER / GROUP）
+ * </pre>
+ */
+final class ClusterEnvelope {
+
+    static final byte USER = 1;
+    static final byte GROUP = 2;
+    static final byte ROUTE_ADD = 3;
+    static final byte ROUTE_REMOVE = 4;
+    /** 清除发送方节点的全部路由，其后的 ROUTE_ADD 组成完整快照 */
+    static final byte ROUTE_RESET = 5;
+
+    private static final byte VERSION = 1;
+
+    final byte type;
+    final String key;
+    final ChatMessage message;
+
+    ClusterEnvelope(byte type, String key, ChatMessage message) {
+        this.type = type;
+        this.key = key == null ? "" : key;
+        this.message = message;
+    }
+
+    static byte[] encode(List<ClusterEnvelope> batch) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + batch.size() * 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION);
+            out.writeInt(batch.size());
+            for (ClusterEnvelope envelope : batch) {
+                out.writeByte(envelope.type);
+                out.writeUTF(envelope.key);
+                if (envelope.type == USER || envelope.type == GROUP) {
+                    byte[] body = BinaryChatCodec.encode(envelope.message);
+                    out.writeInt(body.length);
+                    out.write(body);
+                }
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream 不会抛出 IOException
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 解码一帧，格式错误时抛出 IOException
+     */
+    static List<ClusterEnvelope> decode(byte[] frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("不支持的集群帧版本: " + version);
+        }
+        int count = in.readInt();
+        if (count < 0 || count > frame.length) {
+            throw new IOException("集群帧条数非法: " + count);
+        }
+        List<ClusterEnvelope> batch = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            String key = in.readUTF();
+            ChatMessage message = null;
+            if (type == USER || type == GROUP) {
+                int length = in.readInt();
+                if (length < 0 || length > in.available()) {
+                    throw new IOException("集群帧消息长度非法: " + length);
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                message = BinaryChatCodec.decode(body);
+                if (message == null) {
+                    throw new IOException("集群帧消息解码失败");
+                }
+            }
+            batch.add(new ClusterEnvelope(type, key, message));
+        }
+        return batch;
+    }
+}
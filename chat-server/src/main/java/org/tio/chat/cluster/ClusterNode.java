@@ -0,0 +1,310 @@
+package org.tio.chat.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tio.chat.model.ChatMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ClusterNode
+ *
+ * 集群中的一个聊天节点：维护本节点的在线用户并复制给其他节点，把发往其他节点用户 / 群组的消息批量转发过去，
+ * 收到的转发交给 {@link LocalDelivery} 只投递给本节点的连接（不会再次转发）。
+ *
+ * 路由：
+ *  - 用户在本节点上线 / 下线（第一个连接建立、最后一个连接断开）时向所有节点广播 ROUTE_ADD / ROUTE_REMOVE；
+ *  - 与某节点（重新）建立联系时发送 ROUTE_RESET + 全部本地用户作为快照，对方据此替换本节点的路由；
+ *  - 节点断开时清除它的路由。路由是最终一致的，变更期间转发可能落空，消息仍在存储中，客户端同步时补齐。
+ *
+ * 转发：每个对端节点一个有界队列和一个发送线程，线程每次取走队列中已有的全部条目（不超过 maxBatch）编码为一帧，
+ * 低负载时一帧一条，高负载时自动合批。队列满时丢弃并计数，不阻塞业务线程。
+ * 群消息发给所有已知节点，由各节点投递给本地成员。
+ */
+public class ClusterNode implements ClusterBus.Listener, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ClusterNode.class);
+
+    /**
+     * 本节点连接的投递方式
+     */
+    public interface LocalDelivery {
+        void toUser(String userId, ChatMessage message);
+
+        void toGroup(String groupId, ChatMessage message);
+    }
+
+    private final ClusterBus bus;
+    private final LocalDelivery delivery;
+    private final int queueCapacity;
+    private final int maxBatch;
+
+    private final RouteTable routes = new RouteTable();
+    /** 本节点的在线用户，与路由广播一起受 routeLock 保护，保证快照与增量的顺序 */
+    private final Set<String> localUsers = new HashSet<>();
+    private final Object routeLock = new Object();
+    private final Map<String, PeerLink> links = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+
+    public ClusterNode(ClusterBus bus, LocalDelivery delivery, int queueCapacity, int maxBatch) {
+        this.bus = bus;
+        this.delivery = delivery;
+        this.queueCapacity = queueCapacity;
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    public void start() throws IOException {
+        bus.start(this);
+    }
+
+    public String nodeId() {
+        return bus.nodeId();
+    }
+
+    /**
+     * 用户在本节点的第一个连接建立
+     */
+    public void userOnline(String userId) {
+        synchronized (routeLock) {
+            if (localUsers.add(userId)) {
+                broadcast(new ClusterEnvelope(ClusterEnvelope.ROUTE_ADD, userId, null));
+            }
+        }
+    }
+
+    /**
+     * 用户在本节点的最后一个连接断开
+     */
+    public void userOffline(String userId) {
+        synchronized (routeLock) {
+            if (localUsers.remove(userId)) {
+                broadcast(new ClusterEnvelope(ClusterEnvelope.ROUTE_REMOVE, userId, null));
+            }
+        }
+    }
+
+    /**
+     * 转发给用户在其他节点上的连接
+     * @return 转发到的节点数
+     */
+    public int forwardToUser(String userId, ChatMessage message) {
+        Set<String> nodes = routes.nodesOf(userId);
+        if (nodes.isEmpty()) {
+            return 0;
+        }
+        ClusterEnvelope envelope = new ClusterEnvelope(ClusterEnvelope.USER, userId, message);
+        for (String node : nodes) {
+            link(node).offer(envelope);
+        }
+        return nodes.size();
+    }
+
+    /**
+     * 转发给其他节点上的群组成员
+     */
+    public void forwardToGroup(String groupId, ChatMessage message) {
+        if (!links.isEmpty()) {
+            broadcast(new ClusterEnvelope(ClusterEnvelope.GROUP, groupId, message));
+        }
+    }
+
+    /**
+     * 用户是否在其他节点上有连接
+     */
+    public boolean isOnlineElsewhere(String userId) {
+        return !routes.nodesOf(userId).isEmpty();
+    }
+
+    @Override
+    public void onPeerUp(String node) {
+        // 快照与之后的增量在同一个队列里，对方按顺序应用
+        synchronized (routeLock) {
+            PeerLink link = link(node);
+            link.offer(new ClusterEnvelope(ClusterEnvelope.ROUTE_RESET, null, null));
+            for (String userId : localUsers) {
+                link.offer(new ClusterEnvelope(ClusterEnvelope.ROUTE_ADD, userId, null));
+            }
+        }
+    }
+
+    @Override
+    public void onPeerDown(String node) {
+        routes.clearNode(node);
+    }
+
+    @Override
+    public void onFrame(String fromNode, byte[] frame) {
+        List<ClusterEnvelope> batch;
+        try {
+            batch = ClusterEnvelope.decode(frame);
+        } catch (IOException e) {
+            log.warn("丢弃来自节点 {} 的非法帧，长度 {}: {}", fromNode, frame.length, e.getMessage());
+            return;
+        }
+        for (ClusterEnvelope envelope : batch) {
+            try {
+                apply(fromNode, envelope);
+            } catch (Exception e) {
+                log.error("处理来自节点 {} 的转发失败，类型 {}，key {}", fromNode, envelope.type, envelope.key, e);
+            }
+        }
+    }
+
+    private void apply(String fromNode, ClusterEnvelope envelope) {
+        switch (envelope.type) {
+            case ClusterEnvelope.USER:
+                received.increment();
+                delivery.toUser(envelope.key, envelope.message);
+                break;
+            case ClusterEnvelope.GROUP:
+                received.increment();
+                delivery.toGroup(envelope.key, envelope.message);
+                break;
+            case ClusterEnvelope.ROUTE_ADD:
+                routes.add(envelope.key, fromNode);
+                break;
+            case ClusterEnvelope.ROUTE_REMOVE:
+                routes.remove(envelope.key, fromNode);
+                break;
+            case ClusterEnvelope.ROUTE_RESET:
+                routes.clearNode(fromNode);
+                break;
+            default:
+                log.warn("未知的集群指令类型 {}，来自节点 {}", envelope.type, fromNode);
+        }
+    }
+
+    private void broadcast(ClusterEnvelope envelope) {
+        for (PeerLink link : links.values()) {
+            link.offer(envelope);
+        }
+    }
+
+    private PeerLink link(String node) {
+        PeerLink link = links.get(node);
+        if (link == null) {
+            link = links.computeIfAbsent(node, PeerLink::new);
+        }
+        return link;
+    }
+
+    /**
+     * 已转发到其他节点的消息数（按目标节点计）
+     */
+    public long getForwarded() {
+        return forwarded.sum();
+    }
+
+    /**
+     * 从其他节点收到并投递给本地连接的消息数
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * 因队列满或目标节点不可达而丢弃的条目数
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 已发送的帧数，与 getForwarded 之比即平均批大小
+     */
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    /**
+     * 其他节点上的在线用户数
+     */
+    public int remoteUserCount() {
+        return routes.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (PeerLink link : links.values()) {
+            link.thread.interrupt();
+        }
+        try {
+            bus.close();
+        } catch (IOException e) {
+            log.warn("关闭集群总线失败", e);
+        }
+    }
+
+    /**
+     * 发往一个节点的队列与发送线程
+     */
+    private final class PeerLink implements Runnable {
+        final String node;
+        final BlockingQueue<ClusterEnvelope> queue;
+        final Thread thread;
+
+        PeerLink(String node) {
+            this.node = node;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.thread = new Thread(this, "cluster-link-" + node);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void offer(ClusterEnvelope envelope) {
+            if (!queue.offer(envelope)) {
+                dropped.increment();
+            }
+        }
+
+        @Override
+        public void run() {
+            List<ClusterEnvelope> batch = new ArrayList<>(Math.min(maxBatch, 1024));
+            while (!closed) {
+                try {
+                    ClusterEnvelope first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatch - 1);
+                    int messages = 0;
+                    for (ClusterEnvelope envelope : batch) {
+                        if (envelope.message != null) {
+                            messages++;
+                        }
+                    }
+                    if (bus.send(node, ClusterEnvelope.encode(batch))) {
+                        frames.increment();
+                        forwarded.add(messages);
+                    } else {
+                        dropped.add(batch.size());
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    log.error("转发到节点 {} 失败，丢弃 {} 条", node, batch.size(), e);
+                    dropped.add(batch.size());
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+}
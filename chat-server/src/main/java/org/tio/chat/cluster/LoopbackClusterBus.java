@@ -0,0 +1,67 @@
+package org.tio.chat.cluster;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LoopbackClusterBus
+ *
+ * 同一 JVM 内的总线：同名 network 中的节点互相可见，send 直接在调用线程上回调目标节点。
+ * 用于在一个进程里启动多个节点做测试；帧仍经过完整的编解码，与 TCP 传输的行为一致。
+ */
+public class LoopbackClusterBus implements ClusterBus {
+
+    private static final Map<String, Map<String, LoopbackClusterBus>> networks = new ConcurrentHashMap<>();
+
+    private final String network;
+    private final String nodeId;
+    private volatile Listener listener;
+
+    public LoopbackClusterBus(String network, String nodeId) {
+        this.network = network;
+        this.nodeId = nodeId;
+    }
+
+    @Override
+    public String nodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+        Map<String, LoopbackClusterBus> members = networks.computeIfAbsent(network, k -> new ConcurrentHashMap<>());
+        if (members.putIfAbsent(nodeId, this) != null) {
+            throw new IllegalStateException("节点已存在: " + network + "/" + nodeId);
+        }
+        // 新节点与已有节点互相交换快照
+        for (LoopbackClusterBus peer : members.values()) {
+            if (peer != this) {
+                peer.listener.onPeerUp(nodeId);
+                listener.onPeerUp(peer.nodeId);
+            }
+        }
+    }
+
+    @Override
+    public boolean send(String targetNode, byte[] frame) {
+        Map<String, LoopbackClusterBus> members = networks.get(network);
+        LoopbackClusterBus target = members == null ? null : members.get(targetNode);
+        if (target == null || target == this) {
+            return false;
+        }
+        target.listener.onFrame(nodeId, frame);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        Map<String, LoopbackClusterBus> members = networks.get(network);
+        if (members == null || !members.remove(nodeId, this)) {
+            return;
+        }
+        for (LoopbackClusterBus peer : members.values()) {
+            peer.listener.onPeerDown(nodeId);
+        }
+    }
+}
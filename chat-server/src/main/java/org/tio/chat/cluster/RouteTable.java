@@ -0,0 +1,77 @@
+package org.tio.chat.cluster;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RouteTable
+ *
+ * 其他节点上的在线用户：userId -> 该用户有连接的节点集合。
+ * 每个节点只维护自己的本地用户并向其他节点广播增量，因此这里的条目都由对应节点的帧更新。
+ *
+ * 绝大多数用户只在一个节点上有连接，集合用不可变的单元素 / 小集合，变更时整体替换，
+ * 查询（每条转发一次）不加锁、不复制。
+ */
+final class RouteTable {
+
+    private final Map<String, Set<String>> routes = new ConcurrentHashMap<>();
+
+    void add(String userId, String node) {
+        routes.compute(userId, (k, nodes) -> {
+            if (nodes == null) {
+                return Collections.singleton(node);
+            }
+            if (nodes.contains(node)) {
+                return nodes;
+            }
+            Set<String> copy = new HashSet<>(nodes);
+            copy.add(node);
+            return Collections.unmodifiableSet(copy);
+        });
+    }
+
+    void remove(String userId, String node) {
+        routes.computeIfPresent(userId, (k, nodes) -> without(nodes, node));
+    }
+
+    /**
+     * 清除某个节点的全部路由（节点断开或发来快照时）
+     */
+    void clearNode(String node) {
+        Iterator<Map.Entry<String, Set<String>>> it = routes.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Set<String>> entry = it.next();
+            if (entry.getValue().contains(node)) {
+                routes.computeIfPresent(entry.getKey(), (k, nodes) -> without(nodes, node));
+            }
+        }
+    }
+
+    /**
+     * 用户有连接的其他节点，没有时返回空集合
+     */
+    Set<String> nodesOf(String userId) {
+        Set<String> nodes = routes.get(userId);
+        return nodes == null ? Collections.emptySet() : nodes;
+    }
+
+    int size() {
+        return routes.size();
+    }
+
+    private static Set<String> without(Set<String> nodes, String node) {
+        if (!nodes.contains(node)) {
+            return nodes;
+        }
+        if (nodes.size() == 1) {
+            return null;
+        }
+        Set<String> copy = new HashSet<>(nodes);
+        copy.remove(node);
+        return Collections.unmodifiableSet(copy);
+    }
+}
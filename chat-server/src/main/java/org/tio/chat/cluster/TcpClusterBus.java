@@ -0,0 +1,414 @@
+package org.tio.chat.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * TcpClusterBus
+ *
+ * 基于阻塞 TCP 的总线：每个节点监听一个端口，并主动连接每个已知节点，
+ * 每对节点之间有两条单向连接（本节点的出站 = 对方的入站），帧格式为 4 字节长度 + 内容。
+ *
+ *  - 出站连接：连接建立后完成握手，之后只写帧；写失败时关闭连接、丢弃该帧，由重连线程重新连接；
+ *  - 入站连接：每条连接一个读线程，读到的帧交给 Listener；
+ *  - 重连线程按 reconnectIntervalMs 周期连接未连通的节点，并向已连通的节点发送空帧作为心跳，
+ *    对方重启后旧连接在下一次心跳时写失败，重连成功后触发 onPeerUp 重发路由快照；
+ *    入站连接超过 10 个心跳周期（至少 30 秒）没有数据时关闭，半开连接的读线程不会一直挂着。
+ *
+ * 节点列表来自配置（{@link #addPeer}），不做自动发现。入站连接只接受已配置的节点：
+ *  - 对端地址必须是某个已配置节点的地址，否则直接关闭；
+ *  - 握手：入站方发 16 字节随机数，出站方回本节点 id 与 HMAC-SHA256(共享密钥, 随机数 + 本节点 id + 对方节点 id)，
+ *    节点 id 必须已配置且与对端地址一致、HMAC 正确，入站方回 1 字节确认后才开始收帧；密钥不在网络上传输，截获的握手不能重放；
+ *  - 同时存在的入站连接数（含握手中的）不超过 maxInbound，读线程数随之有界；
+ *  - 帧长度不超过 maxFrameBytes，超过的帧发送方直接丢弃，接收方视为非法并断开。
+ * 传输不加密，监听地址应为内网地址（默认 127.0.0.1）。
+ */
+public class TcpClusterBus implements ClusterBus {
+    private static final Logger log = LoggerFactory.getLogger(TcpClusterBus.class);
+
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+    private static final int NONCE_BYTES = 16;
+    private static final int MAC_BYTES = 32;
+    private static final int HANDSHAKE_OK = 1;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final byte[] HEARTBEAT = new byte[0];
+
+    private final String nodeId;
+    private final InetSocketAddress bindAddress;
+    private final long reconnectIntervalMs;
+    private final SecretKeySpec secret;
+    private final int maxFrameBytes;
+    private final int idleTimeoutMs;
+    private final Semaphore inboundPermits;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    /** 对方节点 id -> 当前入站连接，节点重连后旧连接的读线程退出时不应清除路由 */
+    private final Map<String, Socket> inbound = new ConcurrentHashMap<>();
+
+    private volatile Listener listener;
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+
+    private static final class Peer {
+        final String node;
+        final InetSocketAddress address;
+        Socket socket;
+        DataOutputStream out;
+
+        Peer(String node, InetSocketAddress address) {
+            this.node = node;
+            this.address = address;
+        }
+    }
+
+    /**
+     * @param secret        所有节点相同的共享密钥，用于握手认证，不能为空
+     * @param maxInbound    同时存在的入站连接数上限
+     * @param maxFrameBytes 单帧字节数上限
+     */
+    public TcpClusterBus(String nodeId, InetSocketAddress bindAddress, long reconnectIntervalMs,
+                         String secret, int maxInbound, int maxFrameBytes) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("集群共享密钥不能为空");
+        }
+        if (maxInbound <= 0 || maxFrameBytes <= 0) {
+            throw new IllegalArgumentException("maxInbound 与 maxFrameBytes 必须大于 0");
+        }
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress;
+        this.reconnectIntervalMs = reconnectIntervalMs;
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+        this.maxFrameBytes = maxFrameBytes;
+        this.idleTimeoutMs = (int) Math.min(Integer.MAX_VALUE, Math.max(30_000L, reconnectIntervalMs * 10));
+        this.inboundPermits = new Semaphore(maxInbound);
+    }
+
+    /**
+     * 解析形如 "node2@10.0.0.2:9400,node3@10.0.0.3:9400" 的节点列表，本节点自身会被忽略
+     */
+    public void addPeers(String spec) {
+        if (spec == null) {
+            return;
+        }
+        for (String item : spec.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            int at = item.indexOf('@');
+            int colon = item.lastIndexOf(':');
+            if (at <= 0 || colon <= at) {
+                throw new IllegalArgumentException("节点格式应为 nodeId@host:port: " + item);
+            }
+            addPeer(item.substring(0, at),
+                    new InetSocketAddress(item.substring(at + 1, colon), Integer.parseInt(item.substring(colon + 1))));
+        }
+    }
+
+    public void addPeer(String node, InetSocketAddress address) {
+        if (!nodeId.equals(node)) {
+            peers.putIfAbsent(node, new Peer(node, address));
+        }
+    }
+
+    @Override
+    public String nodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 实际监听的端口（配置为 0 时由系统分配）
+     */
+    public int localPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * 到 node 的出站连接是否已建立（未建立时发往该节点的帧被丢弃）
+     */
+    public boolean isConnected(String node) {
+        Peer peer = peers.get(node);
+        if (peer == null) {
+            return false;
+        }
+        synchronized (peer) {
+            return peer.out != null;
+        }
+    }
+
+    @Override
+    public synchronized void start(Listener listener) throws IOException {
+        this.listener = listener;
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(bindAddress);
+        running = true;
+        startDaemon(this::acceptLoop, "cluster-accept-" + nodeId);
+        startDaemon(this::connectLoop, "cluster-connect-" + nodeId);
+        log.info("集群节点 {} 监听 {}，已知节点 {} 个", nodeId, serverSocket.getLocalSocketAddress(), peers.size());
+    }
+
+    @Override
+    public boolean send(String targetNode, byte[] frame) {
+        Peer peer = peers.get(targetNode);
+        if (peer == null) {
+            return false;
+        }
+        if (frame.length > maxFrameBytes) {
+            log.warn("发往节点 {} 的帧 {} 字节超过上限 {}，丢弃", targetNode, frame.length, maxFrameBytes);
+            return false;
+        }
+        synchronized (peer) {
+            if (peer.out == null) {
+                return false;
+            }
+            try {
+                peer.out.writeInt(frame.length);
+                peer.out.write(frame);
+                peer.out.flush();
+                return true;
+            } catch (IOException e) {
+                log.warn("发送到节点 {} 失败，等待重连: {}", targetNode, e.toString());
+                disconnect(peer);
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ignored) {
+        }
+        for (Peer peer : peers.values()) {
+            synchronized (peer) {
+                disconnect(peer);
+            }
+        }
+        for (Socket socket : inbound.values()) {
+            closeQuietly(socket);
+        }
+    }
+
+    private void connectLoop() {
+        while (running) {
+            for (Peer peer : peers.values()) {
+                boolean connected;
+                synchronized (peer) {
+                    connected = peer.out != null;
+                }
+                if (connected) {
+                    send(peer.node, HEARTBEAT);
+                } else if (connect(peer)) {
+                    listener.onPeerUp(peer.node);
+                }
+            }
+            try {
+                Thread.sleep(reconnectIntervalMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private boolean connect(Peer peer) {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(peer.address, CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(CONNECT_TIMEOUT_MS);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            byte[] nonce = new byte[NONCE_BYTES];
+            in.readFully(nonce);
+            out.writeUTF(nodeId);
+            out.write(mac(nonce, nodeId, peer.node));
+            out.flush();
+            if (in.read() != HANDSHAKE_OK) {
+                throw new IOException("握手被拒绝");
+            }
+            socket.setSoTimeout(0);
+            synchronized (peer) {
+                peer.socket = socket;
+                peer.out = out;
+            }
+            log.info("已连接集群节点 {} ({})", peer.node, peer.address);
+            return true;
+        } catch (IOException e) {
+            closeQuietly(socket);
+            if (log.isDebugEnabled()) {
+                log.debug("连接集群节点 {} ({}) 失败: {}", peer.node, peer.address, e.toString());
+            }
+            return false;
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                if (!isPeerAddress(socket.getInetAddress())) {
+                    log.warn("拒绝未配置地址的集群连接: {}", socket.getRemoteSocketAddress());
+                    closeQuietly(socket);
+                    continue;
+                }
+                if (!inboundPermits.tryAcquire()) {
+                    log.warn("集群入站连接数已达上限，拒绝: {}", socket.getRemoteSocketAddress());
+                    closeQuietly(socket);
+                    continue;
+                }
+                socket.setTcpNoDelay(true);
+                startDaemon(() -> {
+                    try {
+                        readLoop(socket);
+                    } finally {
+                        inboundPermits.release();
+                    }
+                }, "cluster-read-" + nodeId);
+            } catch (IOException e) {
+                if (running) {
+                    log.error("集群节点 {} 接受连接失败", nodeId, e);
+                }
+            }
+        }
+    }
+
+    private void readLoop(Socket socket) {
+        String from = null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            String node = handshake(socket, in);
+            if (node == null) {
+                return;
+            }
+            from = node;
+            Socket previous = inbound.put(from, socket);
+            if (previous != null) {
+                closeQuietly(previous);
+            }
+            // 对方（重新）连上来，可能刚重启，需要本节点的路由快照
+            listener.onPeerUp(from);
+            while (running) {
+                int length = in.readInt();
+                if (length < 0 || length > maxFrameBytes) {
+                    throw new IOException("帧长度非法: " + length);
+                }
+                if (length == 0) {
+                    continue;
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                listener.onFrame(from, frame);
+            }
+        } catch (IOException e) {
+            if (running && log.isDebugEnabled()) {
+                log.debug("集群节点 {} 的入站连接断开: {}", from, e.toString());
+            }
+        } finally {
+            closeQuietly(socket);
+            if (from != null && inbound.remove(from, socket) && running) {
+                log.info("集群节点 {} 已断开", from);
+                listener.onPeerDown(from);
+            }
+        }
+    }
+
+    /**
+     * 入站握手：校验节点 id、对端地址与 HMAC，通过后回复确认并切换到空闲超时
+     * @return 对方节点 id，未通过时为 null
+     */
+    private String handshake(Socket socket, DataInputStream in) throws IOException {
+        socket.setSoTimeout(CONNECT_TIMEOUT_MS);
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.write(nonce);
+        out.flush();
+        String node = in.readUTF();
+        byte[] mac = new byte[MAC_BYTES];
+        in.readFully(mac);
+        Peer peer = peers.get(node);
+        if (peer == null || !socket.getInetAddress().equals(peer.address.getAddress())) {
+            log.warn("拒绝集群连接：节点 {} 未配置或地址不符 ({})", node, socket.getRemoteSocketAddress());
+            return null;
+        }
+        if (!MessageDigest.isEqual(mac, mac(nonce, node, nodeId))) {
+            log.warn("拒绝集群连接：节点 {} 握手认证失败 ({})", node, socket.getRemoteSocketAddress());
+            return null;
+        }
+        out.write(HANDSHAKE_OK);
+        out.flush();
+        socket.setSoTimeout(idleTimeoutMs);
+        return node;
+    }
+
+    private boolean isPeerAddress(InetAddress address) {
+        for (Peer peer : peers.values()) {
+            if (address.equals(peer.address.getAddress())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * HMAC-SHA256(共享密钥, 随机数 + 发起方节点 id + 接收方节点 id)；带上接收方 id，握手不能转给其他节点使用
+     */
+    private byte[] mac(byte[] nonce, String from, String to) throws IOException {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(secret);
+            mac.update(nonce);
+            mac.update(from.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(to.getBytes(StandardCharsets.UTF_8));
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("计算握手 HMAC 失败", e);
+        }
+    }
+
+    private static void disconnect(Peer peer) {
+        closeQuietly(peer.socket);
+        peer.socket = null;
+        peer.out = null;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void startDaemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,711 @@
+package org.tio.chat.codec;
+
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.util.SnowflakeIdGenerator;
+import org.tio.chat.util.WsFrameEncoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BinaryChatCodec
+ *
+ * ChatMessage 的二进制编码（子协议 chat.bin.v1），与 protobuf 线格式兼容：
+ * 每个字段为 tag(varint: 字段号 &lt;&lt; 3 | 线类型) + 值，线类型 0=varint，2=长度前缀。
+ * <pre>
+ *  1 cmd        sint32（zigzag varint）
+ *  2 type       string
+ *  3 from       string
+ *  4 to         string
+ *  5 nickname   string
+ *  6 message    string
+ *  7 timestamp  uint64
+ *  8 msgId      uint64，服务端生成的 11 位 base62 id（{@link SnowflakeIdGenerator#toCompactString}）
+ *  9 msgId      bytes(16)，小写规范格式的 UUID
+ * 10 msgId      string，其他格式
+ * 11 read       bool
+ * 12/13/14/21   msgIds 的单个元素，编码规则同 8/9/10/20，按出现顺序组成列表
+ * 15 messages   嵌套 ChatMessage（cmd=102 批量同步）
+ * 16 seq        uint64，会话内序号
+ * 17 conv       string，会话 id
+ * 18 cursors    单个游标条目，嵌套 {1 会话 id string, 2 seq uint64}（即 protobuf 的 map&lt;string, uint64&gt;）
+ * 19 limit      uint32，单页条数（cmd=108）
+ * 20 msgId      uint64，纯十进制数字 id（客户端生成）
+ * </pre>
+ * 未知字段按线类型跳过，便于向后兼容。
+ *
+ * 编码先计算精确长度再一次性写入，整帧只分配一个 ByteBuffer；
+ * 解码直接在帧字节上进行，除字段本身的 String 外不做拷贝，格式错误时返回 null 而不抛异常。
+ */
+public class BinaryChatCodec {
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_BYTES = 2;
+    private static final int WIRE_FIXED32 = 5;
+
+    private static final int F_CMD = 1;
+    private static final int F_TYPE = 2;
+    private static final int F_FROM = 3;
+    private static final int F_TO = 4;
+    private static final int F_NICKNAME = 5;
+    private static final int F_MESSAGE = 6;
+    private static final int F_TIMESTAMP = 7;
+    private static final int F_MSG_ID_NUM = 8;
+    private static final int F_MSG_ID_UUID = 9;
+    private static final int F_MSG_ID_STR = 10;
+    private static final int F_READ = 11;
+    private static final int F_MSG_IDS_NUM = 12;
+    private static final int F_MSG_IDS_UUID = 13;
+    private static final int F_MSG_IDS_STR = 14;
+    private static final int F_MESSAGES = 15;
+    private static final int F_SEQ = 16;
+    private static final int F_CONV = 17;
+    private static final int F_CURSORS = 18;
+    private static final int F_LIMIT = 19;
+    private static final int F_MSG_ID_DEC = 20;
+    private static final int F_MSG_IDS_DEC = 21;
+
+    /** 消息首字节：编码总是先写 cmd 字段（字段 1，varint） */
+    public static final int CMD_TAG = F_CMD << 3 | WIRE_VARINT;
+
+    /* 游标条目内的字段号 */
+    private static final int F_CURSOR_CONV = 1;
+    private static final int F_CURSOR_SEQ = 2;
+
+    /** 嵌套深度上限，防止恶意数据导致栈溢出 */
+    private static final int MAX_DEPTH = 4;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private BinaryChatCodec() {
+    }
+
+    /* ------------------- 编码 ------------------- */
+
+    /**
+     * 编码为完整的 WebSocket 二进制帧（帧头 + 负载在同一个 buffer 中）
+     */
+    public static ByteBuffer encodeFrame(ChatMessage msg) {
+        int size = sizeOf(msg);
+        ByteBuffer frame = ByteBuffer.allocate(WsFrameEncoder.headerLength(size) + size);
+        WsFrameEncoder.writeHeader(frame, WsFrameEncoder.OPCODE_BINARY, size);
+        write(msg, frame);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * 编码为不带帧头的字节数组
+     */
+    public static byte[] encode(ChatMessage msg) {
+        ByteBuffer buf = ByteBuffer.allocate(sizeOf(msg));
+        write(msg, buf);
+        return buf.array();
+    }
+
+    /**
+     * 编码后的字节数
+     */
+    public static int sizeOf(ChatMessage msg) {
+        int size = 0;
+        if (msg.getCmd() != null) {
+            size += 1 + varintSize(zigzag(msg.getCmd()));
+        }
+        size += stringSize(msg.getType());
+        size += stringSize(msg.getFrom());
+        size += stringSize(msg.getTo());
+        size += stringSize(msg.getNickname());
+        size += stringSize(msg.getMessage());
+        if (msg.getTimestamp() != null) {
+            size += 1 + varintSize(msg.getTimestamp());
+        }
+        size += msgIdSize(msg.getMsgId());
+        if (msg.getRead() != null) {
+            size += 2;
+        }
+        List<String> msgIds = msg.getMsgIds();
+        if (msgIds != null) {
+            for (String id : msgIds) {
+                size += msgIdSize(id);
+            }
+        }
+        List<ChatMessage> messages = msg.getMessages();
+        if (messages != null) {
+            for (ChatMessage nested : messages) {
+                int nestedSize = sizeOf(nested);
+                size += 1 + varintSize(nestedSize) + nestedSize;
+            }
+        }
+        // 16 起的字段号 tag 占 2 字节
+        if (msg.getSeq() != null) {
+            size += 2 + varintSize(msg.getSeq());
+        }
+        if (msg.getConv() != null) {
+            size += 1 + stringSize(msg.getConv());
+        }
+        Map<String, Long> cursors = msg.getCursors();
+        if (cursors != null) {
+            for (Map.Entry<String, Long> cursor : cursors.entrySet()) {
+                int entrySize = cursorSize(cursor);
+                size += 2 + varintSize(entrySize) + entrySize;
+            }
+        }
+        if (msg.getLimit() != null) {
+            size += 2 + varintSize(msg.getLimit() & 0xFFFFFFFFL);
+        }
+        return size;
+    }
+
+    private static int cursorSize(Map.Entry<String, Long> cursor) {
+        return stringSize(cursor.getKey()) + (cursor.getValue() == null ? 0 : 1 + varintSize(cursor.getValue()));
+    }
+
+    private static void write(ChatMessage msg, ByteBuffer out) {
+        if (msg.getCmd() != null) {
+            writeTag(out, F_CMD, WIRE_VARINT);
+            writeVarint(out, zigzag(msg.getCmd()));
+        }
+        writeString(out, F_TYPE, msg.getType());
+        writeString(out, F_FROM, msg.getFrom());
+        writeString(out, F_TO, msg.getTo());
+        writeString(out, F_NICKNAME, msg.getNickname());
+        writeString(out, F_MESSAGE, msg.getMessage());
+        if (msg.getTimestamp() != null) {
+            writeTag(out, F_TIMESTAMP, WIRE_VARINT);
+            writeVarint(out, msg.getTimestamp());
+        }
+        writeMsgId(out, F_MSG_ID_NUM, F_MSG_ID_DEC, msg.getMsgId());
+        if (msg.getRead() != null) {
+            writeTag(out, F_READ, WIRE_VARINT);
+            out.put((byte) (msg.getRead() ? 1 : 0));
+        }
+        List<String> msgIds = msg.getMsgIds();
+        if (msgIds != null) {
+            for (String id : msgIds) {
+                writeMsgId(out, F_MSG_IDS_NUM, F_MSG_IDS_DEC, id);
+            }
+        }
+        List<ChatMessage> messages = msg.getMessages();
+        if (messages != null) {
+            for (ChatMessage nested : messages) {
+                writeTag(out, F_MESSAGES, WIRE_BYTES);
+                writeVarint(out, sizeOf(nested));
+                write(nested, out);
+            }
+        }
+        if (msg.getSeq() != null) {
+            writeTag(out, F_SEQ, WIRE_VARINT);
+            writeVarint(out, msg.getSeq());
+        }
+        writeString(out, F_CONV, msg.getConv());
+        Map<String, Long> cursors = msg.getCursors();
+        if (cursors != null) {
+            for (Map.Entry<String, Long> cursor : cursors.entrySet()) {
+                writeTag(out, F_CURSORS, WIRE_BYTES);
+                writeVarint(out, cursorSize(cursor));
+                writeString(out, F_CURSOR_CONV, cursor.getKey());
+                if (cursor.getValue() != null) {
+                    writeTag(out, F_CURSOR_SEQ, WIRE_VARINT);
+                    writeVarint(out, cursor.getValue());
+                }
+            }
+        }
+        if (msg.getLimit() != null) {
+            writeTag(out, F_LIMIT, WIRE_VARINT);
+            writeVarint(out, msg.getLimit() & 0xFFFFFFFFL);
+        }
+    }
+
+    /*
+     * msgId：numField 为服务端 base62 id 的字段号，UUID 与字符串分别为 numField+1、numField+2，
+     * decField 为十进制数字 id 的字段号（16 起，tag 占 2 字节）
+     */
+
+    private static int msgIdSize(String id) {
+        if (id == null) {
+            return 0;
+        }
+        long compact = SnowflakeIdGenerator.parseCompact(id);
+        if (compact >= 0) {
+            return 1 + varintSize(compact);
+        }
+        long num = parseId(id);
+        if (num >= 0) {
+            return 2 + varintSize(num);
+        }
+        if (isUuid(id)) {
+            return 1 + 1 + 16;
+        }
+        return stringSize(id);
+    }
+
+    private static void writeMsgId(ByteBuffer out, int numField, int decField, String id) {
+        if (id == null) {
+            return;
+        }
+        long compact = SnowflakeIdGenerator.parseCompact(id);
+        long num;
+        if (compact >= 0) {
+            writeTag(out, numField, WIRE_VARINT);
+            writeVarint(out, compact);
+        } else if ((num = parseId(id)) >= 0) {
+            writeTag(out, decField, WIRE_VARINT);
+            writeVarint(out, num);
+        } else if (isUuid(id)) {
+            writeTag(out, numField + 1, WIRE_BYTES);
+            out.put((byte) 16);
+            for (int i = 0; i < 36; i += 2) {
+                if (id.charAt(i) == '-') {
+                    i--;
+                    continue;
+                }
+                out.put((byte) ((hexValue(id.charAt(i)) << 4) | hexValue(id.charAt(i + 1))));
+            }
+        } else {
+            writeString(out, numField + 2, id);
+        }
+    }
+
+    /**
+     * 规范的十进制非负整数（无前导 0、不溢出）返回其值，否则返回 -1
+     */
+    static long parseId(String id) {
+        int len = id.length();
+        if (len == 0 || len > 19 || (len > 1 && id.charAt(0) == '0')) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < len; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+            if (value < 0) {
+                return -1;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 小写规范格式的 UUID（8-4-4-4-12），只有这种格式能无损还原
+     */
+    static boolean isUuid(String id) {
+        if (id.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = id.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (hexValue(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    private static int stringSize(String s) {
+        if (s == null) {
+            return 0;
+        }
+        int len = utf8Length(s);
+        return 1 + varintSize(len) + len;
+    }
+
+    private static void writeString(ByteBuffer out, int field, String s) {
+        if (s == null) {
+            return;
+        }
+        writeTag(out, field, WIRE_BYTES);
+        writeVarint(out, utf8Length(s));
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte) (0xF0 | (cp >> 18)));
+                out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // 孤立代理项按 '?' 输出，与 String.getBytes(UTF_8) 一致
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static int utf8Length(String s) {
+        int n = s.length();
+        int len = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    len += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    // 代理对 2 个 char → 4 字节
+                    len += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    len += 2;
+                }
+            }
+        }
+        return len;
+    }
+
+    private static void writeTag(ByteBuffer out, int field, int wireType) {
+        writeVarint(out, (field << 3) | wireType);
+    }
+
+    private static void writeVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static long zigzag(int n) {
+        return ((n << 1) ^ (n >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static int unzigzag(long n) {
+        int v = (int) n;
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /* ------------------- 解码 ------------------- */
+
+    /**
+     * 从帧负载解码，格式错误时返回 null
+     */
+    public static ChatMessage decode(byte[] data) {
+        return data == null ? null : decode(data, 0, data.length);
+    }
+
+    public static ChatMessage decode(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            return null;
+        }
+        return new Reader(data, offset, offset + length).readMessage(0);
+    }
+
+    /**
+     * 单次解码的游标，直接读原始字节
+     */
+    private static final class Reader {
+        /** readMsgId 的十进制数字 id */
+        private static final int KIND_DECIMAL = 3;
+
+        private final byte[] buf;
+        private int pos;
+        private int limit;
+        private boolean malformed;
+
+        Reader(byte[] buf, int pos, int limit) {
+            this.buf = buf;
+            this.pos = pos;
+            this.limit = limit;
+        }
+
+        ChatMessage readMessage(int depth) {
+            ChatMessage msg = new ChatMessage();
+            while (pos < limit) {
+                long tag = readVarint();
+                if (malformed) {
+                    return null;
+                }
+                int field = (int) (tag >>> 3);
+                int wireType = (int) (tag & 7);
+                if (field == 0) {
+                    // 字段号 0 不合法（protobuf 同样拒绝）；以 deflate stored 块头开头的压缩负载也因此尽早解析失败
+                    return null;
+                }
+                switch (field) {
+                    case F_CMD:
+                        if (wireType != WIRE_VARINT) {
+                            return null;
+                        }
+                        msg.setCmd(unzigzag(readVarint()));
+                        break;
+                    case F_TYPE:
+                        msg.setType(readString(wireType));
+                        break;
+                    case F_FROM:
+                        msg.setFrom(readString(wireType));
+                        break;
+                    case F_TO:
+                        msg.setTo(readString(wireType));
+                        break;
+                    case F_NICKNAME:
+                        msg.setNickname(readString(wireType));
+                        break;
+                    case F_MESSAGE:
+                        msg.setMessage(readString(wireType));
+                        break;
+                    case F_TIMESTAMP:
+                        if (wireType != WIRE_VARINT) {
+                            return null;
+                        }
+                        msg.setTimestamp(readVarint());
+                        break;
+                    case F_MSG_ID_NUM:
+                    case F_MSG_ID_UUID:
+                    case F_MSG_ID_STR:
+                        msg.setMsgId(readMsgId(field - F_MSG_ID_NUM, wireType));
+                        break;
+                    case F_MSG_ID_DEC:
+                        msg.setMsgId(readMsgId(KIND_DECIMAL, wireType));
+                        break;
+                    case F_READ:
+                        if (wireType != WIRE_VARINT) {
+                            return null;
+                        }
+                        msg.setRead(readVarint() != 0);
+                        break;
+                    case F_MSG_IDS_NUM:
+                    case F_MSG_IDS_UUID:
+                    case F_MSG_IDS_STR:
+                    case F_MSG_IDS_DEC:
+                        String id = readMsgId(field == F_MSG_IDS_DEC ? KIND_DECIMAL : field - F_MSG_IDS_NUM, wireType);
+                        if (id != null) {
+                            if (msg.getMsgIds() == null) {
+                                msg.setMsgIds(new ArrayList<>());
+                            }
+                            msg.getMsgIds().add(id);
+                        }
+                        break;
+                    case F_MESSAGES:
+                        ChatMessage nested = readNested(wireType, depth);
+                        if (nested != null) {
+                            if (msg.getMessages() == null) {
+                                msg.setMessages(new ArrayList<>());
+                            }
+                            msg.getMessages().add(nested);
+                        }
+                        break;
+                    case F_SEQ:
+                        if (wireType != WIRE_VARINT) {
+                            return null;
+                        }
+                        msg.setSeq(readVarint());
+                        break;
+                    case F_CONV:
+                        msg.setConv(readString(wireType));
+                        break;
+                    case F_CURSORS:
+                        readCursor(wireType, msg);
+                        break;
+                    case F_LIMIT:
+                        if (wireType != WIRE_VARINT) {
+                            return null;
+                        }
+                        msg.setLimit((int) readVarint());
+                        break;
+                    default:
+                        skip(wireType);
+                }
+                if (malformed) {
+                    return null;
+                }
+            }
+            return msg;
+        }
+
+        private ChatMessage readNested(int wireType, int depth) {
+            int len = readLength(wireType);
+            if (malformed || depth + 1 > MAX_DEPTH) {
+                malformed = true;
+                return null;
+            }
+            int outerLimit = limit;
+            limit = pos + len;
+            ChatMessage nested = readMessage(depth + 1);
+            if (nested == null) {
+                malformed = true;
+                return null;
+            }
+            pos = limit;
+            limit = outerLimit;
+            return nested;
+        }
+
+        /**
+         * 读取一个游标条目放入 msg.cursors，缺少会话 id 或 seq 的条目忽略
+         */
+        private void readCursor(int wireType, ChatMessage msg) {
+            int len = readLength(wireType);
+            if (malformed) {
+                return;
+            }
+            int outerLimit = limit;
+            limit = pos + len;
+            String conv = null;
+            Long seq = null;
+            while (pos < limit && !malformed) {
+                long tag = readVarint();
+                int field = (int) (tag >>> 3);
+                int type = (int) (tag & 7);
+                if (field == F_CURSOR_CONV) {
+                    conv = readString(type);
+                } else if (field == F_CURSOR_SEQ && type == WIRE_VARINT) {
+                    seq = readVarint();
+                } else {
+                    skip(type);
+                }
+            }
+            pos = limit;
+            limit = outerLimit;
+            if (!malformed && conv != null && seq != null) {
+                if (msg.getCursors() == null) {
+                    msg.setCursors(new LinkedHashMap<>());
+                }
+                msg.getCursors().put(conv, seq);
+            }
+        }
+
+        /**
+         * kind: 0=服务端 base62 id，1=UUID，2=字符串，{@link #KIND_DECIMAL}=十进制数字
+         */
+        private String readMsgId(int kind, int wireType) {
+            if (kind == 0 || kind == KIND_DECIMAL) {
+                if (wireType != WIRE_VARINT) {
+                    malformed = true;
+                    return null;
+                }
+                long value = readVarint();
+                if (malformed || value < 0) {
+                    malformed = true;
+                    return null;
+                }
+                return kind == 0 ? SnowflakeIdGenerator.toCompactString(value) : Long.toString(value);
+            }
+            if (kind == 2) {
+                return readString(wireType);
+            }
+            int len = readLength(wireType);
+            if (malformed || len != 16) {
+                malformed = true;
+                return null;
+            }
+            char[] chars = new char[36];
+            int c = 0;
+            for (int i = 0; i < 16; i++) {
+                if (i == 4 || i == 6 || i == 8 || i == 10) {
+                    chars[c++] = '-';
+                }
+                int b = buf[pos++] & 0xFF;
+                chars[c++] = HEX[b >>> 4];
+                chars[c++] = HEX[b & 0x0F];
+            }
+            return new String(chars);
+        }
+
+        private String readString(int wireType) {
+            int len = readLength(wireType);
+            if (malformed) {
+                return null;
+            }
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        private int readLength(int wireType) {
+            if (wireType != WIRE_BYTES) {
+                malformed = true;
+                return 0;
+            }
+            long len = readVarint();
+            if (malformed || len > limit - pos) {
+                malformed = true;
+                return 0;
+            }
+            return (int) len;
+        }
+
+        private long readVarint() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= limit) {
+                    break;
+                }
+                byte b = buf[pos++];
+                result |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return result;
+                }
+            }
+            malformed = true;
+            return 0;
+        }
+
+        private void skip(int wireType) {
+            switch (wireType) {
+                case WIRE_VARINT:
+                    readVarint();
+                    break;
+                case WIRE_FIXED64:
+                    advance(8);
+                    break;
+                case WIRE_BYTES:
+                    int len = readLength(wireType);
+                    if (!malformed) {
+                        pos += len;
+                    }
+                    break;
+                case WIRE_FIXED32:
+                    advance(4);
+                    break;
+                default:
+                    malformed = true;
+            }
+        }
+
+        private void advance(int n) {
+            if (limit - pos < n) {
+                malformed = true;
+            } else {
+                pos += n;
+            }
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package org.tio.chat.codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.util.JsonUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JsonChatCodec
+ *
+ * ChatMessage 的 JSON 编解码（子协议 chat.json.v1 及旧客户端）。
+ *
+ * 解码走流式 JsonParser，不做反射绑定：
+ *  - 客户端一般把 cmd 放在第一个字段，读到 cmd 后只绑定该命令需要的字段，其余字段直接跳过
+ *    （例如 cmd=99 只取 msgId），cmd 不在首位时退化为绑定全部已知字段；
+ *  - 空串、非对象、字段类型不符等常见异常输入只做 token 判断，不抛异常；
+ *    真正的语法错误由 Jackson 以异常报告，在这里吞掉并返回 null，不拼接、不拷贝原始负载。
+ *
+ * 编码与整体绑定（存储回放等）使用预先构建的 ObjectWriter / ObjectReader。
+ */
+public class JsonChatCodec {
+
+    private static final ObjectReader READER = JsonUtil.getObjectMapper().readerFor(ChatMessage.class);
+    private static final ObjectReader LIST_READER =
+            JsonUtil.getObjectMapper().readerFor(new TypeReference<List<ChatMessage>>() {});
+    private static final ObjectWriter WRITER = JsonUtil.getObjectMapper().writerFor(ChatMessage.class);
+    private static final JsonFactory FACTORY = JsonUtil.getObjectMapper().getFactory();
+
+    /* 字段位 */
+    static final int F_CMD = 1;
+    static final int F_TYPE = 1 << 1;
+    static final int F_FROM = 1 << 2;
+    static final int F_TO = 1 << 3;
+    static final int F_NICKNAME = 1 << 4;
+    static final int F_MESSAGE = 1 << 5;
+    static final int F_TIMESTAMP = 1 << 6;
+    static final int F_MSG_ID = 1 << 7;
+    static final int F_READ = 1 << 8;
+    static final int F_MSG_IDS = 1 << 9;
+    static final int F_MESSAGES = 1 << 10;
+    static final int F_SEQ = 1 << 11;
+    static final int F_CONV = 1 << 12;
+    static final int F_CURSORS = 1 << 13;
+    static final int F_LIMIT = 1 << 14;
+    static final int F_ALL = (1 << 15) - 1;
+
+    private JsonChatCodec() {
+    }
+
+    /**
+     * 各命令需要绑定的字段，msgId 所有命令都要（服务端 ACK 回带）
+     */
+    static int fieldsFor(int cmd) {
+        switch (cmd) {
+            case 1:
+                return F_CMD | F_MSG_ID | F_FROM | F_CURSORS;
+            case 99:
+                return F_CMD | F_MSG_ID;
+            case 100:
+                return F_CMD | F_MSG_ID | F_MSG_IDS | F_TO | F_TIMESTAMP;
+            case 104:
+                return F_CMD | F_MSG_ID | F_CURSORS;
+            case 108:
+                return F_CMD | F_MSG_ID | F_CONV | F_SEQ | F_TIMESTAMP | F_LIMIT;
+            case 109:
+                return F_CMD | F_MSG_ID | F_MESSAGE | F_CONV | F_SEQ | F_LIMIT;
+            default:
+                return F_ALL;
+        }
+    }
+
+    /* ------------------- 编码 ------------------- */
+
+    public static byte[] encode(ChatMessage msg) {
+        try {
+            return WRITER.writeValueAsBytes(msg);
+        } catch (IOException e) {
+            throw new IllegalStateException("Json序列化失败", e);
+        }
+    }
+
+    /**
+     * 整体绑定全部字段（用于存储回放等可信数据），失败时返回 null
+     */
+    public static ChatMessage decodeFull(byte[] json) {
+        try {
+            return READER.readValue(json);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /* ------------------- 解码 ------------------- */
+
+    /**
+     * 流式解码客户端文本帧，格式错误时返回 null
+     */
+    public static ChatMessage decode(String text) {
+        if (text == null || !looksLikeObject(text)) {
+            return null;
+        }
+        if (text.charAt(0) == '\uFEFF') {
+            // 从字符串解析时 Jackson 不跳过 BOM
+            text = text.substring(1);
+        }
+        try (JsonParser p = FACTORY.createParser(text)) {
+            return readMessage(p);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean looksLikeObject(String text) {
+        int n = text.length();
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(i);
+            if (c == '{') {
+                return true;
+            }
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n' && c != '\uFEFF') {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static ChatMessage readMessage(JsonParser p) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        ChatMessage msg = new ChatMessage();
+        int wanted = F_ALL;
+        boolean first = true;
+        JsonToken token;
+        while ((token = p.nextToken()) == JsonToken.FIELD_NAME) {
+            int field = fieldOf(p.getCurrentName());
+            JsonToken value = p.nextToken();
+            if (field == F_CMD) {
+                Integer cmd = readInt(p, value);
+                msg.setCmd(cmd);
+                if (first && cmd != null) {
+                    wanted = fieldsFor(cmd);
+                }
+            } else if ((wanted & field) == 0) {
+                p.skipChildren();
+            } else {
+                bind(p, value, field, msg);
+            }
+            first = false;
+        }
+        return token == JsonToken.END_OBJECT ? msg : null;
+    }
+
+    private static void bind(JsonParser p, JsonToken value, int field, ChatMessage msg) throws IOException {
+        switch (field) {
+            case F_TYPE:
+                msg.setType(readString(p, value));
+                break;
+            case F_FROM:
+                msg.setFrom(readString(p, value));
+                break;
+            case F_TO:
+                msg.setTo(readString(p, value));
+                break;
+            case F_NICKNAME:
+                msg.setNickname(readString(p, value));
+                break;
+            case F_MESSAGE:
+                msg.setMessage(readString(p, value));
+                break;
+            case F_TIMESTAMP:
+                msg.setTimestamp(readLong(p, value));
+                break;
+            case F_MSG_ID:
+                msg.setMsgId(readString(p, value));
+                break;
+            case F_READ:
+                msg.setRead(value == JsonToken.VALUE_TRUE ? Boolean.TRUE
+                        : value == JsonToken.VALUE_FALSE ? Boolean.FALSE : null);
+                p.skipChildren();
+                break;
+            case F_MSG_IDS:
+                msg.setMsgIds(readStringList(p, value));
+                break;
+            case F_MESSAGES:
+                if (value == JsonToken.START_ARRAY) {
+                    msg.setMessages(LIST_READER.readValue(p));
+                } else {
+                    p.skipChildren();
+                }
+                break;
+            case F_SEQ:
+                msg.setSeq(readLong(p, value));
+                break;
+            case F_CONV:
+                msg.setConv(readString(p, value));
+                break;
+            case F_CURSORS:
+                msg.setCursors(readCursors(p, value));
+                break;
+            case F_LIMIT:
+                msg.setLimit(readInt(p, value));
+                break;
+            default:
+                p.skipChildren();
+        }
+    }
+
+    /**
+     * 字段名 → 字段位，未知字段返回 0；message 兼容 text / msg / sysMsg 别名
+     */
+    static int fieldOf(String name) {
+        switch (name) {
+            case "cmd":
+                return F_CMD;
+            case "type":
+                return F_TYPE;
+            case "from":
+                return F_FROM;
+            case "to":
+                return F_TO;
+            case "nickname":
+                return F_NICKNAME;
+            case "message":
+            case "text":
+            case "msg":
+            case "sysMsg":
+                return F_MESSAGE;
+            case "timestamp":
+                return F_TIMESTAMP;
+            case "msgId":
+                return F_MSG_ID;
+            case "read":
+                return F_READ;
+            case "msgIds":
+                return F_MSG_IDS;
+            case "messages":
+                return F_MESSAGES;
+            case "seq":
+                return F_SEQ;
+            case "conv":
+                return F_CONV;
+            case "cursors":
+                return F_CURSORS;
+            case "limit":
+                return F_LIMIT;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 标量按字符串读取（数字、布尔也转成字符串，与 databind 的默认宽松行为一致），对象/数组跳过返回 null
+     */
+    private static String readString(JsonParser p, JsonToken value) throws IOException {
+        if (value != null && value.isScalarValue() && value != JsonToken.VALUE_NULL) {
+            return p.getText();
+        }
+        p.skipChildren();
+        return null;
+    }
+
+    private static Integer readInt(JsonParser p, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT) {
+            long v = p.getLongValue();
+            return v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE ? (int) v : null;
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            Long v = parseLong(p.getText());
+            return v != null && v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE ? v.intValue() : null;
+        }
+        p.skipChildren();
+        return null;
+    }
+
+    private static Long readLong(JsonParser p, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT && p.getNumberType() != JsonParser.NumberType.BIG_INTEGER) {
+            return p.getLongValue();
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            return parseLong(p.getText());
+        }
+        p.skipChildren();
+        return null;
+    }
+
+    private static List<String> readStringList(JsonParser p, JsonToken value) throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            p.skipChildren();
+            return null;
+        }
+        List<String> list = new ArrayList<>();
+        JsonToken token;
+        while ((token = p.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            String s = readString(p, token);
+            if (s != null) {
+                list.add(s);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 会话游标 {"会话id": seq, ...}，非对象返回 null，值不是整数的条目忽略
+     */
+    private static Map<String, Long> readCursors(JsonParser p, JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return null;
+        }
+        Map<String, Long> cursors = new LinkedHashMap<>();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String conv = p.getCurrentName();
+            Long seq = readLong(p, p.nextToken());
+            if (seq != null) {
+                cursors.put(conv, seq);
+            }
+        }
+        return cursors;
+    }
+
+    /**
+     * 十进制整数解析，格式不对返回 null（不抛 NumberFormatException）
+     */
+    private static Long parseLong(String s) {
+        int n = s.length();
+        if (n == 0 || n > 20) {
+            return null;
+        }
+        int i = 0;
+        boolean negative = false;
+        if (s.charAt(0) == '-') {
+            if (n == 1) {
+                return null;
+            }
+            negative = true;
+            i = 1;
+        }
+        long value = 0;
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            int digit = c - '0';
+            // 按负数累加，Long.MIN_VALUE 也能表示；越界时返回 null
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                return null;
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                return null;
+            }
+            value = -value;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,361 @@
+package org.tio.chat.codec;
+
+import org.tio.chat.metrics.ChatMetrics;
+import org.tio.chat.util.DeflaterPool;
+import org.tio.chat.util.WsFrameEncoder;
+import org.tio.core.ChannelContext;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * PerMessageDeflate
+ *
+ * WebSocket 压缩扩展 permessage-deflate（RFC 7692），握手时通过 Sec-WebSocket-Extensions 协商。
+ *  - 服务端 → 客户端：负载不小于 minBytes 的消息压缩后置 RSV1 发送，更小的原样发送（扩展允许逐条选择）；
+ *  - 上下文接管（contextTakeover）：每个连接独占一个 Deflater，保留滑动窗口，重复的 JSON 键在后续消息中几乎不占字节，
+ *    代价是每个连接约 256KB 本地内存，且压缩必须按交给 t-io 的顺序进行（见 {@link Session}）；
+ *  - 不接管（默认，或客户端要求 server_no_context_takeover）：压缩结果只取决于负载，Deflater 从池中借用，
+ *    群发帧只压缩一次、各连接共享（见 {@link SharedFrame}）；
+ *  - 客户端 → 服务端：回复中总是带 client_no_context_takeover，每条消息独立解压，Inflater 从池中借用。
+ *    是否压缩只看消息首帧的 RSV1：t-io 的解码器不向上层暴露 RSV1，由 {@link PerMessageDeflateDecoder}
+ *    在解码前读取帧头，经 {@link #inbound} 在交给 IWsMsgHandler 之前解压，上层收到的总是未压缩的负载。
+ *
+ * 协商结果记录在 ChannelContext 属性中，连接关闭时调用 {@link #release} 释放独占的 Deflater。
+ */
+public final class PerMessageDeflate {
+
+    public static final String EXTENSION = "permessage-deflate";
+
+    private static final String ATTR = "chat.deflate";
+    /** SYNC_FLUSH 结尾的空 stored 块，发送时去掉、解压时补上 */
+    private static final byte[] TAIL = {0, 0, (byte) 0xFF, (byte) 0xFF};
+
+    private static volatile boolean enabled;
+    private static volatile int minBytes = 256;
+    private static volatile boolean contextTakeover;
+    private static volatile int maxInflatedBytes = 1 << 20;
+    private static volatile DeflaterPool pool = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, 16);
+
+    private PerMessageDeflate() {
+    }
+
+    /**
+     * 启用压缩扩展
+     * @param level            压缩级别（1-9，-1 为默认 6）
+     * @param minBytes         负载小于该值的消息不压缩
+     * @param contextTakeover  是否在同一连接的消息之间保留压缩上下文
+     * @param poolSize         Deflater / Inflater 池容量
+     * @param maxInflatedBytes 客户端消息解压后的上限，超过时丢弃该消息
+     */
+    public static synchronized void configure(int level, int minBytes, boolean contextTakeover, int poolSize,
+                                              int maxInflatedBytes) {
+        PerMessageDeflate.pool = new DeflaterPool(level, poolSize);
+        PerMessageDeflate.minBytes = Math.max(0, minBytes);
+        PerMessageDeflate.contextTakeover = contextTakeover;
+        PerMessageDeflate.maxInflatedBytes = maxInflatedBytes;
+        PerMessageDeflate.enabled = true;
+    }
+
+    public static synchronized void disable() {
+        enabled = false;
+    }
+
+    /**
+     * 一个连接的压缩状态。上下文接管时压缩与交给 t-io 须在同一把锁（该对象）内完成，
+     * 客户端按收到的顺序解压，压缩顺序与发送顺序不一致会导致解压失败
+     */
+    public static final class Session {
+        private final boolean stateless;
+        private Deflater deflater;
+        private boolean closed;
+        /** 正在接收的消息首帧置了 RSV1；只在该连接的解码线程访问 */
+        private boolean inflating;
+
+        Session(boolean stateless) {
+            this.stateless = stateless;
+        }
+
+        /**
+         * 不接管上下文：压缩结果只取决于负载，可以不加锁、可以共享
+         */
+        public boolean isStateless() {
+            return stateless;
+        }
+    }
+
+    /**
+     * 群发帧的共享压缩结果，只用于不接管上下文的连接；每种编码的帧各一个
+     */
+    public static final class SharedFrame {
+        private volatile ByteBuffer frame;
+    }
+
+    /**
+     * 从客户端的扩展列表（逗号分隔，按偏好排序）中接受第一个可满足的 permessage-deflate 提议，记录到连接上
+     * @return 回复的 Sec-WebSocket-Extensions，未启用或都不能接受时返回 null
+     */
+    public static String negotiate(ChannelContext channelContext, String offered) {
+        Session session = negotiate(offered);
+        if (session == null) {
+            return null;
+        }
+        channelContext.setAttribute(ATTR, session);
+        return session.stateless
+                ? EXTENSION + "; client_no_context_takeover; server_no_context_takeover"
+                : EXTENSION + "; client_no_context_takeover";
+    }
+
+    static Session negotiate(String offered) {
+        if (!enabled || offered == null) {
+            return null;
+        }
+        for (String offer : offered.split(",")) {
+            Boolean serverNoContextTakeover = accept(offer);
+            if (serverNoContextTakeover != null) {
+                return new Session(serverNoContextTakeover || !contextTakeover);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 能接受时返回客户端是否要求 server_no_context_takeover，不能接受时返回 null
+     */
+    private static Boolean accept(String offer) {
+        String[] params = offer.split(";");
+        if (!EXTENSION.equalsIgnoreCase(params[0].trim())) {
+            return null;
+        }
+        boolean serverNoContextTakeover = false;
+        Set<String> seen = new HashSet<>();
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            int eq = param.indexOf('=');
+            String name = (eq < 0 ? param : param.substring(0, eq)).trim().toLowerCase(Locale.ROOT);
+            String value = eq < 0 ? null : param.substring(eq + 1).trim().replace("\"", "");
+            if (!seen.add(name)) {
+                return null;
+            }
+            switch (name) {
+                case "server_no_context_takeover":
+                    serverNoContextTakeover = true;
+                    break;
+                case "client_no_context_takeover":
+                    break;
+                case "server_max_window_bits":
+                    // JDK 的 Deflater 窗口固定为 15，不能按更小的窗口压缩
+                    if (!"15".equals(value)) {
+                        return null;
+                    }
+                    break;
+                case "client_max_window_bits":
+                    // 客户端窗口不超过 15，Inflater 都能解压，不需要回复
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return serverNoContextTakeover;
+    }
+
+    public static Session of(ChannelContext channelContext) {
+        return (Session) channelContext.getAttribute(ATTR);
+    }
+
+    /**
+     * 连接关闭：释放独占的 Deflater，之后的帧不再压缩
+     */
+    public static void release(ChannelContext channelContext) {
+        Session session = of(channelContext);
+        if (session == null) {
+            return;
+        }
+        synchronized (session) {
+            session.closed = true;
+            if (session.deflater != null) {
+                session.deflater.end();
+                session.deflater = null;
+            }
+        }
+    }
+
+    /**
+     * 按连接的压缩状态编码一帧；负载太小、连接已关闭时原样返回。
+     * 上下文接管的连接须在 session 锁内调用，并在同一锁内把结果交给 t-io
+     * @param frame  预编码的完整未压缩帧（不修改）
+     * @param shared 群发帧的共享压缩结果，可为 null
+     */
+    public static ByteBuffer compress(Session session, ByteBuffer frame, SharedFrame shared) {
+        int offset = WsFrameEncoder.payloadOffset(frame);
+        int length = frame.limit() - offset;
+        if (length < minBytes) {
+            return frame;
+        }
+        if (!session.stateless) {
+            if (session.closed) {
+                return frame;
+            }
+            if (session.deflater == null) {
+                session.deflater = new Deflater(pool.level(), true);
+            }
+            // 负载已进入压缩窗口，即使没有变小也必须发送压缩结果，否则双方窗口不一致
+            return deflateFrame(session.deflater, frame, offset, length, true);
+        }
+        if (shared == null) {
+            return deflateStateless(frame, offset, length);
+        }
+        ByteBuffer compressed = shared.frame;
+        if (compressed == null) {
+            synchronized (shared) {
+                compressed = shared.frame;
+                if (compressed == null) {
+                    compressed = deflateStateless(frame, offset, length);
+                    // 没有压缩时 frame 是本连接的帧，其读位置会被 t-io 推进，共享一个独立的视图
+                    shared.frame = compressed == frame ? frame.duplicate() : compressed;
+                    return compressed;
+                }
+            }
+        }
+        return compressed;
+    }
+
+    private static ByteBuffer deflateStateless(ByteBuffer frame, int offset, int length) {
+        DeflaterPool deflaters = pool;
+        Deflater deflater = deflaters.borrowDeflater();
+        try {
+            return deflateFrame(deflater, frame, offset, length, false);
+        } finally {
+            deflaters.release(deflater);
+        }
+    }
+
+    /**
+     * 压缩负载并编码为置 RSV1 的帧；force 为 false 且压缩后不更小时返回原帧
+     */
+    private static ByteBuffer deflateFrame(Deflater deflater, ByteBuffer frame, int offset, int length, boolean force) {
+        byte[] input;
+        int inputOffset;
+        if (frame.hasArray()) {
+            input = frame.array();
+            inputOffset = frame.arrayOffset() + offset;
+        } else {
+            input = new byte[length];
+            for (int i = 0; i < length; i++) {
+                input[i] = frame.get(offset + i);
+            }
+            inputOffset = 0;
+        }
+        deflater.setInput(input, inputOffset, length);
+        byte[] out = new byte[length / 2 + 64];
+        int size = 0;
+        while (true) {
+            size += deflater.deflate(out, size, out.length - size, Deflater.SYNC_FLUSH);
+            // SYNC_FLUSH 填满输出缓冲时可能还有剩余，须扩容后继续
+            if (size < out.length) {
+                break;
+            }
+            out = Arrays.copyOf(out, out.length * 2);
+        }
+        size -= TAIL.length;
+        ChatMetrics.DEFLATE_RAW_BYTES.add(length);
+        if (!force && size >= length) {
+            ChatMetrics.DEFLATE_COMPRESSED_BYTES.add(length);
+            return frame;
+        }
+        ChatMetrics.DEFLATE_COMPRESSED_BYTES.add(size);
+        int opcode = frame.get(frame.position()) & 0x0F;
+        ByteBuffer compressed = ByteBuffer.allocate(WsFrameEncoder.headerLength(size) + size);
+        WsFrameEncoder.writeHeader(compressed, opcode | WsFrameEncoder.RSV1, size);
+        compressed.put(out, 0, size);
+        compressed.flip();
+        return compressed;
+    }
+
+    /**
+     * t-io 解码出客户端的一帧后调用（见 {@link PerMessageDeflateDecoder}）：按消息首帧的 RSV1 决定是否解压。
+     * 延续帧与控制帧不得置 RSV1，未协商本扩展的连接任何帧都不得置 RSV1（RFC 7692 第 6 节）
+     * @param session   连接的协商结果，未协商时为 null
+     * @param firstByte 帧头第一个字节（FIN、RSV1-3、opcode）
+     * @param eof       是否为消息的最后一帧，t-io 在最后一帧给出拼接后的完整负载
+     * @param payload   t-io 解码出的负载，可为 null
+     * @return 交给上层的负载：压缩的消息在最后一帧解压，其余原样返回；违反协议、解压失败或超过上限时返回 null
+     */
+    public static byte[] inbound(Session session, int firstByte, boolean eof, byte[] payload) {
+        byte[] data = payload == null ? new byte[0] : payload;
+        boolean rsv1 = (firstByte & WsFrameEncoder.RSV1) != 0;
+        int opcode = firstByte & 0x0F;
+        if (opcode >= 0x8) {
+            return rsv1 ? null : data;
+        }
+        if (opcode != 0) {
+            if (session == null) {
+                return rsv1 ? null : data;
+            }
+            session.inflating = rsv1;
+        } else if (rsv1) {
+            return null;
+        }
+        if (session == null || !session.inflating || !eof) {
+            return data;
+        }
+        session.inflating = false;
+        return inflateCounted(data);
+    }
+
+    private static byte[] inflateCounted(byte[] payload) {
+        byte[] inflated = inflate(payload);
+        if (inflated == null) {
+            ChatMetrics.INFLATE_ERRORS.increment();
+        }
+        return inflated;
+    }
+
+    /**
+     * 解压客户端发来的消息负载
+     * @return 解压后的负载；数据损坏或超过上限时返回 null
+     */
+    public static byte[] inflate(byte[] payload) {
+        if (payload == null) {
+            return null;
+        }
+        int max = maxInflatedBytes;
+        byte[] input = Arrays.copyOf(payload, payload.length + TAIL.length);
+        System.arraycopy(TAIL, 0, input, payload.length, TAIL.length);
+        DeflaterPool inflaters = pool;
+        Inflater inflater = inflaters.borrowInflater();
+        try {
+            inflater.setInput(input);
+            byte[] out = new byte[Math.min(max, Math.max(256, payload.length * 4))];
+            int size = 0;
+            while (true) {
+                if (size == out.length) {
+                    if (out.length >= max) {
+                        return null;
+                    }
+                    out = Arrays.copyOf(out, (int) Math.min(max, out.length * 2L));
+                }
+                int n = inflater.inflate(out, size, out.length - size);
+                size += n;
+                if (n == 0 && size < out.length) {
+                    // 输入耗尽或遇到结束块；需要预设字典说明不是本扩展的数据
+                    if (inflater.needsDictionary()) {
+                        return null;
+                    }
+                    break;
+                }
+            }
+            return Arrays.copyOf(out, size);
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflaters.release(inflater);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.tio.chat.codec;
+
+import org.tio.core.ChannelContext;
+import org.tio.core.TioConfig;
+import org.tio.core.exception.TioDecodeException;
+import org.tio.core.intf.Packet;
+import org.tio.server.TioServerConfig;
+import org.tio.server.intf.TioServerHandler;
+import org.tio.websocket.common.Opcode;
+import org.tio.websocket.common.WsRequest;
+import org.tio.websocket.common.WsSessionContext;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * PerMessageDeflateDecoder
+ *
+ * 包装 t-io WebSocket 服务端的处理器：t-io 的帧解码器忽略 RSV 位，这里在解码前读取帧头第一个字节，
+ * 解码出一帧后交给 {@link PerMessageDeflate#inbound} 按 RSV1 解压，IWsMsgHandler 收到的总是未压缩的负载。
+ * RSV1 不合法或解压失败时抛出解码异常，由 t-io 关闭连接。编码与消息处理原样委托。
+ */
+public class PerMessageDeflateDecoder implements TioServerHandler {
+
+    private final TioServerHandler delegate;
+
+    public PerMessageDeflateDecoder(TioServerHandler delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 替换配置中的处理器，在 WsServerStarter 创建之后、启动之前调用
+     */
+    public static void install(TioServerConfig tioServerConfig) {
+        tioServerConfig.setTioServerHandler(new PerMessageDeflateDecoder(tioServerConfig.getTioServerHandler()));
+    }
+
+    @Override
+    public Packet decode(ByteBuffer buffer, int limit, int position, int readableLength, ChannelContext channelContext)
+            throws TioDecodeException {
+        WsSessionContext wsSessionContext = (WsSessionContext) channelContext.get();
+        if (wsSessionContext == null || !wsSessionContext.isHandshaked() || readableLength < 1) {
+            // 握手请求是 HTTP，首字节不是帧头
+            return delegate.decode(buffer, limit, position, readableLength, channelContext);
+        }
+        int firstByte = buffer.get(position) & 0xFF;
+        Packet packet = delegate.decode(buffer, limit, position, readableLength, channelContext);
+        if (!(packet instanceof WsRequest)) {
+            // 数据不足一帧
+            return packet;
+        }
+        WsRequest wsRequest = (WsRequest) packet;
+        byte[] body = wsRequest.getBody();
+        byte[] payload = PerMessageDeflate.inbound(PerMessageDeflate.of(channelContext), firstByte, wsRequest.isWsEof(), body);
+        if (payload == null) {
+            throw new TioDecodeException("permessage-deflate：RSV1 不合法或解压失败，首字节 0x" + Integer.toHexString(firstByte));
+        }
+        if (body != null && payload != body) {
+            wsRequest.setBody(payload);
+            if (wsRequest.getWsOpcode() == Opcode.TEXT) {
+                wsRequest.setWsBodyText(new String(payload, StandardCharsets.UTF_8));
+            }
+        }
+        return wsRequest;
+    }
+
+    @Override
+    public ByteBuffer encode(Packet packet, TioConfig tioConfig, ChannelContext channelContext) {
+        return delegate.encode(packet, tioConfig, channelContext);
+    }
+
+    @Override
+    public void handler(Packet packet, ChannelContext channelContext) throws Exception {
+        delegate.handler(packet, channelContext);
+    }
+}
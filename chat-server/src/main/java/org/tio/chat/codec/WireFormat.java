@@ -0,0 +1,55 @@
+package org.tio.chat.codec;
+
+import org.tio.core.ChannelContext;
+
+/**
+ * WireFormat
+ *
+ * 连接使用的消息编码，握手时通过 WebSocket 子协议（Sec-WebSocket-Protocol）协商：
+ *  - chat.bin.v1 ：二进制帧，见 BinaryChatCodec；
+ *  - chat.json.v1 或未声明子协议：JSON 文本帧（旧客户端）。
+ *
+ * 协商结果记录在 ChannelContext 属性中，发送时按连接选择编码。
+ */
+public enum WireFormat {
+    JSON("chat.json.v1"),
+    BINARY("chat.bin.v1");
+
+    private static final String ATTR = "chat.wire.format";
+
+    private final String subprotocol;
+
+    WireFormat(String subprotocol) {
+        this.subprotocol = subprotocol;
+    }
+
+    public String getSubprotocol() {
+        return subprotocol;
+    }
+
+    /**
+     * 从客户端声明的子协议列表（逗号分隔，按偏好排序）中选出第一个支持的，均不支持时返回 null
+     */
+    public static WireFormat negotiate(String offered) {
+        if (offered == null) {
+            return null;
+        }
+        for (String item : offered.split(",")) {
+            String name = item.trim();
+            for (WireFormat format : values()) {
+                if (format.subprotocol.equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+        }
+        return null;
+    }
+
+    public static WireFormat of(ChannelContext channelContext) {
+        return channelContext.getAttribute(ATTR) == BINARY ? BINARY : JSON;
+    }
+
+    public static void set(ChannelContext channelContext, WireFormat format) {
+        channelContext.setAttribute(ATTR, format);
+    }
+}
@@ -23,6 +23,38 @@ public abstract class ChatServerConfig {
      * 心跳超时时间，单位：毫秒
      */
     public static final int HEARTBEAT_TIMEOUT = 100000 * 60;
+    /**
+     * 离线消息单次读取的最大条数，避免一次把整个积压读入堆内存
+     */
+    public static final int OFFLINE_PAGE_SIZE = 200;
+    /**
+     * 离线消息批量同步（cmd=102）单帧的最大字节数，超出的消息留到下一批
+     */
+    public static final int OFFLINE_BATCH_MAX_BYTES = 64 * 1024;
+    /**
+     * 会话同步（cmd=104）单个会话单帧补发的最大条数，缺口更大时客户端继续请求下一页
+     */
+    public static final int SYNC_PAGE_SIZE = 100;
+    /**
+     * 单次同步请求最多处理的会话数
+     */
+    public static final int SYNC_MAX_CONVERSATIONS = 500;
+    /**
+     * 历史消息（cmd=108）未指定 limit 时的单页条数
+     */
+    public static final int HISTORY_PAGE_SIZE = 30;
+    /**
+     * 历史消息单页条数上限
+     */
+    public static final int HISTORY_MAX_PAGE_SIZE = 200;
+    /**
+     * 全文搜索（cmd=109）未指定 limit 时的单页条数
+     */
+    public static final int SEARCH_PAGE_SIZE = 20;
+    /**
+     * 全文搜索单页条数上限
+     */
+    public static final int SEARCH_MAX_PAGE_SIZE = 100;
 
 
     /**
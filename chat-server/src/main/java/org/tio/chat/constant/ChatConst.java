@@ -5,4 +5,9 @@ public class ChatConst {
      * 用于群聊的group id
      */
     public static final String GROUP_ID = "showcase-websocket";
+
+    /**
+     * 登录后默认加入的开放群组
+     */
+    public static final String DEFAULT_GROUP_ID = "group1";
 }
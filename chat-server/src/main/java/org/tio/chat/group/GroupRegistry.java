@@ -0,0 +1,297 @@
+package org.tio.chat.group;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GroupRegistry
+ *
+ * 群组与成员关系的内存注册表，按群 id 的哈希分成若干分片：
+ *  - 每个分片一把锁，创建 / 加入 / 退出只锁所在分片，并在锁内写日志（{@link Journal}），同一群的变更顺序与日志一致；
+ *  - 查询（是否成员、成员数）不加锁；
+ *  - 另有 userId → 所在群组的索引，连接登录时据此绑定该用户的全部群组。
+ *
+ * 开放群组（如默认群）不保存成员，所有用户都视为成员，不能加入或退出。
+ * 最后一个成员退出的群组随之删除。
+ */
+public class GroupRegistry {
+
+    /** 群 id 的最大长度 */
+    public static final int MAX_GROUP_ID_LENGTH = 64;
+
+    /**
+     * 成员变更日志，写入失败时抛出运行时异常，注册表状态不变
+     */
+    public interface Journal extends Closeable {
+        void created(String groupId, String owner);
+
+        void joined(String groupId, String userId);
+
+        void left(String groupId, String userId);
+
+        void deleted(String groupId);
+    }
+
+    public enum Result {
+        OK,
+        /** 群组已存在（创建时） */
+        EXISTS,
+        NOT_FOUND,
+        ALREADY_MEMBER,
+        NOT_MEMBER,
+        /** 开放群组不能退出 */
+        OPEN_GROUP,
+        /** 群 id 为空或过长 */
+        INVALID
+    }
+
+    /**
+     * 群组的持久化状态（群主与成员），用于从日志恢复
+     */
+    public static final class GroupState {
+        private final String owner;
+        private final Set<String> members;
+
+        public GroupState(String owner, Set<String> members) {
+            this.owner = owner;
+            this.members = members;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public Set<String> getMembers() {
+            return members;
+        }
+    }
+
+    private static final class Group {
+        final String owner;
+        final Set<String> members = ConcurrentHashMap.newKeySet();
+
+        Group(String owner) {
+            this.owner = owner;
+        }
+    }
+
+    private static final class Shard {
+        final ConcurrentHashMap<String, Group> groups = new ConcurrentHashMap<>();
+    }
+
+    private final Shard[] shards;
+    private final int mask;
+    private final Set<String> openGroups;
+    private final ConcurrentHashMap<String, Set<String>> userGroups = new ConcurrentHashMap<>();
+    private final AtomicInteger groupCount = new AtomicInteger();
+    private final Journal journal;
+
+    /**
+     * @param shards     分片数，向上取整为 2 的幂
+     * @param openGroups 开放群组 id
+     * @param journal    成员变更日志，为 null 时只保存在内存
+     * @param restored   从日志恢复的群组状态，可为空
+     */
+    public GroupRegistry(int shards, Collection<String> openGroups, Journal journal, Map<String, GroupState> restored) {
+        int n = 1;
+        while (n < shards) {
+            n <<= 1;
+        }
+        this.shards = new Shard[n];
+        for (int i = 0; i < n; i++) {
+            this.shards[i] = new Shard();
+        }
+        this.mask = n - 1;
+        this.openGroups = Collections.unmodifiableSet(new LinkedHashSet<>(openGroups));
+        this.journal = journal;
+        if (restored != null) {
+            for (Map.Entry<String, GroupState> entry : restored.entrySet()) {
+                Group group = new Group(entry.getValue().getOwner());
+                group.members.addAll(entry.getValue().getMembers());
+                if (group.members.isEmpty()) {
+                    continue;
+                }
+                shard(entry.getKey()).groups.put(entry.getKey(), group);
+                groupCount.incrementAndGet();
+                for (String member : group.members) {
+                    indexAdd(member, entry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * 创建群组，创建者成为群主和第一个成员
+     */
+    public Result create(String groupId, String owner) {
+        if (!isValid(groupId) || owner == null) {
+            return Result.INVALID;
+        }
+        if (openGroups.contains(groupId)) {
+            return Result.EXISTS;
+        }
+        Shard shard = shard(groupId);
+        synchronized (shard) {
+            if (shard.groups.containsKey(groupId)) {
+                return Result.EXISTS;
+            }
+            if (journal != null) {
+                journal.created(groupId, owner);
+                journal.joined(groupId, owner);
+            }
+            Group group = new Group(owner);
+            group.members.add(owner);
+            shard.groups.put(groupId, group);
+            groupCount.incrementAndGet();
+            indexAdd(owner, groupId);
+        }
+        return Result.OK;
+    }
+
+    public Result join(String groupId, String userId) {
+        if (!isValid(groupId) || userId == null) {
+            return Result.INVALID;
+        }
+        if (openGroups.contains(groupId)) {
+            return Result.ALREADY_MEMBER;
+        }
+        Shard shard = shard(groupId);
+        synchronized (shard) {
+            Group group = shard.groups.get(groupId);
+            if (group == null) {
+                return Result.NOT_FOUND;
+            }
+            if (group.members.contains(userId)) {
+                return Result.ALREADY_MEMBER;
+            }
+            if (journal != null) {
+                journal.joined(groupId, userId);
+            }
+            group.members.add(userId);
+            indexAdd(userId, groupId);
+        }
+        return Result.OK;
+    }
+
+    /**
+     * 退出群组，最后一个成员退出时删除群组
+     */
+    public Result leave(String groupId, String userId) {
+        if (!isValid(groupId) || userId == null) {
+            return Result.INVALID;
+        }
+        if (openGroups.contains(groupId)) {
+            return Result.OPEN_GROUP;
+        }
+        Shard shard = shard(groupId);
+        synchronized (shard) {
+            Group group = shard.groups.get(groupId);
+            if (group == null) {
+                return Result.NOT_FOUND;
+            }
+            if (!group.members.contains(userId)) {
+                return Result.NOT_MEMBER;
+            }
+            boolean last = group.members.size() == 1;
+            if (journal != null) {
+                journal.left(groupId, userId);
+                if (last) {
+                    journal.deleted(groupId);
+                }
+            }
+            group.members.remove(userId);
+            if (last) {
+                shard.groups.remove(groupId);
+                groupCount.decrementAndGet();
+            }
+            indexRemove(userId, groupId);
+        }
+        return Result.OK;
+    }
+
+    public boolean isMember(String groupId, String userId) {
+        if (groupId == null || userId == null) {
+            return false;
+        }
+        if (openGroups.contains(groupId)) {
+            return true;
+        }
+        Group group = shard(groupId).groups.get(groupId);
+        return group != null && group.members.contains(userId);
+    }
+
+    public boolean exists(String groupId) {
+        return groupId != null && (openGroups.contains(groupId) || shard(groupId).groups.containsKey(groupId));
+    }
+
+    public boolean isOpen(String groupId) {
+        return openGroups.contains(groupId);
+    }
+
+    public Set<String> openGroups() {
+        return openGroups;
+    }
+
+    /**
+     * 用户所在的群组（不含开放群组）
+     */
+    public Set<String> groupsOf(String userId) {
+        Set<String> groups = userId == null ? null : userGroups.get(userId);
+        if (groups == null) {
+            return Collections.emptySet();
+        }
+        synchronized (groups) {
+            return new HashSet<>(groups);
+        }
+    }
+
+    /**
+     * 成员数，开放群组与不存在的群组为 0
+     */
+    public int memberCount(String groupId) {
+        Group group = groupId == null ? null : shard(groupId).groups.get(groupId);
+        return group == null ? 0 : group.members.size();
+    }
+
+    /**
+     * 群组数（不含开放群组）
+     */
+    public int groupCount() {
+        return groupCount.get();
+    }
+
+    private static boolean isValid(String groupId) {
+        return groupId != null && !groupId.trim().isEmpty() && groupId.length() <= MAX_GROUP_ID_LENGTH;
+    }
+
+    private Shard shard(String groupId) {
+        int h = groupId.hashCode();
+        return shards[(h ^ (h >>> 16)) & mask];
+    }
+
+    private void indexAdd(String userId, String groupId) {
+        userGroups.compute(userId, (k, groups) -> {
+            Set<String> set = groups == null ? new HashSet<String>() : groups;
+            synchronized (set) {
+                set.add(groupId);
+            }
+            return set;
+        });
+    }
+
+    private void indexRemove(String userId, String groupId) {
+        userGroups.computeIfPresent(userId, (k, groups) -> {
+            synchronized (groups) {
+                groups.remove(groupId);
+                return groups.isEmpty() ? null : groups;
+            }
+        });
+    }
+}
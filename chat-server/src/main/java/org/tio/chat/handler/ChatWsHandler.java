@@ -2,23 +2,36 @@ package org.tio.chat.handler;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.tio.chat.codec.BinaryChatCodec;
+import org.tio.chat.codec.JsonChatCodec;
+import org.tio.chat.codec.PerMessageDeflate;
+import org.tio.chat.codec.WireFormat;
 import org.tio.chat.config.ChatServerConfig;
 import org.tio.chat.constant.ChatConst;
+import org.tio.chat.metrics.ChatMetrics;
 import org.tio.chat.model.ChatMessage;
+import org.tio.chat.service.BusinessExecutor;
 import org.tio.chat.service.ChatService;
-import org.tio.chat.util.JsonUtil;
+import org.tio.chat.service.ConversationService;
+import org.tio.chat.service.GroupService;
+import org.tio.chat.service.GroupTimelineService;
+import org.tio.chat.service.IdService;
+import org.tio.chat.service.MessagePipeline;
+import org.tio.chat.service.OfflineSyncService;
+import org.tio.chat.service.PresenceService;
+import org.tio.chat.service.SearchService;
+import org.tio.chat.service.SessionService;
 import org.tio.core.ChannelContext;
 import org.tio.core.Tio;
+import org.tio.http.common.HeaderName;
+import org.tio.http.common.HeaderValue;
 import org.tio.http.common.HttpRequest;
 import org.tio.http.common.HttpResponse;
 import org.tio.websocket.common.WsRequest;
-import org.tio.websocket.common.WsResponse;
 import org.tio.websocket.server.handler.IWsMsgHandler;
 
 import java.util.List;
-import java.util.UUID;
-
-import static org.tio.chat.service.ChatService.processReadAck;
+import java.util.Map;
 
 /**
  * ChatWsHandler 是 t-io WebSocket 服务端的核心消息处理器。
@@ -28,8 +41,9 @@ public class ChatWsHandler implements IWsMsgHandler {
     private static final Logger log = LoggerFactory.getLogger(ChatWsHandler.class);
     public static final ChatWsHandler me = new ChatWsHandler();
 
-    // 统一字符编码，保证消息编码一致性
-    private static final String CHARSET = "UTF-8";
+    // 握手请求中客户端声明的子协议与扩展（t-io 的请求头名为小写）
+    private static final String SEC_WEBSOCKET_PROTOCOL = "sec-websocket-protocol";
+    private static final String SEC_WEBSOCKET_EXTENSIONS = "sec-websocket-extensions";
 
     private ChatWsHandler() {
     }
@@ -57,6 +71,19 @@ public class ChatWsHandler implements IWsMsgHandler {
         Tio.bindUser(channelContext, userId);
         log.info("用户 [{}] 从 [{}] 发起 WebSocket 握手", userId, clientIp);
 
+        // 协商消息编码：客户端声明 chat.bin.v1 子协议时使用二进制帧，否则保持 JSON 文本
+        WireFormat format = WireFormat.negotiate(request.getHeader(SEC_WEBSOCKET_PROTOCOL));
+        if (format != null) {
+            WireFormat.set(channelContext, format);
+            httpResponse.addHeader(HeaderName.from("Sec-WebSocket-Protocol"), HeaderValue.from(format.getSubprotocol()));
+        }
+
+        // 协商 permessage-deflate 压缩（见 PerMessageDeflate），未启用或客户端未提议时不压缩
+        String extensions = PerMessageDeflate.negotiate(channelContext, request.getHeader(SEC_WEBSOCKET_EXTENSIONS));
+        if (extensions != null) {
+            httpResponse.addHeader(HeaderName.from("Sec-WebSocket-Extensions"), HeaderValue.from(extensions));
+        }
+
         return httpResponse;
     }
 
@@ -72,60 +99,42 @@ public class ChatWsHandler implements IWsMsgHandler {
         // 绑定默认群组，方便群聊消息分发
         Tio.bindGroup(channelContext, ChatConst.GROUP_ID);
 
-        // 获取当前在线人数
-        int count = Tio.getAll(channelContext.tioConfig).getObj().size();
-
-        // 构造系统上线消息，通知所有用户
-        ChatMessage sysMsg = new ChatMessage();
-        sysMsg.setFrom("屁");
-        sysMsg.setMessage(channelContext.userid + " 进来了，共【" + count + "】人在线");
-        String jsonMsg = JsonUtil.toJson(sysMsg);
+        // 计入在线，上线通知由 PresenceService 按周期合并广播
+        PresenceService.online(channelContext);
 
-        // 广播上线消息到默认群组
-        WsResponse wsResponse = WsResponse.fromText(jsonMsg, CHARSET);
-        Tio.sendToGroup(channelContext.tioConfig, ChatConst.GROUP_ID, wsResponse);
-
-        // 查询当前用户的离线消息
-        List<ChatMessage> offlineMessages = ChatService.getOfflineMessages(channelContext.userid);
-
-        // 推送离线消息给当前用户
-        if (offlineMessages != null && !offlineMessages.isEmpty()) {
-            for (ChatMessage offlineMsg : offlineMessages) {
-                String offlineJson = JsonUtil.toJson(offlineMsg);
-                WsResponse offlineResponse = WsResponse.fromText(offlineJson, CHARSET);
-                Tio.send(channelContext, offlineResponse);
-            }
-            // 标记离线消息已读或删除，避免重复推送
-            ChatService.markOfflineMessagesRead(channelContext.userid);
+        // 带有效恢复令牌的重连接管宽限期内的会话（不广播上下线），否则建立新会话；两者都下发新令牌（cmd=110）
+        if (SessionService.attach(channelContext, httpRequest.getParam(SessionService.PARAM_RESUME))) {
+            log.info("用户 [{}] 恢复会话", channelContext.userid);
         }
+
+        // 离线消息在登录（cmd=1）后同步，登录可能携带会话游标，据此跳过已由会话同步覆盖的部分
     }
 
     @Override
     public Object onBytes(WsRequest wsRequest, byte[] bytes, ChannelContext channelContext) throws Exception {
-        // 不支持二进制消息，忽略
+        // 只有协商了二进制子协议的连接才接受二进制帧
+        if (WireFormat.of(channelContext) != WireFormat.BINARY) {
+            log.warn("连接未协商二进制子协议，忽略二进制消息，用户: {}", channelContext.userid);
+            return null;
+        }
+        long receivedNanos = System.nanoTime();
+        // 压缩的消息已在解码时按 RSV1 解压（见 PerMessageDeflateDecoder）
+        ChatMessage chatMessage = BinaryChatCodec.decode(bytes);
+        if (chatMessage == null) {
+            ChatMetrics.DECODE_ERRORS_BINARY.increment();
+            log.warn("二进制消息解析失败，忽略消息，长度: {}，用户: {}", bytes == null ? 0 : bytes.length, channelContext.userid);
+            return null;
+        }
+        handleMessage(chatMessage, channelContext, receivedNanos);
         return null;
     }
 
     @Override
     public Object onClose(WsRequest wsRequest, byte[] bytes, ChannelContext channelContext) throws Exception {
-        // 连接关闭时的广播通知，属于连接生命周期事件，建议迁移
-
-        // 移除连接
+        // 客户端主动关闭不保留会话；下线计数与通知在 ChatServerListener.onBeforeClose 中统一处理（异常断开同样经过那里）
+        SessionService.end(channelContext);
         Tio.remove(channelContext, "客户端主动关闭连接");
 
-        // 获取当前在线人数，减去当前关闭的连接
-        int count = Tio.getAll(channelContext.tioConfig).getObj().size() - 1;
-
-        // 构造下线消息
-        ChatMessage sysMsg = new ChatMessage();
-        sysMsg.setFrom("屁");
-        sysMsg.setMessage(channelContext.userid + " 离开了，现在共有【" + count + "】人在线");
-        String jsonMsg = JsonUtil.toJson(sysMsg);
-
-        // 发送给默认群组，通知其他人
-        WsResponse wsResponse = WsResponse.fromText(jsonMsg, CHARSET);
-        Tio.sendToGroup(channelContext.tioConfig, ChatConst.GROUP_ID, wsResponse);
-
         return null;
     }
 
@@ -145,29 +154,46 @@ public class ChatWsHandler implements IWsMsgHandler {
             log.debug("收到客户端消息: {}", text);
         }
 
-        ChatMessage chatMessage = null;
-        try {
-            chatMessage = JsonUtil.fromJson(text, ChatMessage.class);
-        } catch (Exception e) {
-            log.warn("消息解析失败，忽略消息: {}", text, e);
-            return null;
-        }
-
+        // 流式解码：先读 cmd，只绑定该命令需要的字段；格式错误返回 null，不抛异常、不拷贝负载
+        long receivedNanos = System.nanoTime();
+        ChatMessage chatMessage = JsonChatCodec.decode(text);
         if (chatMessage == null) {
-            log.warn("无法解析消息: {}", text);
+            ChatMetrics.DECODE_ERRORS_JSON.increment();
+            log.warn("消息解析失败，忽略消息，长度: {}，用户: {}", text == null ? 0 : text.length(), channelContext.userid);
             return null;
         }
 
+        handleMessage(chatMessage, channelContext, receivedNanos);
+        return null;
+    }
+
+    /**
+     * 按 cmd 分发已解码的消息（JSON 与二进制共用），处理完后回复 ACK。
+     * 分发在业务执行器上按用户串行进行（见 BusinessExecutor），解码线程提交后即返回；处理耗时含排队时间。
+     * @param chatMessage 已解码的消息
+     * @param channelContext 连接上下文
+     * @param receivedNanos 收到帧的时刻（System.nanoTime），用于统计处理耗时
+     */
+    private void handleMessage(ChatMessage chatMessage, ChannelContext channelContext, long receivedNanos) {
+        BusinessExecutor.execute(channelContext, () -> {
+            try {
+                dispatch(chatMessage, channelContext, receivedNanos);
+            } finally {
+                ChatMetrics.handleTimer(chatMessage.getCmd()).recordSince(receivedNanos);
+            }
+        });
+    }
+
+    private void dispatch(ChatMessage chatMessage, ChannelContext channelContext, long receivedNanos) {
         Integer cmd = chatMessage.getCmd();
         if (cmd == null) {
-            log.warn("消息缺少cmd字段，忽略消息: {}", text);
-            return null;
+            log.warn("消息缺少cmd字段，忽略消息，msgId: {}", chatMessage.getMsgId());
+            return;
         }
 
-        // 如果消息没有msgId，则生成唯一UUID，保证消息唯一性
+        // 如果消息没有msgId，则生成时间有序的唯一id（无锁，见 IdService），保证消息唯一性
         if (chatMessage.getMsgId() == null || chatMessage.getMsgId().trim().isEmpty()) {
-            String newMsgId = UUID.randomUUID().toString();
-            chatMessage.setMsgId(newMsgId);
+            chatMessage.setMsgId(IdService.nextId());
         }
 
         try {
@@ -175,50 +201,72 @@ public class ChatWsHandler implements IWsMsgHandler {
                 case 1:
                     // 登录命令，绑定用户并加入默认群组
                     ChatService.bindUser(chatMessage.getFrom(), channelContext);
+                    // 先按会话游标补齐缺口（客户端没带游标的群会话用服务端保存的成员游标），
+                    // 再批量同步离线消息（每批一个 cmd=102 帧，客户端确认后再删除并发送下一批）
+                    Map<String, Long> cursors = GroupTimelineService.loginCursors(channelContext.userid, chatMessage.getCursors());
+                    Map<String, Long> synced = ConversationService.sync(channelContext, cursors);
+                    OfflineSyncService.start(channelContext, synced);
                     break;
                 case 2:
-                    // 私聊消息，保存离线消息后转发
-                    ChatService.saveOfflineMessage(chatMessage);
-                    ChatService.saveOnlineMessage(chatMessage, channelContext);
-                    ChatService.sendPrivateMsg(chatMessage, channelContext);
-                    break;
                 case 3:
-                    // 群聊消息，保存离线消息后转发
-                    ChatService.saveOfflineMessage(chatMessage);
-                    ChatService.saveOnlineMessage(chatMessage, channelContext);
-                    ChatService.sendGroupMsg(chatMessage, channelContext);
-                    break;
+                    // 私聊/群聊消息：放入持久化管道，落盘后再转发并回复 ACK（见 MessagePipeline），此处不回复
+                    MessagePipeline.submit(chatMessage, channelContext, receivedNanos);
+                    return;
                 case 99:
                     // 处理客户端ACK确认消息(送达确认）
                     handleClientAck(chatMessage, channelContext);
                     break;
                 case 100:
-                    // 处理客户端已读确认消息
+                    // 处理客户端已读确认消息：msgIds 列表，to + timestamp 表示的会话已读水位，或 conv + seq 表示的群已读游标
                     List<String> msgIds = chatMessage.getMsgIds();
                     if (msgIds != null && !msgIds.isEmpty()) {
                         ChatService.processReadAck(msgIds, channelContext.userid); // 会处理在线+离线消息
+                    } else if (chatMessage.getTo() != null && chatMessage.getTimestamp() != null) {
+                        ChatService.processReadWatermark(chatMessage.getTo(), chatMessage.getTimestamp(), channelContext.userid);
+                    } else if (chatMessage.getConv() != null && chatMessage.getSeq() != null) {
+                        GroupTimelineService.read(channelContext.userid, chatMessage.getConv(), chatMessage.getSeq());
+                        // 回复的 ACK 不回带 conv + seq，否则会被客户端当作会话游标
+                        chatMessage.setConv(null);
+                        chatMessage.setSeq(null);
+                    }
+                    break;
+                case 104:
+                    // 按会话游标补发缺口
+                    ConversationService.sync(channelContext, chatMessage.getCursors());
+                    break;
+                case 105:
+                case 106:
+                case 107:
+                    // 创建 / 加入 / 退出群组，群 id 在 to 字段；失败回复 cmd=-2（原因见 GroupService）
+                    String reason = GroupService.handle(cmd, chatMessage.getTo(), channelContext);
+                    if (reason != null) {
+                        ChatService.sendNack(channelContext, chatMessage.getMsgId(), reason);
+                        return;
                     }
                     break;
+                case 108:
+                    // 历史消息翻页：回复帧带请求的 msgId，代替 ACK（ACK 回带 conv + seq 会被客户端当作会话游标）
+                    String historyReject = ConversationService.history(channelContext, chatMessage);
+                    if (historyReject != null) {
+                        ChatService.sendNack(channelContext, chatMessage.getMsgId(), historyReject);
+                    }
+                    return;
+                case 109:
+                    // 全文搜索：同样以带 msgId 的回复帧代替 ACK
+                    String searchReject = SearchService.search(channelContext, chatMessage);
+                    if (searchReject != null) {
+                        ChatService.sendNack(channelContext, chatMessage.getMsgId(), searchReject);
+                    }
+                    return;
                 default:
                     log.warn("未知cmd命令: {}", cmd);
             }
         } catch (Exception e) {
-            log.error("处理消息异常: {}", text, e);
+            log.error("处理消息异常，cmd: {}，msgId: {}", cmd, chatMessage.getMsgId(), e);
         }
 
         // 发送ACK确认消息给客户端，包含cmd=ack和对应msgId
-        ChatMessage ackMessage = new ChatMessage();
-        ackMessage.setCmd(-1); // 约定服务器ACK命令为-1
-        ackMessage.setMsgId(chatMessage.getMsgId());
-        ackMessage.setFrom("server");
-        ackMessage.setMessage("ACK");
-
-        String ackJson = JsonUtil.toJson(ackMessage);
-        WsResponse ackResponse = WsResponse.fromText(ackJson, CHARSET);
-        log.info("发送ACK到客户端: {}", ackJson);
-        Tio.send(channelContext, ackResponse);
-
-        return null;
+        ChatService.sendAck(channelContext, chatMessage);
     }
 
     /**
@@ -231,6 +279,16 @@ public class ChatWsHandler implements IWsMsgHandler {
         if (log.isDebugEnabled()) {
             log.debug("收到客户端ACK消息，msgId: {}, 来自用户: {}", chatMessage.getMsgId(), channelContext.userid);
         }
+        // 群会话的确认带 conv + 已连续收到的 seq：推进服务端的已送达游标
+        if (chatMessage.getConv() != null && chatMessage.getSeq() != null) {
+            GroupTimelineService.delivered(channelContext.userid, chatMessage.getConv(), chatMessage.getSeq());
+            chatMessage.setConv(null);
+            chatMessage.setSeq(null);
+        }
+        // 离线批次的确认：删除该批并推送下一批
+        if (OfflineSyncService.onAck(channelContext, chatMessage.getMsgId())) {
+            return;
+        }
         // 示例：调用ChatService更新消息状态
         ChatService.processClientAck(chatMessage.getMsgId(), channelContext.userid);
     }
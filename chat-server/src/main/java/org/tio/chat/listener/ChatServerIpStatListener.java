@@ -2,11 +2,18 @@ package org.tio.chat.listener;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.tio.chat.metrics.MetricsRegistry;
+import org.tio.chat.metrics.PrometheusWriter;
 import org.tio.core.ChannelContext;
 import org.tio.core.TioConfig;
 import org.tio.core.intf.Packet;
 import org.tio.core.stat.IpStat;
 import org.tio.core.stat.IpStatListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 /**
  *
  * @author tanyaowu
@@ -64,4 +71,88 @@ public class ChatServerIpStatListener implements IpStatListener {
 //            log.info("onAfterHandled\r\n{}\r\n{}", packet.logstr(), Json.toFormatedJson(ipStat));
 //        }
     }
+
+    /**
+     * 把 t-io 按时间窗口统计的 IpStat 导出到 /metrics：
+     * 每个窗口的活跃 IP 数与收发字节、解码错误、已处理包的合计，以及按接收字节排序的前 topN 个 IP。
+     * 只导出前 topN 个 IP，避免 IP 数量大时指标基数失控。
+     */
+    public void registerMetrics(TioConfig tioConfig, MetricsRegistry registry, int topN) {
+        registry.addCollector(writer -> collect(tioConfig, writer, topN));
+    }
+
+    /**
+     * 一个时间窗口的汇总
+     */
+    private static final class Window {
+        final String labels;
+        final long duration;
+        int ips;
+        long receivedBytes;
+        long sentBytes;
+        long decodeErrors;
+        long handledPackets;
+        List<IpStat> top;
+
+        Window(long duration) {
+            this.duration = duration;
+            this.labels = PrometheusWriter.labels("window_seconds", String.valueOf(duration / 1000));
+        }
+    }
+
+    private static void collect(TioConfig tioConfig, PrometheusWriter writer, int topN) {
+        List<Long> durations = tioConfig.ipStats.durationList;
+        if (durations == null || durations.isEmpty()) {
+            return;
+        }
+        List<Window> windows = new ArrayList<>(durations.size());
+        for (Long duration : durations) {
+            Collection<IpStat> values = tioConfig.ipStats.values(duration);
+            List<IpStat> stats = values == null ? new ArrayList<>() : new ArrayList<>(values);
+            Window window = new Window(duration);
+            window.ips = stats.size();
+            for (IpStat stat : stats) {
+                window.receivedBytes += get(stat.getReceivedBytes());
+                window.sentBytes += get(stat.getSentBytes());
+                window.decodeErrors += get(stat.getDecodeErrorCount());
+                window.handledPackets += get(stat.getHandledPackets());
+            }
+            stats.sort((a, b) -> Long.compare(get(b.getReceivedBytes()), get(a.getReceivedBytes())));
+            window.top = stats.subList(0, Math.min(topN, stats.size()));
+            windows.add(window);
+        }
+        // 同一指标族的样本须连续输出
+        writer.family("chat_ipstat_active_ips", "gauge", "时间窗口内有连接的 IP 数");
+        for (Window w : windows) {
+            writer.sample("chat_ipstat_active_ips", w.labels, w.ips);
+        }
+        writer.family("chat_ipstat_received_bytes", "gauge", "时间窗口内所有 IP 接收的字节数");
+        for (Window w : windows) {
+            writer.sample("chat_ipstat_received_bytes", w.labels, w.receivedBytes);
+        }
+        writer.family("chat_ipstat_sent_bytes", "gauge", "时间窗口内所有 IP 发送的字节数");
+        for (Window w : windows) {
+            writer.sample("chat_ipstat_sent_bytes", w.labels, w.sentBytes);
+        }
+        writer.family("chat_ipstat_decode_errors", "gauge", "时间窗口内的解码错误次数");
+        for (Window w : windows) {
+            writer.sample("chat_ipstat_decode_errors", w.labels, w.decodeErrors);
+        }
+        writer.family("chat_ipstat_handled_packets", "gauge", "时间窗口内已处理的包数");
+        for (Window w : windows) {
+            writer.sample("chat_ipstat_handled_packets", w.labels, w.handledPackets);
+        }
+        writer.family("chat_ipstat_top_received_bytes", "gauge", "时间窗口内接收字节最多的 IP");
+        for (Window w : windows) {
+            for (IpStat stat : w.top) {
+                writer.sample("chat_ipstat_top_received_bytes",
+                        PrometheusWriter.labels("window_seconds", String.valueOf(w.duration / 1000), "ip", stat.getIp()),
+                        get(stat.getReceivedBytes()));
+            }
+        }
+    }
+
+    private static long get(AtomicLong value) {
+        return value == null ? 0 : value.get();
+    }
 }
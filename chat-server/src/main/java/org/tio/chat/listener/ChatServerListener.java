@@ -2,9 +2,14 @@ package org.tio.chat.listener;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.tio.chat.codec.PerMessageDeflate;
 import org.tio.chat.config.ChatServerConfig;
 import org.tio.chat.constant.ChatConst;
 import org.tio.chat.model.ChatMessage;
+import org.tio.chat.metrics.ChatMetrics;
+import org.tio.chat.service.OutboundService;
+import org.tio.chat.service.PresenceService;
+import org.tio.chat.service.SessionService;
 import org.tio.chat.util.JsonUtil;
 import org.tio.core.ChannelContext;
 import org.tio.core.Tio;
@@ -33,24 +38,40 @@ public class ChatServerListener extends WsTioServerListener {
 
 
 
+    @Override
+    public void onBeforeClose(ChannelContext channelContext, Throwable throwable, String remark, boolean isRemove) throws Exception {
+        super.onBeforeClose(channelContext, throwable, remark, isRemove);
+        // 所有关闭路径（主动关闭、异常断开、心跳超时）都会经过这里，统一扣减在线计数；
+        // 可恢复的会话进入宽限期，保留在线计数，宽限期内重连不广播下线 / 上线
+        if (SessionService.detach(channelContext)) {
+            PresenceService.suspend(channelContext);
+        } else {
+            PresenceService.offline(channelContext);
+        }
+        OutboundService.onClose(channelContext);
+        PerMessageDeflate.release(channelContext);
+    }
+
     @Override
     public void onAfterDecoded(ChannelContext channelContext, Packet packet, int packetSize) throws Exception {
         super.onAfterDecoded(channelContext, packet, packetSize);
-        if (log.isInfoEnabled()) {
-            log.info("onAfterDecoded\r\n{}\r\n{}", packet.logstr(), channelContext);
+        // 每个包都会经过这里，只在 debug 级别输出
+        if (log.isDebugEnabled()) {
+            log.debug("onAfterDecoded {} {}", packet.logstr(), channelContext.getId());
         }
     }
 
     @Override
     public void onAfterReceivedBytes(ChannelContext channelContext, int receivedBytes) throws Exception {
-        // 可选实现，通常不处理
+        ChatMetrics.BYTES_RECEIVED.add(receivedBytes);
     }
 
     @Override
     public void onAfterSent(ChannelContext channelContext, Packet packet, boolean isSentSuccess) throws Exception {
         super.onAfterSent(channelContext, packet, isSentSuccess);
-        if (log.isInfoEnabled()) {
-            log.info("onAfterSent\r\n{}\r\n{}", packet.logstr(), channelContext);
+        OutboundService.onSent(channelContext, packet, isSentSuccess);
+        if (log.isDebugEnabled()) {
+            log.debug("onAfterSent {} {} {}", packet.logstr(), isSentSuccess, channelContext.getId());
         }
     }
 }
\ No newline at end of file
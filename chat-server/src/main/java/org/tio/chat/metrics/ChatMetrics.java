@@ -0,0 +1,127 @@
+package org.tio.chat.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ChatMetrics
+ *
+ * 聊天服务的全局指标注册表与热路径指标。热路径直接使用这里的静态字段记录，不查表、不加锁；
+ * 各组件（存储、管道、集群等）的仪表在启动时注册到 {@link #REGISTRY}。
+ *
+ * 延迟单位统一为秒（Prometheus 约定），分位数统计最近 1~2 分钟。
+ */
+public final class ChatMetrics {
+
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry(60_000);
+
+    private static final int[] KNOWN_CMDS = {1, 2, 3, 99, 100, 104};
+    private static final LatencyTimer[] CMD_TIMERS = new LatencyTimer[128];
+    private static final LatencyTimer OTHER_CMD_TIMER = REGISTRY.timer("chat_handle_seconds",
+            "按 cmd 统计的消息处理耗时（从收到帧到处理器返回，私聊/群聊只含入队）", "cmd", "other");
+
+    static {
+        for (int cmd : KNOWN_CMDS) {
+            CMD_TIMERS[cmd] = REGISTRY.timer("chat_handle_seconds",
+                    "按 cmd 统计的消息处理耗时（从收到帧到处理器返回，私聊/群聊只含入队）", "cmd", String.valueOf(cmd));
+        }
+    }
+
+    /** 从收到帧到转发给接收方（含解码、排队、落盘） */
+    public static final LatencyTimer FANOUT_LATENCY = REGISTRY.timer("chat_message_fanout_seconds",
+            "私聊/群聊消息从收到帧到转发给接收方的耗时");
+
+    public static final LatencyTimer PIPELINE_PERSIST = REGISTRY.timer("chat_pipeline_persist_seconds",
+            "持久化管道每批写入与等待刷盘的耗时");
+    public static final LongAdder PIPELINE_BATCHES = REGISTRY.counter("chat_pipeline_batches_total",
+            "持久化管道处理的批数");
+    public static final LongAdder PIPELINE_MESSAGES = REGISTRY.counter("chat_pipeline_messages_total",
+            "持久化管道处理的消息数");
+    public static final LongAdder REJECTED_BUSY = REGISTRY.counter("chat_rejected_total",
+            "回复 cmd=-2 拒绝的消息数", "reason", "BUSY");
+    public static final LongAdder REJECTED_INVALID = REGISTRY.counter("chat_rejected_total",
+            "回复 cmd=-2 拒绝的消息数", "reason", "INVALID");
+    public static final LongAdder REJECTED_STORE_ERROR = REGISTRY.counter("chat_rejected_total",
+            "回复 cmd=-2 拒绝的消息数", "reason", "STORE_ERROR");
+    public static final LongAdder REJECTED_NOT_MEMBER = REGISTRY.counter("chat_rejected_total",
+            "回复 cmd=-2 拒绝的消息数", "reason", "NOT_MEMBER");
+
+    /** 转发后到接收方回复 cmd=99 */
+    public static final LatencyTimer ACK_RTT_LIVE = REGISTRY.timer("chat_client_ack_seconds",
+            "服务端发出到客户端回复 cmd=99 的往返时间", "kind", "live");
+    /** 离线批次（cmd=102）发出到客户端确认 */
+    public static final LatencyTimer ACK_RTT_OFFLINE = REGISTRY.timer("chat_client_ack_seconds",
+            "服务端发出到客户端回复 cmd=99 的往返时间", "kind", "offline_batch");
+
+    public static final LongAdder DECODE_ERRORS_JSON = REGISTRY.counter("chat_decode_errors_total",
+            "无法解析的消息帧", "format", "json");
+    public static final LongAdder DECODE_ERRORS_BINARY = REGISTRY.counter("chat_decode_errors_total",
+            "无法解析的消息帧", "format", "binary");
+
+    public static final LongAdder BYTES_RECEIVED = REGISTRY.counter("chat_received_bytes_total",
+            "从客户端收到的字节数");
+    public static final LongAdder PACKETS_SENT = REGISTRY.counter("chat_sent_packets_total",
+            "已写出到客户端的帧数", "result", "ok");
+    public static final LongAdder PACKETS_SEND_FAILED = REGISTRY.counter("chat_sent_packets_total",
+            "已写出到客户端的帧数", "result", "failed");
+
+    /** permessage-deflate：参与压缩的负载字节数与压缩后的字节数（未变小而原样发送的按原长计） */
+    public static final LongAdder DEFLATE_RAW_BYTES = REGISTRY.counter("chat_deflate_bytes_total",
+            "permessage-deflate 压缩前后的负载字节数", "stage", "raw");
+    public static final LongAdder DEFLATE_COMPRESSED_BYTES = REGISTRY.counter("chat_deflate_bytes_total",
+            "permessage-deflate 压缩前后的负载字节数", "stage", "compressed");
+    public static final LongAdder INFLATE_ERRORS = REGISTRY.counter("chat_decode_errors_total",
+            "无法解析的消息帧", "format", "deflate");
+
+    public static final LongAdder FANOUT_PARALLEL = REGISTRY.counter("chat_fanout_parallel_total",
+            "交给工作线程并行发送的大群群发次数");
+
+    /** 慢消费者策略（见 OutboundService） */
+    public static final LongAdder OUTBOUND_PRESENCE_COALESCED = REGISTRY.counter("chat_outbound_actions_total",
+            "发送队列积压时的处理次数", "action", "presence_coalesced");
+    public static final LongAdder OUTBOUND_PRESENCE_DROPPED = REGISTRY.counter("chat_outbound_actions_total",
+            "发送队列积压时的处理次数", "action", "presence_dropped");
+    public static final LongAdder OUTBOUND_CHAT_DEFERRED = REGISTRY.counter("chat_outbound_actions_total",
+            "发送队列积压时的处理次数", "action", "chat_deferred");
+    public static final LongAdder OUTBOUND_RESYNCED = REGISTRY.counter("chat_outbound_actions_total",
+            "发送队列积压时的处理次数", "action", "conversation_resynced");
+    public static final LongAdder OUTBOUND_DISCONNECTED = REGISTRY.counter("chat_outbound_actions_total",
+            "发送队列积压时的处理次数", "action", "disconnected");
+
+    /** 可恢复会话（见 SessionService） */
+    public static final LongAdder SESSIONS_RESUMED = REGISTRY.counter("chat_session_resume_total",
+            "可恢复会话的结果", "result", "resumed");
+    public static final LongAdder SESSIONS_RESUME_FAILED = REGISTRY.counter("chat_session_resume_total",
+            "可恢复会话的结果", "result", "rejected");
+    public static final LongAdder SESSIONS_EXPIRED = REGISTRY.counter("chat_session_resume_total",
+            "可恢复会话的结果", "result", "expired");
+
+    /** 发送方去重窗口识别出的重发消息（见 MessagePipeline） */
+    public static final LongAdder DUPLICATES_ACKED = REGISTRY.counter("chat_duplicate_messages_total",
+            "同一发送方用同一 msgId 重发的消息数", "state", "acked");
+    public static final LongAdder DUPLICATES_IN_FLIGHT = REGISTRY.counter("chat_duplicate_messages_total",
+            "同一发送方用同一 msgId 重发的消息数", "state", "in_flight");
+
+    /** 已写入会话日志、但离线副本写入或刷盘失败的消息（仍回复 ACK，见 MessagePipeline） */
+    public static final LongAdder OFFLINE_COPY_FAILURES = REGISTRY.counter("chat_offline_copy_failures_total",
+            "已写入会话日志但离线副本写入失败的消息数");
+
+    /** 登录时按服务端保存的成员游标补发的群会话数（见 GroupTimelineService） */
+    public static final LongAdder GROUP_TIMELINE_REPLAYS = REGISTRY.counter("chat_group_timeline_replays_total",
+            "登录时按服务端成员游标补发的群会话数");
+
+    private ChatMetrics() {
+    }
+
+    /**
+     * cmd 对应的处理耗时
+     */
+    public static LatencyTimer handleTimer(Integer cmd) {
+        if (cmd != null && cmd >= 0 && cmd < CMD_TIMERS.length) {
+            LatencyTimer timer = CMD_TIMERS[cmd];
+            if (timer != null) {
+                return timer;
+            }
+        }
+        return OTHER_CMD_TIMER;
+    }
+}
@@ -0,0 +1,83 @@
+package org.tio.chat.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LatencyTimer
+ *
+ * 延迟分布，基于 HdrHistogram 的 Recorder：记录是无锁的（一次原子自增 + 写桶），
+ * 只有导出时才切换双缓冲、合并直方图。单位为微秒，超过上限的值按上限记录。
+ *
+ * 分位数按最近一到两个窗口计算（当前窗口 + 上一个窗口），反映最近的延迟而不是进程启动以来的累计；
+ * 次数与总和为累计值，可以在 Prometheus 中求速率。
+ */
+public final class LatencyTimer {
+
+    /** 可记录的最大值：60 秒 */
+    static final long HIGHEST_MICROS = TimeUnit.SECONDS.toMicros(60);
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private final long windowMs;
+    private final Recorder recorder = new Recorder(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+    private Histogram interval;
+    private Histogram current = new Histogram(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+    private Histogram previous = new Histogram(HIGHEST_MICROS, SIGNIFICANT_DIGITS);
+    private long windowStart = System.currentTimeMillis();
+    private long totalCount;
+    private double totalMicros;
+
+    LatencyTimer(long windowMs) {
+        this.windowMs = windowMs;
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    public void recordMicros(long micros) {
+        recorder.recordValue(Math.max(0, Math.min(micros, HIGHEST_MICROS)));
+    }
+
+    /**
+     * 从 startNanos（System.nanoTime）到现在
+     */
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 导出用的快照：最近窗口的分布 + 累计次数与总和
+     */
+    synchronized Snapshot snapshot() {
+        interval = recorder.getIntervalHistogram(interval);
+        totalCount += interval.getTotalCount();
+        totalMicros += interval.getMean() * interval.getTotalCount();
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= windowMs) {
+            Histogram recycled = previous;
+            previous = current;
+            current = recycled;
+            current.reset();
+            windowStart = now;
+        }
+        current.add(interval);
+        Histogram recent = current.copy();
+        recent.add(previous);
+        return new Snapshot(recent, totalCount, totalMicros);
+    }
+
+    static final class Snapshot {
+        final Histogram recent;
+        final long count;
+        final double sumMicros;
+
+        Snapshot(Histogram recent, long count, double sumMicros) {
+            this.recent = recent;
+            this.count = count;
+            this.sumMicros = sumMicros;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.tio.chat.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * MetricsHttpServer
+ *
+ * 只读的 HTTP 端点：GET /metrics 返回 Prometheus 文本格式的指标。
+ * 使用 JDK 自带的 HttpServer，单线程处理，与 WebSocket 端口分开，便于只对内网开放。
+ */
+public class MetricsHttpServer {
+    private static final Logger log = LoggerFactory.getLogger(MetricsHttpServer.class);
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+
+    private MetricsHttpServer(HttpServer server) {
+        this.server = server;
+    }
+
+    public static MetricsHttpServer start(InetSocketAddress address, MetricsRegistry registry) throws IOException {
+        HttpServer server = HttpServer.create(address, 16);
+        server.createContext("/metrics", exchange -> handle(exchange, registry));
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+        log.info("指标端点已启动: http://{}:{}/metrics", address.getHostString(), server.getAddress().getPort());
+        return new MetricsHttpServer(server);
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private static void handle(HttpExchange exchange, MetricsRegistry registry) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body;
+            int status = 200;
+            try {
+                body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+            } catch (RuntimeException e) {
+                log.error("导出指标失败", e);
+                body = ("# 导出指标失败: " + e + "\n").getBytes(StandardCharsets.UTF_8);
+                status = 500;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
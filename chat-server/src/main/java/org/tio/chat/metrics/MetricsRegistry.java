@@ -0,0 +1,147 @@
+package org.tio.chat.metrics;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * MetricsRegistry
+ *
+ * 指标注册表：计数器（LongAdder）、仪表（读取时回调）、延迟分布（{@link LatencyTimer}）。
+ * 注册在启动或第一次使用时完成（加锁），热路径只持有返回的对象直接记录，不再查表。
+ * 同名同标签重复注册返回已有的对象。
+ *
+ * 动态的样本（如按 IP 的统计）通过 {@link Collector} 在导出时生成。
+ */
+public class MetricsRegistry {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * 导出时回调，直接写入样本
+     */
+    public interface Collector {
+        void collect(PrometheusWriter writer);
+    }
+
+    private static final class Family {
+        final String name;
+        final String type;
+        final String help;
+        /** 渲染后的标签 -> LongAdder / LongSupplier / LatencyTimer */
+        final Map<String, Object> series = new LinkedHashMap<>();
+
+        Family(String name, String type, String help) {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+    private final List<Collector> collectors = new CopyOnWriteArrayList<>();
+    private final long timerWindowMs;
+
+    /**
+     * @param timerWindowMs 延迟分位数的统计窗口
+     */
+    public MetricsRegistry(long timerWindowMs) {
+        this.timerWindowMs = timerWindowMs;
+    }
+
+    /**
+     * @param labels name1, value1, name2, value2...
+     */
+    public synchronized LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) series(name, "counter", help, labels, LongAdder::new);
+    }
+
+    public synchronized LatencyTimer timer(String name, String help, String... labels) {
+        return (LatencyTimer) series(name, "summary", help, labels, () -> new LatencyTimer(timerWindowMs));
+    }
+
+    /**
+     * 注册仪表，同名同标签再次注册时替换读取回调
+     */
+    public synchronized void gauge(String name, String help, LongSupplier value, String... labels) {
+        family(name, "gauge", help).series.put(PrometheusWriter.labels(labels), value);
+    }
+
+    /**
+     * 注册由组件自己累计的计数器（读取时回调），同名同标签再次注册时替换读取回调
+     */
+    public synchronized void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, "counter", help).series.put(PrometheusWriter.labels(labels), value);
+    }
+
+    public void addCollector(Collector collector) {
+        collectors.add(collector);
+    }
+
+    /**
+     * 按 Prometheus 文本格式导出全部指标
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(8192);
+        PrometheusWriter writer = new PrometheusWriter(sb);
+        List<Family> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(families.size());
+            for (Family family : families.values()) {
+                Family copy = new Family(family.name, family.type, family.help);
+                copy.series.putAll(family.series);
+                snapshot.add(copy);
+            }
+        }
+        for (Family family : snapshot) {
+            writer.family(family.name, family.type, family.help);
+            for (Map.Entry<String, Object> entry : family.series.entrySet()) {
+                write(writer, family.name, entry.getKey(), entry.getValue());
+            }
+        }
+        for (Collector collector : collectors) {
+            collector.collect(writer);
+        }
+        return sb.toString();
+    }
+
+    private static void write(PrometheusWriter writer, String name, String labels, Object value) {
+        if (value instanceof LongAdder) {
+            writer.sample(name, labels, ((LongAdder) value).sum());
+        } else if (value instanceof LongSupplier) {
+            writer.sample(name, labels, ((LongSupplier) value).getAsLong());
+        } else if (value instanceof LatencyTimer) {
+            LatencyTimer.Snapshot s = ((LatencyTimer) value).snapshot();
+            Histogram recent = s.recent;
+            for (double q : QUANTILES) {
+                writer.sample(name, PrometheusWriter.withLabel(labels, "quantile", String.valueOf(q)),
+                        recent.getTotalCount() == 0 ? 0 : recent.getValueAtPercentile(q * 100) / 1e6);
+            }
+            writer.sample(name, PrometheusWriter.withLabel(labels, "quantile", "1"), recent.getMaxValue() / 1e6);
+            writer.sample(name + "_sum", labels, s.sumMicros / 1e6);
+            writer.sample(name + "_count", labels, s.count);
+        }
+    }
+
+    private Object series(String name, String type, String help, String[] labels, Supplier<Object> factory) {
+        return family(name, type, help).series.computeIfAbsent(PrometheusWriter.labels(labels), k -> factory.get());
+    }
+
+    private Family family(String name, String type, String help) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = new Family(name, type, help);
+            families.put(name, family);
+        } else if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("指标 " + name + " 已注册为 " + family.type);
+        }
+        return family;
+    }
+}
@@ -0,0 +1,87 @@
+package org.tio.chat.metrics;
+
+/**
+ * PrometheusWriter
+ *
+ * 按 Prometheus 文本格式（0.0.4）输出指标：每个指标族先写 HELP / TYPE，再写样本行。
+ */
+public final class PrometheusWriter {
+
+    private final StringBuilder out;
+
+    PrometheusWriter(StringBuilder out) {
+        this.out = out;
+    }
+
+    public void family(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ');
+        for (int i = 0; i < help.length(); i++) {
+            char c = help.charAt(i);
+            if (c == '\\') {
+                out.append("\\\\");
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * @param labels {@link #labels} 的结果，没有标签时为空字符串
+     */
+    public void sample(String name, String labels, double value) {
+        out.append(name).append(labels).append(' ');
+        if (value == (long) value) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /**
+     * 把 name1, value1, name2, value2... 渲染为 {name1="value1",...}
+     */
+    public static String labels(String... pairs) {
+        if (pairs == null || pairs.length == 0) {
+            return "";
+        }
+        if (pairs.length % 2 != 0) {
+            throw new IllegalArgumentException("标签必须成对出现");
+        }
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(pairs[i]).append("=\"");
+            String value = pairs[i + 1] == null ? "" : pairs[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * 在已渲染的标签后追加一个标签
+     */
+    static String withLabel(String labels, String name, String value) {
+        String extra = labels(name, value);
+        if (labels.isEmpty()) {
+            return extra;
+        }
+        return labels.substring(0, labels.length() - 1) + "," + extra.substring(1);
+    }
+}
@@ -1,12 +1,11 @@
 package org.tio.chat.model;
 
 import com.fasterxml.jackson.annotation.JsonAlias;
-import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
-import org.tio.core.ChannelContext;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.Map;
 
 /**
  * ChatMessage
@@ -21,6 +20,9 @@ import java.util.List;
  *  - nickname: 发送者昵称（展示用途，可由前端或服务端补齐）。
  *  - message: 消息正文（实际业务字段）。使用 @JsonAlias 接受 "text" 等别名，兼容前端不同写法。
  *  - timestamp: 毫秒级时间戳（客户端或服务端写入）。
+ *  - conv / seq: 所属会话与服务端分配的会话内序号（私聊 "p:小id:大id"，群聊 "g:群id"），客户端据此检测缺口。
+ *  - cursors: 客户端各会话已收到的最大 seq（cmd=1 登录、cmd=104 同步时携带）。
+ *  - limit: 历史消息（cmd=108）单页条数。
  *
  * 注意：
  *  - 序列化时只输出非 null 字段（@JsonInclude.NON_NULL）。
@@ -30,10 +32,6 @@ import java.util.List;
 public class ChatMessage implements Serializable {
     private static final long serialVersionUID = 1L;
 
-    @JsonIgnore
-    private transient ChannelContext channelContext;
-
-
     /** 命令类型（1=登录，2=私聊，3=群聊，...） */
     private Integer cmd;
 
@@ -69,6 +67,21 @@ public class ChatMessage implements Serializable {
     /** 消息id对列用于返回确认 **/
     private List<String> msgIds;
 
+    /** 批量消息（cmd=102 离线消息批量同步时携带） **/
+    private List<ChatMessage> messages;
+
+    /** 会话内序号（服务端分配，同一会话严格递增、连续） */
+    private Long seq;
+
+    /** 会话 id（私聊 "p:小id:大id"，群聊 "g:群id"） */
+    private String conv;
+
+    /** 客户端各会话已收到的最大 seq，key 为会话 id **/
+    private Map<String, Long> cursors;
+
+    /** 单页条数（cmd=108 历史消息分页时携带） **/
+    private Integer limit;
+
     public ChatMessage() {
     }
 
@@ -87,14 +100,6 @@ public class ChatMessage implements Serializable {
 
     /* ------------------- getters / setters ------------------- */
 
-    public ChannelContext getChannelContext() {
-        return channelContext;
-    }
-
-    public void setChannelContext(ChannelContext channelContext) {
-        this.channelContext = channelContext;
-    }
-
     public Boolean getRead() {
         return read;
     }
@@ -106,6 +111,21 @@ public class ChatMessage implements Serializable {
     public List<String> getMsgIds() { return msgIds; }
     public void setMsgIds(List<String> msgIds) { this.msgIds = msgIds; }
 
+    public List<ChatMessage> getMessages() { return messages; }
+    public void setMessages(List<ChatMessage> messages) { this.messages = messages; }
+
+    public Long getSeq() { return seq; }
+    public void setSeq(Long seq) { this.seq = seq; }
+
+    public String getConv() { return conv; }
+    public void setConv(String conv) { this.conv = conv; }
+
+    public Map<String, Long> getCursors() { return cursors; }
+    public void setCursors(Map<String, Long> cursors) { this.cursors = cursors; }
+
+    public Integer getLimit() { return limit; }
+    public void setLimit(Integer limit) { this.limit = limit; }
+
     public Integer getCmd() {
         return cmd;
     }
@@ -205,6 +225,8 @@ public class ChatMessage implements Serializable {
                 ", msgId='" + msgId + '\'' +
                 ", read=" + read +
                 ", msgIds=" + msgIds +
+                ", conv='" + conv + '\'' +
+                ", seq=" + seq +
                 '}';
     }
 }
\ No newline at end of file
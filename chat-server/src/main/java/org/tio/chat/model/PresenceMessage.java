@@ -0,0 +1,83 @@
+package org.tio.chat.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * PresenceMessage
+ *
+ * 上下线增量通知（cmd=103），每个统计周期最多广播一帧。
+ *
+ *  - online / offline: 本周期内上线、下线的 userId（同一周期内上线又下线的互相抵消），最多列出 presence.delta.max.users 个；
+ *  - omitted: 因超出上限未列出的人数；
+ *  - count: 当前在线人数（按 userId 去重）；
+ *  - from / message: 兼容旧客户端，按系统消息展示的摘要文字。
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PresenceMessage {
+
+    private Integer cmd = 103;
+    private String from;
+    private String message;
+    private List<String> online;
+    private List<String> offline;
+    private Integer omitted;
+    private Integer count;
+
+    public Integer getCmd() {
+        return cmd;
+    }
+
+    public void setCmd(Integer cmd) {
+        this.cmd = cmd;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public void setFrom(String from) {
+        this.from = from;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public List<String> getOnline() {
+        return online;
+    }
+
+    public void setOnline(List<String> online) {
+        this.online = online;
+    }
+
+    public List<String> getOffline() {
+        return offline;
+    }
+
+    public void setOffline(List<String> offline) {
+        this.offline = offline;
+    }
+
+    public Integer getOmitted() {
+        return omitted;
+    }
+
+    public void setOmitted(Integer omitted) {
+        this.omitted = omitted;
+    }
+
+    public Integer getCount() {
+        return count;
+    }
+
+    public void setCount(Integer count) {
+        this.count = count;
+    }
+}
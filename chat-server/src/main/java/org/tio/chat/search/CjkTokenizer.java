@@ -0,0 +1,146 @@
+package org.tio.chat.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * CjkTokenizer
+ *
+ * 全文索引的分词：不依赖词典，中日韩文字按相邻两字切分（bigram），其他文字按字母数字连续段切成单词。
+ *  - 归一化：全角 ASCII 转半角，字母转小写；
+ *  - 索引时中日韩文字的每个单字与每对相邻两字都作为词项，单字词项用于只输入一个字的查询；
+ *  - 查询时连续两字以上的中日韩片段只取 bigram，单独一个字取单字，所有词项取交集；
+ *  - bigram 交集只保证每对相邻两字都出现，不保证连在一起（"大学在北京，京大" 含有 "北京大学" 的全部 bigram），
+ *    因此查询结果需用 {@link #phrases(String)} 对原文做子串确认。
+ */
+public final class CjkTokenizer {
+
+    /** 单词词项的最大字符数，更长的截断 */
+    static final int MAX_WORD_LENGTH = 32;
+
+    private CjkTokenizer() {
+    }
+
+    /**
+     * 索引用的词项（去重）
+     */
+    public static Set<String> indexTerms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String run : runs(text)) {
+            if (isCjk(run.codePointAt(0))) {
+                int prev = -1;
+                for (int i = 0; i < run.length(); ) {
+                    int cp = run.codePointAt(i);
+                    terms.add(new String(Character.toChars(cp)));
+                    if (prev >= 0) {
+                        terms.add(new StringBuilder(4).appendCodePoint(prev).appendCodePoint(cp).toString());
+                    }
+                    prev = cp;
+                    i += Character.charCount(cp);
+                }
+            } else {
+                terms.add(truncate(run));
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * 查询用的词项（去重），文档须包含全部词项
+     */
+    public static Set<String> queryTerms(String query) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String run : runs(query)) {
+            if (!isCjk(run.codePointAt(0))) {
+                terms.add(truncate(run));
+            } else if (run.codePointCount(0, run.length()) == 1) {
+                terms.add(run);
+            } else {
+                int prev = -1;
+                for (int i = 0; i < run.length(); ) {
+                    int cp = run.codePointAt(i);
+                    if (prev >= 0) {
+                        terms.add(new StringBuilder(4).appendCodePoint(prev).appendCodePoint(cp).toString());
+                    }
+                    prev = cp;
+                    i += Character.charCount(cp);
+                }
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * 查询中归一化后的各个片段，命中的原文（同样归一化）须包含每个片段
+     */
+    public static List<String> phrases(String query) {
+        return runs(query);
+    }
+
+    /**
+     * 全角 ASCII 转半角、字母转小写
+     */
+    public static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '！' && c <= '～') {
+                c = (char) (c - 0xFEE0);
+            } else if (c == '　') {
+                c = ' ';
+            }
+            sb.append(c);
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 切成同类字符的连续片段：中日韩文字片段、字母数字片段，其余字符为分隔
+     */
+    private static List<String> runs(String text) {
+        List<String> runs = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return runs;
+        }
+        String s = normalize(text);
+        int start = -1;
+        boolean cjk = false;
+        for (int i = 0; i < s.length(); ) {
+            int cp = s.codePointAt(i);
+            boolean isCjk = isCjk(cp);
+            boolean isWord = !isCjk && Character.isLetterOrDigit(cp);
+            if (start >= 0 && (!(isCjk || isWord) || isCjk != cjk)) {
+                runs.add(s.substring(start, i));
+                start = -1;
+            }
+            if (start < 0 && (isCjk || isWord)) {
+                start = i;
+                cjk = isCjk;
+            }
+            i += Character.charCount(cp);
+        }
+        if (start >= 0) {
+            runs.add(s.substring(start));
+        }
+        return runs;
+    }
+
+    static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static String truncate(String word) {
+        if (word.length() <= MAX_WORD_LENGTH) {
+            return word;
+        }
+        int end = word.offsetByCodePoints(0, Math.min(MAX_WORD_LENGTH, word.codePointCount(0, word.length())));
+        return word.substring(0, end);
+    }
+}
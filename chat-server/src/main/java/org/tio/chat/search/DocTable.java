@@ -0,0 +1,192 @@
+package org.tio.chat.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DocTable
+ *
+ * docId → (会话, seq) 的映射，索引中只保存 docId，命中后按会话 seq 从会话日志读取原文。
+ * <pre>
+ *  docs.dat   每个文档 12 字节：int 会话编号 | long seq，按 docId 顺序存放，分块只读写映射（不占堆）
+ *  convs.dat  会话编号 → 会话 id：依次为 short len | UTF-8 会话 id，编号即出现顺序
+ * </pre>
+ * seq 从 1 开始，docs.dat 中 seq 为 0 的记录即未写入，打开时据此确定文档数。
+ * 只有索引线程写入；查询线程读取时以 volatile 的文档数为界。
+ */
+final class DocTable implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(DocTable.class);
+
+    private static final String DOCS_FILE = "docs.dat";
+    private static final String CONVS_FILE = "convs.dat";
+    private static final int RECORD_SIZE = 12;
+    private static final int CHUNK_DOCS = 1 << 20;
+
+    private final FileChannel docChannel;
+    private final FileChannel convChannel;
+    private volatile MappedByteBuffer[] chunks;
+    private volatile int count;
+    private final List<String> convs;
+    private final Map<String, Integer> convIds;
+
+    private DocTable(FileChannel docChannel, FileChannel convChannel, List<String> convs) {
+        this.docChannel = docChannel;
+        this.convChannel = convChannel;
+        this.convs = convs;
+        this.convIds = new HashMap<>(convs.size() * 4 / 3 + 16);
+        for (int i = 0; i < convs.size(); i++) {
+            convIds.put(convs.get(i), i);
+        }
+    }
+
+    static DocTable open(File dir) throws IOException {
+        FileChannel convChannel = FileChannel.open(new File(dir, CONVS_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        List<String> convs = readConvs(convChannel);
+        FileChannel docChannel = FileChannel.open(new File(dir, DOCS_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        DocTable table = new DocTable(docChannel, convChannel, convs);
+        int chunkCount = (int) ((docChannel.size() + (long) CHUNK_DOCS * RECORD_SIZE - 1) / ((long) CHUNK_DOCS * RECORD_SIZE));
+        MappedByteBuffer[] chunks = new MappedByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            chunks[i] = table.map(i);
+        }
+        table.chunks = chunks;
+        // 记录按顺序写入，已写入的在前、全零的在后，二分找第一条未写入的记录
+        int lo = 0;
+        int hi = chunkCount * CHUNK_DOCS;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (table.seqAt(mid) != 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        table.count = lo;
+        return table;
+    }
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * 追加一个文档，返回 docId（只由索引线程调用）
+     */
+    int add(String conv, long seq) throws IOException {
+        Integer convId = convIds.get(conv);
+        if (convId == null) {
+            byte[] bytes = conv.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = ByteBuffer.allocate(2 + bytes.length);
+            record.putShort((short) bytes.length).put(bytes).flip();
+            while (record.hasRemaining()) {
+                convChannel.write(record);
+            }
+            convId = convs.size();
+            synchronized (convs) {
+                convs.add(conv);
+            }
+            convIds.put(conv, convId);
+        }
+        int doc = count;
+        int chunk = doc / CHUNK_DOCS;
+        MappedByteBuffer[] current = chunks;
+        if (chunk == current.length) {
+            MappedByteBuffer[] grown = Arrays.copyOf(current, chunk + 1);
+            grown[chunk] = map(chunk);
+            chunks = grown;
+            current = grown;
+        }
+        int offset = (doc % CHUNK_DOCS) * RECORD_SIZE;
+        current[chunk].putInt(offset, convId);
+        current[chunk].putLong(offset + 4, seq);
+        count = doc + 1;
+        return doc;
+    }
+
+    int convId(int doc) {
+        return chunks[doc / CHUNK_DOCS].getInt((doc % CHUNK_DOCS) * RECORD_SIZE);
+    }
+
+    long seq(int doc) {
+        return seqAt(doc);
+    }
+
+    String conv(int convId) {
+        synchronized (convs) {
+            return convs.get(convId);
+        }
+    }
+
+    /**
+     * 把已写入的记录与会话表刷盘；写索引段前调用，保证段内的 docId 重启后都能解析
+     */
+    void force() throws IOException {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+        convChannel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        docChannel.close();
+        convChannel.close();
+    }
+
+    private long seqAt(int doc) {
+        return chunks[doc / CHUNK_DOCS].getLong((doc % CHUNK_DOCS) * RECORD_SIZE + 4);
+    }
+
+    private MappedByteBuffer map(int chunk) throws IOException {
+        long size = (long) CHUNK_DOCS * RECORD_SIZE;
+        return docChannel.map(FileChannel.MapMode.READ_WRITE, chunk * size, size);
+    }
+
+    /**
+     * 读取会话表，截掉崩溃时写了一半的尾部
+     */
+    private static List<String> readConvs(FileChannel channel) throws IOException {
+        List<String> convs = new ArrayList<>();
+        long size = channel.size();
+        if (size == 0) {
+            return convs;
+        }
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        int pos = 0;
+        while (pos + 2 <= size) {
+            int len = buf.getShort(pos) & 0xFFFF;
+            if (pos + 2 + len > size) {
+                break;
+            }
+            byte[] bytes = new byte[len];
+            for (int i = 0; i < len; i++) {
+                bytes[i] = buf.get(pos + 2 + i);
+            }
+            convs.add(new String(bytes, StandardCharsets.UTF_8));
+            pos += 2 + len;
+        }
+        if (pos < size) {
+            log.warn("会话表末尾 {} 字节不完整，已截断", size - pos);
+            channel.truncate(pos);
+        }
+        channel.position(pos);
+        return convs;
+    }
+}
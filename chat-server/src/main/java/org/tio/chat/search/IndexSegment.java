@@ -0,0 +1,264 @@
+package org.tio.chat.search;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * IndexSegment
+ *
+ * 不可变的索引段文件，整个文件只读映射，查询不占堆内存。文件格式（大端）：
+ * <pre>
+ *  header(24B): int magic | int version | int baseDoc | int endDoc | int termCount | int tableOffset
+ *  倒排表区：各词项的倒排表（见 {@link Postings}）
+ *  词典区：  termCount × (short len | UTF-8 词项 | int 倒排表位置)，按 UTF-8 字节序排列
+ *  词典表：  termCount × int 词典条目位置，查询时二分
+ * </pre>
+ * 段覆盖 [baseDoc, endDoc) 区间内的文档。写入先写临时文件、fsync 后原子改名，崩溃不会留下半个段。
+ */
+final class IndexSegment {
+
+    static final String SUFFIX = ".seg";
+
+    private static final int MAGIC = 0x43485349; // "CHSI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    /** 按无符号字节序比较 UTF-8 词项 */
+    static final Comparator<byte[]> TERM_ORDER = IndexSegment::compareTerms;
+
+    final File file;
+    final int baseDoc;
+    final int endDoc;
+    private final int termCount;
+    private final int tableOffset;
+    private final MappedByteBuffer buf;
+
+    private IndexSegment(File file, MappedByteBuffer buf) throws IOException {
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IOException("索引段格式不匹配: " + file);
+        }
+        this.file = file;
+        this.buf = buf;
+        this.baseDoc = buf.getInt(8);
+        this.endDoc = buf.getInt(12);
+        this.termCount = buf.getInt(16);
+        this.tableOffset = buf.getInt(20);
+    }
+
+    static IndexSegment open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new IndexSegment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    static String fileName(int baseDoc, int endDoc) {
+        return String.format("%010d-%010d%s", baseDoc, endDoc, SUFFIX);
+    }
+
+    long sizeBytes() {
+        return buf.capacity();
+    }
+
+    int termCount() {
+        return termCount;
+    }
+
+    /**
+     * 词项的倒排表，不存在时返回 null
+     */
+    Postings.DocIterator postings(String term) {
+        int offset = find(term.getBytes(StandardCharsets.UTF_8));
+        return offset < 0 ? null : new Postings.BlockIterator(buf, offset);
+    }
+
+    /**
+     * 把内存段（词项 → 倒排表，已按 {@link #TERM_ORDER} 排序）写成段文件
+     */
+    static IndexSegment write(File file, int baseDoc, int endDoc, Iterator<Map.Entry<byte[], Postings.Writer>> terms)
+            throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        List<byte[]> names = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.write(new byte[HEADER_SIZE]);
+            while (terms.hasNext()) {
+                Map.Entry<byte[], Postings.Writer> entry = terms.next();
+                names.add(entry.getKey());
+                offsets.add(out.size());
+                entry.getValue().writeTo(out);
+            }
+            finish(out, tmp, baseDoc, endDoc, names, offsets);
+        }
+        return install(tmp, file);
+    }
+
+    /**
+     * 合并若干相邻的段（按 baseDoc 升序、区间互不重叠），同一词项的倒排表按段顺序拼接
+     */
+    static IndexSegment merge(File file, List<IndexSegment> parts) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        List<byte[]> names = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        PriorityQueue<MergeCursor> queue = new PriorityQueue<>((a, b) -> {
+            int c = compareTerms(a.term, b.term);
+            return c != 0 ? c : Integer.compare(a.part, b.part);
+        });
+        for (int i = 0; i < parts.size(); i++) {
+            if (parts.get(i).termCount > 0) {
+                queue.add(new MergeCursor(i, parts.get(i).termAt(0)));
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.write(new byte[HEADER_SIZE]);
+            while (!queue.isEmpty()) {
+                MergeCursor head = queue.poll();
+                byte[] term = head.term;
+                Postings.Writer postings = new Postings.Writer();
+                advance(queue, parts, head, postings);
+                // 段号小的先出队，docId 保持升序
+                while (!queue.isEmpty() && compareTerms(queue.peek().term, term) == 0) {
+                    advance(queue, parts, queue.poll(), postings);
+                }
+                names.add(term);
+                offsets.add(out.size());
+                postings.writeTo(out);
+            }
+            finish(out, tmp, parts.get(0).baseDoc, parts.get(parts.size() - 1).endDoc, names, offsets);
+        }
+        return install(tmp, file);
+    }
+
+    /**
+     * 合并时某个段的当前词项
+     */
+    private static final class MergeCursor {
+        final int part;
+        int index;
+        byte[] term;
+
+        MergeCursor(int part, byte[] term) {
+            this.part = part;
+            this.term = term;
+        }
+    }
+
+    private static void advance(PriorityQueue<MergeCursor> queue, List<IndexSegment> parts, MergeCursor cursor,
+                                Postings.Writer postings) {
+        IndexSegment part = parts.get(cursor.part);
+        new Postings.BlockIterator(part.buf, part.postingOffsetAt(cursor.index)).forEach(postings);
+        if (++cursor.index < part.termCount) {
+            cursor.term = part.termAt(cursor.index);
+            queue.add(cursor);
+        }
+    }
+
+    private static void finish(DataOutputStream out, File tmp, int baseDoc, int endDoc,
+                               List<byte[]> names, List<Integer> offsets) throws IOException {
+        int[] entries = new int[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            entries[i] = out.size();
+            out.writeShort(names.get(i).length);
+            out.write(names.get(i));
+            out.writeInt(offsets.get(i));
+        }
+        int tableOffset = out.size();
+        for (int entry : entries) {
+            out.writeInt(entry);
+        }
+        // DataOutputStream 的计数在溢出时停在 Integer.MAX_VALUE
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new IOException("索引段超过 2GB: " + tmp);
+        }
+        out.flush();
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.writeInt(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeInt(baseDoc);
+            raf.writeInt(endDoc);
+            raf.writeInt(names.size());
+            raf.writeInt(tableOffset);
+            raf.getFD().sync();
+        }
+    }
+
+    private static IndexSegment install(File tmp, File file) throws IOException {
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return open(file);
+    }
+
+    /**
+     * 二分查找词项，返回其倒排表位置，不存在时返回 -1
+     */
+    private int find(byte[] term) {
+        int lo = 0;
+        int hi = termCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareAt(buf.getInt(tableOffset + mid * 4), term);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return postingOffsetAt(mid);
+            }
+        }
+        return -1;
+    }
+
+    private byte[] termAt(int i) {
+        int entry = buf.getInt(tableOffset + i * 4);
+        byte[] term = new byte[buf.getShort(entry) & 0xFFFF];
+        for (int k = 0; k < term.length; k++) {
+            term[k] = buf.get(entry + 2 + k);
+        }
+        return term;
+    }
+
+    private int postingOffsetAt(int i) {
+        int entry = buf.getInt(tableOffset + i * 4);
+        return buf.getInt(entry + 2 + (buf.getShort(entry) & 0xFFFF));
+    }
+
+    /**
+     * 比较词典条目与 term，不拷贝条目字节
+     */
+    private int compareAt(int entry, byte[] term) {
+        int len = buf.getShort(entry) & 0xFFFF;
+        int n = Math.min(len, term.length);
+        for (int k = 0; k < n; k++) {
+            int c = (buf.get(entry + 2 + k) & 0xFF) - (term[k] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return len - term.length;
+    }
+
+    private static int compareTerms(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int k = 0; k < n; k++) {
+            int c = (a[k] & 0xFF) - (b[k] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return a.length - b.length;
+    }
+}
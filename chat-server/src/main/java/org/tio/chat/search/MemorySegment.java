@@ -0,0 +1,94 @@
+package org.tio.chat.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * MemorySegment
+ *
+ * 正在写入的索引段，倒排表是堆上只追加的 int 数组。只有索引线程写入；查询线程在对象监视器内取得数组与长度，
+ * 之后只读长度以内的元素（写入方只追加到长度之后、扩容时换新数组），不需要拷贝。文档数达到阈值后由索引线程写成 {@link IndexSegment} 并换成新的内存段。
+ */
+final class MemorySegment {
+
+    private static final class DocList {
+        int[] docs = new int[4];
+        int size;
+
+        void add(int doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+    }
+
+    final int baseDoc;
+    private int endDoc;
+    private final HashMap<String, DocList> postings = new HashMap<>();
+
+    MemorySegment(int baseDoc) {
+        this.baseDoc = baseDoc;
+        this.endDoc = baseDoc;
+    }
+
+    /**
+     * 加入一个文档，doc 须大于已加入的所有文档
+     */
+    synchronized void add(int doc, Iterable<String> terms) {
+        for (String term : terms) {
+            DocList list = postings.get(term);
+            if (list == null) {
+                list = new DocList();
+                postings.put(term, list);
+            }
+            list.add(doc);
+        }
+        endDoc = doc + 1;
+    }
+
+    /**
+     * 跳过一个文档（原文已不可读等），只推进区间
+     */
+    synchronized void skip(int doc) {
+        endDoc = doc + 1;
+    }
+
+    synchronized int endDoc() {
+        return endDoc;
+    }
+
+    synchronized int docCount() {
+        return endDoc - baseDoc;
+    }
+
+    /**
+     * 词项倒排表的快照，不存在时返回 null
+     */
+    synchronized Postings.DocIterator postings(String term) {
+        DocList list = postings.get(term);
+        return list == null ? null : new Postings.ArrayIterator(list.docs, list.size);
+    }
+
+    /**
+     * 写成段文件，由索引线程调用（此时不会有新的写入）
+     */
+    synchronized IndexSegment flush(File dir) throws IOException {
+        TreeMap<byte[], Postings.Writer> sorted = new TreeMap<>(IndexSegment.TERM_ORDER);
+        for (Map.Entry<String, DocList> entry : postings.entrySet()) {
+            Postings.Writer writer = new Postings.Writer();
+            DocList list = entry.getValue();
+            for (int i = 0; i < list.size; i++) {
+                writer.add(list.docs[i]);
+            }
+            sorted.put(entry.getKey().getBytes(StandardCharsets.UTF_8), writer);
+        }
+        return IndexSegment.write(new File(dir, IndexSegment.fileName(baseDoc, endDoc)), baseDoc, endDoc,
+                sorted.entrySet().iterator());
+    }
+}
@@ -0,0 +1,245 @@
+package org.tio.chat.search;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Postings
+ *
+ * 倒排表（按 docId 升序）的压缩编码与遍历。编码格式（大端）：
+ * <pre>
+ *  int docFreq | int blockCount | blockCount × (int lastDoc, int dataOffset) | 各块数据
+ * </pre>
+ * 每块 BLOCK_SIZE 个 docId，存为与前一个 docId 的差值（varint，块内第一个与上一块的 lastDoc 比较，首块与 -1 比较）。
+ * 块表保存每块最后一个 docId，定位时先二分块表、再只解码一个块，不需要从头解码整张表。
+ *
+ * 查询从新到旧取结果，遍历接口为 {@link DocIterator#prev(int)}：不大于 target 的最大 docId。
+ */
+final class Postings {
+
+    static final int BLOCK_SIZE = 128;
+
+    private Postings() {
+    }
+
+    /**
+     * 倒序遍历
+     */
+    interface DocIterator {
+        /**
+         * @return 不大于 target 的最大 docId，没有时为 -1
+         */
+        int prev(int target);
+
+        /** 文档数，用于决定求交集的顺序 */
+        int cost();
+    }
+
+    /**
+     * 按 docId 升序逐个写入，编码为上面的格式
+     */
+    static final class Writer {
+        private byte[] data = new byte[64];
+        private int dataSize;
+        private int[] blockLast = new int[4];
+        private int[] blockOffset = new int[4];
+        private int blocks;
+        private int count;
+        private int last = -1;
+
+        void add(int doc) {
+            if (doc <= last) {
+                throw new IllegalArgumentException("docId 必须严格递增: " + last + " -> " + doc);
+            }
+            if (count % BLOCK_SIZE == 0) {
+                if (blocks == blockLast.length) {
+                    blockLast = Arrays.copyOf(blockLast, blocks * 2);
+                    blockOffset = Arrays.copyOf(blockOffset, blocks * 2);
+                }
+                blockOffset[blocks++] = dataSize;
+            }
+            writeVarint(doc - last);
+            blockLast[blocks - 1] = doc;
+            last = doc;
+            count++;
+        }
+
+        int count() {
+            return count;
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeInt(count);
+            out.writeInt(blocks);
+            for (int i = 0; i < blocks; i++) {
+                out.writeInt(blockLast[i]);
+                out.writeInt(blockOffset[i]);
+            }
+            out.write(data, 0, dataSize);
+        }
+
+        private void writeVarint(int value) {
+            if (dataSize + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                data[dataSize++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[dataSize++] = (byte) value;
+        }
+    }
+
+    /**
+     * 段文件中一张编码后的倒排表，offset 为其在 buf 中的绝对位置；buf 只按绝对位置读取，可多线程共享
+     */
+    static final class BlockIterator implements DocIterator {
+        private final ByteBuffer buf;
+        private final int docFreq;
+        private final int blockCount;
+        private final int blockTable;
+        private final int dataStart;
+        private final int[] decoded = new int[BLOCK_SIZE];
+        private int decodedBlock = -1;
+        private int decodedCount;
+
+        BlockIterator(ByteBuffer buf, int offset) {
+            this.buf = buf;
+            this.docFreq = buf.getInt(offset);
+            this.blockCount = buf.getInt(offset + 4);
+            this.blockTable = offset + 8;
+            this.dataStart = blockTable + blockCount * 8;
+        }
+
+        @Override
+        public int cost() {
+            return docFreq;
+        }
+
+        @Override
+        public int prev(int target) {
+            if (target < 0 || blockCount == 0) {
+                return -1;
+            }
+            // 第一个 lastDoc >= target 的块
+            int lo = 0;
+            int hi = blockCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (lastDoc(mid) < target) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            if (lo == blockCount) {
+                return lastDoc(blockCount - 1);
+            }
+            decode(lo);
+            int i = Arrays.binarySearch(decoded, 0, decodedCount, target);
+            if (i >= 0) {
+                return target;
+            }
+            int insert = -i - 1;
+            if (insert > 0) {
+                return decoded[insert - 1];
+            }
+            return lo == 0 ? -1 : lastDoc(lo - 1);
+        }
+
+        /**
+         * 按升序把全部 docId 写入 out（合并段时使用）
+         */
+        void forEach(Writer out) {
+            for (int b = 0; b < blockCount; b++) {
+                decode(b);
+                for (int i = 0; i < decodedCount; i++) {
+                    out.add(decoded[i]);
+                }
+            }
+        }
+
+        private int lastDoc(int block) {
+            return buf.getInt(blockTable + block * 8);
+        }
+
+        private void decode(int block) {
+            if (decodedBlock == block) {
+                return;
+            }
+            int pos = dataStart + buf.getInt(blockTable + block * 8 + 4);
+            int n = block == blockCount - 1 ? docFreq - block * BLOCK_SIZE : BLOCK_SIZE;
+            int doc = block == 0 ? -1 : lastDoc(block - 1);
+            for (int i = 0; i < n; i++) {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buf.get(pos++);
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                doc += value;
+                decoded[i] = doc;
+            }
+            decodedCount = n;
+            decodedBlock = block;
+        }
+    }
+
+    /**
+     * 内存段中未编码的倒排表：升序数组的前 size 个元素
+     */
+    static final class ArrayIterator implements DocIterator {
+        private final int[] docs;
+        private final int size;
+
+        ArrayIterator(int[] docs, int size) {
+            this.docs = docs;
+            this.size = size;
+        }
+
+        @Override
+        public int cost() {
+            return size;
+        }
+
+        @Override
+        public int prev(int target) {
+            int i = Arrays.binarySearch(docs, 0, size, target);
+            if (i >= 0) {
+                return target;
+            }
+            int insert = -i - 1;
+            return insert == 0 ? -1 : docs[insert - 1];
+        }
+    }
+
+    /**
+     * 所有表都包含的、不大于 target 的最大 docId，没有时为 -1；iterators 按 cost 升序排列时最快
+     */
+    static int intersectPrev(DocIterator[] iterators, int target) {
+        int candidate = target;
+        while (candidate >= 0) {
+            int doc = iterators[0].prev(candidate);
+            if (doc < 0) {
+                return -1;
+            }
+            boolean all = true;
+            for (int i = 1; i < iterators.length; i++) {
+                int other = iterators[i].prev(doc);
+                if (other != doc) {
+                    candidate = other;
+                    all = false;
+                    break;
+                }
+            }
+            if (all) {
+                return doc;
+            }
+        }
+        return -1;
+    }
+}
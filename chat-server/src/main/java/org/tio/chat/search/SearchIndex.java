@@ -0,0 +1,530 @@
+package org.tio.chat.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tio.chat.model.ChatMessage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SearchIndex
+ *
+ * 聊天记录的内嵌全文索引（倒排索引），只保存 docId，原文仍以会话日志为准。
+ *  - 写入：消息落盘后由 {@link #offer} 放入有界队列，不阻塞调用方，队列满时丢弃并计数；
+ *    单个索引线程分词（{@link CjkTokenizer}）后写入内存段，内存段达到 flushDocs 个文档时写成不可变的段文件；
+ *  - 合并：后台线程把 mergeFactor 个同一量级的相邻段合并成一个（分层合并），段数随文档数对数增长；
+ *  - 查询：从新到旧依次查内存段与各段，多个词项的倒排表求交集，命中的文档按会话过滤权限、
+ *    从会话日志读出原文确认包含查询片段；每次最多检查 MAX_EXAMINED 个候选，返回游标供继续查询；
+ *  - 每个文档额外索引一个会话词项，限定会话的查询与其求交集即可。
+ *
+ * 目录结构：docs.dat / convs.dat（见 {@link DocTable}）、若干 .seg 段文件、segments.meta（当前有效的段文件列表，
+ * 先写临时文件再原子改名）。崩溃后：不在列表中的段文件删除；最后一个段之后、已分配 docId 的文档由索引线程
+ * 从会话日志重新读出并索引；尚在队列中的消息不再索引（搜索为尽力而为，不影响消息本身）。
+ */
+public final class SearchIndex implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(SearchIndex.class);
+
+    private static final String META_FILE = "segments.meta";
+    /** 会话词项的前缀，分词结果不含 \u0000，不会与之冲突 */
+    private static final String CONV_TERM_PREFIX = "\u0000c";
+    /** 单次查询最多检查的候选文档数 */
+    static final int MAX_EXAMINED = 5000;
+    /** 合并后的段不超过该大小，已达到的段不再参与合并 */
+    private static final long MAX_MERGED_BYTES = 1L << 30;
+
+    /**
+     * 按会话 seq 读取消息原文（命中确认与崩溃恢复用），不存在时返回 null
+     */
+    public interface MessageLoader {
+        ChatMessage load(String conv, long seq);
+    }
+
+    /**
+     * 会话权限过滤，每次查询中每个会话只调用一次
+     */
+    public interface ConvFilter {
+        boolean accept(String conv);
+    }
+
+    /**
+     * 一条命中
+     */
+    public static final class Hit {
+        public final String conv;
+        public final long seq;
+        public final ChatMessage message;
+
+        Hit(String conv, long seq, ChatMessage message) {
+            this.conv = conv;
+            this.seq = seq;
+            this.message = message;
+        }
+    }
+
+    /**
+     * 一页结果，按从新到旧排列；nextCursor 为 0 表示没有更多结果，否则作为下一次查询的 before
+     */
+    public static final class Page {
+        public final List<Hit> hits;
+        public final int nextCursor;
+
+        Page(List<Hit> hits, int nextCursor) {
+            this.hits = hits;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    /**
+     * 查询看到的一致视图：段按 baseDoc 升序，内存段接在最后一个段之后
+     */
+    private static final class View {
+        final List<IndexSegment> segments;
+        final MemorySegment memory;
+
+        View(List<IndexSegment> segments, MemorySegment memory) {
+            this.segments = segments;
+            this.memory = memory;
+        }
+    }
+
+    private static final class Entry {
+        final String conv;
+        final long seq;
+        final String text;
+
+        Entry(String conv, long seq, String text) {
+            this.conv = conv;
+            this.seq = seq;
+            this.text = text;
+        }
+    }
+
+    private static final Entry STOP = new Entry(null, 0, null);
+
+    private final File dir;
+    private final DocTable docTable;
+    private final int flushDocs;
+    private final int mergeFactor;
+    private final MessageLoader loader;
+    private final BlockingQueue<Entry> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Object viewLock = new Object();
+    private volatile View view;
+    private final Thread indexer;
+    private final ExecutorService merger;
+    private volatile boolean closed;
+
+    private SearchIndex(File dir, DocTable docTable, List<IndexSegment> segments, int flushDocs, int mergeFactor,
+                        int queueCapacity, MessageLoader loader) {
+        this.dir = dir;
+        this.docTable = docTable;
+        this.flushDocs = flushDocs;
+        this.mergeFactor = mergeFactor;
+        this.loader = loader;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        int base = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).endDoc;
+        this.view = new View(Collections.unmodifiableList(segments), new MemorySegment(base));
+        this.indexer = new Thread(this::indexLoop, "search-indexer");
+        this.indexer.setDaemon(true);
+        this.merger = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "search-merge");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 打开（或新建）索引目录并启动索引线程
+     * @param flushDocs     内存段文档数达到该值时写成段文件
+     * @param mergeFactor   同一量级的相邻段达到该数量时合并
+     * @param queueCapacity 待索引队列容量，满时丢弃
+     */
+    public static SearchIndex open(File dir, int flushDocs, int mergeFactor, int queueCapacity, MessageLoader loader)
+            throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建索引目录: " + dir);
+        }
+        List<IndexSegment> segments = loadSegments(dir);
+        DocTable docTable = DocTable.open(dir);
+        int end = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).endDoc;
+        if (docTable.count() < end) {
+            docTable.close();
+            throw new IOException("文档表（" + docTable.count() + "）短于索引段（" + end + "）: " + dir);
+        }
+        SearchIndex index = new SearchIndex(dir, docTable, segments, Math.max(1, flushDocs),
+                Math.max(2, mergeFactor), Math.max(1, queueCapacity), loader);
+        index.indexer.start();
+        index.scheduleMerge();
+        log.info("全文索引已打开: {}，文档数: {}，段数: {}，待恢复: {}", dir.getAbsolutePath(), docTable.count(),
+                segments.size(), docTable.count() - end);
+        return index;
+    }
+
+    /**
+     * 提交一条已落盘的消息，不阻塞；队列已满或已关闭时丢弃
+     * @return 是否已入队
+     */
+    public boolean offer(String conv, long seq, String text) {
+        if (closed || conv == null || seq <= 0 || text == null || text.isEmpty()) {
+            return false;
+        }
+        if (queue.offer(new Entry(conv, seq, text))) {
+            return true;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 查询从新到旧的一页结果
+     * @param query  查询文本，各片段都须出现在原文中
+     * @param conv   限定会话，null 表示所有会话
+     * @param before 游标：只返回 docId 小于它的文档，首页传 Integer.MAX_VALUE
+     * @param limit  最多返回条数
+     * @param filter 会话权限过滤，null 表示不过滤
+     */
+    public Page search(String query, String conv, int before, int limit, ConvFilter filter) {
+        List<String> phrases = CjkTokenizer.phrases(query);
+        Set<String> terms = CjkTokenizer.queryTerms(query);
+        List<Hit> hits = new ArrayList<>();
+        if (terms.isEmpty() || limit <= 0 || before <= 0) {
+            return new Page(hits, 0);
+        }
+        if (conv != null) {
+            terms.add(CONV_TERM_PREFIX + conv);
+        }
+        View current = view;
+        int target = Math.min(before, current.memory.endDoc()) - 1;
+        Map<Integer, Boolean> allowed = new HashMap<>();
+        int examined = 0;
+        for (int s = current.segments.size(); s >= 0 && target >= 0; s--) {
+            int baseDoc = s == current.segments.size() ? current.memory.baseDoc : current.segments.get(s).baseDoc;
+            if (baseDoc > target) {
+                continue;
+            }
+            Postings.DocIterator[] iterators = new Postings.DocIterator[terms.size()];
+            int i = 0;
+            for (String term : terms) {
+                iterators[i] = s == current.segments.size() ? current.memory.postings(term) : current.segments.get(s).postings(term);
+                if (iterators[i++] == null) {
+                    iterators = null;
+                    break;
+                }
+            }
+            if (iterators != null) {
+                Arrays.sort(iterators, Comparator.comparingInt(Postings.DocIterator::cost));
+                int doc;
+                while ((doc = Postings.intersectPrev(iterators, target)) >= 0) {
+                    target = doc - 1;
+                    Hit hit = verify(doc, phrases, allowed, filter);
+                    if (hit != null) {
+                        hits.add(hit);
+                        if (hits.size() >= limit) {
+                            return new Page(hits, doc);
+                        }
+                    }
+                    if (++examined >= MAX_EXAMINED) {
+                        return new Page(hits, doc);
+                    }
+                }
+            }
+            target = Math.min(target, baseDoc - 1);
+        }
+        return new Page(hits, 0);
+    }
+
+    /**
+     * 已分配 docId 的文档数
+     */
+    public int docCount() {
+        return docTable.count();
+    }
+
+    public int segmentCount() {
+        return view.segments.size();
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    /**
+     * 因队列已满而未索引的消息数
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * 索引完队列中的消息并写成段文件后关闭
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(STOP);
+            indexer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        merger.shutdown();
+        try {
+            merger.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        docTable.close();
+    }
+
+    private Hit verify(int doc, List<String> phrases, Map<Integer, Boolean> allowed, ConvFilter filter) {
+        int convId = docTable.convId(doc);
+        Boolean ok = allowed.get(convId);
+        String conv = docTable.conv(convId);
+        if (ok == null) {
+            ok = filter == null || filter.accept(conv);
+            allowed.put(convId, ok);
+        }
+        if (!ok) {
+            return null;
+        }
+        long seq = docTable.seq(doc);
+        ChatMessage message = loader.load(conv, seq);
+        if (message == null || message.getMessage() == null) {
+            return null;
+        }
+        String text = CjkTokenizer.normalize(message.getMessage());
+        for (String phrase : phrases) {
+            if (!text.contains(phrase)) {
+                return null;
+            }
+        }
+        return new Hit(conv, seq, message);
+    }
+
+    private void indexLoop() {
+        recover();
+        while (true) {
+            Entry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (entry == STOP) {
+                break;
+            }
+            try {
+                int doc = docTable.add(entry.conv, entry.seq);
+                view.memory.add(doc, terms(entry.conv, entry.text));
+            } catch (Exception e) {
+                log.error("索引消息失败，conv: {}，seq: {}", entry.conv, entry.seq, e);
+            }
+            if (view.memory.docCount() >= flushDocs) {
+                flush();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * 重新索引最后一个段之后已分配 docId 的文档（上次退出前未写成段文件）
+     */
+    private void recover() {
+        MemorySegment memory = view.memory;
+        int count = docTable.count();
+        for (int doc = memory.baseDoc; doc < count; doc++) {
+            String conv = docTable.conv(docTable.convId(doc));
+            ChatMessage message = null;
+            try {
+                message = loader.load(conv, docTable.seq(doc));
+            } catch (Exception e) {
+                log.warn("恢复索引时读取消息失败，conv: {}，seq: {}", conv, docTable.seq(doc), e);
+            }
+            if (message != null && message.getMessage() != null) {
+                memory.add(doc, terms(conv, message.getMessage()));
+            } else {
+                memory.skip(doc);
+            }
+            if (memory.docCount() >= flushDocs) {
+                flush();
+                memory = view.memory;
+            }
+        }
+    }
+
+    private static Set<String> terms(String conv, String text) {
+        Set<String> terms = CjkTokenizer.indexTerms(text);
+        terms.add(CONV_TERM_PREFIX + conv);
+        return terms;
+    }
+
+    /**
+     * 内存段写成段文件并换成新的内存段（只由索引线程调用）
+     */
+    private void flush() {
+        MemorySegment memory = view.memory;
+        if (memory.docCount() == 0) {
+            return;
+        }
+        try {
+            docTable.force();
+            IndexSegment segment = memory.flush(dir);
+            synchronized (viewLock) {
+                List<IndexSegment> segments = new ArrayList<>(view.segments);
+                segments.add(segment);
+                writeMeta(segments);
+                view = new View(Collections.unmodifiableList(segments), new MemorySegment(memory.endDoc()));
+            }
+            scheduleMerge();
+        } catch (Exception e) {
+            // 内存段保留，达到阈值后下一条消息再试
+            log.error("写入索引段失败，文档 [{}, {})", memory.baseDoc, memory.endDoc(), e);
+        }
+    }
+
+    private void scheduleMerge() {
+        if (!closed) {
+            merger.execute(this::mergeLoop);
+        }
+    }
+
+    /**
+     * 反复合并，直到没有 mergeFactor 个同一量级的相邻段
+     */
+    private void mergeLoop() {
+        List<IndexSegment> parts;
+        while (!closed && (parts = pickMerge(view.segments)) != null) {
+            IndexSegment first = parts.get(0);
+            IndexSegment last = parts.get(parts.size() - 1);
+            long start = System.currentTimeMillis();
+            IndexSegment merged;
+            try {
+                merged = IndexSegment.merge(new File(dir, IndexSegment.fileName(first.baseDoc, last.endDoc)), parts);
+                synchronized (viewLock) {
+                    // 合并期间只会在末尾追加新段，parts 仍是连续的一段
+                    List<IndexSegment> segments = new ArrayList<>(view.segments);
+                    int from = segments.indexOf(first);
+                    segments.subList(from, from + parts.size()).clear();
+                    segments.add(from, merged);
+                    writeMeta(segments);
+                    view = new View(Collections.unmodifiableList(segments), view.memory);
+                }
+            } catch (Exception e) {
+                log.error("合并索引段失败，文档 [{}, {})", first.baseDoc, last.endDoc, e);
+                return;
+            }
+            // 仍在使用旧段的查询持有各自的映射，删除文件不影响它们
+            for (IndexSegment part : parts) {
+                if (!part.file.delete()) {
+                    log.warn("删除已合并的索引段失败: {}", part.file);
+                }
+            }
+            log.info("合并 {} 个索引段为 {}，{}KB，耗时 {}ms", parts.size(), merged.file.getName(),
+                    merged.sizeBytes() / 1024, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * 找最早的 mergeFactor 个同一量级且合并后不超过上限的相邻段
+     */
+    private List<IndexSegment> pickMerge(List<IndexSegment> segments) {
+        for (int i = 0; i + mergeFactor <= segments.size(); i++) {
+            int level = level(segments.get(i));
+            long bytes = 0;
+            int j = i;
+            for (; j < i + mergeFactor; j++) {
+                if (level(segments.get(j)) != level) {
+                    break;
+                }
+                bytes += segments.get(j).sizeBytes();
+            }
+            if (j == i + mergeFactor && bytes <= MAX_MERGED_BYTES) {
+                return new ArrayList<>(segments.subList(i, j));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 段的量级：文档数不足 flushDocs × mergeFactor 为 0，每乘一次 mergeFactor 加 1
+     */
+    private int level(IndexSegment segment) {
+        long docs = segment.endDoc - segment.baseDoc;
+        long bound = (long) flushDocs * mergeFactor;
+        int level = 0;
+        while (docs >= bound) {
+            level++;
+            bound *= mergeFactor;
+        }
+        return level;
+    }
+
+    private void writeMeta(List<IndexSegment> segments) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (IndexSegment segment : segments) {
+            sb.append(segment.file.getName()).append('\n');
+        }
+        File tmp = new File(dir, META_FILE + ".tmp");
+        Files.write(tmp.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), new File(dir, META_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 打开列表中的段文件，删除不在列表中的段文件与临时文件（写入或合并中途崩溃留下的）
+     */
+    private static List<IndexSegment> loadSegments(File dir) throws IOException {
+        File meta = new File(dir, META_FILE);
+        List<IndexSegment> segments = new ArrayList<>();
+        Set<String> live = new HashSet<>();
+        if (meta.isFile()) {
+            for (String name : Files.readAllLines(meta.toPath(), StandardCharsets.UTF_8)) {
+                if (name.isEmpty()) {
+                    continue;
+                }
+                IndexSegment segment = IndexSegment.open(new File(dir, name));
+                int expected = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).endDoc;
+                if (segment.baseDoc != expected) {
+                    throw new IOException("索引段不连续: " + name + "，应从 " + expected + " 开始");
+                }
+                segments.add(segment);
+                live.add(name);
+            }
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if ((name.endsWith(IndexSegment.SUFFIX) && !live.contains(name)) || name.endsWith(".tmp")) {
+                    if (file.delete()) {
+                        log.info("删除无效的索引文件: {}", name);
+                    }
+                }
+            }
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,275 @@
+package org.tio.chat.service;
+
+import org.tio.chat.codec.BinaryChatCodec;
+import org.tio.chat.codec.PerMessageDeflate;
+import org.tio.chat.codec.WireFormat;
+import org.tio.chat.metrics.ChatMetrics;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.util.JsonUtil;
+import org.tio.chat.util.PartitionedExecutor;
+import org.tio.chat.util.WsFrameEncoder;
+import org.tio.core.ChannelContext;
+import org.tio.core.Tio;
+import org.tio.core.TioConfig;
+import org.tio.utils.lock.SetWithLock;
+import org.tio.websocket.common.Opcode;
+import org.tio.websocket.common.WsResponse;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * BroadcastService 负责向连接输出消息：一条消息只序列化一次、只编码一次 WebSocket 帧。
+ *
+ * 原先 Tio.sendToGroup 会为每个成员连接各自调用一次编码器，群越大分配越多；
+ * 这里先把完整帧编码成一个 ByteBuffer，每个连接只拿到它的 duplicate()（共享底层字节，各自维护读写位置），
+ * 单个成员的额外开销只剩一个很小的 WsResponse 和 ByteBuffer 视图对象。
+ * 共享帧编码后不再修改。协商了 permessage-deflate 且不接管上下文的连接共享同一份压缩结果，每种编码只压缩一次。
+ *
+ * 连接可能协商了不同的编码（见 WireFormat），每种编码的帧在第一次用到时才生成，一次群发最多编码两次。
+ * ChatMessage 以外的负载（如上下线通知）没有二进制定义，统一以 JSON 文本帧发送。
+ * 所有帧都经 OutboundService 计入连接的发送队列深度，积压的连接按消息类别跳过或合并（见 OutboundQueue），
+ * 因此返回的投递数不含被跳过的连接。
+ * 大群（本节点连接数达到并行阈值）的群发按连接分片交给工作线程（见 {@link #startFanout}），不占用调用线程。
+ */
+public class BroadcastService {
+
+    /**
+     * 一条消息在各编码下的帧，按需生成
+     */
+    private static final class Frames {
+        private final Object message;
+        private volatile ByteBuffer json;
+        private volatile ByteBuffer binary;
+        private final PerMessageDeflate.SharedFrame jsonDeflated = new PerMessageDeflate.SharedFrame();
+        private final PerMessageDeflate.SharedFrame binaryDeflated = new PerMessageDeflate.SharedFrame();
+
+        Frames(Object message) {
+            this.message = message;
+        }
+
+        /**
+         * 并行群发时多个线程同时调用，每种编码仍只生成一次
+         */
+        WsResponse packetFor(ChannelContext channelContext) {
+            if (message instanceof ChatMessage && WireFormat.of(channelContext) == WireFormat.BINARY) {
+                ByteBuffer frame = binary;
+                if (frame == null) {
+                    synchronized (this) {
+                        frame = binary;
+                        if (frame == null) {
+                            frame = BinaryChatCodec.encodeFrame((ChatMessage) message);
+                            binary = frame;
+                        }
+                    }
+                }
+                return packet(frame, Opcode.BINARY, binaryDeflated);
+            }
+            ByteBuffer frame = json;
+            if (frame == null) {
+                synchronized (this) {
+                    frame = json;
+                    if (frame == null) {
+                        frame = encode(message);
+                        json = frame;
+                    }
+                }
+            }
+            return packet(frame, Opcode.TEXT, jsonDeflated);
+        }
+    }
+
+    // 大群并行群发的工作线程，未启动时所有群发都在调用线程上完成
+    private static volatile PartitionedExecutor fanout;
+    private static volatile int parallelThreshold = Integer.MAX_VALUE;
+
+    /**
+     * 启动大群并行群发：本节点连接数不少于 parallelThreshold 的群，按连接分到各工作线程发送，
+     * 同一连接总是由同一线程发送，保证该连接收到的帧有序
+     * @param threads           工作线程数
+     * @param queueCapacity     每个线程排队的分片上限，满时调用方等待
+     * @param parallelThreshold 并行群发的连接数下限
+     */
+    public static synchronized void startFanout(int threads, int queueCapacity, int parallelThreshold) {
+        if (fanout != null) {
+            return;
+        }
+        PartitionedExecutor executor = new PartitionedExecutor("group-fanout", threads, queueCapacity);
+        BroadcastService.parallelThreshold = parallelThreshold;
+        fanout = executor;
+        ChatMetrics.REGISTRY.gauge("chat_fanout_backlog", "排队等待并行群发的分片数", executor::backlog);
+    }
+
+    /**
+     * 停止并行群发，等待已排队的分片发送完
+     */
+    public static synchronized void stopFanout(long timeoutMs) {
+        PartitionedExecutor executor = fanout;
+        if (executor == null) {
+            return;
+        }
+        fanout = null;
+        parallelThreshold = Integer.MAX_VALUE;
+        executor.shutdown(timeoutMs);
+    }
+
+    /**
+     * 把消息序列化并编码成完整的 WebSocket 文本帧
+     */
+    public static ByteBuffer encode(Object message) {
+        return WsFrameEncoder.encodeText(JsonUtil.toJsonBytes(message));
+    }
+
+    /**
+     * 为单个连接包装预编码的文本帧，t-io 发送时直接使用该帧，不再调用编码器
+     */
+    public static WsResponse packet(ByteBuffer frame) {
+        return packet(frame, Opcode.TEXT);
+    }
+
+    public static WsResponse packet(ByteBuffer frame, Opcode opcode) {
+        return packet(frame, opcode, null);
+    }
+
+    /**
+     * @param deflated 同一帧在各连接间共享的压缩结果（群发），可为 null
+     */
+    static WsResponse packet(ByteBuffer frame, Opcode opcode, PerMessageDeflate.SharedFrame deflated) {
+        WsResponse response = new OutboundService.TrackedResponse(frame.remaining(), deflated);
+        response.setWsOpcode(opcode);
+        response.setPreEncodedByteBuffer(frame.duplicate());
+        return response;
+    }
+
+    /**
+     * 按连接协商的编码发送给单个连接
+     */
+    public static void send(ChannelContext channelContext, Object message) {
+        Frames frames = new Frames(message);
+        OutboundService.send(channelContext, frames.packetFor(channelContext), message);
+    }
+
+    /**
+     * 发送已构造好的帧（如离线批次），计入连接的发送队列
+     */
+    public static boolean send(ChannelContext channelContext, WsResponse packet) {
+        return OutboundService.send(channelContext, packet);
+    }
+
+    /**
+     * 发送给用户的所有连接，启用集群时同时转发给用户在其他节点上的连接
+     * @return 本节点实际投递的连接数
+     */
+    public static int sendToUser(TioConfig tioConfig, String userId, Object message) {
+        int sent = sendToLocalUser(tioConfig, userId, message);
+        ClusterService.forwardToUser(userId, message);
+        return sent;
+    }
+
+    /**
+     * 只发送给用户在本节点上的连接
+     */
+    public static int sendToLocalUser(TioConfig tioConfig, String userId, Object message) {
+        if (tioConfig == null) {
+            // 服务尚未启动（或在基准测试等脱离 t-io 的环境中调用）
+            return 0;
+        }
+        SetWithLock<ChannelContext> channels = Tio.getByUserid(tioConfig, userId);
+        if (channels == null) {
+            return 0;
+        }
+        return sendToSet(channels, message);
+    }
+
+    /**
+     * 群发消息给群组内所有连接，启用集群时同时转发给其他节点上的成员
+     * @return 本节点实际投递的连接数
+     */
+    public static int sendToGroup(TioConfig tioConfig, String groupId, Object message) {
+        int sent = sendToLocalGroup(tioConfig, groupId, message);
+        ClusterService.forwardToGroup(groupId, message);
+        return sent;
+    }
+
+    /**
+     * 只群发给本节点上的群组成员
+     */
+    public static int sendToLocalGroup(TioConfig tioConfig, String groupId, Object message) {
+        if (tioConfig == null) {
+            return 0;
+        }
+        SetWithLock<ChannelContext> members = Tio.getByGroup(tioConfig, groupId);
+        if (members == null) {
+            return 0;
+        }
+        return sendToSet(members, message);
+    }
+
+    /**
+     * 把同一条消息发送给集合内所有连接，每种编码只编码一次。
+     * 连接数达到并行阈值时在读锁内按连接分组，释放锁后交给各工作线程发送，调用线程不再逐个发送
+     * @return 实际投递的连接数；并行群发时为交给工作线程的连接数
+     */
+    public static int sendToSet(SetWithLock<ChannelContext> channels, Object message) {
+        Frames frames = new Frames(message);
+        PartitionedExecutor executor = fanout;
+        List<ChannelContext>[] lanes = null;
+        int sent = 0;
+        Lock lock = channels.readLock();
+        lock.lock();
+        try {
+            Set<ChannelContext> set = channels.getObj();
+            if (executor != null && set.size() >= parallelThreshold) {
+                lanes = partition(executor, set);
+                sent = set.size();
+            } else {
+                for (ChannelContext channelContext : set) {
+                    if (OutboundService.send(channelContext, frames.packetFor(channelContext), message)) {
+                        sent++;
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (lanes != null) {
+            ChatMetrics.FANOUT_PARALLEL.increment();
+            for (int i = 0; i < lanes.length; i++) {
+                List<ChannelContext> lane = lanes[i];
+                if (lane == null) {
+                    continue;
+                }
+                Runnable task = () -> {
+                    for (ChannelContext channelContext : lane) {
+                        OutboundService.send(channelContext, frames.packetFor(channelContext), message);
+                    }
+                };
+                try {
+                    executor.execute(i, task);
+                } catch (RejectedExecutionException e) {
+                    // 停机中，剩余分片在调用线程上发送
+                    task.run();
+                }
+            }
+        }
+        return sent;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<ChannelContext>[] partition(PartitionedExecutor executor, Set<ChannelContext> set) {
+        List<ChannelContext>[] lanes = (List<ChannelContext>[]) new List[executor.lanes()];
+        int expected = set.size() / lanes.length + 16;
+        for (ChannelContext channelContext : set) {
+            int i = executor.laneFor(channelContext.getId());
+            if (lanes[i] == null) {
+                lanes[i] = new ArrayList<>(expected);
+            }
+            lanes[i].add(channelContext);
+        }
+        return lanes;
+    }
+}
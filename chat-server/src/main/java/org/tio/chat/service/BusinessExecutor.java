@@ -0,0 +1,113 @@
+package org.tio.chat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tio.chat.metrics.ChatMetrics;
+import org.tio.chat.util.KeyedSerialExecutor;
+import org.tio.chat.util.OrderedExecutor;
+import org.tio.chat.util.PartitionedExecutor;
+import org.tio.chat.util.VirtualThreads;
+import org.tio.core.ChannelContext;
+
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * BusinessExecutor 把已解码消息的业务处理从 t-io 的解码线程移到独立的执行器上。
+ *
+ * ChatWsHandler 解码后按用户提交，同一用户（所有连接）的消息按收到的顺序逐条处理，保证消息顺序；
+ * 业务处理中的阻塞（管道背压、存储、鉴权、推送）不再占用解码线程。可选的执行器（business.executor）：
+ *  - virtual ：每个用户一个串行队列，由虚拟线程排空（{@link KeyedSerialExecutor}），需要 JDK 21+ 与多版本 jar；
+ *  - platform：固定数量的平台线程，按用户哈希分到通道（{@link PartitionedExecutor}），JDK 8 可用；
+ *  - auto    ：支持虚拟线程时用 virtual，否则用 platform（默认）；
+ *  - inline  ：不启动执行器，在解码线程上直接处理（原行为）。
+ *
+ * 已提交未处理完的消息达到 maxPending 时解码线程等待（背压）。未启动时（如测试）在调用线程上同步处理。
+ */
+public class BusinessExecutor {
+    private static final Logger log = LoggerFactory.getLogger(BusinessExecutor.class);
+
+    public static final String MODE_AUTO = "auto";
+    public static final String MODE_VIRTUAL = "virtual";
+    public static final String MODE_PLATFORM = "platform";
+    public static final String MODE_INLINE = "inline";
+
+    private static volatile OrderedExecutor executor;
+
+    /**
+     * 启动业务执行器
+     * @param mode       auto / virtual / platform / inline
+     * @param threads    platform 模式的线程数
+     * @param maxPending 已提交未处理完的消息上限（platform 模式平分到各线程）
+     */
+    public static synchronized void start(String mode, int threads, int maxPending) {
+        if (executor != null) {
+            return;
+        }
+        OrderedExecutor e = create(mode, threads, maxPending);
+        if (e == null) {
+            log.info("业务执行器: inline，消息在 t-io 解码线程上处理");
+            return;
+        }
+        executor = e;
+        ChatMetrics.REGISTRY.gauge("chat_business_backlog", "已提交尚未处理完的业务消息数", e::backlog);
+    }
+
+    static OrderedExecutor create(String mode, int threads, int maxPending) {
+        String m = mode == null ? MODE_AUTO : mode.trim().toLowerCase(Locale.ROOT);
+        if (MODE_INLINE.equals(m)) {
+            return null;
+        }
+        if (MODE_VIRTUAL.equals(m) && !VirtualThreads.supported()) {
+            log.warn("当前运行环境不支持虚拟线程（需要 JDK 21+ 与 jdk21 profile 构建的 jar），改用平台线程");
+            m = MODE_PLATFORM;
+        }
+        if (MODE_VIRTUAL.equals(m) || (MODE_AUTO.equals(m) && VirtualThreads.supported())) {
+            log.info("业务执行器: virtual，按用户串行，排队上限: {}", maxPending);
+            return new KeyedSerialExecutor("business", VirtualThreads.newExecutor("business"), maxPending);
+        }
+        if (!MODE_PLATFORM.equals(m) && !MODE_AUTO.equals(m)) {
+            log.warn("未知的业务执行器: {}，改用平台线程", mode);
+        }
+        log.info("业务执行器: platform，线程数: {}，排队上限: {}", threads, maxPending);
+        return new PartitionedExecutor("business", threads, Math.max(1, maxPending / threads));
+    }
+
+    /**
+     * 停止接收新消息，处理完已提交的消息后停止；须在停止持久化管道之前调用
+     */
+    public static synchronized void stop(long timeoutMs) {
+        OrderedExecutor e = executor;
+        if (e == null) {
+            return;
+        }
+        executor = null;
+        if (!e.shutdown(timeoutMs)) {
+            log.warn("业务执行器未能在 {}ms 内处理完已提交的消息，剩余: {}", timeoutMs, e.backlog());
+        }
+    }
+
+    /**
+     * 按连接所属用户提交业务处理；未启动或已停止时在调用线程上执行
+     */
+    public static void execute(ChannelContext channelContext, Runnable task) {
+        OrderedExecutor e = executor;
+        if (e == null) {
+            task.run();
+            return;
+        }
+        // 握手时已绑定用户，未绑定的连接（理论上不会出现）按连接串行
+        Object key = channelContext.userid != null ? channelContext.userid : channelContext;
+        try {
+            e.execute(key, task);
+        } catch (RejectedExecutionException ex) {
+            // 停机过程中执行器已不接收新任务，与未启动时一样在调用线程上处理
+            task.run();
+        }
+    }
+
+    public static int backlog() {
+        OrderedExecutor e = executor;
+        return e == null ? 0 : e.backlog();
+    }
+}
@@ -1,42 +1,71 @@
 package org.tio.chat.service;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.tio.chat.starter.ChatServerStarter;
 import org.tio.core.ChannelContext;
 import org.tio.core.Tio;
-import org.tio.core.TioConfig;
 import org.tio.server.TioServerConfig;
-import org.tio.websocket.common.WsResponse;
+import org.tio.chat.metrics.ChatMetrics;
 import org.tio.chat.model.ChatMessage;
-import org.tio.chat.util.JsonUtil;
-import org.tio.chat.config.ChatServerConfig;
+import org.tio.chat.store.MessageStore;
+import org.tio.chat.util.TimingWheelCache;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
 
 /**
  * ChatService 负责聊天业务逻辑，包括消息转发和离线消息管理。
  */
 public class ChatService {
+    private static final Logger log = LoggerFactory.getLogger(ChatService.class);
 
-    // 提取全局配置
-    private static TioServerConfig config = ChatServerStarter.getTioServerConfig();
+    // 离线消息存储（落盘），由 ChatServerStarter 启动时注入
+    private static volatile MessageStore messageStore;
 
-    // 离线消息缓存，key: 用户ID，value: 离线消息列表
-    private static final ConcurrentHashMap<String, List<ChatMessage>> offlineMsgMap = new ConcurrentHashMap<>();
+    // 已转发消息的投递状态，key: msgId，value: 发送者 + 状态位（容量与存活时间受限），由 ChatServerStarter 启动时注入
+    private static volatile DeliveryStateIndex deliveryStates;
 
-    // key: msgId, value: ChatMessage
-    private static final ConcurrentHashMap<String, ChatMessage> onlineMsgMap = new ConcurrentHashMap<>();
+    // 会话已读水位，key: 读者 + 会话对方，value: 已读到的消息时间戳（容量与存活时间受限），由 ChatServerStarter 启动时注入
+    private static volatile TimingWheelCache<String, Long> readWatermarks;
+
+    public static void setMessageStore(MessageStore store) {
+        messageStore = store;
+    }
+
+    public static MessageStore getMessageStore() {
+        return messageStore;
+    }
+
+    public static void setDeliveryStateIndex(DeliveryStateIndex index) {
+        deliveryStates = index;
+    }
+
+    public static DeliveryStateIndex getDeliveryStateIndex() {
+        return deliveryStates;
+    }
+
+    public static void setReadWatermarks(TimingWheelCache<String, Long> watermarks) {
+        readWatermarks = watermarks;
+    }
+
+    // 提取全局配置（ChatServerStarter 构造后才可用，因此按需获取）
+    private static TioServerConfig config() {
+        return ChatServerStarter.getTioServerConfig();
+    }
 
     /**
-     * 绑定用户并加入默认群组（如 "group1"）
+     * 绑定用户，并绑定开放群组（如 "group1"）与用户所在的全部群组
      */
     public static void bindUser(String userId, ChannelContext channelContext) {
         // 绑定用户ID
         Tio.bindUser(channelContext, userId);
-        // 加入默认群组
-        Tio.bindGroup(channelContext, "group1");
+        // 绑定群组，群发时据此找到在线成员的连接
+        GroupService.bindConnection(channelContext);
     }
 
     /**
@@ -44,10 +73,9 @@ public class ChatService {
      */
     public static void sendPrivateMsg(ChatMessage chatMessage, ChannelContext channelContext) {
         String toUserId = chatMessage.getTo();
-        WsResponse response = WsResponse.fromText(JsonUtil.toJson(chatMessage), ChatServerConfig.CHARSET);
 
-        // 直接调用 sendToUser，不依赖内部结构或额外方法，兼容所有版本
-        Tio.sendToUser(channelContext.tioConfig, toUserId, response);
+        // 按接收方每个连接协商的编码（JSON / 二进制）发送，同一编码只编码一次
+        BroadcastService.sendToUser(channelContext.tioConfig, toUserId, chatMessage);
         // 如果需要检测在线状态，建议在业务层维护在线用户列表或通过其他机制
     }
 
@@ -56,46 +84,86 @@ public class ChatService {
      */
     public static void sendGroupMsg(ChatMessage chatMessage, ChannelContext channelContext) {
         String groupId = chatMessage.getTo(); // 群组ID
-        WsResponse response = WsResponse.fromText(JsonUtil.toJson(chatMessage), ChatServerConfig.CHARSET);
-        Tio.sendToGroup(channelContext.tioConfig, groupId, response);
+        // 序列化、编码各一次，所有成员共享同一份帧
+        BroadcastService.sendToGroup(channelContext.tioConfig, groupId, chatMessage);
     }
 
     /**
-     * 保存离线消息
+     * 保存离线消息；群聊消息不按成员保存，只写入群时间线（见 GroupTimelineService）
      */
     public static void saveOfflineMessage(ChatMessage msg) {
-        if (msg == null || msg.getTo() == null) {
+        if (msg == null || msg.getTo() == null || Integer.valueOf(3).equals(msg.getCmd())) {
             return;
         }
-        offlineMsgMap.compute(msg.getTo(), (userId, msgList) -> {
-            if (msgList == null) {
-                msgList = new ArrayList<>();
-            }
-            msgList.add(msg);
-            return msgList;
-        });
+        messageStore.append(msg);
+    }
+
+    /**
+     * 保存离线消息但不等待刷盘，调用方对一批消息中最大的返回值调用一次 {@link #awaitOfflineDurable(long)}
+     * @return 存储日志位置，未写入时为 -1
+     */
+    public static long saveOfflineMessageNoWait(ChatMessage msg) {
+        if (msg == null || msg.getTo() == null || Integer.valueOf(3).equals(msg.getCmd())) {
+            return -1;
+        }
+        return messageStore.appendNoWait(msg);
+    }
+
+    public static void awaitOfflineDurable(long position) {
+        if (position >= 0) {
+            messageStore.awaitDurable(position);
+        }
+    }
+
+    /**
+     * 回复服务端 ACK（cmd=-1）：消息已处理（私聊/群聊为已落盘），私聊/群聊同时回带分配的会话 seq
+     */
+    public static void sendAck(ChannelContext channelContext, ChatMessage msg) {
+        ChatMessage ackMessage = new ChatMessage();
+        ackMessage.setCmd(-1); // 约定服务器ACK命令为-1
+        ackMessage.setMsgId(msg.getMsgId());
+        ackMessage.setFrom("server");
+        ackMessage.setMessage("ACK");
+        ackMessage.setConv(msg.getConv());
+        ackMessage.setSeq(msg.getSeq());
+
+        if (log.isDebugEnabled()) {
+            log.debug("发送ACK到客户端，msgId: {}", ackMessage.getMsgId());
+        }
+        BroadcastService.send(channelContext, ackMessage);
+    }
+
+    /**
+     * 回复服务端拒绝（cmd=-2）：消息未被接受，reason 为 BUSY（背压）、INVALID（校验失败）、STORE_ERROR（写入失败），
+     * 客户端可稍后用同一 msgId 重发
+     */
+    public static void sendNack(ChannelContext channelContext, String msgId, String reason) {
+        ChatMessage nack = new ChatMessage();
+        nack.setCmd(-2);
+        nack.setMsgId(msgId);
+        nack.setFrom("server");
+        nack.setMessage(reason);
+        BroadcastService.send(channelContext, nack);
     }
 
     /**
-     * 存储在线信息
+     * 存储在线信息：只记录 msgId → 发送者与状态位，供已读回执路由，不保留消息体和连接上下文
      * */
     public static void saveOnlineMessage(ChatMessage msg, ChannelContext channelContext) {
         if (msg != null && msg.getMsgId() != null && channelContext != null) {
-            // 绑定当前连接上下文
-            msg.setChannelContext(channelContext);
-            onlineMsgMap.put(msg.getMsgId(), msg);
+            String senderId = channelContext.userid != null ? channelContext.userid : msg.getFrom();
+            deliveryStates.track(msg.getMsgId(), senderId, Integer.valueOf(3).equals(msg.getCmd()));
         }
     }
 
     /**
-     * 查询指定用户所有离线消息
+     * 查询指定用户的离线消息，单次最多返回 limit 条（离线同步为 OFFLINE_PAGE_SIZE），调用方确认后再取下一页
      */
-    public static List<ChatMessage> getOfflineMessages(String userId) {
+    public static List<ChatMessage> getOfflineMessages(String userId, int limit) {
         if (userId == null) {
             return new ArrayList<>();
         }
-        List<ChatMessage> list = offlineMsgMap.get(userId);
-        return list;
+        return messageStore.read(userId, limit);
     }
 
     /**
@@ -103,10 +171,21 @@ public class ChatService {
      */
     public static void markOfflineMessagesRead(String userId) {
         if (userId != null) {
-            offlineMsgMap.remove(userId);
+            messageStore.ackAll(userId);
         }
     }
 
+    /**
+     * 确认一批已送达的离线消息（从存储中移除），不影响推送期间新到达的消息
+     * @return 实际移除的条数
+     */
+    public static int ackOfflineMessages(String userId, List<String> msgIds) {
+        if (userId == null || msgIds == null || msgIds.isEmpty()) {
+            return 0;
+        }
+        return messageStore.ack(userId, msgIds);
+    }
+
     /**
      * 处理客户端ACK确认，前端确认已收到消息后调用此接口
      */
@@ -114,64 +193,68 @@ public class ChatService {
         if (msgId == null || userId == null) {
             return;
         }
-        List<ChatMessage> msgList = offlineMsgMap.get(userId);
-        if (msgList != null) {
-            msgList.removeIf(msg -> msgId.equals(msg.getMsgId()));
-            // 更新缓存
-            if (msgList.isEmpty()) {
-                offlineMsgMap.remove(userId);
-            } else {
-                offlineMsgMap.put(userId, msgList);
-            }
+        messageStore.ack(userId, Collections.singletonList(msgId));
+        DeliveryStateIndex.DeliveryState state = deliveryStates.markDelivered(msgId);
+        if (state != null) {
+            ChatMetrics.ACK_RTT_LIVE.recordSince(state.getForwardedNanos());
         }
     }
 
 
     /**
-     * 处理已读确认，更新消息的read字段，并向发送方推送已读通知
+     * 处理已读确认，更新消息的read字段，并向发送方推送已读通知。
+     * 同一批 msgId 按发送方分组，每个发送方只收到一帧携带全部 msgId 的 cmd=101。
      */
     public static void processReadAck(List<String> msgIds, String readerId) {
         if (msgIds == null || readerId == null) return;
 
-        List<String> readMsgIds = new ArrayList<>();
+        // 处理离线消息（在存储中打已读标记）
+        messageStore.markRead(readerId, msgIds);
 
-        // 处理离线消息
-        List<ChatMessage> offlineList = offlineMsgMap.get(readerId);
-        if (offlineList != null) {
-            for (ChatMessage msg : offlineList) {
-                if (msgIds.contains(msg.getMsgId())) {
-                    msg.setRead(true);
-                    readMsgIds.add(msg.getMsgId());
-                }
+        // 处理在线消息：按发送方归组（去重、保持原顺序）
+        Map<String, List<String>> bySender = new LinkedHashMap<>();
+        for (String msgId : new LinkedHashSet<>(msgIds)) {
+            DeliveryStateIndex.DeliveryState state = deliveryStates.markRead(msgId);
+            if (state != null) {
+                bySender.computeIfAbsent(state.getSenderId(), k -> new ArrayList<>()).add(msgId);
             }
-            // 更新离线消息
-            offlineMsgMap.put(readerId, offlineList);
         }
-
-        // 处理在线消息
-        for (String msgId : msgIds) {
-            ChatMessage onlineMsg = onlineMsgMap.get(msgId);
-            if (onlineMsg != null) {
-                onlineMsg.setRead(true);
-                readMsgIds.add(msgId);
-                onlineMsgMap.put(msgId, onlineMsg);
-            }
+        for (Map.Entry<String, List<String>> entry : bySender.entrySet()) {
+            ChatMessage readAck = new ChatMessage();
+            readAck.setCmd(101);
+            readAck.setMsgIds(entry.getValue());
+            readAck.setFrom(readerId);
+            readAck.setTo(entry.getKey());
+            BroadcastService.sendToUser(config(), entry.getKey(), readAck);
         }
+    }
 
-        // 发送 cmd=101 已读回执给发送方
-        if (!readMsgIds.isEmpty()) {
-            for (String msgId : readMsgIds) {
-                ChatMessage msg = onlineMsgMap.get(msgId);
-                if (msg != null && msg.getFrom() != null) {
-                    ChatMessage readAck = new ChatMessage();
-                    readAck.setCmd(101);
-                    readAck.setMsgIds(Collections.singletonList(msgId));
-                    readAck.setFrom(readerId);
-                    readAck.setTo(msg.getFrom());
-                    WsResponse response = WsResponse.fromText(JsonUtil.toJson(readAck), ChatServerConfig.CHARSET);
-                    Tio.sendToUser(msg.getChannelContext().tioConfig, msg.getFrom(), response);
-                }
+    /**
+     * 处理已读水位：readerId 已读完与 peerId 会话中时间戳不晚于 upToTimestamp 的全部消息。
+     * 水位只前进，不大于已记录水位的重复上报直接忽略；
+     * 向 peerId 推送一帧不带 msgIds 的 cmd=101（timestamp 即水位），发送方据此把之前的消息全部置为已读。
+     */
+    public static void processReadWatermark(String peerId, long upToTimestamp, String readerId) {
+        if (peerId == null || readerId == null) return;
+
+        TimingWheelCache<String, Long> watermarks = readWatermarks;
+        if (watermarks != null) {
+            String key = readerId + '\u0000' + peerId;
+            // 原子地取最大值：同一读者的多个设备并发上报时（如 business.executor=inline），只有真正推进了水位的一次继续
+            Long previous = watermarks.merge(key, upToTimestamp, (current, reported) -> current >= reported ? current : reported);
+            if (previous != null && previous >= upToTimestamp) {
+                return;
             }
         }
+
+        // 离线队列中尚未投递的消息一并打已读标记
+        messageStore.markReadUpTo(readerId, peerId, upToTimestamp);
+
+        ChatMessage readAck = new ChatMessage();
+        readAck.setCmd(101);
+        readAck.setFrom(readerId);
+        readAck.setTo(peerId);
+        readAck.setTimestamp(upToTimestamp);
+        BroadcastService.sendToUser(config(), peerId, readAck);
     }
-    }
+}
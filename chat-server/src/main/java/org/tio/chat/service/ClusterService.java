@@ -0,0 +1,72 @@
+package org.tio.chat.service;
+
+import org.tio.chat.cluster.ClusterNode;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.starter.ChatServerStarter;
+
+/**
+ * ClusterService 把本节点接入集群：在线用户变化同步给其他节点，
+ * 发往其他节点上用户 / 群组成员的消息经 {@link ClusterNode} 批量转发。
+ *
+ * 未启用集群（单机部署）时所有方法都是空操作。
+ * 只转发 ChatMessage；上下线通知等其他负载仍只发给本节点的连接。
+ */
+public class ClusterService {
+
+    private static volatile ClusterNode node;
+
+    /**
+     * 收到其他节点的转发后只投递给本节点的连接
+     */
+    public static final ClusterNode.LocalDelivery LOCAL_DELIVERY = new ClusterNode.LocalDelivery() {
+        @Override
+        public void toUser(String userId, ChatMessage message) {
+            BroadcastService.sendToLocalUser(ChatServerStarter.getTioServerConfig(), userId, message);
+        }
+
+        @Override
+        public void toGroup(String groupId, ChatMessage message) {
+            BroadcastService.sendToLocalGroup(ChatServerStarter.getTioServerConfig(), groupId, message);
+        }
+    };
+
+    public static void setNode(ClusterNode clusterNode) {
+        node = clusterNode;
+    }
+
+    public static ClusterNode getNode() {
+        return node;
+    }
+
+    public static boolean isEnabled() {
+        return node != null;
+    }
+
+    static void userOnline(String userId) {
+        ClusterNode n = node;
+        if (n != null) {
+            n.userOnline(userId);
+        }
+    }
+
+    static void userOffline(String userId) {
+        ClusterNode n = node;
+        if (n != null) {
+            n.userOffline(userId);
+        }
+    }
+
+    static void forwardToUser(String userId, Object message) {
+        ClusterNode n = node;
+        if (n != null && message instanceof ChatMessage) {
+            n.forwardToUser(userId, (ChatMessage) message);
+        }
+    }
+
+    static void forwardToGroup(String groupId, Object message) {
+        ClusterNode n = node;
+        if (n != null && message instanceof ChatMessage) {
+            n.forwardToGroup(groupId, (ChatMessage) message);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.tio.chat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tio.chat.config.ChatServerConfig;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.store.ConversationLog;
+import org.tio.core.ChannelContext;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ConversationService 负责会话内序号与按游标补齐缺口（cmd=104）。
+ *
+ * 会话 id：私聊 "p:小id:大id"（双方 id 按字典序排列，id 中的 % 与 : 转义为 %25、%3A），群聊 "g:群id"。
+ *  - 私聊/群聊消息转发前写入会话日志并分配 seq，转发的消息与服务端 ACK 都带 conv + seq；
+ *  - 客户端按会话记录已连续收到的最大 seq（游标），收到 seq 跳号即发现缺口；
+ *  - 同步：客户端发送 {"cmd":104,"cursors":{"会话id":游标,...}}（登录 cmd=1 也可携带），
+ *    服务端对每个会话回一帧 {"cmd":104,"conv":..,"seq":会话当前最大 seq,"messages":[游标之后的消息]}，
+ *    每帧最多 SYNC_PAGE_SIZE 条，客户端收到后游标仍小于 seq 时继续请求下一页；游标已是最新的会话不回帧。
+ *    登录时客户端没有带游标的群会话由服务端保存的成员游标补上（见 GroupTimelineService）。
+ *
+ * 历史消息（cmd=108，从新到旧翻页）：客户端发送 {"cmd":108,"conv":..,"seq":..,"timestamp":..,"limit":..}，
+ *  - seq 为游标，返回 seq 小于它的消息，缺省为从最新开始；timestamp 返回服务端写入时间早于它的消息，两者可同时给出；
+ *  - 服务端回一帧 {"cmd":108,"msgId":请求的 msgId,"conv":..,"seq":会话当前最大 seq,"messages":[按 seq 升序]}，
+ *    下一页以 messages 中最小的 seq 为游标，messages 为空表示没有更早的消息。该帧即为请求的回复，不再单独回 ACK。
+ *
+ * 只能同步、查询自己所在的会话：私聊须是会话一方，群聊须是该群成员（见 GroupService）。
+ */
+public class ConversationService {
+    private static final Logger log = LoggerFactory.getLogger(ConversationService.class);
+
+    private static final String PRIVATE_PREFIX = "p:";
+    private static final String GROUP_PREFIX = "g:";
+
+    // 会话日志，由 ChatServerStarter 启动时注入；未注入时不分配 seq
+    private static volatile ConversationLog conversationLog;
+
+    public static void setConversationLog(ConversationLog log) {
+        conversationLog = log;
+    }
+
+    public static ConversationLog getConversationLog() {
+        return conversationLog;
+    }
+
+    /**
+     * 私聊会话 id，与双方顺序无关
+     */
+    public static String privateConv(String userA, String userB) {
+        String a = escape(userA);
+        String b = escape(userB);
+        return a.compareTo(b) <= 0 ? PRIVATE_PREFIX + a + ":" + b : PRIVATE_PREFIX + b + ":" + a;
+    }
+
+    public static String groupConv(String groupId) {
+        return GROUP_PREFIX + groupId;
+    }
+
+    /**
+     * 群聊会话对应的群 id，不是群聊会话时为 null
+     */
+    public static String groupIdOf(String conv) {
+        return conv != null && conv.startsWith(GROUP_PREFIX) ? conv.substring(GROUP_PREFIX.length()) : null;
+    }
+
+    /**
+     * 为私聊（cmd=2）/群聊（cmd=3）消息分配会话内 seq 并写入会话日志，其他命令不处理。
+     * 不等待刷盘，调用方对一批消息中最大的返回值调用一次 {@link #awaitDurable(long)}；
+     * channelContext 为 null 时发送方取 msg.from
+     * @return 会话日志位置，未写入时为 -1
+     */
+    public static long assign(ChatMessage msg, ChannelContext channelContext) {
+        // seq 只能由服务端分配，丢弃客户端自带的值
+        msg.setConv(null);
+        msg.setSeq(null);
+        msg.setCursors(null);
+        ConversationLog conversations = conversationLog;
+        if (conversations == null || msg.getTo() == null) {
+            return -1;
+        }
+        String senderId = channelContext != null && channelContext.userid != null ? channelContext.userid : msg.getFrom();
+        String conv = conversationOf(msg, senderId);
+        if (conv == null) {
+            return -1;
+        }
+        return conversations.appendNoWait(conv, msg);
+    }
+
+    /**
+     * 私聊（cmd=2）/群聊（cmd=3）消息所属的会话，其他命令或缺少发送方 / 接收方时为 null
+     */
+    public static String conversationOf(ChatMessage msg, String senderId) {
+        if (msg.getTo() == null) {
+            return null;
+        }
+        Integer cmd = msg.getCmd();
+        if (Integer.valueOf(2).equals(cmd)) {
+            return senderId == null ? null : privateConv(senderId, msg.getTo());
+        }
+        if (Integer.valueOf(3).equals(cmd)) {
+            return groupConv(msg.getTo());
+        }
+        return null;
+    }
+
+    /**
+     * 按刷盘策略等待会话日志写入到 position（assign 的返回值）
+     */
+    public static void awaitDurable(long position) {
+        ConversationLog conversations = conversationLog;
+        if (conversations != null && position >= 0) {
+            conversations.awaitDurable(position);
+        }
+    }
+
+    /**
+     * 按客户端游标补发各会话缺失的消息（每个会话最多一页）
+     * @return 本次同步过的会话 → 同步时的最大 seq；不大于该 seq 的离线消息客户端已能通过同步拿到
+     */
+    public static Map<String, Long> sync(ChannelContext channelContext, Map<String, Long> cursors) {
+        ConversationLog conversations = conversationLog;
+        if (conversations == null || cursors == null || cursors.isEmpty() || channelContext.userid == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> synced = new HashMap<>();
+        for (Map.Entry<String, Long> cursor : cursors.entrySet()) {
+            if (synced.size() >= ChatServerConfig.SYNC_MAX_CONVERSATIONS) {
+                log.warn("用户 [{}] 同步的会话数超过上限 {}，其余会话忽略", channelContext.userid, ChatServerConfig.SYNC_MAX_CONVERSATIONS);
+                break;
+            }
+            String conv = cursor.getKey();
+            if (conv == null || cursor.getValue() == null || !isMember(conv, channelContext)) {
+                continue;
+            }
+            long after = Math.max(0, cursor.getValue());
+            long head = conversations.lastSeq(conv);
+            synced.put(conv, head);
+            // 客户端上报的游标即已连续收到的位置，群会话据此推进服务端的已送达游标
+            GroupTimelineService.delivered(channelContext.userid, conv, Math.min(after, head));
+            if (after == head) {
+                continue;
+            }
+            // 游标大于 head（服务端数据被重置等）时只回 head，客户端据此回退游标
+            List<ChatMessage> page = after < head
+                    ? conversations.readAfter(conv, after, ChatServerConfig.SYNC_PAGE_SIZE)
+                    : Collections.<ChatMessage>emptyList();
+            ChatMessage reply = new ChatMessage();
+            reply.setCmd(104);
+            reply.setConv(conv);
+            reply.setSeq(head);
+            reply.setMessages(page);
+            BroadcastService.send(channelContext, reply);
+        }
+        return synced;
+    }
+
+    /**
+     * 返回一页历史消息（cmd=108）
+     * @return 成功时为 null，否则为回复 cmd=-2 的原因
+     */
+    public static String history(ChannelContext channelContext, ChatMessage request) {
+        ConversationLog conversations = conversationLog;
+        String conv = request.getConv();
+        if (conversations == null || conv == null || channelContext.userid == null) {
+            return MessagePipeline.REJECT_INVALID;
+        }
+        if (!isMember(conv, channelContext)) {
+            return GroupService.REJECT_NOT_MEMBER;
+        }
+        int limit = request.getLimit() == null ? ChatServerConfig.HISTORY_PAGE_SIZE
+                : Math.max(1, Math.min(request.getLimit(), ChatServerConfig.HISTORY_MAX_PAGE_SIZE));
+        long before = request.getSeq() != null && request.getSeq() > 0 ? request.getSeq() : Long.MAX_VALUE;
+        if (request.getTimestamp() != null) {
+            before = Math.min(before, conversations.seqAtOrAfter(conv, request.getTimestamp()));
+        }
+        ChatMessage reply = new ChatMessage();
+        reply.setCmd(108);
+        reply.setMsgId(request.getMsgId());
+        reply.setConv(conv);
+        reply.setSeq(conversations.lastSeq(conv));
+        reply.setMessages(conversations.readBefore(conv, before, limit));
+        BroadcastService.send(channelContext, reply);
+        return null;
+    }
+
+    /**
+     * 当前连接的用户是否属于该会话
+     */
+    static boolean isMember(String conv, ChannelContext channelContext) {
+        if (conv.startsWith(GROUP_PREFIX)) {
+            return GroupService.isMember(conv.substring(GROUP_PREFIX.length()), channelContext.userid);
+        }
+        if (conv.startsWith(PRIVATE_PREFIX)) {
+            // 转义后的 id 不含 ':'，会话 id 只有唯一一种拆法
+            String self = escape(channelContext.userid);
+            String rest = conv.substring(PRIVATE_PREFIX.length());
+            int sep = rest.indexOf(':');
+            if (sep < 0 || rest.indexOf(':', sep + 1) >= 0) {
+                return false;
+            }
+            return self.equals(rest.substring(0, sep)) || self.equals(rest.substring(sep + 1));
+        }
+        return false;
+    }
+
+    private static String escape(String userId) {
+        if (userId.indexOf('%') < 0 && userId.indexOf(':') < 0) {
+            return userId;
+        }
+        return userId.replace("%", "%25").replace(":", "%3A");
+    }
+}
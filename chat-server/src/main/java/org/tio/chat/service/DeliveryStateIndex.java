@@ -0,0 +1,127 @@
+package org.tio.chat.service;
+
+import org.tio.chat.util.TimingWheelCache;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * DeliveryStateIndex
+ *
+ * 已转发消息的投递状态索引（取代原先保存完整 ChatMessage 的 onlineMsgMap）。
+ * 每条只记录 msgId → 发送者 userId + 状态位，不持有 ChannelContext，
+ * 容量与存活时间受限，过期由时间轮自动清理，已读回执查找为 O(1)。
+ */
+public class DeliveryStateIndex implements Closeable {
+
+    /** 群聊消息 */
+    public static final int FLAG_GROUP = 1;
+    /** 接收方已确认送达（cmd=99） */
+    public static final int FLAG_DELIVERED = 1 << 1;
+    /** 接收方已读（cmd=100） */
+    public static final int FLAG_READ = 1 << 2;
+
+    /**
+     * 单条消息的投递状态
+     */
+    public static final class DeliveryState {
+        private static final AtomicIntegerFieldUpdater<DeliveryState> FLAGS =
+                AtomicIntegerFieldUpdater.newUpdater(DeliveryState.class, "flags");
+
+        private final String senderId;
+        /** 转发时刻（System.nanoTime），用于统计客户端确认的往返时间 */
+        private final long forwardedNanos = System.nanoTime();
+        private volatile int flags;
+
+        DeliveryState(String senderId, int flags) {
+            this.senderId = senderId;
+            this.flags = flags;
+        }
+
+        public long getForwardedNanos() {
+            return forwardedNanos;
+        }
+
+        public String getSenderId() {
+            return senderId;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public boolean is(int flag) {
+            return (flags & flag) != 0;
+        }
+
+        /**
+         * 置位，返回是否为本次新置位
+         */
+        boolean set(int flag) {
+            while (true) {
+                int current = flags;
+                if ((current & flag) == flag) {
+                    return false;
+                }
+                if (FLAGS.compareAndSet(this, current, current | flag)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private final TimingWheelCache<String, DeliveryState> states;
+
+    /**
+     * @param maxEntries 最多跟踪的消息条数
+     * @param ttlMs      每条状态的存活时间，毫秒
+     */
+    public DeliveryStateIndex(int maxEntries, long ttlMs) {
+        this.states = new TimingWheelCache<>("delivery-state", maxEntries, ttlMs);
+    }
+
+    /**
+     * 记录一条已转发的消息
+     */
+    public void track(String msgId, String senderId, boolean group) {
+        if (msgId == null || senderId == null) {
+            return;
+        }
+        states.put(msgId, new DeliveryState(senderId, group ? FLAG_GROUP : 0));
+    }
+
+    public DeliveryState get(String msgId) {
+        return msgId == null ? null : states.get(msgId);
+    }
+
+    /**
+     * 标记送达，返回状态（未跟踪或已过期时为 null）
+     */
+    public DeliveryState markDelivered(String msgId) {
+        DeliveryState state = get(msgId);
+        if (state != null) {
+            state.set(FLAG_DELIVERED);
+        }
+        return state;
+    }
+
+    /**
+     * 标记已读，返回状态（未跟踪或已过期时为 null）
+     */
+    public DeliveryState markRead(String msgId) {
+        DeliveryState state = get(msgId);
+        if (state != null) {
+            state.set(FLAG_READ);
+        }
+        return state;
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    @Override
+    public void close() {
+        states.close();
+    }
+}
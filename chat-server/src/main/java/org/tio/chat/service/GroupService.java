@@ -0,0 +1,144 @@
+package org.tio.chat.service;
+
+import org.tio.chat.constant.ChatConst;
+import org.tio.chat.group.GroupRegistry;
+import org.tio.core.ChannelContext;
+import org.tio.core.Tio;
+import org.tio.core.TioConfig;
+import org.tio.utils.lock.SetWithLock;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * GroupService 负责群组管理：创建（cmd=105）、加入（cmd=106）、退出（cmd=107），群 id 放在 to 字段。
+ *
+ * 成员关系保存在 {@link GroupRegistry}（启动时注入，持久化见 GroupStore）；
+ * 用户在本节点上的连接同时绑定到 t-io 群组，群发时只遍历在线成员的连接。
+ *  - 登录时绑定开放群组和用户所在的全部群组；
+ *  - 加入 / 退出时同步绑定 / 解绑该用户在本节点上的所有连接；
+ *  - 群聊消息（cmd=3）只接受成员发送，会话同步（cmd=104）只允许成员拉取。
+ *
+ * 重复的请求（客户端超时重发）按成功处理：已是成员再加入、不是成员再退出、自己已在其中的群再创建都回复 ACK。
+ */
+public class GroupService {
+
+    public static final String REJECT_NOT_FOUND = "NOT_FOUND";
+    public static final String REJECT_EXISTS = "EXISTS";
+    public static final String REJECT_NOT_MEMBER = "NOT_MEMBER";
+    public static final String REJECT_OPEN_GROUP = "OPEN_GROUP";
+
+    // 未注入时（如测试）只有默认的开放群组，成员关系不持久化
+    private static volatile GroupRegistry registry = new GroupRegistry(16,
+            Arrays.asList(ChatConst.GROUP_ID, ChatConst.DEFAULT_GROUP_ID), null, null);
+
+    public static void setRegistry(GroupRegistry groupRegistry) {
+        registry = groupRegistry;
+    }
+
+    public static GroupRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * 处理群组管理命令
+     * @return 成功时为 null，否则为回复 cmd=-2 的原因
+     */
+    public static String handle(Integer cmd, String groupId, ChannelContext channelContext) {
+        String userId = channelContext.userid;
+        if (userId == null) {
+            return MessagePipeline.REJECT_INVALID;
+        }
+        GroupRegistry groups = registry;
+        GroupRegistry.Result result;
+        switch (cmd) {
+            case 105:
+                result = groups.create(groupId, userId);
+                if (result == GroupRegistry.Result.EXISTS && groups.isMember(groupId, userId) && !groups.isOpen(groupId)) {
+                    result = GroupRegistry.Result.OK;
+                }
+                break;
+            case 106:
+                result = groups.join(groupId, userId);
+                break;
+            case 107:
+                result = groups.leave(groupId, userId);
+                if (result == GroupRegistry.Result.NOT_MEMBER || result == GroupRegistry.Result.NOT_FOUND) {
+                    result = GroupRegistry.Result.OK;
+                }
+                break;
+            default:
+                return MessagePipeline.REJECT_INVALID;
+        }
+        switch (result) {
+            case OK:
+            case ALREADY_MEMBER:
+                if (cmd == 107) {
+                    unbindUser(channelContext.tioConfig, userId, groupId);
+                    GroupTimelineService.left(groupId, userId);
+                } else {
+                    bindUser(channelContext.tioConfig, userId, groupId);
+                    GroupTimelineService.joined(groupId, userId);
+                }
+                return null;
+            case EXISTS:
+                return REJECT_EXISTS;
+            case NOT_FOUND:
+                return REJECT_NOT_FOUND;
+            case NOT_MEMBER:
+                return REJECT_NOT_MEMBER;
+            case OPEN_GROUP:
+                return REJECT_OPEN_GROUP;
+            default:
+                return MessagePipeline.REJECT_INVALID;
+        }
+    }
+
+    /**
+     * 登录后绑定开放群组和用户所在的全部群组
+     */
+    public static void bindConnection(ChannelContext channelContext) {
+        GroupRegistry groups = registry;
+        for (String groupId : groups.openGroups()) {
+            Tio.bindGroup(channelContext, groupId);
+        }
+        for (String groupId : groups.groupsOf(channelContext.userid)) {
+            Tio.bindGroup(channelContext, groupId);
+        }
+    }
+
+    public static boolean isMember(String groupId, String userId) {
+        return registry.isMember(groupId, userId);
+    }
+
+    private static void bindUser(TioConfig tioConfig, String userId, String groupId) {
+        for (ChannelContext channelContext : connections(tioConfig, userId)) {
+            Tio.bindGroup(channelContext, groupId);
+        }
+    }
+
+    private static void unbindUser(TioConfig tioConfig, String userId, String groupId) {
+        for (ChannelContext channelContext : connections(tioConfig, userId)) {
+            Tio.unbindGroup(groupId, channelContext);
+        }
+    }
+
+    /**
+     * 用户在本节点上的连接快照（在读锁外绑定，避免持锁调用 t-io）
+     */
+    private static ChannelContext[] connections(TioConfig tioConfig, String userId) {
+        SetWithLock<ChannelContext> channels = tioConfig == null ? null : Tio.getByUserid(tioConfig, userId);
+        if (channels == null) {
+            return new ChannelContext[0];
+        }
+        Lock lock = channels.readLock();
+        lock.lock();
+        try {
+            Set<ChannelContext> set = channels.getObj();
+            return set.toArray(new ChannelContext[0]);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.tio.chat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tio.chat.group.GroupRegistry;
+import org.tio.chat.metrics.ChatMetrics;
+import org.tio.chat.store.ConversationLog;
+import org.tio.chat.store.GroupCursorStore;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GroupTimelineService 负责群聊的读扩散：群消息只写入群时间线（会话日志中的 "g:群id" 会话）一份，
+ * 不再按成员复制到离线存储；每个成员在时间线上保存一个游标（{@link GroupCursorStore}）。
+ *
+ *  - 加入 / 创建群组时游标置于群当前最新 seq，退出时删除；
+ *  - 已送达：客户端回 cmd=99 时带上该群会话的 conv 与已连续收到的 seq，或同步（cmd=104 / 登录）时上报的游标；
+ *  - 已读：客户端发送 {"cmd":100,"conv":"g:群id","seq":已读到的 seq}，已读同时计为已送达；
+ *  - 登录时客户端没有带游标的群会话，用服务端保存的已送达游标补上，交给会话同步（cmd=104）补发
+ *    (已送达 seq, 群最新 seq] 区间，客户端继续按游标翻页。新设备、清空缓存的客户端也能拿到群离线消息。
+ *
+ * 游标只在内存中推进，由刷盘线程每 flushIntervalMs 把变化过的游标写一次日志，发一条群消息的存储与写入量为 O(1)。
+ * 未启动时（如测试）不记录游标，群离线消息只能按客户端游标同步。
+ */
+public class GroupTimelineService {
+    private static final Logger log = LoggerFactory.getLogger(GroupTimelineService.class);
+
+    private static volatile GroupCursorStore store;
+    private static ScheduledExecutorService flusher;
+
+    /**
+     * 启用群成员游标
+     * @param cursorStore     游标存储，由调用方在 stop 之后关闭
+     * @param flushIntervalMs 游标刷盘周期
+     */
+    public static synchronized void start(GroupCursorStore cursorStore, long flushIntervalMs) {
+        if (flusher != null) {
+            return;
+        }
+        store = cursorStore;
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "group-cursor-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(GroupTimelineService::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        ChatMetrics.REGISTRY.gauge("chat_group_cursors", "群成员在群时间线上的游标数", cursorStore::size);
+    }
+
+    /**
+     * 停止刷盘线程并写入最后一批变化的游标
+     */
+    public static synchronized void stop() {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdownNow();
+        flusher = null;
+        flush();
+        store = null;
+    }
+
+    /**
+     * 加入 / 创建群组成功：游标置于群当前最新 seq，已是成员（有游标）时不变
+     */
+    public static void joined(String groupId, String userId) {
+        GroupCursorStore cursors = store;
+        if (cursors != null && groupId != null && userId != null) {
+            cursors.init(groupId, userId, lastSeq(groupId));
+        }
+    }
+
+    /**
+     * 退出群组成功：删除游标
+     */
+    public static void left(String groupId, String userId) {
+        GroupCursorStore cursors = store;
+        if (cursors != null && groupId != null && userId != null) {
+            cursors.remove(groupId, userId);
+        }
+    }
+
+    /**
+     * 客户端已连续收到该会话 seq 及之前的消息；非群会话或不是成员时忽略
+     */
+    public static void delivered(String userId, String conv, long seq) {
+        advance(userId, conv, seq, -1);
+    }
+
+    /**
+     * 客户端已读到该会话的 seq；非群会话或不是成员时忽略
+     */
+    public static void read(String userId, String conv, long seq) {
+        advance(userId, conv, -1, seq);
+    }
+
+    private static void advance(String userId, String conv, long delivered, long read) {
+        GroupCursorStore cursors = store;
+        String groupId = ConversationService.groupIdOf(conv);
+        if (cursors == null || groupId == null || userId == null || Math.max(delivered, read) <= 0
+                || !GroupService.isMember(groupId, userId)) {
+            return;
+        }
+        // 不超过群最新 seq：客户端游标异常（如服务端数据被重置）时不把游标推到不存在的位置
+        long head = lastSeq(groupId);
+        cursors.advance(groupId, userId, Math.min(delivered, head), Math.min(read, head));
+    }
+
+    /**
+     * 登录时的同步游标：客户端带的游标原样保留，在前；客户端没有带的、有未送达消息的群会话补上服务端保存的已送达游标。
+     * 还没有游标的成员（开放群组首次登录、启用本功能之前加入的成员）从群当前最新 seq 开始记录，本次不补发
+     */
+    public static Map<String, Long> loginCursors(String userId, Map<String, Long> clientCursors) {
+        GroupCursorStore cursors = store;
+        ConversationLog conversations = ConversationService.getConversationLog();
+        if (cursors == null || conversations == null || userId == null) {
+            return clientCursors;
+        }
+        Map<String, Long> merged = clientCursors == null ? new LinkedHashMap<String, Long>() : new LinkedHashMap<>(clientCursors);
+        GroupRegistry registry = GroupService.getRegistry();
+        Set<String> groups = new LinkedHashSet<>(registry.openGroups());
+        groups.addAll(registry.groupsOf(userId));
+        for (String groupId : groups) {
+            String conv = ConversationService.groupConv(groupId);
+            if (merged.containsKey(conv)) {
+                continue;
+            }
+            long head = conversations.lastSeq(conv);
+            long delivered = cursors.delivered(groupId, userId);
+            if (delivered < 0) {
+                cursors.init(groupId, userId, head);
+            } else if (delivered < head) {
+                merged.put(conv, delivered);
+                ChatMetrics.GROUP_TIMELINE_REPLAYS.increment();
+            }
+        }
+        return merged;
+    }
+
+    private static long lastSeq(String groupId) {
+        ConversationLog conversations = ConversationService.getConversationLog();
+        return conversations == null ? 0 : conversations.lastSeq(ConversationService.groupConv(groupId));
+    }
+
+    private static void flush() {
+        GroupCursorStore cursors = store;
+        if (cursors == null) {
+            return;
+        }
+        try {
+            int written = cursors.flush();
+            if (written > 0 && log.isDebugEnabled()) {
+                log.debug("群游标刷盘 {} 条", written);
+            }
+        } catch (Throwable e) {
+            log.error("群游标刷盘失败", e);
+        }
+    }
+}
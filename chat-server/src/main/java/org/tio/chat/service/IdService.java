@@ -0,0 +1,27 @@
+package org.tio.chat.service;
+
+import org.tio.chat.util.IdGenerator;
+import org.tio.chat.util.SnowflakeIdGenerator;
+
+/**
+ * IdService 为服务端生成的消息 id、批次 id 提供统一入口。
+ *
+ * 默认使用节点号 0 的 {@link SnowflakeIdGenerator}，由 ChatServerStarter 按 app.properties 中的
+ * id.generator / id.node 替换（多个服务端进程共用存储或组成集群时节点号必须各不相同）。
+ */
+public class IdService {
+
+    private static volatile IdGenerator generator = new SnowflakeIdGenerator(0);
+
+    public static void setGenerator(IdGenerator idGenerator) {
+        generator = idGenerator;
+    }
+
+    public static IdGenerator getGenerator() {
+        return generator;
+    }
+
+    public static String nextId() {
+        return generator.nextId();
+    }
+}
@@ -0,0 +1,298 @@
+package org.tio.chat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tio.chat.metrics.ChatMetrics;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.util.BatchingPipeline;
+import org.tio.chat.util.DedupWindow;
+import org.tio.core.ChannelContext;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * MessagePipeline 负责私聊（cmd=2）/群聊（cmd=3）消息的持久化、转发与服务端 ACK。
+ *
+ * 原先每条消息在 t-io 业务线程上同步写会话日志、离线存储并等待刷盘，等待期间该线程不能处理其他消息；
+ * 现在业务线程只做校验并把消息放入环形缓冲（{@link BatchingPipeline}），之后由两个阶段线程按批处理：
+ *  1. 持久化：整批写入会话日志与离线存储，每个存储只等待一次刷盘（组提交）；
+ *  2. 转发 + ACK：写入投递状态、转发给接收方，最后回复 cmd=-1，并提交到全文索引（不等待，见 SearchService）。
+ *
+ * 因此 ACK 意味着消息已写入存储（同步刷盘模式下为已 fsync）。每个阶段只有一个线程，
+ * 同一会话的消息按进入管道的顺序分配 seq 并转发。
+ *
+ * 背压：环满时业务线程最多等待 offerTimeoutMs，仍无空位则回复 cmd=-2（BUSY），客户端稍后重发；
+ * 写入失败回复 cmd=-2（STORE_ERROR），消息不转发；群聊发送方不是群成员时回复 cmd=-2（NOT_MEMBER）。
+ * 启用会话日志时以写入会话日志（分配 seq）为提交点：之后离线副本写入或等待刷盘失败只记录日志与指标，
+ * 仍按已分配的 seq 转发并回复 ACK，接收方可通过会话同步拿到；否则客户端重发会再分配一个 seq，接收方收到两次。
+ * 未启动管道时（如测试）在调用线程上同步处理，行为相同。
+ *
+ * 去重：设置了 {@link DedupWindow} 时，同一发送方用同一 msgId 重发（客户端 ACK 超时后重试）的消息不再落盘与转发：
+ * 原消息已回复 ACK 的，按原会话与 seq 再回复一次 ACK；原消息仍在管道中的直接忽略，原消息的 ACK 随后发出。
+ * 原消息被拒绝（BUSY / STORE_ERROR）时从窗口中释放，重发按新消息处理。
+ */
+public class MessagePipeline {
+    private static final Logger log = LoggerFactory.getLogger(MessagePipeline.class);
+
+    public static final String REJECT_BUSY = "BUSY";
+    public static final String REJECT_INVALID = "INVALID";
+    public static final String REJECT_STORE_ERROR = "STORE_ERROR";
+    public static final String REJECT_NOT_MEMBER = GroupService.REJECT_NOT_MEMBER;
+
+    /**
+     * 管道中的一条消息
+     */
+    static final class Pending {
+        final ChatMessage msg;
+        final ChannelContext channelContext;
+        final long receivedNanos;
+        /** 已登记到去重窗口的发送方，未登记时为 null */
+        final String dedupSender;
+        /** 已写入会话日志并分配 seq，之后的失败不再拒绝 */
+        boolean committed;
+        boolean failed;
+
+        Pending(ChatMessage msg, ChannelContext channelContext, long receivedNanos, String dedupSender) {
+            this.msg = msg;
+            this.channelContext = channelContext;
+            this.receivedNanos = receivedNanos;
+            this.dedupSender = dedupSender;
+        }
+    }
+
+    private static volatile BatchingPipeline<Pending> pipeline;
+    private static volatile long offerTimeoutMs;
+    private static volatile DedupWindow dedupWindow;
+
+    /**
+     * 设置发送方去重窗口，null 表示不去重
+     */
+    public static void setDedupWindow(DedupWindow window) {
+        dedupWindow = window;
+        if (window != null) {
+            ChatMetrics.REGISTRY.gauge("chat_dedup_entries", "去重窗口中的记录数", window::size);
+        }
+    }
+
+    /**
+     * 启动管道
+     * @param ringSize       环容量（未落盘 + 未转发的消息上限）
+     * @param maxBatch       单批最多处理的消息数
+     * @param offerTimeoutMs 环满时业务线程的最长等待时间，0 表示立即拒绝
+     */
+    public static synchronized void start(int ringSize, int maxBatch, long offerTimeoutMs) {
+        if (pipeline != null) {
+            return;
+        }
+        MessagePipeline.offerTimeoutMs = offerTimeoutMs;
+        BatchingPipeline<Pending> p = new BatchingPipeline<>("message-pipeline", ringSize, maxBatch,
+                MessagePipeline::persist, MessagePipeline::deliver);
+        p.start();
+        pipeline = p;
+        ChatMetrics.REGISTRY.gauge("chat_pipeline_backlog", "已入队尚未回复 ACK 的消息数", MessagePipeline::backlog);
+        ChatMetrics.REGISTRY.gauge("chat_pipeline_capacity", "持久化管道环容量", p::capacity);
+        log.info("消息管道已启动，容量: {}，单批上限: {}，入队超时: {}ms", p.capacity(), maxBatch, offerTimeoutMs);
+    }
+
+    /**
+     * 停止接收新消息，处理完已入队的消息后停止；须在关闭存储之前调用
+     */
+    public static synchronized void stop(long timeoutMs) {
+        BatchingPipeline<Pending> p = pipeline;
+        if (p == null) {
+            return;
+        }
+        p.stop(timeoutMs);
+        pipeline = null;
+    }
+
+    public static boolean isRunning() {
+        return pipeline != null;
+    }
+
+    /**
+     * 已入队但尚未回复 ACK 的消息数
+     */
+    public static long backlog() {
+        BatchingPipeline<Pending> p = pipeline;
+        return p == null ? 0 : p.backlog();
+    }
+
+    /**
+     * 业务线程调用：校验消息并放入管道，ACK / 拒绝均异步回复给发送方
+     * @param receivedNanos 收到帧的时刻（System.nanoTime），用于统计转发延迟
+     */
+    public static void submit(ChatMessage msg, ChannelContext channelContext, long receivedNanos) {
+        if (msg.getTo() == null || msg.getTo().isEmpty()) {
+            ChatMetrics.REJECTED_INVALID.increment();
+            ChatService.sendNack(channelContext, msg.getMsgId(), REJECT_INVALID);
+            return;
+        }
+        if (Integer.valueOf(3).equals(msg.getCmd())
+                && !GroupService.isMember(msg.getTo(), channelContext.userid != null ? channelContext.userid : msg.getFrom())) {
+            ChatMetrics.REJECTED_NOT_MEMBER.increment();
+            ChatService.sendNack(channelContext, msg.getMsgId(), REJECT_NOT_MEMBER);
+            return;
+        }
+        String senderId = channelContext.userid != null ? channelContext.userid : msg.getFrom();
+        DedupWindow window = dedupWindow;
+        String dedupSender = null;
+        if (window != null && senderId != null && msg.getMsgId() != null) {
+            long seq = window.acquire(senderId, msg.getMsgId());
+            if (seq != DedupWindow.ABSENT) {
+                replyDuplicate(msg, channelContext, senderId, seq);
+                return;
+            }
+            dedupSender = senderId;
+        }
+        Pending pending = new Pending(msg, channelContext, receivedNanos, dedupSender);
+        BatchingPipeline<Pending> p = pipeline;
+        if (p == null) {
+            List<Pending> single = Collections.singletonList(pending);
+            persist(single);
+            deliver(single);
+            return;
+        }
+        if (!p.offer(pending, offerTimeoutMs)) {
+            ChatMetrics.REJECTED_BUSY.increment();
+            if (log.isDebugEnabled()) {
+                log.debug("消息管道已满，拒绝消息，msgId: {}，用户: {}", msg.getMsgId(), channelContext.userid);
+            }
+            release(pending);
+            ChatService.sendNack(channelContext, msg.getMsgId(), REJECT_BUSY);
+        }
+    }
+
+    /**
+     * 重发的消息：原消息已回复 ACK 时按原会话与 seq 再回复一次，仍在管道中时忽略
+     */
+    private static void replyDuplicate(ChatMessage msg, ChannelContext channelContext, String senderId, long seq) {
+        if (seq == DedupWindow.PENDING) {
+            ChatMetrics.DUPLICATES_IN_FLIGHT.increment();
+            return;
+        }
+        ChatMetrics.DUPLICATES_ACKED.increment();
+        if (log.isDebugEnabled()) {
+            log.debug("重发的消息，回复原 ACK，msgId: {}，用户: {}", msg.getMsgId(), senderId);
+        }
+        if (seq > 0) {
+            msg.setConv(ConversationService.conversationOf(msg, senderId));
+            msg.setSeq(seq);
+        } else {
+            msg.setConv(null);
+            msg.setSeq(null);
+        }
+        ChatService.sendAck(channelContext, msg);
+    }
+
+    private static void release(Pending pending) {
+        DedupWindow window = dedupWindow;
+        if (window != null && pending.dedupSender != null) {
+            window.release(pending.dedupSender, pending.msg.getMsgId());
+        }
+    }
+
+    /**
+     * 阶段 1：整批分配 seq 并写入，每个存储等待一次刷盘（位置单调递增，等到最大位置即整批落盘）
+     */
+    static void persist(List<Pending> batch) {
+        long start = System.nanoTime();
+        long conversationPosition = -1;
+        long offlinePosition = -1;
+        for (Pending pending : batch) {
+            long position;
+            try {
+                position = ConversationService.assign(pending.msg, pending.channelContext);
+            } catch (Exception e) {
+                pending.failed = true;
+                log.error("消息写入会话日志失败，msgId: {}", pending.msg.getMsgId(), e);
+                continue;
+            }
+            pending.committed = position >= 0;
+            conversationPosition = Math.max(conversationPosition, position);
+            offlinePosition = Math.max(offlinePosition, saveOfflineCopy(pending));
+        }
+        try {
+            ConversationService.awaitDurable(conversationPosition);
+        } catch (Exception e) {
+            // 已分配 seq：拒绝后客户端重发会得到第二个 seq，仍按原 seq 回复 ACK
+            log.error("会话日志等待刷盘失败，整批 {} 条消息仍按已分配的 seq 回复", batch.size(), e);
+        }
+        try {
+            ChatService.awaitOfflineDurable(offlinePosition);
+        } catch (Exception e) {
+            log.error("离线存储等待刷盘失败，未写入会话日志的消息回复失败", e);
+            for (Pending pending : batch) {
+                if (!pending.committed) {
+                    pending.failed = true;
+                } else {
+                    ChatMetrics.OFFLINE_COPY_FAILURES.increment();
+                }
+            }
+        }
+        ChatMetrics.PIPELINE_PERSIST.recordSince(start);
+        ChatMetrics.PIPELINE_BATCHES.increment();
+        ChatMetrics.PIPELINE_MESSAGES.add(batch.size());
+    }
+
+    /**
+     * 写入离线副本：已写入会话日志的消息失败时重试一次，仍失败只记录（接收方通过会话同步获取），
+     * 没有写入会话日志的消息失败时标记为失败
+     * @return 离线存储的日志位置，没有写入时为 -1
+     */
+    private static long saveOfflineCopy(Pending pending) {
+        try {
+            return ChatService.saveOfflineMessageNoWait(pending.msg);
+        } catch (Exception e) {
+            if (!pending.committed) {
+                pending.failed = true;
+                log.error("消息写入失败，msgId: {}", pending.msg.getMsgId(), e);
+                return -1;
+            }
+            log.warn("离线副本写入失败，重试一次，msgId: {}", pending.msg.getMsgId(), e);
+        }
+        try {
+            return ChatService.saveOfflineMessageNoWait(pending.msg);
+        } catch (Exception e) {
+            ChatMetrics.OFFLINE_COPY_FAILURES.increment();
+            log.error("离线副本写入失败，消息已写入会话日志，msgId: {}，会话: {}，seq: {}",
+                    pending.msg.getMsgId(), pending.msg.getConv(), pending.msg.getSeq(), e);
+            return -1;
+        }
+    }
+
+    /**
+     * 阶段 2：转发已落盘的消息并回复 ACK，写入失败的消息回复拒绝
+     */
+    static void deliver(List<Pending> batch) {
+        for (Pending pending : batch) {
+            ChatMessage msg = pending.msg;
+            if (pending.failed) {
+                ChatMetrics.REJECTED_STORE_ERROR.increment();
+                release(pending);
+                ChatService.sendNack(pending.channelContext, msg.getMsgId(), REJECT_STORE_ERROR);
+                continue;
+            }
+            try {
+                ChatService.saveOnlineMessage(msg, pending.channelContext);
+                if (Integer.valueOf(3).equals(msg.getCmd())) {
+                    ChatService.sendGroupMsg(msg, pending.channelContext);
+                } else {
+                    ChatService.sendPrivateMsg(msg, pending.channelContext);
+                }
+                ChatMetrics.FANOUT_LATENCY.recordSince(pending.receivedNanos);
+            } catch (Exception e) {
+                // 已落盘：接收方可通过会话同步 / 离线消息拿到，仍回复 ACK
+                log.error("转发消息异常，msgId: {}", msg.getMsgId(), e);
+            }
+            DedupWindow window = dedupWindow;
+            if (window != null && pending.dedupSender != null) {
+                // 先记下 seq 再回复 ACK，收到 ACK 之后的重发一定能拿到原 seq
+                window.complete(pending.dedupSender, msg.getMsgId(), msg.getSeq() == null ? 0 : msg.getSeq());
+            }
+            ChatService.sendAck(pending.channelContext, msg);
+            SearchService.index(msg);
+        }
+    }
+}
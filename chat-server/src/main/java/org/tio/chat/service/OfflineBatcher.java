@@ -0,0 +1,205 @@
+package org.tio.chat.service;
+
+import org.tio.chat.codec.BinaryChatCodec;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.util.JsonUtil;
+import org.tio.chat.util.WsFrameEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * OfflineBatcher：一个连接的离线消息分批、在途批次与确认记账，供 OfflineSyncService 使用，不依赖 t-io。
+ *
+ *  - 每批最多读取 pageSize 条，再按 maxBytes 截断（至少一条，避免单条超大消息永远发不出去）；
+ *  - 同时只有一个在途批次，未确认时 {@link #next} 返回 null；
+ *  - 只有确认了在途批次（{@link #ack}）才从存储中删除该批消息；
+ *  - 已由会话同步覆盖的消息（同一会话、seq 不大于同步时的最大 seq）不进入批次，直接确认删除。
+ *
+ * 离线消息的读取与删除由 {@link Source} 提供，运行时为 ChatService；发送由调用方完成。
+ */
+public class OfflineBatcher {
+
+    private static final byte[] BATCH_HEAD = "{\"cmd\":102,\"msgId\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BATCH_MESSAGES = "\",\"messages\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BATCH_TAIL = "]}".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 一个用户的离线消息
+     */
+    public interface Source {
+        /**
+         * 按到达顺序读取最多 limit 条，不删除
+         */
+        List<ChatMessage> read(int limit);
+
+        /**
+         * 删除指定消息
+         * @return 实际删除的条数
+         */
+        int ack(List<String> msgIds);
+    }
+
+    /**
+     * 一个批次：cmd=102 的完整 WebSocket 帧
+     */
+    public static final class Batch {
+        final String batchId;
+        final List<String> msgIds;
+        final ByteBuffer frame;
+        /** 二进制帧，否则为文本帧 */
+        final boolean binary;
+        final long sentNanos = System.nanoTime();
+
+        Batch(String batchId, List<String> msgIds, ByteBuffer frame, boolean binary) {
+            this.batchId = batchId;
+            this.msgIds = msgIds;
+            this.frame = frame;
+            this.binary = binary;
+        }
+
+        public String getBatchId() {
+            return batchId;
+        }
+
+        public List<String> getMsgIds() {
+            return msgIds;
+        }
+    }
+
+    private final Source source;
+    private final Map<String, Long> synced;
+    private final boolean binary;
+    private final int pageSize;
+    private final int maxBytes;
+    private Batch inFlight;
+
+    /**
+     * @param synced   会话同步已覆盖的会话 → 同步时的最大 seq，可为 null
+     * @param binary   是否为二进制连接（否则为 JSON）
+     * @param pageSize 每批最多条数
+     * @param maxBytes 每批负载的字节上限
+     */
+    public OfflineBatcher(Source source, Map<String, Long> synced, boolean binary, int pageSize, int maxBytes) {
+        this.source = source;
+        this.synced = synced == null ? Collections.<String, Long>emptyMap() : synced;
+        this.binary = binary;
+        this.pageSize = pageSize;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 取下一批并记为在途
+     * @return 批次；有在途批次或没有积压时为 null
+     */
+    public synchronized Batch next() {
+        if (inFlight != null) {
+            return null;
+        }
+        List<ChatMessage> page = uncoveredPage();
+        if (page.isEmpty()) {
+            return null;
+        }
+        String batchId = IdService.nextId();
+        List<String> msgIds = new ArrayList<>(page.size());
+        ByteBuffer frame = binary ? binaryBatch(batchId, page, msgIds) : jsonBatch(batchId, page, msgIds);
+        inFlight = new Batch(batchId, msgIds, frame, binary);
+        return inFlight;
+    }
+
+    /**
+     * 客户端确认：是当前在途批次时删除该批消息，之后可以取下一批
+     * @return 被确认的批次；不是在途批次的 msgId 返回 null
+     */
+    public synchronized Batch ack(String msgId) {
+        Batch batch = inFlight;
+        if (batch == null || !batch.batchId.equals(msgId)) {
+            return null;
+        }
+        inFlight = null;
+        source.ack(batch.msgIds);
+        return batch;
+    }
+
+    /**
+     * 读取一页并去掉已由会话同步覆盖的消息；整页都被覆盖时继续读下一页
+     */
+    private List<ChatMessage> uncoveredPage() {
+        while (true) {
+            List<ChatMessage> page = source.read(pageSize);
+            if (page.isEmpty() || synced.isEmpty()) {
+                return page;
+            }
+            List<String> covered = new ArrayList<>();
+            List<ChatMessage> rest = new ArrayList<>(page.size());
+            for (ChatMessage msg : page) {
+                Long head = msg.getConv() == null ? null : synced.get(msg.getConv());
+                if (head != null && msg.getSeq() != null && msg.getSeq() <= head) {
+                    covered.add(msg.getMsgId());
+                } else {
+                    rest.add(msg);
+                }
+            }
+            if (covered.isEmpty()) {
+                return page;
+            }
+            source.ack(covered);
+            if (!rest.isEmpty()) {
+                return rest;
+            }
+        }
+    }
+
+    /**
+     * JSON 批次：逐条序列化后直接拼接，每条只序列化一次
+     */
+    private ByteBuffer jsonBatch(String batchId, List<ChatMessage> page, List<String> msgIds) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxBytes, 8192));
+        out.write(BATCH_HEAD, 0, BATCH_HEAD.length);
+        byte[] id = batchId.getBytes(StandardCharsets.UTF_8);
+        out.write(id, 0, id.length);
+        out.write(BATCH_MESSAGES, 0, BATCH_MESSAGES.length);
+        for (ChatMessage msg : page) {
+            byte[] json = JsonUtil.toJsonBytes(msg);
+            // 至少放入一条，避免单条超大消息永远发不出去
+            if (!msgIds.isEmpty() && out.size() + json.length + 1 + BATCH_TAIL.length > maxBytes) {
+                break;
+            }
+            if (!msgIds.isEmpty()) {
+                out.write(',');
+            }
+            out.write(json, 0, json.length);
+            msgIds.add(msg.getMsgId());
+        }
+        out.write(BATCH_TAIL, 0, BATCH_TAIL.length);
+        return WsFrameEncoder.encodeText(out.toByteArray());
+    }
+
+    /**
+     * 二进制批次：cmd=102 的 ChatMessage，messages 字段嵌套各条消息
+     */
+    private ByteBuffer binaryBatch(String batchId, List<ChatMessage> page, List<String> msgIds) {
+        List<ChatMessage> messages = new ArrayList<>(page.size());
+        int size = 0;
+        for (ChatMessage msg : page) {
+            // 嵌套消息额外有 tag + 长度前缀，按 6 字节上限估算
+            int msgSize = BinaryChatCodec.sizeOf(msg) + 6;
+            if (!messages.isEmpty() && size + msgSize > maxBytes) {
+                break;
+            }
+            size += msgSize;
+            messages.add(msg);
+            msgIds.add(msg.getMsgId());
+        }
+        ChatMessage batch = new ChatMessage();
+        batch.setCmd(102);
+        batch.setMsgId(batchId);
+        batch.setMessages(messages);
+        return BinaryChatCodec.encodeFrame(batch);
+    }
+}
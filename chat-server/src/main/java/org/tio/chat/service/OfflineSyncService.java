@@ -0,0 +1,81 @@
+package org.tio.chat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tio.chat.codec.WireFormat;
+import org.tio.chat.config.ChatServerConfig;
+import org.tio.chat.metrics.ChatMetrics;
+import org.tio.chat.model.ChatMessage;
+import org.tio.core.ChannelContext;
+import org.tio.websocket.common.Opcode;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * OfflineSyncService 负责重连后的离线消息批量同步。
+ *
+ * 流程：
+ *  - 登录（cmd=1）后读取一页离线消息，按条数（OFFLINE_PAGE_SIZE）和字节数（OFFLINE_BATCH_MAX_BYTES）截断，
+ *    打包成一个 cmd=102 帧发送：{"cmd":102,"msgId":"批次id","messages":[...]}（二进制连接为嵌套 messages 字段）；
+ *  - 客户端对批次 msgId 回 cmd=99 后，才从存储中删除该批消息并发送下一批；
+ *  - 同一连接同时只有一个在途批次，未确认的批次在下次重连时会重新下发；
+ *  - 登录时携带了会话游标的，已由会话同步（cmd=104）覆盖的消息（同一会话、seq 不大于同步时的最大 seq）
+ *    不再随批次下发，直接从离线存储中确认删除。
+ *
+ * 分批与确认记账见 {@link OfflineBatcher}，每个连接一个，记录在 ChannelContext 属性中，连接关闭即随之释放。
+ */
+public class OfflineSyncService {
+    private static final Logger log = LoggerFactory.getLogger(OfflineSyncService.class);
+
+    private static final String ATTR_BATCHER = "chat.offline.batcher";
+
+    /**
+     * 开始同步：发送第一批离线消息（没有积压时什么也不做）。同一连接只会开始一次，重复登录不会重复下发
+     * @param synced 会话同步已覆盖的会话 → 同步时的最大 seq，没有时传空 Map
+     */
+    public static void start(ChannelContext channelContext, Map<String, Long> synced) {
+        if (channelContext.getAttribute(ATTR_BATCHER) != null) {
+            return;
+        }
+        String userId = channelContext.userid;
+        OfflineBatcher batcher = new OfflineBatcher(new OfflineBatcher.Source() {
+            @Override
+            public List<ChatMessage> read(int limit) {
+                return ChatService.getOfflineMessages(userId, limit);
+            }
+
+            @Override
+            public int ack(List<String> msgIds) {
+                return ChatService.ackOfflineMessages(userId, msgIds);
+            }
+        }, synced, WireFormat.of(channelContext) == WireFormat.BINARY,
+                ChatServerConfig.OFFLINE_PAGE_SIZE, ChatServerConfig.OFFLINE_BATCH_MAX_BYTES);
+        channelContext.setAttribute(ATTR_BATCHER, batcher);
+        send(channelContext, batcher.next());
+    }
+
+    /**
+     * 处理客户端的 cmd=99 确认，如果确认的是当前在途批次，则删除该批消息并发送下一批
+     * @return 是否为批次确认
+     */
+    public static boolean onAck(ChannelContext channelContext, String msgId) {
+        OfflineBatcher batcher = (OfflineBatcher) channelContext.getAttribute(ATTR_BATCHER);
+        OfflineBatcher.Batch batch = batcher == null ? null : batcher.ack(msgId);
+        if (batch == null) {
+            return false;
+        }
+        ChatMetrics.ACK_RTT_OFFLINE.recordSince(batch.sentNanos);
+        if (log.isDebugEnabled()) {
+            log.debug("用户 [{}] 确认离线批次 {}，共 {} 条", channelContext.userid, msgId, batch.msgIds.size());
+        }
+        send(channelContext, batcher.next());
+        return true;
+    }
+
+    private static void send(ChannelContext channelContext, OfflineBatcher.Batch batch) {
+        if (batch != null) {
+            BroadcastService.send(channelContext, BroadcastService.packet(batch.frame, batch.binary ? Opcode.BINARY : Opcode.TEXT));
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package org.tio.chat.service;
+
+import org.tio.chat.config.ChatServerConfig;
+import org.tio.websocket.common.WsResponse;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OutboundQueue 记录单个连接已交给 t-io、尚未写出的帧，并按水位决定新帧的去向（慢消费者策略）。
+ *
+ * 按字节数设三道水位：
+ *  - 超过低水位：上下线通知（cmd=103）不再入队，只保留最新的一帧，积压降到低水位以下时补发；
+ *  - 超过高水位：私聊/群聊消息不再入队，记下各会话跳过的 seq，积压降到低水位以下后按会话补齐（cmd=104），
+ *    私聊消息同时仍在离线存储中，客户端确认前不会丢；
+ *  - 超过上限，或持续高于高水位超过 lagMaxNanos：判定为慢消费者，断开连接。
+ * ACK、拒绝、已读回执、离线批次、会话同步等控制帧不受前两道水位限制。
+ *
+ * 不依赖 t-io 连接对象，所有方法在队列对象上同步。
+ */
+final class OutboundQueue {
+
+    /**
+     * 帧的类别，决定积压时的处理方式
+     */
+    enum MessageClass {
+        CONTROL, CHAT, PRESENCE
+    }
+
+    /**
+     * offer 的结果
+     */
+    enum Decision {
+        /** 已计入队列，交给 t-io 发送 */
+        SEND,
+        /** 上下线通知暂存，等积压降下来后补发 */
+        COALESCED,
+        /** 上下线通知暂存，替换掉了之前暂存的一帧 */
+        REPLACED,
+        /** 私聊/群聊消息跳过，之后按会话补齐 */
+        DEFERRED,
+        /** 判定为慢消费者，调用方断开连接 */
+        DISCONNECT,
+        /** 连接已关闭或正在断开 */
+        CLOSED
+    }
+
+    /**
+     * 水位配置，highBytes <= 0 表示不启用慢消费者策略（只统计）
+     */
+    static final class Watermarks {
+        static final Watermarks NONE = new Watermarks(0, 0, 0, 0);
+
+        final long lowBytes;
+        final long highBytes;
+        final long maxBytes;
+        final long lagMaxNanos;
+
+        Watermarks(long lowBytes, long highBytes, long maxBytes, long lagMaxNanos) {
+            this.lowBytes = lowBytes;
+            this.highBytes = highBytes;
+            this.maxBytes = maxBytes;
+            this.lagMaxNanos = lagMaxNanos;
+        }
+
+        boolean enabled() {
+            return highBytes > 0;
+        }
+    }
+
+    /**
+     * 积压降下来后需要补发的内容
+     */
+    static final class Recovery {
+        final WsResponse presence;
+        /** 会话 id → 补齐的起始游标（跳过的最小 seq - 1） */
+        final Map<String, Long> cursors;
+
+        Recovery(WsResponse presence, Map<String, Long> cursors) {
+            this.presence = presence;
+            this.cursors = cursors;
+        }
+    }
+
+    /**
+     * 所有连接的合计，队列状态变化时同步更新
+     */
+    static final class Totals {
+        final AtomicLong packets = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        /** 高于高水位的连接数 */
+        final AtomicInteger slowConnections = new AtomicInteger();
+    }
+
+    private final Totals totals;
+
+    private int packets;
+    private long bytes;
+    private boolean closed;
+    private boolean disconnecting;
+    /** 开始高于高水位的时刻（System.nanoTime），0 表示未高于高水位 */
+    private long aboveHighSince;
+    private WsResponse pendingPresence;
+    private Map<String, Long> deferred;
+    private boolean recoveryScheduled;
+
+    OutboundQueue(Totals totals) {
+        this.totals = totals;
+    }
+
+    /**
+     * 新帧入队前调用
+     * @param conv 私聊/群聊消息的会话 id，没有时为 null
+     * @param seq  私聊/群聊消息的会话 seq，没有时为 null
+     */
+    synchronized Decision offer(MessageClass messageClass, int size, WsResponse packet, String conv, Long seq,
+                                Watermarks watermarks, long now) {
+        if (closed || disconnecting) {
+            return Decision.CLOSED;
+        }
+        if (watermarks.enabled()) {
+            boolean overMax = watermarks.maxBytes > 0 && bytes + size > watermarks.maxBytes;
+            boolean lagging = aboveHighSince != 0 && watermarks.lagMaxNanos > 0 && now - aboveHighSince > watermarks.lagMaxNanos;
+            if (overMax || lagging) {
+                disconnecting = true;
+                return Decision.DISCONNECT;
+            }
+            if (messageClass == MessageClass.PRESENCE && bytes > watermarks.lowBytes) {
+                boolean replaced = pendingPresence != null;
+                pendingPresence = packet;
+                return replaced ? Decision.REPLACED : Decision.COALESCED;
+            }
+            if (messageClass == MessageClass.CHAT && bytes > watermarks.highBytes) {
+                if (conv != null && seq != null) {
+                    if (deferred == null) {
+                        deferred = new HashMap<>();
+                    }
+                    Long cursor = deferred.get(conv);
+                    if (cursor == null && deferred.size() >= ChatServerConfig.SYNC_MAX_CONVERSATIONS) {
+                        // 一次补齐不了这么多会话，不如让客户端重连后按游标同步
+                        disconnecting = true;
+                        return Decision.DISCONNECT;
+                    }
+                    if (cursor == null || seq - 1 < cursor) {
+                        deferred.put(conv, seq - 1);
+                    }
+                }
+                return Decision.DEFERRED;
+            }
+        }
+        packets++;
+        bytes += size;
+        totals.packets.incrementAndGet();
+        totals.bytes.addAndGet(size);
+        if (watermarks.enabled() && aboveHighSince == 0 && bytes > watermarks.highBytes) {
+            aboveHighSince = now == 0 ? 1 : now;
+            totals.slowConnections.incrementAndGet();
+        }
+        return Decision.SEND;
+    }
+
+    /**
+     * 一帧已写出（或写出失败）
+     * @return 是否需要安排补发（见 {@link #takeRecovery()}）
+     */
+    synchronized boolean onSent(int size, Watermarks watermarks) {
+        if (closed || packets == 0) {
+            return false;
+        }
+        packets--;
+        bytes -= size;
+        totals.packets.decrementAndGet();
+        totals.bytes.addAndGet(-size);
+        if (aboveHighSince != 0 && bytes <= watermarks.highBytes) {
+            aboveHighSince = 0;
+            totals.slowConnections.decrementAndGet();
+        }
+        if (!recoveryScheduled && bytes <= watermarks.lowBytes && (pendingPresence != null || deferred != null)) {
+            recoveryScheduled = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 取出需要补发的内容
+     */
+    synchronized Recovery takeRecovery() {
+        recoveryScheduled = false;
+        Recovery recovery = new Recovery(pendingPresence,
+                deferred == null ? Collections.<String, Long>emptyMap() : deferred);
+        pendingPresence = null;
+        deferred = null;
+        return recovery;
+    }
+
+    /**
+     * 连接关闭：扣除仍未写出的帧，之后的 offer 都返回 CLOSED
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (aboveHighSince != 0) {
+            aboveHighSince = 0;
+            totals.slowConnections.decrementAndGet();
+        }
+        totals.packets.addAndGet(-packets);
+        totals.bytes.addAndGet(-bytes);
+        packets = 0;
+        bytes = 0;
+        pendingPresence = null;
+        deferred = null;
+    }
+
+    synchronized int packets() {
+        return packets;
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,264 @@
+package org.tio.chat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tio.chat.codec.PerMessageDeflate;
+import org.tio.chat.metrics.ChatMetrics;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.model.PresenceMessage;
+import org.tio.core.ChannelContext;
+import org.tio.core.Tio;
+import org.tio.core.intf.Packet;
+import org.tio.websocket.common.WsResponse;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OutboundService 统计每个连接已交给 t-io、尚未写出的帧（发送队列深度），并对慢消费者执行背压策略。
+ *
+ * 经 BroadcastService / OfflineSyncService 发出的帧都是 {@link TrackedResponse}，
+ * 交给 t-io 时计入连接与全局的队列深度，写出后（ChatServerListener.onAfterSent）扣减；
+ * 连接关闭时 t-io 丢弃的剩余帧在 onClose 中一次扣减。
+ *
+ * 调用 {@link #configure} 后按水位处理积压（见 {@link OutboundQueue}）：上下线通知合并为最新一帧、
+ * 私聊/群聊消息跳过并在积压降下来后按会话补齐、长期积压的连接断开。
+ * 补发提交到业务执行器上该用户的队列（见 BusinessExecutor），与实时投递按用户串行，不会交错。
+ * 未配置时只统计，不限制。
+ *
+ * 协商了 permessage-deflate 的连接在帧真正交给 t-io 时才压缩（见 PerMessageDeflate）：被合并、跳过的帧不进入压缩上下文，
+ * 上下文接管的连接压缩与入队在同一把锁内完成。队列深度仍按未压缩的帧长统计，入队与写出扣减一致。
+ */
+public class OutboundService {
+    private static final Logger log = LoggerFactory.getLogger(OutboundService.class);
+
+    private static final String ATTR_OUTBOUND = "chat.outbound";
+
+    private static final OutboundQueue.Totals totals = new OutboundQueue.Totals();
+
+    private static volatile OutboundQueue.Watermarks watermarks = OutboundQueue.Watermarks.NONE;
+
+    static {
+        ChatMetrics.REGISTRY.gauge("chat_outbound_queued_packets", "已交给 t-io 尚未写出的帧数（所有连接）", totals.packets::get);
+        ChatMetrics.REGISTRY.gauge("chat_outbound_queued_bytes", "已交给 t-io 尚未写出的字节数（所有连接）", totals.bytes::get);
+        ChatMetrics.REGISTRY.gauge("chat_outbound_slow_connections", "发送队列高于高水位的连接数", totals.slowConnections::get);
+    }
+
+    /**
+     * 带字节数的发送帧，用于识别本服务发出的帧
+     */
+    public static class TrackedResponse extends WsResponse {
+        private static final long serialVersionUID = 1L;
+        final int bytes;
+        // 群发帧的共享压缩结果，单独发送的帧为 null
+        final transient PerMessageDeflate.SharedFrame shared;
+
+        TrackedResponse(int bytes, PerMessageDeflate.SharedFrame shared) {
+            this.bytes = bytes;
+            this.shared = shared;
+        }
+    }
+
+    /**
+     * 启用慢消费者策略
+     * @param lowBytes  低水位：超过后上下线通知只保留最新一帧；积压降到此值以下时补发
+     * @param highBytes 高水位：超过后私聊/群聊消息改为之后按会话补齐
+     * @param maxBytes  上限：再入队就会超过时断开连接，<=0 表示不限制
+     * @param lagMaxMs  持续高于高水位超过该时长时断开连接，<=0 表示不限制
+     */
+    public static synchronized void configure(long lowBytes, long highBytes, long maxBytes, long lagMaxMs) {
+        if (highBytes > 0 && (lowBytes < 0 || lowBytes > highBytes || (maxBytes > 0 && maxBytes < highBytes))) {
+            throw new IllegalArgumentException("发送队列水位须满足 0 <= low <= high <= max");
+        }
+        watermarks = new OutboundQueue.Watermarks(lowBytes, highBytes, maxBytes, TimeUnit.MILLISECONDS.toNanos(lagMaxMs));
+        log.info("发送队列水位，低: {}，高: {}，上限: {}，最长积压: {}ms", lowBytes, highBytes, maxBytes, lagMaxMs);
+    }
+
+    public static synchronized void stop() {
+        watermarks = OutboundQueue.Watermarks.NONE;
+    }
+
+    /**
+     * 发送控制帧（ACK、离线批次等），不受水位限制
+     * @return t-io 是否接受
+     */
+    static boolean send(ChannelContext channelContext, WsResponse packet) {
+        return send(channelContext, packet, OutboundQueue.MessageClass.CONTROL, null);
+    }
+
+    /**
+     * 按 message 的类别计入队列后交给 t-io 发送
+     * @param message 帧对应的消息，用于区分上下线通知、私聊/群聊消息与控制帧
+     * @return t-io 是否接受（暂存、跳过、断开时为 false）
+     */
+    static boolean send(ChannelContext channelContext, WsResponse packet, Object message) {
+        return send(channelContext, packet, classify(message), message instanceof ChatMessage ? (ChatMessage) message : null);
+    }
+
+    private static boolean send(ChannelContext channelContext, WsResponse packet, OutboundQueue.MessageClass messageClass,
+                                ChatMessage chat) {
+        if (!(packet instanceof TrackedResponse)) {
+            return Boolean.TRUE.equals(Tio.send(channelContext, packet));
+        }
+        int bytes = ((TrackedResponse) packet).bytes;
+        OutboundQueue queue = queue(channelContext);
+        OutboundQueue.Decision decision = queue.offer(messageClass, bytes, packet,
+                chat == null ? null : chat.getConv(), chat == null ? null : chat.getSeq(), watermarks, System.nanoTime());
+        switch (decision) {
+            case SEND:
+                break;
+            case COALESCED:
+                ChatMetrics.OUTBOUND_PRESENCE_COALESCED.increment();
+                return false;
+            case REPLACED:
+                ChatMetrics.OUTBOUND_PRESENCE_DROPPED.increment();
+                return false;
+            case DEFERRED:
+                ChatMetrics.OUTBOUND_CHAT_DEFERRED.increment();
+                return false;
+            case DISCONNECT:
+                ChatMetrics.OUTBOUND_DISCONNECTED.increment();
+                log.warn("连接发送队列积压（{} 帧，{} 字节），断开慢消费者，用户: {}",
+                        queue.packets(), queue.bytes(), channelContext.userid);
+                Tio.close(channelContext, "发送队列积压，断开慢消费者");
+                return false;
+            default:
+                return false;
+        }
+        if (Boolean.TRUE.equals(transmit(channelContext, (TrackedResponse) packet))) {
+            return true;
+        }
+        // 连接已关闭等原因未入队
+        onSent(channelContext, packet, false);
+        return false;
+    }
+
+    /**
+     * 交给 t-io 发送，协商了 permessage-deflate 的连接先压缩
+     */
+    private static Boolean transmit(ChannelContext channelContext, TrackedResponse packet) {
+        PerMessageDeflate.Session deflate = PerMessageDeflate.of(channelContext);
+        if (deflate == null) {
+            return Tio.send(channelContext, packet);
+        }
+        if (deflate.isStateless()) {
+            return Tio.send(channelContext, compressed(deflate, packet));
+        }
+        // 客户端按收到的顺序解压，压缩顺序必须与入队顺序一致
+        synchronized (deflate) {
+            return Tio.send(channelContext, compressed(deflate, packet));
+        }
+    }
+
+    private static TrackedResponse compressed(PerMessageDeflate.Session deflate, TrackedResponse packet) {
+        ByteBuffer frame = packet.getPreEncodedByteBuffer();
+        ByteBuffer out = PerMessageDeflate.compress(deflate, frame, packet.shared);
+        if (out == frame) {
+            return packet;
+        }
+        TrackedResponse compressed = new TrackedResponse(packet.bytes, null);
+        compressed.setWsOpcode(packet.getWsOpcode());
+        compressed.setPreEncodedByteBuffer(out.duplicate());
+        return compressed;
+    }
+
+    /**
+     * 帧已写出（或写出失败），由 ChatServerListener.onAfterSent 调用
+     */
+    public static void onSent(ChannelContext channelContext, Packet packet, boolean success) {
+        if (success) {
+            ChatMetrics.PACKETS_SENT.increment();
+        } else {
+            ChatMetrics.PACKETS_SEND_FAILED.increment();
+        }
+        if (!(packet instanceof TrackedResponse)) {
+            return;
+        }
+        OutboundQueue queue = (OutboundQueue) channelContext.getAttribute(ATTR_OUTBOUND);
+        if (queue == null) {
+            return;
+        }
+        if (queue.onSent(((TrackedResponse) packet).bytes, watermarks)) {
+            scheduleRecovery(channelContext, queue);
+        }
+    }
+
+    /**
+     * 连接关闭：扣除未写出的帧，丢弃暂存的补发内容，之后不再计数
+     */
+    public static void onClose(ChannelContext channelContext) {
+        OutboundQueue queue = (OutboundQueue) channelContext.getAttribute(ATTR_OUTBOUND);
+        if (queue == null) {
+            return;
+        }
+        queue.close();
+    }
+
+    /**
+     * 连接当前排队的帧数
+     */
+    public static int queuedPackets(ChannelContext channelContext) {
+        OutboundQueue queue = (OutboundQueue) channelContext.getAttribute(ATTR_OUTBOUND);
+        return queue == null ? 0 : queue.packets();
+    }
+
+    public static long totalQueuedPackets() {
+        return totals.packets.get();
+    }
+
+    public static long totalQueuedBytes() {
+        return totals.bytes.get();
+    }
+
+    static OutboundQueue.MessageClass classify(Object message) {
+        if (message instanceof PresenceMessage) {
+            return OutboundQueue.MessageClass.PRESENCE;
+        }
+        if (message instanceof ChatMessage) {
+            Integer cmd = ((ChatMessage) message).getCmd();
+            if (Integer.valueOf(2).equals(cmd) || Integer.valueOf(3).equals(cmd)) {
+                return OutboundQueue.MessageClass.CHAT;
+            }
+        }
+        return OutboundQueue.MessageClass.CONTROL;
+    }
+
+    /**
+     * 积压降到低水位以下：补发暂存的上下线通知，并按会话补齐跳过的私聊/群聊消息（cmd=104）。
+     * 补齐要读会话日志，提交到该用户的业务队列，与 MessagePipeline 的实时投递按用户串行，也不占用 t-io 的线程
+     */
+    private static void scheduleRecovery(ChannelContext channelContext, OutboundQueue queue) {
+        BusinessExecutor.execute(channelContext, () -> {
+            try {
+                OutboundQueue.Recovery recovery = queue.takeRecovery();
+                if (channelContext.isClosed || channelContext.isRemoved) {
+                    return;
+                }
+                if (recovery.presence != null) {
+                    send(channelContext, recovery.presence, OutboundQueue.MessageClass.PRESENCE, null);
+                }
+                if (!recovery.cursors.isEmpty()) {
+                    ChatMetrics.OUTBOUND_RESYNCED.add(recovery.cursors.size());
+                    ConversationService.sync(channelContext, recovery.cursors);
+                }
+            } catch (Throwable e) {
+                log.error("补发积压期间跳过的消息失败，用户: {}", channelContext.userid, e);
+            }
+        });
+    }
+
+    private static OutboundQueue queue(ChannelContext channelContext) {
+        OutboundQueue queue = (OutboundQueue) channelContext.getAttribute(ATTR_OUTBOUND);
+        if (queue == null) {
+            // 同一连接的首次发送可能并发，在连接对象上加锁创建
+            synchronized (channelContext) {
+                queue = (OutboundQueue) channelContext.getAttribute(ATTR_OUTBOUND);
+                if (queue == null) {
+                    queue = new OutboundQueue(totals);
+                    channelContext.setAttribute(ATTR_OUTBOUND, queue);
+                }
+            }
+        }
+        return queue;
+    }
+}
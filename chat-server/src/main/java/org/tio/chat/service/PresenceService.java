@@ -0,0 +1,244 @@
+package org.tio.chat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tio.chat.constant.ChatConst;
+import org.tio.chat.model.PresenceMessage;
+import org.tio.chat.starter.ChatServerStarter;
+import org.tio.core.ChannelContext;
+import org.tio.server.TioServerConfig;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PresenceService 负责在线状态：维护在线计数，并把上下线事件合并成每个周期一帧的增量广播。
+ *
+ * 原先每次连接/断开都向全群广播一条系统消息，N 个客户端同时重连就是 O(N²) 帧；
+ * 现在同一周期内的事件只产生一帧（cmd=103），重连风暴的开销降为 O(N)。
+ *
+ *  - 按 userId 引用计数，同一用户多个连接只在第一个连接上线、最后一个连接断开时产生事件；
+ *  - 在线人数直接读计数，不再每次遍历 Tio.getAll；
+ *  - 连接是否已计入以 channelId 记录，重复的关闭回调不会重复扣减；
+ *  - 可恢复会话断开时保留在线计数（{@link #suspend}），宽限期内重连不产生下线、上线两次通知；
+ *  - 用户在本节点上线 / 下线时同步给集群路由（见 ClusterService），在线人数与通知只统计本节点。
+ */
+public class PresenceService {
+    private static final Logger log = LoggerFactory.getLogger(PresenceService.class);
+
+    // channelId -> userId，已计入在线的连接
+    private static final ConcurrentHashMap<String, String> channels = new ConcurrentHashMap<>();
+    // userId -> 连接数
+    private static final ConcurrentHashMap<String, Integer> userConnections = new ConcurrentHashMap<>();
+    private static final AtomicInteger connectionCount = new AtomicInteger();
+
+    // 本周期待广播的增量，受 deltaLock 保护
+    private static final Object deltaLock = new Object();
+    private static Set<String> joined = new LinkedHashSet<>();
+    private static Set<String> left = new LinkedHashSet<>();
+
+    private static volatile int maxListedUsers = 100;
+    private static ScheduledExecutorService ticker;
+
+    /**
+     * 启动周期广播
+     * @param intervalMs     广播周期，毫秒
+     * @param maxListedUsers 单帧最多列出的 userId 数
+     */
+    public static synchronized void start(long intervalMs, int maxListedUsers) {
+        if (ticker != null) {
+            return;
+        }
+        PresenceService.maxListedUsers = maxListedUsers;
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "presence-ticker");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleWithFixedDelay(PresenceService::flush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+    }
+
+    /**
+     * 握手完成后调用
+     */
+    public static void online(ChannelContext channelContext) {
+        online(channelContext.getId(), channelContext.userid);
+    }
+
+    static void online(String channelId, String userId) {
+        if (userId == null || channels.putIfAbsent(channelId, userId) != null) {
+            return;
+        }
+        connectionCount.incrementAndGet();
+        if (userConnections.merge(userId, 1, Integer::sum) == 1) {
+            ClusterService.userOnline(userId);
+            synchronized (deltaLock) {
+                if (!left.remove(userId)) {
+                    joined.add(userId);
+                }
+            }
+        }
+    }
+
+    /**
+     * 连接关闭前调用（主动关闭、异常断开、心跳超时都会经过这里）
+     */
+    public static void offline(ChannelContext channelContext) {
+        offline(channelContext.getId());
+    }
+
+    static void offline(String channelId) {
+        String userId = channels.remove(channelId);
+        if (userId == null) {
+            return;
+        }
+        connectionCount.decrementAndGet();
+        release(userId);
+    }
+
+    /**
+     * 会话进入恢复宽限期（见 SessionService）：连接不再计入，但保留该用户的在线计数，不产生下线事件；
+     * 之后由恢复的连接或宽限期到期调用 {@link #release} 交还
+     * @return 该连接是否计入过在线
+     */
+    public static boolean suspend(ChannelContext channelContext) {
+        return suspend(channelContext.getId());
+    }
+
+    static boolean suspend(String channelId) {
+        if (channels.remove(channelId) == null) {
+            return false;
+        }
+        connectionCount.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * 扣减用户的一份在线计数，最后一份扣减时产生下线事件
+     */
+    public static void release(String userId) {
+        if (userConnections.computeIfPresent(userId, (k, n) -> n <= 1 ? null : n - 1) == null) {
+            ClusterService.userOffline(userId);
+            synchronized (deltaLock) {
+                if (!joined.remove(userId)) {
+                    left.add(userId);
+                }
+            }
+        }
+    }
+
+    /**
+     * 在线人数（按 userId 去重）
+     */
+    public static int onlineUserCount() {
+        return userConnections.size();
+    }
+
+    /**
+     * 已握手的连接数
+     */
+    public static int connectionCount() {
+        return connectionCount.get();
+    }
+
+    public static boolean isOnline(String userId) {
+        return userId != null && userConnections.containsKey(userId);
+    }
+
+    /**
+     * 取出本周期的增量并广播一帧，没有变化时不发送
+     */
+    static void flush() {
+        try {
+            PresenceMessage delta = drainDelta();
+            if (delta == null) {
+                return;
+            }
+            TioServerConfig tioConfig = ChatServerStarter.getTioServerConfig();
+            if (tioConfig != null) {
+                BroadcastService.sendToGroup(tioConfig, ChatConst.GROUP_ID, delta);
+            }
+        } catch (Throwable e) {
+            log.error("广播上下线增量失败", e);
+        }
+    }
+
+    /**
+     * 取出本周期的增量，没有变化时返回 null
+     */
+    static PresenceMessage drainDelta() {
+        Set<String> joinedNow;
+        Set<String> leftNow;
+        synchronized (deltaLock) {
+            if (joined.isEmpty() && left.isEmpty()) {
+                return null;
+            }
+            joinedNow = joined;
+            leftNow = left;
+            joined = new LinkedHashSet<>();
+            left = new LinkedHashSet<>();
+        }
+        return buildDelta(joinedNow, leftNow, maxListedUsers);
+    }
+
+    /**
+     * @param limit 单帧最多列出的 userId 数，先列上线的，超出部分只计入 omitted
+     */
+    static PresenceMessage buildDelta(Set<String> joinedNow, Set<String> leftNow, int limit) {
+        List<String> online = take(joinedNow, limit);
+        List<String> offline = take(leftNow, limit - online.size());
+        int omitted = joinedNow.size() + leftNow.size() - online.size() - offline.size();
+        int count = onlineUserCount();
+
+        StringBuilder text = new StringBuilder();
+        if (!joinedNow.isEmpty()) {
+            text.append(describe(online, joinedNow.size())).append(" 进来了，");
+        }
+        if (!leftNow.isEmpty()) {
+            text.append(describe(offline, leftNow.size())).append(" 离开了，");
+        }
+        text.append("现在共有【").append(count).append("】人在线");
+
+        PresenceMessage msg = new PresenceMessage();
+        msg.setFrom("屁");
+        msg.setMessage(text.toString());
+        msg.setOnline(online.isEmpty() ? null : online);
+        msg.setOffline(offline.isEmpty() ? null : offline);
+        msg.setOmitted(omitted > 0 ? omitted : null);
+        msg.setCount(count);
+        return msg;
+    }
+
+    private static List<String> take(Set<String> users, int limit) {
+        List<String> list = new ArrayList<>(Math.max(0, Math.min(users.size(), limit)));
+        for (String userId : users) {
+            if (list.size() >= limit) {
+                break;
+            }
+            list.add(userId);
+        }
+        return list;
+    }
+
+    private static String describe(List<String> listed, int total) {
+        if (listed.isEmpty()) {
+            return total + " 人";
+        }
+        String names = String.join("、", listed);
+        return listed.size() < total ? names + " 等 " + total + " 人" : names;
+    }
+}
@@ -0,0 +1,78 @@
+package org.tio.chat.service;
+
+import org.tio.chat.config.ChatServerConfig;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.search.SearchIndex;
+import org.tio.core.ChannelContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SearchService 负责聊天记录全文搜索（cmd=109），索引见 {@link SearchIndex}。
+ *
+ * 私聊/群聊消息落盘并转发后提交给索引线程，不阻塞消息管道；索引队列满时该消息不进入索引。
+ * 客户端发送 {"cmd":109,"message":查询文本,"conv":限定会话（可选）,"seq":游标（可选）,"limit":..}，
+ * 服务端回一帧 {"cmd":109,"msgId":请求的 msgId,"messages":[命中的消息，从新到旧],"seq":下一页游标}，
+ * 没有更多结果时不带 seq。该帧即为请求的回复，不再单独回 ACK。
+ *
+ * 只返回自己所在会话中的消息（与会话同步、历史消息的权限相同，见 ConversationService）。
+ * 中日韩文字按两字切分，查询至少包含一个字或一个完整的单词。
+ */
+public class SearchService {
+
+    // 全文索引，由 ChatServerStarter 启动时注入；未注入时不索引，查询回复 INVALID
+    private static volatile SearchIndex index;
+
+    public static void setIndex(SearchIndex searchIndex) {
+        index = searchIndex;
+    }
+
+    public static SearchIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * 提交一条已分配 seq 的消息到索引，不阻塞
+     */
+    public static void index(ChatMessage msg) {
+        SearchIndex searchIndex = index;
+        if (searchIndex == null || msg.getConv() == null || msg.getSeq() == null) {
+            return;
+        }
+        searchIndex.offer(msg.getConv(), msg.getSeq(), msg.getMessage());
+    }
+
+    /**
+     * 返回一页搜索结果（cmd=109）
+     * @return 成功时为 null，否则为回复 cmd=-2 的原因
+     */
+    public static String search(ChannelContext channelContext, ChatMessage request) {
+        SearchIndex searchIndex = index;
+        String query = request.getMessage();
+        if (searchIndex == null || channelContext.userid == null || query == null || query.trim().isEmpty()) {
+            return MessagePipeline.REJECT_INVALID;
+        }
+        String conv = request.getConv();
+        if (conv != null && !ConversationService.isMember(conv, channelContext)) {
+            return GroupService.REJECT_NOT_MEMBER;
+        }
+        int limit = request.getLimit() == null ? ChatServerConfig.SEARCH_PAGE_SIZE
+                : Math.max(1, Math.min(request.getLimit(), ChatServerConfig.SEARCH_MAX_PAGE_SIZE));
+        int before = request.getSeq() != null && request.getSeq() > 0
+                ? (int) Math.min(request.getSeq(), Integer.MAX_VALUE) : Integer.MAX_VALUE;
+        SearchIndex.Page page = searchIndex.search(query, conv, before, limit,
+                c -> ConversationService.isMember(c, channelContext));
+        List<ChatMessage> messages = new ArrayList<>(page.hits.size());
+        for (SearchIndex.Hit hit : page.hits) {
+            messages.add(hit.message);
+        }
+        ChatMessage reply = new ChatMessage();
+        reply.setCmd(109);
+        reply.setMsgId(request.getMsgId());
+        reply.setMessages(messages);
+        reply.setSeq(page.nextCursor > 0 ? (long) page.nextCursor : null);
+        BroadcastService.send(channelContext, reply);
+        return null;
+    }
+}
@@ -0,0 +1,168 @@
+package org.tio.chat.service;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * SessionRegistry：可恢复会话的令牌与宽限期记账，供 SessionService 使用，不依赖 t-io。
+ * 连接以类型参数 C 表示，运行时为 ChannelContext；时间取自构造时传入的纳秒时钟，测试中可以手动推进。
+ *
+ *  - 令牌 -> 会话表中包括连接中的与宽限期内的会话；
+ *  - 恢复（{@link #attach}）与过期（{@link #expire}）都以从表中移除为准取得会话，
+ *    同一会话不会既被恢复又被判定过期，也不会被两个并发的恢复同时接管；
+ *  - 每次签发都换新令牌，旧令牌随之失效。
+ *
+ * 关闭旧连接、交还在线计数、发送令牌等与连接相关的动作由调用方按返回值完成。
+ */
+public class SessionRegistry<C> {
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * 一个可恢复会话；连接与断开时刻受自身监视器保护
+     */
+    public static final class Session<C> {
+        final String userId;
+        volatile String token;
+        /** 当前连接，宽限期内为 null */
+        C connection;
+        /** 进入宽限期的时刻（纳秒时钟），连接中为 0 */
+        long detachedNanos;
+
+        Session(String userId) {
+            this.userId = userId;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getToken() {
+            return token;
+        }
+    }
+
+    /**
+     * attach 的结果
+     */
+    public static final class Attached<C> {
+        /** 会话，已换发新令牌 */
+        public final Session<C> session;
+        /** 是否接管了令牌对应的原会话 */
+        public final boolean resumed;
+        /** 恢复时原会话上仍未断开的连接（半开连接），调用方负责关闭；为 null 表示原会话在宽限期内 */
+        public final C previous;
+
+        Attached(Session<C> session, boolean resumed, C previous) {
+            this.session = session;
+            this.resumed = resumed;
+            this.previous = previous;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Session<C>> sessions = new ConcurrentHashMap<>();
+    private final long graceNanos;
+    private final int maxSessions;
+    private final LongSupplier clock;
+
+    /**
+     * @param graceNanos  断线后保留会话的纳秒数
+     * @param maxSessions 会话数上限，达到时新连接不再签发令牌
+     * @param clock       纳秒时钟，运行时为 System::nanoTime
+     */
+    public SessionRegistry(long graceNanos, int maxSessions, LongSupplier clock) {
+        this.graceNanos = graceNanos;
+        this.maxSessions = maxSessions;
+        this.clock = clock;
+    }
+
+    /**
+     * 连接已计入在线后调用：令牌有效且属于同一用户时接管原会话，否则建立新会话；两种情况都换发新令牌
+     * @param token 客户端握手时带的 resume 参数，可为 null
+     * @return 结果；会话数达到上限、不签发令牌时为 null
+     */
+    public Attached<C> attach(String userId, C connection, String token) {
+        Session<C> session = token == null || token.isEmpty() ? null : sessions.get(token);
+        Attached<C> attached;
+        if (session != null && session.userId.equals(userId) && sessions.remove(token, session)) {
+            // 从表中移除即取得该会话，过期清理与并发的恢复都不会再拿到它
+            C previous;
+            synchronized (session) {
+                previous = session.connection;
+                session.connection = connection;
+                session.detachedNanos = 0;
+            }
+            attached = new Attached<>(session, true, previous);
+        } else {
+            if (sessions.size() >= maxSessions) {
+                return null;
+            }
+            session = new Session<>(userId);
+            session.connection = connection;
+            attached = new Attached<>(session, false, null);
+        }
+        session.token = newToken();
+        sessions.put(session.token, session);
+        return attached;
+    }
+
+    /**
+     * 连接断开：会话仍属于该连接时进入宽限期
+     * @return 是否进入宽限期；已被新连接接管时为 false
+     */
+    public boolean detach(Session<C> session, C connection) {
+        synchronized (session) {
+            if (session.connection != connection) {
+                return false;
+            }
+            session.connection = null;
+            session.detachedNanos = clock.getAsLong();
+            return true;
+        }
+    }
+
+    /**
+     * 结束会话，令牌失效
+     */
+    public void end(Session<C> session) {
+        sessions.remove(session.token, session);
+    }
+
+    /**
+     * 取出宽限期已到的会话，调用方交还各自保留的在线计数
+     */
+    public List<Session<C>> expire() {
+        long now = clock.getAsLong();
+        List<Session<C>> expired = new ArrayList<>();
+        Iterator<Session<C>> it = sessions.values().iterator();
+        while (it.hasNext()) {
+            Session<C> session = it.next();
+            boolean due;
+            synchronized (session) {
+                due = session.connection == null && now - session.detachedNanos >= graceNanos;
+            }
+            // 与 attach 一样以从表中移除为准，恢复成功的会话已换了令牌，这里移除不到
+            if (due && sessions.remove(session.token, session)) {
+                expired.add(session);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * 会话数（含宽限期内的）
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[18];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
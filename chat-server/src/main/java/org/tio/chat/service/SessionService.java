@@ -0,0 +1,163 @@
+package org.tio.chat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tio.chat.metrics.ChatMetrics;
+import org.tio.chat.model.ChatMessage;
+import org.tio.core.ChannelContext;
+import org.tio.core.Tio;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SessionService 负责可恢复会话：移动网络下频繁断线重连时，避免每次重连都是一次完整的下线 + 上线。
+ *
+ * 流程：
+ *  - 握手完成后签发恢复令牌，以 {"cmd":110,"message":"令牌"} 发给客户端；
+ *  - 连接断开（非客户端主动关闭）时会话进入宽限期（graceMs）：保留该用户的在线计数（见 PresenceService#suspend），
+ *    不广播下线；
+ *  - 客户端重连时在握手参数中带上 resume=令牌，宽限期内且用户一致时接管会话：不广播上线，立即按群组注册表重新绑定群组；
+ *    旧连接仍未断开（移动网络常见的半开连接）时直接关闭，不必等心跳超时，期间发往该用户的帧也不再写进失效的连接；
+ *  - 每次恢复换发新令牌，旧令牌失效；宽限期到期未恢复时扣减在线计数并广播下线。
+ *
+ * 恢复后客户端照常登录（cmd=1）：离线存储中只保留未确认的消息，会话同步只补发游标之后的缺口，
+ * 因此重发的只有断线前后客户端未确认的帧，没有缺口时两者都不产生数据帧。
+ * 群组成员关系保存在 GroupRegistry，会话本身只记录用户与当前连接；令牌与宽限期的记账见 {@link SessionRegistry}。
+ */
+public class SessionService {
+    private static final Logger log = LoggerFactory.getLogger(SessionService.class);
+
+    /** 握手参数名 */
+    public static final String PARAM_RESUME = "resume";
+
+    private static final String ATTR_SESSION = "chat.session";
+
+    private static volatile SessionRegistry<ChannelContext> registry;
+    private static volatile boolean enabled;
+    private static ScheduledExecutorService sweeper;
+
+    /**
+     * 启用可恢复会话
+     * @param graceMs     断线后保留会话的毫秒数
+     * @param maxSessions 会话数上限，达到时新连接不再签发令牌
+     */
+    public static synchronized void start(long graceMs, int maxSessions) {
+        if (sweeper != null) {
+            return;
+        }
+        SessionRegistry<ChannelContext> created = new SessionRegistry<>(TimeUnit.MILLISECONDS.toNanos(graceMs),
+                maxSessions, System::nanoTime);
+        registry = created;
+        long interval = Math.max(100, graceMs / 4);
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(SessionService::sweep, interval, interval, TimeUnit.MILLISECONDS);
+        enabled = true;
+        ChatMetrics.REGISTRY.gauge("chat_sessions", "可恢复会话数（含宽限期内的）", created::size);
+    }
+
+    public static synchronized void stop() {
+        enabled = false;
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+    }
+
+    /**
+     * 握手完成、计入在线后调用：令牌有效时接管原会话，否则建立新会话；两种情况都把新令牌发给客户端
+     * @param token 客户端握手时带的 resume 参数，可为 null
+     * @return 是否为恢复的会话
+     */
+    public static boolean attach(ChannelContext channelContext, String token) {
+        String userId = channelContext.userid;
+        SessionRegistry<ChannelContext> sessions = registry;
+        if (!enabled || sessions == null || userId == null) {
+            return false;
+        }
+        SessionRegistry.Attached<ChannelContext> attached = sessions.attach(userId, channelContext, token);
+        if (attached != null && attached.resumed) {
+            if (attached.previous == null) {
+                // 宽限期内保留的在线计数交还，新连接已计入，不产生上下线事件
+                PresenceService.release(userId);
+            } else {
+                Tio.remove(attached.previous, "会话已在新连接上恢复");
+            }
+            GroupService.bindConnection(channelContext);
+            ChatMetrics.SESSIONS_RESUMED.increment();
+        } else if (token != null && !token.isEmpty()) {
+            ChatMetrics.SESSIONS_RESUME_FAILED.increment();
+        }
+        if (attached == null) {
+            log.warn("可恢复会话数达到上限 {}，用户 [{}] 本次连接不签发令牌", sessions.size(), userId);
+            return false;
+        }
+        channelContext.setAttribute(ATTR_SESSION, attached.session);
+
+        ChatMessage reply = new ChatMessage();
+        reply.setCmd(110);
+        reply.setFrom("server");
+        reply.setMessage(attached.session.getToken());
+        BroadcastService.send(channelContext, reply);
+        return attached.resumed;
+    }
+
+    /**
+     * 连接关闭前调用：会话属于该连接时进入宽限期，调用方改用 PresenceService#suspend 保留在线计数
+     * @return 是否进入宽限期
+     */
+    @SuppressWarnings("unchecked")
+    public static boolean detach(ChannelContext channelContext) {
+        SessionRegistry.Session<ChannelContext> session =
+                (SessionRegistry.Session<ChannelContext>) channelContext.getAttribute(ATTR_SESSION);
+        SessionRegistry<ChannelContext> sessions = registry;
+        if (session == null || sessions == null || !sessions.detach(session, channelContext)) {
+            return false;
+        }
+        if (!enabled) {
+            // 停机过程中不再保留
+            sessions.end(session);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 客户端主动关闭：结束会话，关闭回调中按正常下线处理
+     */
+    @SuppressWarnings("unchecked")
+    public static void end(ChannelContext channelContext) {
+        SessionRegistry.Session<ChannelContext> session =
+                (SessionRegistry.Session<ChannelContext>) channelContext.getAttribute(ATTR_SESSION);
+        SessionRegistry<ChannelContext> sessions = registry;
+        if (session != null) {
+            channelContext.removeAttribute(ATTR_SESSION);
+            if (sessions != null) {
+                sessions.end(session);
+            }
+        }
+    }
+
+    /**
+     * 清理宽限期已到的会话：扣减保留的在线计数（最后一份时广播下线）
+     */
+    static void sweep() {
+        try {
+            SessionRegistry<ChannelContext> sessions = registry;
+            if (sessions == null) {
+                return;
+            }
+            for (SessionRegistry.Session<ChannelContext> session : sessions.expire()) {
+                PresenceService.release(session.getUserId());
+                ChatMetrics.SESSIONS_EXPIRED.increment();
+            }
+        } catch (Throwable e) {
+            log.error("清理可恢复会话失败", e);
+        }
+    }
+}
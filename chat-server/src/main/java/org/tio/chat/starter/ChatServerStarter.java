@@ -1,16 +1,62 @@
 package org.tio.chat.starter;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tio.chat.cluster.ClusterBus;
+import org.tio.chat.cluster.ClusterNode;
+import org.tio.chat.cluster.LoopbackClusterBus;
+import org.tio.chat.cluster.TcpClusterBus;
+import org.tio.chat.codec.PerMessageDeflate;
+import org.tio.chat.codec.PerMessageDeflateDecoder;
+import org.tio.chat.group.GroupRegistry;
 import org.tio.chat.listener.ChatServerIpStatListener;
+import org.tio.chat.metrics.ChatMetrics;
+import org.tio.chat.metrics.MetricsHttpServer;
+import org.tio.chat.metrics.MetricsRegistry;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.search.SearchIndex;
+import org.tio.chat.service.BroadcastService;
+import org.tio.chat.service.BusinessExecutor;
+import org.tio.chat.service.ChatService;
+import org.tio.chat.service.ClusterService;
+import org.tio.chat.service.ConversationService;
+import org.tio.chat.service.DeliveryStateIndex;
+import org.tio.chat.service.GroupService;
+import org.tio.chat.service.GroupTimelineService;
+import org.tio.chat.service.IdService;
+import org.tio.chat.service.MessagePipeline;
+import org.tio.chat.service.OutboundService;
+import org.tio.chat.service.PresenceService;
+import org.tio.chat.service.SearchService;
+import org.tio.chat.service.SessionService;
+import org.tio.chat.store.ConversationLog;
+import org.tio.chat.store.GroupCursorStore;
+import org.tio.chat.store.GroupStore;
+import org.tio.chat.store.MessageStoreConfig;
+import org.tio.chat.store.SegmentedMessageStore;
+import org.tio.chat.util.SnowflakeIdGenerator;
+import org.tio.chat.util.DedupWindow;
+import org.tio.chat.util.TimingWheelCache;
+import org.tio.chat.util.UuidIdGenerator;
 import org.tio.server.TioServerConfig;
 import org.tio.utils.jfinal.P;
 import org.tio.websocket.server.WsServerStarter;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import org.tio.chat.handler.ChatWsHandler;
 import org.tio.chat.config.ChatServerConfig;
+import org.tio.chat.constant.ChatConst;
 import org.tio.chat.listener.ChatServerListener;
 
 
 
 public class ChatServerStarter {
+    private static final Logger log = LoggerFactory.getLogger(ChatServerStarter.class);
     private WsServerStarter wsServerStarter;
     private static TioServerConfig serverTioConfig;
 
@@ -20,6 +66,8 @@ public class ChatServerStarter {
         serverTioConfig.setName(ChatServerConfig.PROTOCOL_NAME);
         serverTioConfig.setTioServerListener(ChatServerListener.me);
         serverTioConfig.setIpStatListener(ChatServerIpStatListener.me);
+        // t-io 的帧解码器忽略 RSV1：包装一层，按 RSV1 解压 permessage-deflate 消息、拒绝不合法的 RSV1
+        PerMessageDeflateDecoder.install(serverTioConfig);
         serverTioConfig.ipStats.addDurations(ChatServerConfig.IpStatDuration.IPSTAT_DURATIONS);
         serverTioConfig.setHeartbeatTimeout(ChatServerConfig.HEARTBEAT_TIMEOUT);
 
@@ -32,10 +80,227 @@ public class ChatServerStarter {
     }
 
     public static void start() throws Exception {
+        // 消息 id：snowflake（默认，时间有序、无锁）或 uuid（旧格式）
+        if ("uuid".equalsIgnoreCase(P.get("id.generator", "snowflake"))) {
+            IdService.setGenerator(new UuidIdGenerator());
+        } else {
+            IdService.setGenerator(new SnowflakeIdGenerator(P.getInt("id.node", 0)));
+        }
+
+        // 先打开离线消息存储（含崩溃恢复），再开始接受连接
+        SegmentedMessageStore messageStore = SegmentedMessageStore.open(MessageStoreConfig.fromProperties());
+        ChatService.setMessageStore(messageStore);
+        // 会话日志（分配会话 seq、按游标补齐缺口、历史翻页），刷盘与保留策略沿用 store.*，目录单独配置
+        ConversationLog conversationLog = ConversationLog.open(MessageStoreConfig.fromProperties()
+                        .setDir(new File(P.get("conversation.store.dir", "data/conversations"))),
+                P.getInt("history.cache.conversations", 2048), P.getInt("history.cache.messages", 50));
+        ConversationService.setConversationLog(conversationLog);
+        // 全文搜索：消息落盘后异步建索引，命中的原文按会话 seq 从会话日志读取
+        SearchIndex searchIndex = openSearchIndex(conversationLog);
+        SearchService.setIndex(searchIndex);
+        // 群组成员关系：重放群组日志后按群 id 分片保存在内存
+        GroupStore groupStore = GroupStore.open(new File(P.get("group.store.dir", "data/groups")));
+        // 群成员在群时间线上的游标（读扩散）：群消息只写会话日志一份，成员离线补发按游标读取
+        GroupCursorStore groupCursorStore = GroupCursorStore.open(new File(P.get("group.store.dir", "data/groups")));
+        GroupRegistry groupRegistry = new GroupRegistry(P.getInt("group.registry.shards", 64),
+                openGroupIds(P.get("group.open.ids", ChatConst.GROUP_ID + "," + ChatConst.DEFAULT_GROUP_ID)),
+                groupStore, groupStore.groups());
+        GroupService.setRegistry(groupRegistry);
+        GroupTimelineService.start(groupCursorStore, P.getLong("group.cursor.flush.ms", 1000L));
+        // 在线成员达到阈值的群聊按连接分到多个线程并行写出
+        BroadcastService.startFanout(P.getInt("group.fanout.threads", Runtime.getRuntime().availableProcessors()),
+                P.getInt("group.fanout.queue.capacity", 1024),
+                P.getInt("group.fanout.parallel.threshold", 2000));
+        // 集群模式：用户路由同步给其他节点，发往其他节点用户 / 群组成员的消息批量转发
+        ClusterNode clusterNode = startCluster();
+        // 发送方去重窗口：客户端重发的私聊/群聊消息回复原 ACK，不再落盘与转发；内存只由 max.entries 决定
+        if (P.getInt("dedup.enabled", 1) == 1) {
+            MessagePipeline.setDedupWindow(new DedupWindow(P.getInt("dedup.max.entries", 262_144),
+                    P.getLong("dedup.window.ms", 600_000L)));
+        }
+        // 私聊/群聊的持久化管道：业务线程只入队，落盘（组提交）与转发在管道线程上按批完成
+        MessagePipeline.start(P.getInt("pipeline.ring.size", 65536),
+                P.getInt("pipeline.batch.max", 1024),
+                P.getLong("pipeline.offer.timeout.ms", 1000L));
+        // 业务执行器：解码后按用户串行处理，JDK 21+ 上默认使用虚拟线程
+        int businessThreads = P.getInt("business.threads", Runtime.getRuntime().availableProcessors() * 2);
+        BusinessExecutor.start(P.get("business.executor", BusinessExecutor.MODE_AUTO),
+                businessThreads, P.getInt("business.max.pending", 65536));
+        // 关闭顺序：先处理完已提交的业务消息，再排空管道，最后关闭它写入的存储
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            BusinessExecutor.stop(P.getLong("pipeline.shutdown.timeout.ms", 5000L));
+            MessagePipeline.stop(P.getLong("pipeline.shutdown.timeout.ms", 5000L));
+            BroadcastService.stopFanout(P.getLong("pipeline.shutdown.timeout.ms", 5000L));
+            if (clusterNode != null) {
+                ClusterService.setNode(null);
+                clusterNode.close();
+            }
+            if (searchIndex != null) {
+                SearchService.setIndex(null);
+                try {
+                    searchIndex.close();
+                } catch (Exception e) {
+                    log.error("关闭全文索引失败", e);
+                }
+            }
+            try {
+                conversationLog.close();
+            } catch (Exception e) {
+                log.error("关闭会话日志失败", e);
+            }
+            try {
+                messageStore.close();
+            } catch (Exception e) {
+                log.error("关闭离线消息存储失败", e);
+            }
+            GroupTimelineService.stop();
+            try {
+                groupCursorStore.close();
+            } catch (Exception e) {
+                log.error("关闭群游标存储失败", e);
+            }
+            try {
+                groupStore.close();
+            } catch (Exception e) {
+                log.error("关闭群组存储失败", e);
+            }
+        }, "message-store-shutdown"));
+        ChatService.setDeliveryStateIndex(new DeliveryStateIndex(
+                P.getInt("delivery.state.max.entries", 1_000_000),
+                P.getLong("delivery.state.ttl.minutes", 24 * 60L) * 60_000));
+        ChatService.setReadWatermarks(new TimingWheelCache<>("read-watermark",
+                P.getInt("read.watermark.max.entries", 1_000_000),
+                P.getLong("read.watermark.ttl.minutes", 24 * 60L) * 60_000));
+        // 慢消费者：按连接发送队列的字节水位合并上下线通知、跳过并补齐聊天消息、断开长期积压的连接
+        OutboundService.configure(P.getLong("outbound.low.watermark.bytes", 256 * 1024L),
+                P.getLong("outbound.high.watermark.bytes", 1024 * 1024L),
+                P.getLong("outbound.max.bytes", 8 * 1024 * 1024L),
+                P.getLong("outbound.lag.max.ms", 30_000L));
+        PresenceService.start(P.getLong("presence.interval.ms", 1000L), P.getInt("presence.delta.max.users", 100));
+        // 可恢复会话：断线后保留会话 grace.ms，期间带令牌重连不广播下线 / 上线
+        if (P.getInt("session.resume.enabled", 1) == 1) {
+            SessionService.start(P.getLong("session.resume.grace.ms", 60_000L),
+                    P.getInt("session.resume.max.sessions", 1_000_000));
+        }
+        // permessage-deflate：握手时与客户端协商，JSON 帧中重复的键名压缩效果明显
+        if (P.getInt("ws.deflate.enabled", 1) == 1) {
+            PerMessageDeflate.configure(P.getInt("ws.deflate.level", 6),
+                    P.getInt("ws.deflate.min.bytes", 256),
+                    P.getInt("ws.deflate.context.takeover", 0) == 1,
+                    P.getInt("ws.deflate.pool.size", 64),
+                    P.getInt("ws.deflate.max.inflated.bytes", 1024 * 1024));
+        }
+
         ChatServerStarter appStarter = new ChatServerStarter(ChatServerConfig.SERVER_PORT, ChatWsHandler.me);
+        registerMetrics(messageStore, conversationLog, groupRegistry, searchIndex, clusterNode);
+        // start.http=1 时开放只读的 /metrics（Prometheus 文本格式），端口与 WebSocket 分开
+        if (P.getInt("start.http", 0) == 1) {
+            MetricsHttpServer.start(new InetSocketAddress(P.get("http.bind.host", "0.0.0.0"), P.getInt("http.port", 9327)),
+                    ChatMetrics.REGISTRY);
+        }
         appStarter.wsServerStarter.start();
     }
 
+    /**
+     * 注册各组件的状态指标；热路径指标见 {@link ChatMetrics}
+     */
+    private static void registerMetrics(SegmentedMessageStore messageStore, ConversationLog conversationLog,
+                                        GroupRegistry groupRegistry, SearchIndex searchIndex, ClusterNode clusterNode) {
+        MetricsRegistry registry = ChatMetrics.REGISTRY;
+        registry.gauge("chat_online_users", "本节点在线用户数", PresenceService::onlineUserCount);
+        registry.gauge("chat_connections", "本节点连接数", PresenceService::connectionCount);
+
+        registry.gauge("chat_store_segments", "存储的 segment 文件数", messageStore::segmentCount, "store", "offline");
+        registry.gauge("chat_store_bytes", "存储的日志字节数", messageStore::logBytes, "store", "offline");
+        registry.gauge("chat_store_unflushed_bytes", "已写入尚未刷盘的字节数", messageStore::unflushedBytes, "store", "offline");
+        registry.gauge("chat_store_segments", "存储的 segment 文件数", conversationLog::segmentCount, "store", "conversation");
+        registry.gauge("chat_store_bytes", "存储的日志字节数", conversationLog::logBytes, "store", "conversation");
+        registry.gauge("chat_store_unflushed_bytes", "已写入尚未刷盘的字节数", conversationLog::unflushedBytes, "store", "conversation");
+
+        registry.gauge("chat_groups", "已创建的群组数（不含开放群组）", groupRegistry::groupCount);
+
+        if (searchIndex != null) {
+            registry.gauge("chat_search_docs", "全文索引的文档数", searchIndex::docCount);
+            registry.gauge("chat_search_segments", "全文索引的段文件数", searchIndex::segmentCount);
+            registry.gauge("chat_search_queued", "等待索引的消息数", searchIndex::queued);
+            registry.counter("chat_search_dropped_total", "索引队列满而未索引的消息数", searchIndex::dropped);
+        }
+
+        if (clusterNode != null) {
+            registry.counter("chat_cluster_forwarded_total", "转发给其他节点的消息数", clusterNode::getForwarded);
+            registry.counter("chat_cluster_received_total", "从其他节点收到的消息数", clusterNode::getReceived);
+            registry.counter("chat_cluster_dropped_total", "转发队列满而丢弃的消息数", clusterNode::getDropped);
+            registry.counter("chat_cluster_frames_total", "发往其他节点的帧数", clusterNode::getFrames);
+            registry.gauge("chat_cluster_remote_users", "在其他节点在线的用户数", clusterNode::remoteUserCount);
+        }
+
+        ChatServerIpStatListener.me.registerMetrics(serverTioConfig, registry, P.getInt("metrics.ipstat.top", 10));
+    }
+
+    /**
+     * search.enabled=1 时打开全文索引，否则返回 null（cmd=109 回复 INVALID）
+     */
+    private static SearchIndex openSearchIndex(ConversationLog conversationLog) throws Exception {
+        if (P.getInt("search.enabled", 1) != 1) {
+            return null;
+        }
+        return SearchIndex.open(new File(P.get("search.dir", "data/search")),
+                P.getInt("search.flush.docs", 100_000),
+                P.getInt("search.merge.factor", 8),
+                P.getInt("search.queue.capacity", 65536),
+                (conv, seq) -> {
+                    // 已被保留策略删除的 seq 读到的是后面的消息
+                    List<ChatMessage> found = conversationLog.readAfter(conv, seq - 1, 1);
+                    return !found.isEmpty() && Long.valueOf(seq).equals(found.get(0).getSeq()) ? found.get(0) : null;
+                });
+    }
+
+    /**
+     * 逗号分隔的开放群组 id
+     */
+    private static Set<String> openGroupIds(String value) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (String id : Arrays.asList(value.split(","))) {
+            if (!id.trim().isEmpty()) {
+                ids.add(id.trim());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * cluster.enabled=1 时按配置创建并启动集群节点，否则返回 null（单机）
+     */
+    private static ClusterNode startCluster() throws Exception {
+        if (P.getInt("cluster.enabled", 0) != 1) {
+            return null;
+        }
+        String nodeId = P.get("cluster.node.id", null);
+        if (nodeId == null || nodeId.trim().isEmpty()) {
+            throw new IllegalArgumentException("启用集群时必须配置 cluster.node.id");
+        }
+        ClusterBus bus;
+        if ("loopback".equalsIgnoreCase(P.get("cluster.transport", "tcp"))) {
+            bus = new LoopbackClusterBus(P.get("cluster.loopback.network", "default"), nodeId);
+        } else {
+            String secret = P.get("cluster.secret", null);
+            if (secret == null || secret.trim().isEmpty()) {
+                throw new IllegalArgumentException("集群 tcp 传输必须配置 cluster.secret");
+            }
+            TcpClusterBus tcp = new TcpClusterBus(nodeId,
+                    new InetSocketAddress(P.get("cluster.bind.host", "127.0.0.1"), P.getInt("cluster.port", 9400)),
+                    P.getLong("cluster.reconnect.interval.ms", 1000L), secret.trim(),
+                    P.getInt("cluster.max.inbound", 64), P.getInt("cluster.max.frame.bytes", 16 * 1024 * 1024));
+            tcp.addPeers(P.get("cluster.peers", ""));
+            bus = tcp;
+        }
+        ClusterNode node = new ClusterNode(bus, ClusterService.LOCAL_DELIVERY,
+                P.getInt("cluster.queue.capacity", 65536), P.getInt("cluster.batch.max", 512));
+        ClusterService.setNode(node);
+        node.start();
+        return node;
+    }
+
     public static TioServerConfig getTioServerConfig() {
         return serverTioConfig;
     }
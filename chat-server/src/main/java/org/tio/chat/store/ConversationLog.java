@@ -0,0 +1,173 @@
+package org.tio.chat.store;
+
+import org.tio.chat.model.ChatMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ConversationLog
+ *
+ * 按会话保存消息并分配会话内序号 seq，供客户端按游标补齐缺口。
+ *
+ * 底层复用 {@link SegmentedMessageStore}，以会话 id 作为索引 key：会话索引从不确认、从不压缩，
+ * 因此第 i 个条目恰好是 seq = i + 1 的消息——取最新 seq 是读一次索引计数，
+ * 按游标读取缺口是从第 cursor 个条目开始顺序读，不需要查找。
+ *
+ * 并发：同一会话的写入由会话锁串行化，分配 seq 与写入日志在同一临界区内完成，
+ * 保证 seq 连续且与索引顺序一致；刷盘等待在会话锁之外，组提交不会让同一会话的写入排队等 fsync，
+ * 批量写入时还可以用 appendNoWait + awaitDurable 让一批消息共用一次等待。
+ *
+ * 保留策略删除的旧 segment 只影响消息体：对应 seq 读取时被跳过，不会被重新分配。
+ * 索引丢失需要全量重建时同样如此：底层以会话日志方式打开（{@link SegmentedMessageStore#openSequenced}），
+ * 重建按记录中的 seq 与删除 segment 前记下的条目数补占位条目。
+ *
+ * 历史翻页（从新到旧）：按 seq 定位是索引下标的直接换算，按时间定位是对索引做二分（见 entriesBefore），
+ * 单页读取为 O(log n + 页大小)。最近访问的会话缓存最新的一段消息（{@link ConversationTailCache}），
+ * 打开会话拉取的最新一页直接从内存返回。
+ */
+public class ConversationLog implements Closeable {
+
+    private static final int LOCK_STRIPES = 256;
+
+    private final SegmentedMessageStore store;
+    private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+    /** 为 null 时不缓存 */
+    private final ConversationTailCache tailCache;
+
+    private ConversationLog(SegmentedMessageStore store, ConversationTailCache tailCache) {
+        this.store = store;
+        this.tailCache = tailCache;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public static ConversationLog open(MessageStoreConfig config) throws IOException {
+        return open(config, 0, 0);
+    }
+
+    /**
+     * @param cacheConversations 缓存最新消息的会话数上限，0 表示不缓存
+     * @param cacheTailSize      每个会话缓存的最新消息条数
+     */
+    public static ConversationLog open(MessageStoreConfig config, int cacheConversations, int cacheTailSize) throws IOException {
+        ConversationTailCache tailCache = cacheConversations > 0 && cacheTailSize > 0
+                ? new ConversationTailCache(cacheConversations, cacheTailSize) : null;
+        return new ConversationLog(SegmentedMessageStore.openSequenced(config), tailCache);
+    }
+
+    /**
+     * 为消息分配会话内下一个 seq 并写入会话日志，写入前设置 msg 的 conv 与 seq
+     * @return 分配的 seq
+     */
+    public long append(String conv, ChatMessage msg) {
+        store.awaitDurable(appendNoWait(conv, msg));
+        return msg.getSeq();
+    }
+
+    /**
+     * 同 append，但不等待刷盘
+     * @return 传给 {@link #awaitDurable(long)} 的日志位置
+     */
+    public long appendNoWait(String conv, ChatMessage msg) {
+        ReentrantLock lock = lockFor(conv);
+        lock.lock();
+        try {
+            msg.setConv(conv);
+            msg.setSeq(store.entryCount(conv) + 1);
+            long position = store.appendTo(conv, msg);
+            if (tailCache != null) {
+                tailCache.onAppend(conv, msg);
+            }
+            return position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按刷盘策略等待 appendNoWait 返回的位置落盘
+     */
+    public void awaitDurable(long position) {
+        store.awaitDurable(position);
+    }
+
+    /**
+     * 会话当前最大的 seq，没有消息时为 0
+     */
+    public long lastSeq(String conv) {
+        return store.entryCount(conv);
+    }
+
+    /**
+     * 读取 seq 大于 afterSeq 的消息，按 seq 升序最多 max 条；已被保留策略删除的 seq 不在结果中
+     */
+    public List<ChatMessage> readAfter(String conv, long afterSeq, int max) {
+        return store.readEntries(conv, Math.max(0, afterSeq), max);
+    }
+
+    /**
+     * 读取 seq 小于 beforeSeq 的最新 max 条，按 seq 升序；最新一页传 Long.MAX_VALUE。
+     * 已被保留策略删除的 seq 不在结果中，结果为空表示没有更早的消息
+     */
+    public List<ChatMessage> readBefore(String conv, long beforeSeq, int max) {
+        if (beforeSeq <= 1 || max <= 0) {
+            return Collections.emptyList();
+        }
+        if (tailCache == null || max > tailCache.tailSize()) {
+            return store.readEntriesBefore(conv, beforeSeq - 1, max);
+        }
+        List<ChatMessage> cached = tailCache.readBefore(conv, beforeSeq, max);
+        if (cached != null) {
+            return cached;
+        }
+        // 未命中：在会话锁内加载最新一段，期间没有新写入，缓存与日志一致
+        ReentrantLock lock = lockFor(conv);
+        lock.lock();
+        try {
+            long lastSeq = store.entryCount(conv);
+            if (beforeSeq <= lastSeq - tailCache.tailSize()) {
+                // 更早的页不在尾部范围内，直接读存储，不替换缓存
+                return store.readEntriesBefore(conv, beforeSeq - 1, max);
+            }
+            tailCache.load(conv, store.readEntriesBefore(conv, lastSeq, tailCache.tailSize()), lastSeq);
+        } finally {
+            lock.unlock();
+        }
+        cached = tailCache.readBefore(conv, beforeSeq, max);
+        return cached != null ? cached : store.readEntriesBefore(conv, beforeSeq - 1, max);
+    }
+
+    /**
+     * 第一条写入时间不早于 timestamp 的消息的 seq；都早于 timestamp 时为 lastSeq + 1。
+     * 与 {@link #readBefore} 组合即可按时间翻页
+     */
+    public long seqAtOrAfter(String conv, long timestamp) {
+        return store.entriesBefore(conv, timestamp) + 1;
+    }
+
+    public int segmentCount() {
+        return store.segmentCount();
+    }
+
+    public long logBytes() {
+        return store.logBytes();
+    }
+
+    public long unflushedBytes() {
+        return store.unflushedBytes();
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+
+    private ReentrantLock lockFor(String conv) {
+        return stripes[(conv.hashCode() & 0x7FFFFFFF) % LOCK_STRIPES];
+    }
+}
@@ -0,0 +1,122 @@
+package org.tio.chat.store;
+
+import org.tio.chat.model.ChatMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ConversationTailCache
+ *
+ * 最近访问过的会话各缓存最新的若干条消息（尾部），打开会话拉取最新一页历史时不读磁盘。
+ *  - 会话数有上限，按访问顺序淘汰最久未用的会话（LRU）；
+ *  - 只有已缓存的会话在写入时追加，seq 与缓存不连续时丢弃该会话的缓存，下次读取重新加载；
+ *  - 缓存的 ChatMessage 与读取方共享，读取方只能用于编码发送，不能修改。
+ *
+ * 调用方需持有会话锁（与分配 seq 同一把），保证加载与追加不会交错；缓存自身的结构由其监视器保护。
+ */
+final class ConversationTailCache {
+
+    private static final class Tail {
+        final ArrayDeque<ChatMessage> messages;
+        /** 已缓存的最大 seq，始终等于会话当前的最大 seq */
+        long lastSeq;
+        /** 缓存之前已没有更早的消息（会话总条数不超过尾部长度，或更早的已被保留策略删除） */
+        boolean complete;
+
+        Tail(int capacity) {
+            this.messages = new ArrayDeque<>(capacity);
+        }
+    }
+
+    private final int tailSize;
+    private final LinkedHashMap<String, Tail> tails;
+
+    /**
+     * @param maxConversations 最多缓存的会话数
+     * @param tailSize         每个会话缓存的最新消息条数
+     */
+    ConversationTailCache(final int maxConversations, int tailSize) {
+        this.tailSize = tailSize;
+        this.tails = new LinkedHashMap<String, Tail>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Tail> eldest) {
+                return size() > maxConversations;
+            }
+        };
+    }
+
+    int tailSize() {
+        return tailSize;
+    }
+
+    /**
+     * 读取 seq 小于 beforeSeq 的最新 max 条（按 seq 升序）
+     * @return 缓存能完整回答时返回结果，否则返回 null
+     */
+    List<ChatMessage> readBefore(String conv, long beforeSeq, int max) {
+        synchronized (tails) {
+            Tail tail = tails.get(conv);
+            if (tail == null) {
+                return null;
+            }
+            List<ChatMessage> page = new ArrayList<>(Math.min(max, tail.messages.size()));
+            Iterator<ChatMessage> it = tail.messages.descendingIterator();
+            while (it.hasNext() && page.size() < max) {
+                ChatMessage msg = it.next();
+                if (msg.getSeq() < beforeSeq) {
+                    page.add(msg);
+                }
+            }
+            if (page.size() < max && !tail.complete) {
+                return null;
+            }
+            Collections.reverse(page);
+            return page;
+        }
+    }
+
+    /**
+     * 缓存从存储加载的最新消息
+     * @param latest  最新的最多 tailSize 条，按 seq 升序
+     * @param lastSeq 会话当前的最大 seq
+     */
+    void load(String conv, List<ChatMessage> latest, long lastSeq) {
+        Tail tail = new Tail(tailSize);
+        tail.messages.addAll(latest);
+        tail.lastSeq = lastSeq;
+        tail.complete = latest.size() < tailSize;
+        synchronized (tails) {
+            tails.put(conv, tail);
+        }
+    }
+
+    /**
+     * 新消息写入会话日志后调用，会话未缓存时忽略
+     */
+    void onAppend(String conv, ChatMessage msg) {
+        synchronized (tails) {
+            Tail tail = tails.get(conv);
+            if (tail == null) {
+                return;
+            }
+            if (msg.getSeq() != tail.lastSeq + 1) {
+                tails.remove(conv);
+                return;
+            }
+            if (tail.messages.size() >= tailSize) {
+                tail.messages.pollFirst();
+                tail.complete = false;
+            }
+            tail.messages.addLast(msg);
+            tail.lastSeq = msg.getSeq();
+        }
+    }
+}
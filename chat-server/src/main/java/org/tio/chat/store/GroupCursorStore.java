@@ -0,0 +1,307 @@
+package org.tio.chat.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * GroupCursorStore
+ *
+ * 群成员在群时间线（会话日志中的 "g:群id" 会话）上的游标：已送达 seq 与已读 seq。
+ * 群消息在时间线中只保存一份，每个成员只占一个游标，离线补发读取 (已送达 seq, 群最新 seq] 区间，
+ * 发一条群消息的写入量与成员数无关。
+ *
+ * 游标在内存中推进（只增不减），{@link #flush()} 把上次刷盘后变化过的游标追加到 cursors.log 并 fsync 一次，
+ * 记录格式同 {@link LogRecord}，类型为 GROUP_CURSOR（payload 为空表示成员已退出、游标删除）。
+ * 同一游标在两次刷盘之间推进多次只写一条；崩溃时丢失的只是最后一个刷盘周期内的推进，重连后多补发几条，客户端按 seq 去重。
+ *
+ * 打开时顺序重放日志，截断末尾不完整的记录；日志中的记录数远多于游标数时写快照并原子替换（与 {@link GroupStore} 相同），
+ * 运行中由 flush 按同样的条件压缩。
+ */
+public class GroupCursorStore implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(GroupCursorStore.class);
+
+    private static final String LOG_FILE = "cursors.log";
+    private static final String COMPACT_FILE = "cursors.log.compact";
+    /** 记录数超过 游标数 * 2 + 该值 时压缩 */
+    private static final int COMPACT_SLACK = 65536;
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    /**
+     * 一个成员的游标，两个 seq 受自身监视器保护
+     */
+    private static final class Cursor {
+        final String groupId;
+        final String userId;
+        long delivered;
+        long read;
+        boolean removed;
+        final AtomicBoolean dirty = new AtomicBoolean();
+
+        Cursor(String groupId, String userId, long delivered, long read) {
+            this.groupId = groupId;
+            this.userId = userId;
+            this.delivered = delivered;
+            this.read = read;
+        }
+    }
+
+    private final File file;
+    private FileChannel channel;
+    private final ConcurrentHashMap<String, Cursor> cursors;
+    private final ConcurrentLinkedQueue<Cursor> dirty = new ConcurrentLinkedQueue<>();
+    private long records;
+
+    private GroupCursorStore(File file, FileChannel channel, ConcurrentHashMap<String, Cursor> cursors, long records) {
+        this.file = file;
+        this.channel = channel;
+        this.cursors = cursors;
+        this.records = records;
+    }
+
+    public static GroupCursorStore open(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建群游标存储目录: " + dir);
+        }
+        File file = new File(dir, LOG_FILE);
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ConcurrentHashMap<String, Cursor> cursors = new ConcurrentHashMap<>();
+        long records = 0;
+        long valid = 0;
+        long size = channel.size();
+        if (size > 0) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            LogRecord record;
+            while ((record = LogRecord.decode(buf, true, true)) != null) {
+                apply(cursors, record);
+                records++;
+            }
+            valid = buf.position();
+            MappedBuffers.unmap(buf);
+        }
+        if (valid < size) {
+            log.warn("群游标日志末尾 {} 字节不完整，已截断", size - valid);
+            channel.truncate(valid);
+            channel.force(true);
+        }
+        channel.position(valid);
+
+        GroupCursorStore store = new GroupCursorStore(file, channel, cursors, records);
+        if (store.needsCompaction()) {
+            store.compact();
+        }
+        log.info("群游标存储已打开，游标: {}，日志记录: {}", cursors.size(), records);
+        return store;
+    }
+
+    /**
+     * 已送达 seq，没有游标时为 -1
+     */
+    public long delivered(String groupId, String userId) {
+        Cursor cursor = cursors.get(key(groupId, userId));
+        if (cursor == null) {
+            return -1;
+        }
+        synchronized (cursor) {
+            return cursor.delivered;
+        }
+    }
+
+    /**
+     * 已读 seq，没有游标时为 -1
+     */
+    public long read(String groupId, String userId) {
+        Cursor cursor = cursors.get(key(groupId, userId));
+        if (cursor == null) {
+            return -1;
+        }
+        synchronized (cursor) {
+            return cursor.read;
+        }
+    }
+
+    /**
+     * 没有游标时建立游标，已送达与已读都为 seq（加入群组时为群当前最新 seq，之前的消息不算离线消息）
+     * @return 是否新建
+     */
+    public boolean init(String groupId, String userId, long seq) {
+        String key = key(groupId, userId);
+        if (cursors.containsKey(key)) {
+            return false;
+        }
+        Cursor created = new Cursor(groupId, userId, seq, seq);
+        if (cursors.putIfAbsent(key, created) != null) {
+            return false;
+        }
+        markDirty(created);
+        return true;
+    }
+
+    /**
+     * 推进游标（只增不减），没有游标时建立；已读 seq 同时计为已送达
+     * @param delivered 已送达 seq，不推进时传 -1
+     * @param read      已读 seq，不推进时传 -1
+     */
+    public void advance(String groupId, String userId, long delivered, long read) {
+        Cursor cursor = cursors.computeIfAbsent(key(groupId, userId), k -> new Cursor(groupId, userId, 0, 0));
+        boolean changed = false;
+        synchronized (cursor) {
+            long d = Math.max(delivered, read);
+            if (d > cursor.delivered) {
+                cursor.delivered = d;
+                changed = true;
+            }
+            if (read > cursor.read) {
+                cursor.read = read;
+                changed = true;
+            }
+        }
+        if (changed) {
+            markDirty(cursor);
+        }
+    }
+
+    /**
+     * 成员退出群组：删除游标
+     */
+    public void remove(String groupId, String userId) {
+        Cursor cursor = cursors.remove(key(groupId, userId));
+        if (cursor != null) {
+            synchronized (cursor) {
+                cursor.removed = true;
+            }
+            markDirty(cursor);
+        }
+    }
+
+    public int size() {
+        return cursors.size();
+    }
+
+    /**
+     * 把上次刷盘后变化过的游标写入日志并 fsync 一次
+     * @return 写入的记录数
+     */
+    public synchronized int flush() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int written = 0;
+        long now = System.currentTimeMillis();
+        Cursor cursor;
+        while ((cursor = dirty.poll()) != null) {
+            // 先清标记再读值：读值之后的推进会重新入队，下次刷盘写入
+            cursor.dirty.set(false);
+            ByteBuffer record = encode(cursor, now);
+            if (record != null) {
+                out.write(record.array(), 0, record.limit());
+                written++;
+            }
+        }
+        if (written == 0) {
+            return 0;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        channel.force(false);
+        records += written;
+        if (needsCompaction()) {
+            compact();
+        }
+        return written;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            flush();
+            channel.force(true);
+            channel.close();
+        }
+    }
+
+    private void markDirty(Cursor cursor) {
+        if (cursor.dirty.compareAndSet(false, true)) {
+            dirty.add(cursor);
+        }
+    }
+
+    private boolean needsCompaction() {
+        return records > cursors.size() * 2L + COMPACT_SLACK;
+    }
+
+    /**
+     * 把当前全部游标写成新日志并原子替换旧日志；调用方持有本对象的锁
+     */
+    private void compact() throws IOException {
+        File tmp = new File(file.getParentFile(), COMPACT_FILE);
+        long written = 0;
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long now = System.currentTimeMillis();
+            for (Cursor cursor : cursors.values()) {
+                ByteBuffer record = encode(cursor, now);
+                if (record != null) {
+                    while (record.hasRemaining()) {
+                        out.write(record);
+                    }
+                    written++;
+                }
+            }
+            out.force(true);
+        }
+        channel.close();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        records = written;
+        log.info("群游标日志已压缩，游标: {}，当前大小: {} 字节", written, channel.size());
+    }
+
+    private static ByteBuffer encode(Cursor cursor, long now) {
+        byte[] payload = null;
+        synchronized (cursor) {
+            if (!cursor.removed) {
+                payload = ByteBuffer.allocate(16).putLong(cursor.delivered).putLong(cursor.read).array();
+            }
+        }
+        try {
+            return LogRecord.encode(LogRecord.TYPE_GROUP_CURSOR, now, cursor.groupId, cursor.userId, payload);
+        } catch (IllegalArgumentException e) {
+            // 群 id / userId 超长：游标只保存在内存中
+            log.warn("群游标无法写入日志: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static void apply(ConcurrentHashMap<String, Cursor> cursors, LogRecord record) {
+        if (record.type != LogRecord.TYPE_GROUP_CURSOR || record.msgId == null) {
+            return;
+        }
+        String key = key(record.recipient, record.msgId);
+        if (record.payload == null || record.payload.length < 16) {
+            cursors.remove(key);
+            return;
+        }
+        ByteBuffer payload = ByteBuffer.wrap(record.payload);
+        cursors.put(key, new Cursor(record.recipient, record.msgId, payload.getLong(), payload.getLong()));
+    }
+
+    private static String key(String groupId, String userId) {
+        return groupId + KEY_SEPARATOR + userId;
+    }
+}
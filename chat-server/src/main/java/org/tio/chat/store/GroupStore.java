@@ -0,0 +1,189 @@
+package org.tio.chat.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tio.chat.group.GroupRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * GroupStore
+ *
+ * 群组成员的持久化：单个只追加的日志文件（groups.log），记录格式同 {@link LogRecord}，
+ * 类型为 GROUP_CREATE / GROUP_JOIN / GROUP_LEAVE / GROUP_DELETE。每次变更写入后 fsync 再返回，
+ * 成员变更远少于消息，不做组提交。
+ *
+ * 打开时顺序重放日志得到当前的群组与成员，末尾不完整或校验失败的记录（写入时崩溃）被截断；
+ * 日志中的记录数远多于当前状态需要的记录数时，先写快照文件再原子替换，压缩日志。
+ */
+public class GroupStore implements GroupRegistry.Journal {
+    private static final Logger log = LoggerFactory.getLogger(GroupStore.class);
+
+    private static final String LOG_FILE = "groups.log";
+    private static final String COMPACT_FILE = "groups.log.compact";
+    /** 记录数超过 当前状态需要的记录数 * 2 + 该值 时压缩 */
+    private static final int COMPACT_SLACK = 4096;
+
+    private final File file;
+    private FileChannel channel;
+    private final Map<String, GroupRegistry.GroupState> groups;
+
+    private GroupStore(File file, FileChannel channel, Map<String, GroupRegistry.GroupState> groups) {
+        this.file = file;
+        this.channel = channel;
+        this.groups = groups;
+    }
+
+    public static GroupStore open(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建群组存储目录: " + dir);
+        }
+        File file = new File(dir, LOG_FILE);
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Map<String, GroupRegistry.GroupState> groups = new LinkedHashMap<>();
+        long records = 0;
+        long valid = 0;
+        long size = channel.size();
+        if (size > 0) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            LogRecord record;
+            while ((record = LogRecord.decode(buf, true, false)) != null) {
+                apply(groups, record);
+                records++;
+            }
+            valid = buf.position();
+            MappedBuffers.unmap(buf);
+        }
+        if (valid < size) {
+            log.warn("群组日志末尾 {} 字节不完整，已截断", size - valid);
+            channel.truncate(valid);
+            channel.force(true);
+        }
+        channel.position(valid);
+
+        GroupStore store = new GroupStore(file, channel, groups);
+        long live = 0;
+        for (GroupRegistry.GroupState state : groups.values()) {
+            live += 1 + state.getMembers().size();
+        }
+        if (records > live * 2 + COMPACT_SLACK) {
+            store.compact();
+        }
+        log.info("群组存储已打开，群组: {}，日志记录: {}", groups.size(), records);
+        return store;
+    }
+
+    /**
+     * 打开时重放得到的群组状态，交给 {@link GroupRegistry} 构造后不再使用
+     */
+    public Map<String, GroupRegistry.GroupState> groups() {
+        return groups;
+    }
+
+    @Override
+    public void created(String groupId, String owner) {
+        write(LogRecord.TYPE_GROUP_CREATE, groupId, owner);
+    }
+
+    @Override
+    public void joined(String groupId, String userId) {
+        write(LogRecord.TYPE_GROUP_JOIN, groupId, userId);
+    }
+
+    @Override
+    public void left(String groupId, String userId) {
+        write(LogRecord.TYPE_GROUP_LEAVE, groupId, userId);
+    }
+
+    @Override
+    public void deleted(String groupId) {
+        write(LogRecord.TYPE_GROUP_DELETE, groupId, null);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.force(true);
+            channel.close();
+        }
+    }
+
+    private synchronized void write(byte type, String groupId, String userId) {
+        ByteBuffer record = LogRecord.encode(type, System.currentTimeMillis(), groupId, userId, null);
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new MessageStoreException("写入群组日志失败: " + groupId, e);
+        }
+    }
+
+    /**
+     * 把当前状态写成新日志并原子替换旧日志
+     */
+    private synchronized void compact() throws IOException {
+        File tmp = new File(file.getParentFile(), COMPACT_FILE);
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, GroupRegistry.GroupState> entry : groups.entrySet()) {
+                writeFully(out, LogRecord.encode(LogRecord.TYPE_GROUP_CREATE, now, entry.getKey(), entry.getValue().getOwner(), null));
+                for (String member : entry.getValue().getMembers()) {
+                    writeFully(out, LogRecord.encode(LogRecord.TYPE_GROUP_JOIN, now, entry.getKey(), member, null));
+                }
+            }
+            out.force(true);
+        }
+        channel.close();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        log.info("群组日志已压缩，当前大小: {} 字节", channel.size());
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer record) throws IOException {
+        while (record.hasRemaining()) {
+            out.write(record);
+        }
+    }
+
+    private static void apply(Map<String, GroupRegistry.GroupState> groups, LogRecord record) {
+        switch (record.type) {
+            case LogRecord.TYPE_GROUP_CREATE:
+                groups.put(record.recipient, new GroupRegistry.GroupState(record.msgId, new LinkedHashSet<String>()));
+                break;
+            case LogRecord.TYPE_GROUP_JOIN: {
+                GroupRegistry.GroupState state = groups.get(record.recipient);
+                if (state != null) {
+                    state.getMembers().add(record.msgId);
+                }
+                break;
+            }
+            case LogRecord.TYPE_GROUP_LEAVE: {
+                GroupRegistry.GroupState state = groups.get(record.recipient);
+                if (state != null) {
+                    state.getMembers().remove(record.msgId);
+                }
+                break;
+            }
+            case LogRecord.TYPE_GROUP_DELETE:
+                groups.remove(record.recipient);
+                break;
+            default:
+                // 其他类型不属于群组日志，忽略
+        }
+    }
+}
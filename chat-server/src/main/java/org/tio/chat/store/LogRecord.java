@@ -0,0 +1,198 @@
+package org.tio.chat.store;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * LogRecord
+ *
+ * segment 文件中单条记录的编解码。记录格式（大端）：
+ * <pre>
+ *  int   size        后续字节数（crc 之后的 body 长度）
+ *  int   crc         body 的 CRC32
+ *  ---- body ----
+ *  byte  type        1=MESSAGE 2=ACK 3=ACK_ALL 4=READ；群组成员日志（GroupStore）另用 5~8，群成员游标（GroupCursorStore）用 9，
+ *                     10=带 seq 的 MESSAGE（会话日志）
+ *  long  timestamp
+ *  short recipientLen + recipient(UTF-8)
+ *  short msgIdLen     + msgId(UTF-8)
+ *  long  seq         仅 type=10
+ *  int   payloadLen   + payload（MESSAGE 为 ChatMessage JSON，其余类型为空）
+ * </pre>
+ *
+ * 会话日志的消息把 seq 写在记录头中，重建索引时不必解析 payload；解码后 type 统一为 MESSAGE，seq 填入 {@link #seq}。
+ * 旧版本写入的 type=1 记录 seq 为 0，仍需从 payload 中取。
+ */
+final class LogRecord {
+
+    static final byte TYPE_MESSAGE = 1;
+    static final byte TYPE_ACK = 2;
+    static final byte TYPE_ACK_ALL = 3;
+    static final byte TYPE_READ = 4;
+    /** 群组成员日志：recipient 为群 id，msgId 为 userId（创建时为群主） */
+    static final byte TYPE_GROUP_CREATE = 5;
+    static final byte TYPE_GROUP_JOIN = 6;
+    static final byte TYPE_GROUP_LEAVE = 7;
+    static final byte TYPE_GROUP_DELETE = 8;
+    /** 群成员游标：recipient 为群 id，msgId 为 userId，payload 为已送达 seq + 已读 seq（为空表示删除） */
+    static final byte TYPE_GROUP_CURSOR = 9;
+    /** 磁盘上带 seq 的 MESSAGE，解码后 type 为 TYPE_MESSAGE */
+    private static final byte TYPE_MESSAGE_SEQ = 10;
+
+    /** size + crc */
+    static final int HEADER_SIZE = 8;
+
+    /** 单条记录 body 上限，用于识别损坏的 size 字段 */
+    static final int MAX_BODY_SIZE = 16 * 1024 * 1024;
+
+    /** 收件人 / msgId 的 UTF-8 字节上限 */
+    static final int MAX_KEY_BYTES = 120;
+
+    byte type;
+    long timestamp;
+    String recipient;
+    String msgId;
+    /** 记录头中的 seq，没有时为 0 */
+    long seq;
+    /** 仅在 decode(..., withPayload=true) 时填充 */
+    byte[] payload;
+    /** 记录总长度（含 header） */
+    int totalSize;
+
+    private LogRecord() {
+    }
+
+    static ByteBuffer encode(byte type, long timestamp, String recipient, String msgId, byte[] payload) {
+        return encode(type, timestamp, recipient, msgId, 0, payload);
+    }
+
+    /**
+     * @param seq MESSAGE 记录的 seq，大于 0 时写入记录头，其余类型须为 0
+     */
+    static ByteBuffer encode(byte type, long timestamp, String recipient, String msgId, long seq, byte[] payload) {
+        byte[] r = recipient.getBytes(StandardCharsets.UTF_8);
+        byte[] m = msgId == null ? new byte[0] : msgId.getBytes(StandardCharsets.UTF_8);
+        if (r.length > MAX_KEY_BYTES || m.length > MAX_KEY_BYTES) {
+            throw new IllegalArgumentException("recipient/msgId 过长: " + recipient + "/" + msgId);
+        }
+        boolean withSeq = seq > 0;
+        if (withSeq && type != TYPE_MESSAGE) {
+            throw new IllegalArgumentException("只有 MESSAGE 记录带 seq: " + type);
+        }
+        int payloadLen = payload == null ? 0 : payload.length;
+        int bodySize = 1 + 8 + 2 + r.length + 2 + m.length + (withSeq ? 8 : 0) + 4 + payloadLen;
+
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + bodySize);
+        buf.putInt(bodySize);
+        buf.putInt(0); // crc 占位
+        buf.put(withSeq ? TYPE_MESSAGE_SEQ : type);
+        buf.putLong(timestamp);
+        buf.putShort((short) r.length).put(r);
+        buf.putShort((short) m.length).put(m);
+        if (withSeq) {
+            buf.putLong(seq);
+        }
+        buf.putInt(payloadLen);
+        if (payloadLen > 0) {
+            buf.put(payload);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), HEADER_SIZE, bodySize);
+        buf.putInt(4, (int) crc.getValue());
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * 从 buf 的当前 position 解码一条记录，成功时 position 前进到下一条记录。
+     * 数据不完整或校验失败时返回 null，position 不变。
+     *
+     * @param verifyCrc   是否校验 CRC（恢复已刷盘的旧 segment 时可跳过以加速）
+     * @param withPayload 是否拷贝 payload；只重建索引时不需要
+     */
+    static LogRecord decode(ByteBuffer buf, boolean verifyCrc, boolean withPayload) {
+        int start = buf.position();
+        if (buf.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        int bodySize = buf.getInt(start);
+        int expectedCrc = buf.getInt(start + 4);
+        if (bodySize < 1 + 8 + 2 + 2 + 4 || bodySize > MAX_BODY_SIZE || buf.remaining() < HEADER_SIZE + bodySize) {
+            return null;
+        }
+        if (verifyCrc && crcOf(buf, start + HEADER_SIZE, bodySize) != expectedCrc) {
+            return null;
+        }
+
+        int p = start + HEADER_SIZE;
+        LogRecord record = new LogRecord();
+        record.type = buf.get(p);
+        record.timestamp = buf.getLong(p + 1);
+        p += 9;
+        int rLen = buf.getShort(p) & 0xFFFF;
+        record.recipient = readString(buf, p + 2, rLen);
+        p += 2 + rLen;
+        int mLen = buf.getShort(p) & 0xFFFF;
+        record.msgId = mLen == 0 ? null : readString(buf, p + 2, mLen);
+        p += 2 + mLen;
+        if (record.type == TYPE_MESSAGE_SEQ) {
+            if (p + 8 + 4 > start + HEADER_SIZE + bodySize) {
+                return null;
+            }
+            record.type = TYPE_MESSAGE;
+            record.seq = buf.getLong(p);
+            p += 8;
+        }
+        int payloadLen = buf.getInt(p);
+        p += 4;
+        if (rLen > MAX_KEY_BYTES || mLen > MAX_KEY_BYTES || payloadLen < 0
+                || p + payloadLen != start + HEADER_SIZE + bodySize) {
+            return null;
+        }
+        if (withPayload && payloadLen > 0) {
+            record.payload = new byte[payloadLen];
+            ByteBuffer dup = buf.duplicate();
+            dup.position(p);
+            dup.get(record.payload);
+        }
+        record.totalSize = HEADER_SIZE + bodySize;
+        buf.position(start + record.totalSize);
+        return record;
+    }
+
+    /**
+     * 索引里保存的 msgId 摘要，用于在不读日志的情况下快速过滤
+     */
+    static int hashMsgId(String msgId) {
+        return msgId == null ? 0 : msgId.hashCode();
+    }
+
+    private static String readString(ByteBuffer buf, int offset, int len) {
+        byte[] bytes = new byte[len];
+        ByteBuffer dup = buf.duplicate();
+        dup.position(offset);
+        dup.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crcOf(ByteBuffer buf, int offset, int len) {
+        CRC32 crc = new CRC32();
+        if (buf.hasArray()) {
+            crc.update(buf.array(), buf.arrayOffset() + offset, len);
+        } else {
+            byte[] chunk = new byte[Math.min(len, 8192)];
+            ByteBuffer dup = buf.duplicate();
+            dup.position(offset);
+            int left = len;
+            while (left > 0) {
+                int n = Math.min(left, chunk.length);
+                dup.get(chunk, 0, n);
+                crc.update(chunk, 0, n);
+                left -= n;
+            }
+        }
+        return (int) crc.getValue();
+    }
+}
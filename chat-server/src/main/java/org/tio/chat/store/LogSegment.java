@@ -0,0 +1,167 @@
+package org.tio.chat.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * LogSegment
+ *
+ * 一个只追加的 segment 文件。文件名为 20 位十进制的起始全局偏移量（baseOffset），
+ * 记录的全局位置 = baseOffset + 文件内偏移，因此整条日志的位置单调递增、可以跨文件定位。
+ *
+ * 滚动后（{@link #seal()}）文件不再变化，随机读取改走整个文件的只读映射，不再逐条 pread 和分配临时 buffer；
+ * 映射不主动释放（读取线程可能仍在使用），segment 删除后由 GC 回收。当前写入中的 segment 仍用 pread。
+ */
+final class LogSegment {
+
+    static final String SUFFIX = ".log";
+
+    final long baseOffset;
+    final File file;
+    private final FileChannel channel;
+    /** 已写入的字节数（文件内偏移） */
+    private volatile long size;
+    /** 已滚动、不再写入 */
+    private volatile boolean sealed;
+    /** 滚动后首次读取时建立的只读映射 */
+    private volatile MappedByteBuffer readMap;
+
+    private LogSegment(long baseOffset, File file, FileChannel channel, long size) {
+        this.baseOffset = baseOffset;
+        this.file = file;
+        this.channel = channel;
+        this.size = size;
+    }
+
+    static LogSegment open(File dir, long baseOffset) throws IOException {
+        File file = new File(dir, fileName(baseOffset));
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new LogSegment(baseOffset, file, channel, channel.size());
+    }
+
+    static String fileName(long baseOffset) {
+        return String.format("%020d%s", baseOffset, SUFFIX);
+    }
+
+    static long parseBaseOffset(String fileName) {
+        return Long.parseLong(fileName.substring(0, fileName.length() - SUFFIX.length()));
+    }
+
+    long size() {
+        return size;
+    }
+
+    /** 下一条记录的全局位置 */
+    long endOffset() {
+        return baseOffset + size;
+    }
+
+    /**
+     * 追加一条已编码的记录，返回其全局位置。调用方负责串行化写入。
+     */
+    long append(ByteBuffer record) throws IOException {
+        long position = size;
+        long p = position;
+        while (record.hasRemaining()) {
+            p += channel.write(record, p);
+        }
+        size = p;
+        return baseOffset + position;
+    }
+
+    /**
+     * 标记为不再写入，此后的读取走只读映射
+     */
+    void seal() {
+        sealed = true;
+    }
+
+    /**
+     * 读取全局位置 globalPos 处的一条完整记录（含 payload），不存在或损坏时返回 null
+     */
+    LogRecord read(long globalPos) throws IOException {
+        long pos = globalPos - baseOffset;
+        if (pos < 0 || pos + LogRecord.HEADER_SIZE > size) {
+            return null;
+        }
+        MappedByteBuffer map = sealed ? readMap() : null;
+        if (map != null) {
+            ByteBuffer dup = map.duplicate();
+            dup.position((int) pos);
+            return LogRecord.decode(dup, true, true);
+        }
+        ByteBuffer header = ByteBuffer.allocate(LogRecord.HEADER_SIZE);
+        readFully(header, pos);
+        int bodySize = header.getInt(0);
+        if (bodySize <= 0 || bodySize > LogRecord.MAX_BODY_SIZE || pos + LogRecord.HEADER_SIZE + bodySize > size) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(LogRecord.HEADER_SIZE + bodySize);
+        readFully(buf, pos);
+        buf.flip();
+        return LogRecord.decode(buf, true, true);
+    }
+
+    /**
+     * 超过单次映射上限（2GB）的 segment 返回 null，仍走 pread
+     */
+    private MappedByteBuffer readMap() throws IOException {
+        MappedByteBuffer map = readMap;
+        if (map == null && size <= Integer.MAX_VALUE) {
+            synchronized (this) {
+                map = readMap;
+                if (map == null) {
+                    map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    readMap = map;
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * 只读映射 [from, size) 区间，用于顺序扫描恢复
+     */
+    MappedByteBuffer mapForScan(long from) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, from, size - from);
+    }
+
+    /**
+     * 截断到指定文件内偏移（丢弃崩溃时写了一半的尾部）
+     */
+    void truncate(long newSize) throws IOException {
+        channel.truncate(newSize);
+        size = newSize;
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        if (!file.delete() && file.exists()) {
+            throw new IOException("删除 segment 失败: " + file);
+        }
+    }
+
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        long p = pos;
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, p);
+            if (n < 0) {
+                throw new IOException("读取 segment 越界: " + file + "@" + pos);
+            }
+            p += n;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.tio.chat.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * MappedBuffers
+ *
+ * 显式释放 mmap 映射。MappedByteBuffer 默认要等 GC 才解除映射，索引文件频繁打开/淘汰时
+ * 映射数会先于堆内存耗尽（vm.max_map_count），因此在确认没有线程再访问时主动释放。
+ *
+ * 兼容 JDK 8（DirectBuffer.cleaner()）与 JDK 9+（Unsafe.invokeCleaner），失败时退化为等待 GC。
+ */
+final class MappedBuffers {
+    private static final Logger log = LoggerFactory.getLogger(MappedBuffers.class);
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (Exception e) {
+            // JDK 8 没有 invokeCleaner，走 cleaner() 分支
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private MappedBuffers() {
+    }
+
+    /**
+     * 解除映射。调用后任何线程再访问该 buffer 都会导致 JVM 崩溃，调用方必须保证独占。
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } else {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            log.debug("解除 mmap 映射失败，等待 GC 回收", e);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.tio.chat.store;
+
+import org.tio.chat.model.ChatMessage;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * MessageStore
+ *
+ * 离线消息存储抽象。按收件人（msg.getTo()）维护一条只追加的待投递队列，
+ * 队列中的消息在被确认（ack）之前会一直保留，服务重启后仍可读取。
+ *
+ * 约定：
+ *  - append 返回时消息已按实现的刷盘策略落盘（见 {@link MessageStoreConfig#getFlushMode()}）。
+ *    批量写入时可先逐条 appendNoWait，再对最大的返回位置调用一次 awaitDurable，多条消息共用一次刷盘等待。
+ *  - read 只返回尚未确认的消息，顺序与写入顺序一致，单次最多返回 max 条，调用方分页读取以控制堆内存占用。
+ *  - ack / ackAll 之后消息不会再被 read 返回。
+ */
+public interface MessageStore extends Closeable {
+
+    /**
+     * 追加一条离线消息，收件人为 msg.getTo()
+     */
+    void append(ChatMessage msg);
+
+    /**
+     * 追加一条离线消息但不等待刷盘，返回传给 {@link #awaitDurable(long)} 的日志位置；
+     * 不区分两步的实现直接同步写入并返回 -1
+     */
+    default long appendNoWait(ChatMessage msg) {
+        append(msg);
+        return -1;
+    }
+
+    /**
+     * 等待 appendNoWait 返回的位置之前的写入按刷盘策略落盘（position 小于 0 时直接返回）
+     */
+    default void awaitDurable(long position) {
+    }
+
+    /**
+     * 从收件人队列头部开始，读取至多 max 条未确认消息
+     */
+    List<ChatMessage> read(String recipient, int max);
+
+    /**
+     * 确认（删除）收件人队列中的指定消息，返回实际确认的条数
+     */
+    int ack(String recipient, Collection<String> msgIds);
+
+    /**
+     * 确认收件人队列中当前的全部消息
+     */
+    void ackAll(String recipient);
+
+    /**
+     * 将收件人队列中的指定消息标记为已读，返回命中的 msgId
+     */
+    List<String> markRead(String recipient, Collection<String> msgIds);
+
+    /**
+     * 已读水位：将收件人队列中来自 from、消息时间戳不晚于 upToTimestamp 的消息全部标记为已读，返回命中的 msgId
+     */
+    List<String> markReadUpTo(String recipient, String from, long upToTimestamp);
+
+    /**
+     * 收件人当前未确认的消息条数
+     */
+    long pendingCount(String recipient);
+}
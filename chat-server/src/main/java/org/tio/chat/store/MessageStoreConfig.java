@@ -0,0 +1,129 @@
+package org.tio.chat.store;
+
+import org.tio.utils.jfinal.P;
+
+import java.io.File;
+
+/**
+ * MessageStoreConfig
+ *
+ * 离线消息存储引擎的配置项，默认值可被 app.properties 中的 store.* 覆盖。
+ */
+public class MessageStoreConfig {
+
+    /** 刷盘策略：group=写入线程等待下一次组提交 fsync 完成后返回 */
+    public static final String FLUSH_GROUP = "group";
+    /** 刷盘策略：async=写入线程不等待，后台按 flushIntervalMs 周期 fsync */
+    public static final String FLUSH_ASYNC = "async";
+
+    /** 存储根目录 */
+    private File dir = new File("data/store");
+
+    /** 单个 segment 文件的最大字节数，超过后滚动新文件 */
+    private long segmentBytes = 256L * 1024 * 1024;
+
+    private String flushMode = FLUSH_GROUP;
+
+    /** async 模式下的刷盘周期，毫秒 */
+    private long flushIntervalMs = 10;
+
+    /** segment 保留时长，毫秒；超过后整段删除（<=0 表示不按时间删除） */
+    private long retentionMs = 7L * 24 * 3600 * 1000;
+
+    /** 日志总大小上限，字节；超过后从最旧的 segment 开始删除（<=0 表示不限制） */
+    private long retentionBytes = 0;
+
+    /** 同时保持映射的收件人索引文件数上限 */
+    private int indexCacheSize = 1024;
+
+    /** 索引检查点与保留策略的执行周期，毫秒 */
+    private long checkpointIntervalMs = 10_000;
+
+    /**
+     * 从 app.properties 读取配置（需先调用 P.use）
+     */
+    public static MessageStoreConfig fromProperties() {
+        MessageStoreConfig config = new MessageStoreConfig();
+        config.dir = new File(P.get("store.dir", config.dir.getPath()));
+        config.segmentBytes = P.getLong("store.segment.bytes", config.segmentBytes);
+        config.flushMode = P.get("store.flush.mode", config.flushMode);
+        config.flushIntervalMs = P.getLong("store.flush.interval.ms", config.flushIntervalMs);
+        config.retentionMs = P.getLong("store.retention.hours", config.retentionMs / 3600_000) * 3600_000;
+        config.retentionBytes = P.getLong("store.retention.bytes", config.retentionBytes);
+        config.indexCacheSize = P.getInt("store.index.cache.size", config.indexCacheSize);
+        config.checkpointIntervalMs = P.getLong("store.checkpoint.interval.ms", config.checkpointIntervalMs);
+        return config;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public MessageStoreConfig setDir(File dir) {
+        this.dir = dir;
+        return this;
+    }
+
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    public MessageStoreConfig setSegmentBytes(long segmentBytes) {
+        this.segmentBytes = segmentBytes;
+        return this;
+    }
+
+    public String getFlushMode() {
+        return flushMode;
+    }
+
+    public MessageStoreConfig setFlushMode(String flushMode) {
+        this.flushMode = flushMode;
+        return this;
+    }
+
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+
+    public MessageStoreConfig setFlushIntervalMs(long flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+        return this;
+    }
+
+    public long getRetentionMs() {
+        return retentionMs;
+    }
+
+    public MessageStoreConfig setRetentionMs(long retentionMs) {
+        this.retentionMs = retentionMs;
+        return this;
+    }
+
+    public long getRetentionBytes() {
+        return retentionBytes;
+    }
+
+    public MessageStoreConfig setRetentionBytes(long retentionBytes) {
+        this.retentionBytes = retentionBytes;
+        return this;
+    }
+
+    public int getIndexCacheSize() {
+        return indexCacheSize;
+    }
+
+    public MessageStoreConfig setIndexCacheSize(int indexCacheSize) {
+        this.indexCacheSize = indexCacheSize;
+        return this;
+    }
+
+    public long getCheckpointIntervalMs() {
+        return checkpointIntervalMs;
+    }
+
+    public MessageStoreConfig setCheckpointIntervalMs(long checkpointIntervalMs) {
+        this.checkpointIntervalMs = checkpointIntervalMs;
+        return this;
+    }
+}
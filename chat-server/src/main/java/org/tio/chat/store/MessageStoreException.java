@@ -0,0 +1,16 @@
+package org.tio.chat.store;
+
+/**
+ * 消息存储层的运行时异常（IO 失败、存储已关闭等）
+ */
+public class MessageStoreException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public MessageStoreException(String message) {
+        super(message);
+    }
+
+    public MessageStoreException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,200 @@
+package org.tio.chat.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * RecipientIndex
+ *
+ * 单个收件人的偏移量索引，整个文件以 mmap 方式读写，不在堆上保存任何条目。
+ * <pre>
+ * header(32B): int magic | int version | long count | long head | long pending
+ * entry (16B): long logPosition | int msgIdHash | int flags
+ * </pre>
+ *  - [head, count) 为可能未确认的区间，head 之前的条目均已确认；
+ *  - 所有状态都直接读写映射区，对象本身可以随时被丢弃后重新打开；
+ *  - 映射建立后即关闭文件通道（映射不依赖通道），缓存中的索引只剩一个映射区，不占文件描述符，
+ *    扩容时临时重新打开。
+ *
+ * 非线程安全，调用方需按收件人加锁。
+ */
+final class RecipientIndex {
+
+    static final String SUFFIX = ".idx";
+
+    static final int FLAG_ACKED = 1;
+    static final int FLAG_READ = 2;
+
+    private static final int MAGIC = 0x43484958; // "CHIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int ENTRY_SIZE = 16;
+    private static final int INITIAL_ENTRIES = 64;
+    /** head 前已确认条目超过该值且占一半以上容量时，整体前移压缩 */
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private static final int OFF_COUNT = 8;
+    private static final int OFF_HEAD = 16;
+    private static final int OFF_PENDING = 24;
+
+    private final File file;
+    private MappedByteBuffer buf;
+
+    private RecipientIndex(File file) {
+        this.file = file;
+    }
+
+    static RecipientIndex open(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IOException("创建索引目录失败: " + parent);
+        }
+        RecipientIndex index = new RecipientIndex(file);
+        long length = file.length();
+        if (length < HEADER_SIZE) {
+            index.map(HEADER_SIZE + (long) INITIAL_ENTRIES * ENTRY_SIZE);
+            index.buf.putInt(0, MAGIC);
+            index.buf.putInt(4, VERSION);
+            index.buf.putLong(OFF_COUNT, 0);
+            index.buf.putLong(OFF_HEAD, 0);
+            index.buf.putLong(OFF_PENDING, 0);
+        } else {
+            index.map(length);
+            if (index.buf.getInt(0) != MAGIC || index.buf.getInt(4) != VERSION) {
+                index.close();
+                throw new IOException("索引文件格式不匹配: " + file);
+            }
+        }
+        return index;
+    }
+
+    long count() {
+        return buf.getLong(OFF_COUNT);
+    }
+
+    long head() {
+        return buf.getLong(OFF_HEAD);
+    }
+
+    long pending() {
+        return buf.getLong(OFF_PENDING);
+    }
+
+    long position(long i) {
+        return buf.getLong(entryOffset(i));
+    }
+
+    int msgIdHash(long i) {
+        return buf.getInt(entryOffset(i) + 8);
+    }
+
+    int flags(long i) {
+        return buf.getInt(entryOffset(i) + 12);
+    }
+
+    /** 最后一条条目的日志位置，空索引返回 -1 */
+    long lastPosition() {
+        long count = count();
+        return count == 0 ? -1 : position(count - 1);
+    }
+
+    void add(long logPosition, int msgIdHash) throws IOException {
+        long count = count();
+        int offset = entryOffset(count);
+        if (offset + ENTRY_SIZE > buf.capacity()) {
+            map(Math.max((long) buf.capacity() * 2, offset + ENTRY_SIZE));
+        }
+        buf.putLong(offset, logPosition);
+        buf.putInt(offset + 8, msgIdHash);
+        buf.putInt(offset + 12, 0);
+        buf.putLong(OFF_COUNT, count + 1);
+        buf.putLong(OFF_PENDING, pending() + 1);
+    }
+
+    void setRead(long i) {
+        int flags = flags(i);
+        if ((flags & FLAG_READ) == 0) {
+            buf.putInt(entryOffset(i) + 12, flags | FLAG_READ);
+        }
+    }
+
+    /**
+     * 确认第 i 条，返回是否为本次新确认
+     */
+    boolean ack(long i) {
+        int flags = flags(i);
+        if ((flags & FLAG_ACKED) != 0) {
+            return false;
+        }
+        buf.putInt(entryOffset(i) + 12, flags | FLAG_ACKED);
+        buf.putLong(OFF_PENDING, pending() - 1);
+        return true;
+    }
+
+    boolean isAcked(long i) {
+        return (flags(i) & FLAG_ACKED) != 0;
+    }
+
+    /**
+     * 推进 head 越过已确认条目；全部确认时归零，前部空洞过大时整体前移
+     */
+    void advanceHead() {
+        long count = count();
+        long head = head();
+        while (head < count && isAcked(head)) {
+            head++;
+        }
+        if (head == count) {
+            buf.putLong(OFF_COUNT, 0);
+            buf.putLong(OFF_HEAD, 0);
+            buf.putLong(OFF_PENDING, 0);
+        } else if (head >= COMPACT_THRESHOLD && head * ENTRY_SIZE * 2 >= buf.capacity() - HEADER_SIZE) {
+            long live = count - head;
+            for (long i = 0; i < live; i++) {
+                int src = entryOffset(head + i);
+                int dst = entryOffset(i);
+                buf.putLong(dst, buf.getLong(src));
+                buf.putLong(dst + 8, buf.getLong(src + 8));
+            }
+            buf.putLong(OFF_COUNT, live);
+            buf.putLong(OFF_HEAD, 0);
+        } else {
+            buf.putLong(OFF_HEAD, head);
+        }
+    }
+
+    /**
+     * 把映射区的脏页刷到磁盘
+     */
+    void force() {
+        buf.force();
+    }
+
+    /**
+     * 关闭文件并解除映射，调用方需保证没有其他线程仍在使用该索引
+     */
+    void close() {
+        MappedBuffers.unmap(buf);
+        buf = null;
+    }
+
+    private void map(long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("索引文件超出单次映射上限: " + file);
+        }
+        MappedByteBuffer old = buf;
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+        // 扩容后旧映射只被当前持锁线程引用过，可以立即释放
+        MappedBuffers.unmap(old);
+    }
+
+    private static int entryOffset(long i) {
+        return (int) (HEADER_SIZE + i * ENTRY_SIZE);
+    }
+}
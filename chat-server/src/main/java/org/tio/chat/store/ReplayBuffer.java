@@ -0,0 +1,85 @@
+package org.tio.chat.store;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ReplayBuffer
+ *
+ * 恢复时的索引写入缓冲。顺序扫描 segment 时先按收件人把条目攒在内存里，segment 扫描结束
+ * （或条目数达到上限）后每个收件人只打开一次索引文件批量写入；在缓冲期间就已被 ack 的条目不再落到索引中。
+ * 这样重建的开销与“收件人数 × segment 数”相关，而不是与消息条数相关。
+ */
+final class ReplayBuffer {
+
+    /** 缓冲条目上限，约 24 字节/条 */
+    static final int MAX_ENTRIES = 2_000_000;
+
+    static final class Pending {
+        long[] positions = new long[4];
+        int[] hashes = new int[4];
+        byte[] flags = new byte[4];
+        /** 会话日志记录中的 seq，其他存储为 0 */
+        long[] seqs = new long[4];
+        int count;
+
+        void add(long position, int hash, long seq) {
+            if (count == positions.length) {
+                int capacity = count * 2;
+                positions = Arrays.copyOf(positions, capacity);
+                hashes = Arrays.copyOf(hashes, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+                seqs = Arrays.copyOf(seqs, capacity);
+            }
+            positions[count] = position;
+            hashes[count] = hash;
+            flags[count] = 0;
+            seqs[count] = seq;
+            count++;
+        }
+
+        boolean isAcked(int i) {
+            return (flags[i] & RecipientIndex.FLAG_ACKED) != 0;
+        }
+
+        void ackBefore(long upTo) {
+            for (int i = 0; i < count; i++) {
+                if (positions[i] < upTo) {
+                    flags[i] |= RecipientIndex.FLAG_ACKED;
+                }
+            }
+        }
+    }
+
+    private Map<String, Pending> byRecipient = new HashMap<>();
+    private int size;
+
+    void add(String recipient, long position, int hash, long seq) {
+        Pending pending = byRecipient.get(recipient);
+        if (pending == null) {
+            pending = new Pending();
+            byRecipient.put(recipient, pending);
+        }
+        pending.add(position, hash, seq);
+        size++;
+    }
+
+    Pending get(String recipient) {
+        return byRecipient.get(recipient);
+    }
+
+    boolean isFull() {
+        return size >= MAX_ENTRIES;
+    }
+
+    /**
+     * 取出全部缓冲并重置
+     */
+    Map<String, Pending> drain() {
+        Map<String, Pending> drained = byRecipient;
+        byRecipient = new HashMap<>();
+        size = 0;
+        return drained;
+    }
+}
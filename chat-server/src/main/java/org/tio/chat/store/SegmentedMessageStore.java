@@ -0,0 +1,1290 @@
+package org.tio.chat.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tio.chat.codec.JsonChatCodec;
+import org.tio.chat.model.ChatMessage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SegmentedMessageStore
+ *
+ * 基于分段追加日志的离线消息存储引擎。
+ *
+ * 目录结构：
+ * <pre>
+ *  {dir}/log/00000000000000000000.log   只追加的 segment，文件名为起始全局偏移量
+ *  {dir}/index/c6/7573657231.idx         每个收件人一个 mmap 偏移量索引（见 {@link RecipientIndex}）
+ *  {dir}/index.checkpoint               索引已完整落盘的日志位置
+ *  {dir}/seq.floor                      仅会话日志：被保留策略删除过消息的 key → 删除时的条目数
+ * </pre>
+ *
+ * 设计要点：
+ *  - 写入：所有记录（消息、ack、已读）按顺序追加到当前 segment，超过 segmentBytes 后滚动新文件；
+ *  - 刷盘：后台 flusher 线程做组提交，一次 fsync 覆盖期间所有写入，group 模式下写入线程等待覆盖自己的那次 fsync；
+ *  - 读取：索引只保存日志位置和 msgId 摘要，消息体按需从日志读取（已滚动的 segment 走只读映射），堆内存与积压量无关；
+ *  - 保留：定期删除超过保留时长或总大小上限的旧 segment，索引中指向已删除区间的条目在读取时被惰性跳过；
+ *  - 恢复：启动时从 checkpoint 开始顺序重放日志补齐索引（无 checkpoint 时全量重建），只解析记录头，
+ *    旧 segment 跳过 CRC 校验，尾部 segment 校验 CRC 并截掉崩溃时写了一半的记录。
+ *  - 会话日志（{@link #openSequenced}）：第 i 个条目固定对应 seq = i + 1，seq 同时写在记录头中（见 LogRecord）。
+ *    全量重建时按记录头中的 seq 在前面补占位条目（旧格式的记录从 payload 中取），
+ *    并补到 seq.floor 记录的条目数，旧 segment 已被删除也不会少算条目、重复分配 seq。
+ *
+ * 并发：日志写入由 appendLock 串行化；索引按收件人分段加锁，锁顺序固定为 appendLock → 收件人锁。
+ */
+public class SegmentedMessageStore implements MessageStore {
+    private static final Logger log = LoggerFactory.getLogger(SegmentedMessageStore.class);
+
+    private static final String LOG_DIR = "log";
+    private static final String INDEX_DIR = "index";
+    private static final String CHECKPOINT_FILE = "index.checkpoint";
+    private static final int CHECKPOINT_MAGIC = 0x43484350; // "CHCP"
+    private static final String SEQ_FLOOR_FILE = "seq.floor";
+    private static final int SEQ_FLOOR_MAGIC = 0x43485346; // "CHSF"
+    /** 占位条目的日志位置：早于任何 segment，读取时与已删除区间的条目一样被跳过 */
+    private static final long PLACEHOLDER_POSITION = -1;
+    private static final int LOCK_STRIPES = 64;
+
+    private final MessageStoreConfig config;
+    private final boolean groupFlush;
+    private final File logDir;
+    private final File indexDir;
+    private final File checkpointFile;
+    /** 条目下标即 seq 的存储（会话日志） */
+    private final boolean sequenced;
+    private final File seqFloorFile;
+    /** key → 被保留策略删除时的条目数，只在 sequenced 时使用，访问需持有自身监视器 */
+    private final Map<String, Long> seqFloors = new LinkedHashMap<>();
+
+    private final ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+    private volatile LogSegment active;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
+
+    /** 收件人索引 LRU，访问需持有自身监视器；使用或释放某个索引时还需持有其收件人锁 */
+    private final LinkedHashMap<String, RecipientIndex> indexCache;
+
+    /* ---------------- 组提交 ---------------- */
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Condition dirtyCond = flushLock.newCondition();
+    private final Condition durableCond = flushLock.newCondition();
+    /** 已写入（page cache）的日志末尾位置 */
+    private volatile long writtenOffset;
+    /** 已 fsync 的日志末尾位置 */
+    private volatile long durableOffset;
+    /** 最近一次写入 checkpoint 的位置 */
+    private volatile long checkpointOffset;
+
+    private Thread flusher;
+    private ScheduledExecutorService maintenance;
+    private volatile boolean closed;
+
+    private SegmentedMessageStore(MessageStoreConfig config, boolean sequenced) {
+        this.config = config;
+        this.sequenced = sequenced;
+        this.seqFloorFile = new File(config.getDir(), SEQ_FLOOR_FILE);
+        this.groupFlush = MessageStoreConfig.FLUSH_GROUP.equalsIgnoreCase(config.getFlushMode());
+        this.logDir = new File(config.getDir(), LOG_DIR);
+        this.indexDir = new File(config.getDir(), INDEX_DIR);
+        this.checkpointFile = new File(config.getDir(), CHECKPOINT_FILE);
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        final int cacheSize = Math.max(16, config.getIndexCacheSize());
+        this.indexCache = new LinkedHashMap<String, RecipientIndex>(cacheSize * 4 / 3 + 1, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RecipientIndex> eldest) {
+                if (size() <= cacheSize) {
+                    return false;
+                }
+                // 只淘汰没有线程在用的索引：拿不到其收件人锁时本次先不淘汰，缓存暂时超出一个
+                ReentrantLock lock = lockFor(eldest.getKey());
+                if (!lock.tryLock()) {
+                    return false;
+                }
+                try {
+                    releaseIndex(eldest.getValue());
+                } finally {
+                    lock.unlock();
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * 打开（或创建）存储目录，完成崩溃恢复后启动刷盘与维护线程
+     */
+    public static SegmentedMessageStore open(MessageStoreConfig config) throws IOException {
+        return open(config, false);
+    }
+
+    /**
+     * 以会话日志方式打开：每个 key 的第 i 个条目对应 seq = i + 1，从不确认，重建索引时保持这一对应关系
+     */
+    static SegmentedMessageStore openSequenced(MessageStoreConfig config) throws IOException {
+        return open(config, true);
+    }
+
+    private static SegmentedMessageStore open(MessageStoreConfig config, boolean sequenced) throws IOException {
+        SegmentedMessageStore store = new SegmentedMessageStore(config, sequenced);
+        store.recover();
+        store.startBackgroundTasks();
+        return store;
+    }
+
+    /* ======================= MessageStore ======================= */
+
+    @Override
+    public void append(ChatMessage msg) {
+        awaitDurable(appendNoWait(msg));
+    }
+
+    @Override
+    public long appendNoWait(ChatMessage msg) {
+        if (msg == null || msg.getTo() == null) {
+            return -1;
+        }
+        return appendTo(msg.getTo(), msg);
+    }
+
+    /**
+     * group 模式下等待日志刷盘到 position；async 模式由后台周期刷盘，直接返回
+     */
+    @Override
+    public void awaitDurable(long position) {
+        if (groupFlush && position > 0) {
+            waitDurable(position);
+        }
+    }
+
+    @Override
+    public List<ChatMessage> read(String recipient, int max) {
+        if (recipient == null || max <= 0) {
+            return Collections.emptyList();
+        }
+        List<ChatMessage> result = new ArrayList<>(Math.min(max, 256));
+        ReentrantLock lock = lockFor(recipient);
+        lock.lock();
+        try {
+            RecipientIndex index = index(recipient, false);
+            if (index == null) {
+                return result;
+            }
+            boolean skipped = false;
+            long count = index.count();
+            for (long i = index.head(); i < count && result.size() < max; i++) {
+                if (index.isAcked(i)) {
+                    continue;
+                }
+                LogRecord record = readMessage(recipient, index, i);
+                if (record == null) {
+                    // 指向已被保留策略删除或崩溃截断的区间，直接视为已确认
+                    index.ack(i);
+                    skipped = true;
+                    continue;
+                }
+                ChatMessage msg = JsonChatCodec.decodeFull(record.payload);
+                if (msg == null) {
+                    // CRC 校验通过但内容无法解析（写入方版本不兼容等），跳过并视为已确认，避免永远卡在队首
+                    log.warn("离线消息无法解析，已跳过: {}@{}", recipient, index.position(i));
+                    index.ack(i);
+                    skipped = true;
+                    continue;
+                }
+                if ((index.flags(i) & RecipientIndex.FLAG_READ) != 0) {
+                    msg.setRead(true);
+                }
+                result.add(msg);
+            }
+            if (skipped) {
+                index.advanceHead();
+            }
+        } catch (IOException e) {
+            throw new MessageStoreException("读取离线消息失败: " + recipient, e);
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+
+    @Override
+    public int ack(String recipient, Collection<String> msgIds) {
+        if (recipient == null || msgIds == null || msgIds.isEmpty()) {
+            return 0;
+        }
+        List<String> acked;
+        ReentrantLock lock = lockFor(recipient);
+        lock.lock();
+        try {
+            RecipientIndex index = index(recipient, false);
+            if (index == null) {
+                return 0;
+            }
+            acked = applyAck(recipient, index, msgIds, Long.MAX_VALUE);
+        } catch (IOException e) {
+            throw new MessageStoreException("确认离线消息失败: " + recipient, e);
+        } finally {
+            lock.unlock();
+        }
+        // ack 记录只用于重建索引，丢失最多导致重复投递，不等待刷盘
+        for (String msgId : acked) {
+            appendRecord(LogRecord.TYPE_ACK, recipient, msgId, null);
+        }
+        return acked.size();
+    }
+
+    @Override
+    public void ackAll(String recipient) {
+        if (recipient == null) {
+            return;
+        }
+        long upTo;
+        ReentrantLock lock = lockFor(recipient);
+        lock.lock();
+        try {
+            RecipientIndex index = index(recipient, false);
+            if (index == null || index.pending() == 0) {
+                return;
+            }
+            // 持有收件人锁时读取：该收件人的新消息无法在此之前进入索引，其位置必然 >= upTo
+            upTo = writtenOffset;
+            applyAckAll(index, upTo);
+        } catch (IOException e) {
+            throw new MessageStoreException("确认离线消息失败: " + recipient, e);
+        } finally {
+            lock.unlock();
+        }
+        appendRecord(LogRecord.TYPE_ACK_ALL, recipient, null, ByteBuffer.allocate(8).putLong(0, upTo).array());
+    }
+
+    @Override
+    public List<String> markRead(String recipient, Collection<String> msgIds) {
+        if (recipient == null || msgIds == null || msgIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> matched;
+        ReentrantLock lock = lockFor(recipient);
+        lock.lock();
+        try {
+            RecipientIndex index = index(recipient, false);
+            if (index == null) {
+                return Collections.emptyList();
+            }
+            matched = applyRead(recipient, index, msgIds);
+        } catch (IOException e) {
+            throw new MessageStoreException("标记已读失败: " + recipient, e);
+        } finally {
+            lock.unlock();
+        }
+        for (String msgId : matched) {
+            appendRecord(LogRecord.TYPE_READ, recipient, msgId, null);
+        }
+        return matched;
+    }
+
+    @Override
+    public List<String> markReadUpTo(String recipient, String from, long upToTimestamp) {
+        if (recipient == null || from == null) {
+            return Collections.emptyList();
+        }
+        List<String> matched = new ArrayList<>();
+        ReentrantLock lock = lockFor(recipient);
+        lock.lock();
+        try {
+            RecipientIndex index = index(recipient, false);
+            if (index == null) {
+                return Collections.emptyList();
+            }
+            long count = index.count();
+            for (long i = index.head(); i < count; i++) {
+                if (index.isAcked(i) || (index.flags(i) & RecipientIndex.FLAG_READ) != 0) {
+                    continue;
+                }
+                LogRecord record = readMessage(recipient, index, i);
+                ChatMessage msg = record == null ? null : JsonChatCodec.decodeFull(record.payload);
+                if (msg != null && from.equals(msg.getFrom())
+                        && msg.getTimestamp() != null && msg.getTimestamp() <= upToTimestamp) {
+                    index.setRead(i);
+                    matched.add(record.msgId);
+                }
+            }
+        } catch (IOException e) {
+            throw new MessageStoreException("标记已读失败: " + recipient, e);
+        } finally {
+            lock.unlock();
+        }
+        // 逐条写 READ 记录，崩溃恢复沿用按 msgId 重放的逻辑
+        for (String msgId : matched) {
+            appendRecord(LogRecord.TYPE_READ, recipient, msgId, null);
+        }
+        return matched;
+    }
+
+    @Override
+    public long pendingCount(String recipient) {
+        if (recipient == null) {
+            return 0;
+        }
+        ReentrantLock lock = lockFor(recipient);
+        lock.lock();
+        try {
+            RecipientIndex index = index(recipient, false);
+            return index == null ? 0 : index.pending();
+        } catch (IOException e) {
+            throw new MessageStoreException("读取离线索引失败: " + recipient, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* ======================= 运行状态（/metrics） ======================= */
+
+    /**
+     * 当前的 segment 文件数
+     */
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 所有 segment 的字节数合计（保留策略删除前的磁盘占用）
+     */
+    public long logBytes() {
+        long bytes = 0;
+        for (LogSegment segment : segments.values()) {
+            bytes += segment.size();
+        }
+        return bytes;
+    }
+
+    /**
+     * 已写入但尚未刷盘的字节数
+     */
+    public long unflushedBytes() {
+        return Math.max(0, writtenOffset - durableOffset);
+    }
+
+    /* ======================= 按条目序号访问（供 ConversationLog 使用） ======================= */
+
+    /**
+     * 以指定的 key 追加一条消息并返回写入后的日志末尾位置，不等待刷盘
+     */
+    long appendTo(String recipient, ChatMessage msg) {
+        // seq 同时写入记录头，重建索引时不必解析 payload
+        long seq = msg.getSeq() == null ? 0 : msg.getSeq();
+        return appendRecord(LogRecord.TYPE_MESSAGE, recipient, msg.getMsgId(), seq, JsonChatCodec.encode(msg));
+    }
+
+    /**
+     * 索引中的条目总数（从未确认过的 key 即为累计写入条数）
+     */
+    long entryCount(String recipient) {
+        ReentrantLock lock = lockFor(recipient);
+        lock.lock();
+        try {
+            RecipientIndex index = index(recipient, false);
+            return index == null ? 0 : index.count();
+        } catch (IOException e) {
+            throw new MessageStoreException("读取索引失败: " + recipient, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 从第 from 个条目开始顺序读取最多 max 条，不修改确认状态；
+     * 指向已删除区间或无法解析的条目直接跳过
+     */
+    List<ChatMessage> readEntries(String recipient, long from, int max) {
+        List<ChatMessage> result = new ArrayList<>(Math.min(Math.max(max, 0), 256));
+        ReentrantLock lock = lockFor(recipient);
+        lock.lock();
+        try {
+            RecipientIndex index = index(recipient, false);
+            if (index == null) {
+                return result;
+            }
+            long count = index.count();
+            for (long i = Math.max(from, index.head()); i < count && result.size() < max; i++) {
+                LogRecord record = readMessage(recipient, index, i);
+                ChatMessage msg = record == null ? null : JsonChatCodec.decodeFull(record.payload);
+                if (msg != null) {
+                    result.add(msg);
+                }
+            }
+        } catch (IOException e) {
+            throw new MessageStoreException("读取消息失败: " + recipient, e);
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * 读取第 [0, to) 个条目中最后的最多 max 条，按条目顺序返回，用于从新到旧翻页；
+     * 跳过规则同 readEntries，遇到位于最早 segment 之前的条目即停止（更早的条目都已被保留策略删除）
+     */
+    List<ChatMessage> readEntriesBefore(String recipient, long to, int max) {
+        List<ChatMessage> result = new ArrayList<>(Math.min(Math.max(max, 0), 256));
+        ReentrantLock lock = lockFor(recipient);
+        lock.lock();
+        try {
+            RecipientIndex index = index(recipient, false);
+            if (index == null) {
+                return result;
+            }
+            long logStart = segments.firstKey();
+            for (long i = Math.min(to, index.count()) - 1; i >= index.head() && result.size() < max; i--) {
+                if (index.position(i) < logStart) {
+                    break;
+                }
+                LogRecord record = readMessage(recipient, index, i);
+                ChatMessage msg = record == null ? null : JsonChatCodec.decodeFull(record.payload);
+                if (msg != null) {
+                    result.add(msg);
+                }
+            }
+        } catch (IOException e) {
+            throw new MessageStoreException("读取消息失败: " + recipient, e);
+        } finally {
+            lock.unlock();
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * 写入时间早于 timestamp 的条目数，即第一个写入时间不早于 timestamp 的条目下标。
+     * 日志按写入顺序追加，条目的写入时间随下标单调不减，二分查找只读 O(log n) 条记录；
+     * 已被保留策略删除的条目视为更早
+     */
+    long entriesBefore(String recipient, long timestamp) {
+        ReentrantLock lock = lockFor(recipient);
+        lock.lock();
+        try {
+            RecipientIndex index = index(recipient, false);
+            if (index == null) {
+                return 0;
+            }
+            long lo = index.head();
+            long hi = index.count();
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                LogRecord record = readMessage(recipient, index, mid);
+                if (record == null || record.timestamp < timestamp) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        } catch (IOException e) {
+            throw new MessageStoreException("读取索引失败: " + recipient, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            closed = true;
+            dirtyCond.signalAll();
+            durableCond.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+        if (maintenance != null) {
+            maintenance.shutdown();
+            try {
+                maintenance.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (flusher != null) {
+            try {
+                flusher.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        appendLock.lock();
+        try {
+            active.force();
+            durableOffset = writtenOffset;
+            checkpoint();
+            for (Map.Entry<String, RecipientIndex> entry : cachedIndexes()) {
+                ReentrantLock lock = lockFor(entry.getKey());
+                lock.lock();
+                try {
+                    synchronized (indexCache) {
+                        indexCache.remove(entry.getKey());
+                    }
+                    entry.getValue().close();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            for (LogSegment segment : segments.values()) {
+                segment.close();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        log.info("消息存储已关闭, 日志末尾位置: {}", writtenOffset);
+    }
+
+    /* ======================= 写入与组提交 ======================= */
+
+    /**
+     * 追加一条记录并返回写入后的日志末尾位置。MESSAGE 记录会在同一临界区内写入收件人索引，
+     * 保证索引条目顺序与日志顺序一致。
+     */
+    private long appendRecord(byte type, String recipient, String msgId, byte[] payload) {
+        return appendRecord(type, recipient, msgId, 0, payload);
+    }
+
+    private long appendRecord(byte type, String recipient, String msgId, long seq, byte[] payload) {
+        ByteBuffer record = LogRecord.encode(type, System.currentTimeMillis(), recipient, msgId, seq, payload);
+        long end;
+        appendLock.lock();
+        try {
+            if (closed) {
+                throw new MessageStoreException("消息存储已关闭");
+            }
+            LogSegment segment = active;
+            if (segment.size() > 0 && segment.size() + record.remaining() > config.getSegmentBytes()) {
+                segment = roll();
+            }
+            long position = segment.append(record);
+            if (type == LogRecord.TYPE_MESSAGE) {
+                ReentrantLock lock = lockFor(recipient);
+                lock.lock();
+                try {
+                    index(recipient, true).add(position, LogRecord.hashMsgId(msgId));
+                } finally {
+                    lock.unlock();
+                }
+            }
+            end = segment.endOffset();
+            writtenOffset = end;
+        } catch (IOException e) {
+            throw new MessageStoreException("写入消息日志失败: " + recipient, e);
+        } finally {
+            appendLock.unlock();
+        }
+        if (groupFlush && type == LogRecord.TYPE_MESSAGE) {
+            flushLock.lock();
+            try {
+                dirtyCond.signal();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+        return end;
+    }
+
+    /**
+     * 滚动到新 segment。旧 segment 在切换前同步 fsync，flusher 因此只需要关心当前 segment。
+     */
+    private LogSegment roll() throws IOException {
+        LogSegment old = active;
+        old.force();
+        old.seal();
+        LogSegment next = LogSegment.open(logDir, old.endOffset());
+        segments.put(next.baseOffset, next);
+        active = next;
+        log.info("消息日志滚动: {} -> {}", old.file.getName(), next.file.getName());
+        return next;
+    }
+
+    private void waitDurable(long offset) {
+        flushLock.lock();
+        try {
+            while (durableOffset < offset) {
+                if (closed) {
+                    throw new MessageStoreException("消息存储已关闭，刷盘未完成");
+                }
+                durableCond.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessageStoreException("等待刷盘被中断", e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 组提交循环：group 模式下有写入即刷盘，一次 fsync 覆盖期间累积的全部写入；
+     * async 模式下按 flushIntervalMs 周期刷盘。
+     */
+    private void flushLoop() {
+        long intervalMs = Math.max(1, config.getFlushIntervalMs());
+        while (true) {
+            long target;
+            flushLock.lock();
+            try {
+                while (!closed && writtenOffset == durableOffset) {
+                    if (groupFlush) {
+                        dirtyCond.await();
+                    } else {
+                        dirtyCond.await(intervalMs, TimeUnit.MILLISECONDS);
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                target = writtenOffset;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                flushLock.unlock();
+            }
+
+            try {
+                active.force();
+            } catch (IOException e) {
+                log.error("消息日志刷盘失败，稍后重试", e);
+                sleepQuietly(100);
+                continue;
+            }
+
+            flushLock.lock();
+            try {
+                durableOffset = target;
+                durableCond.signalAll();
+            } finally {
+                flushLock.unlock();
+            }
+            if (!groupFlush) {
+                sleepQuietly(intervalMs);
+            }
+        }
+    }
+
+    /* ======================= 索引 ======================= */
+
+    /**
+     * 在收件人锁内调用：确认日志位置小于 before 且 msgId 命中的条目
+     */
+    private List<String> applyAck(String recipient, RecipientIndex index, Collection<String> msgIds, long before) throws IOException {
+        Set<String> wanted = msgIds instanceof Set ? (Set<String>) msgIds : new HashSet<>(msgIds);
+        Set<Integer> hashes = hashesOf(wanted);
+        List<String> acked = new ArrayList<>();
+        long count = index.count();
+        for (long i = index.head(); i < count && acked.size() < wanted.size(); i++) {
+            if (index.isAcked(i) || index.position(i) >= before || !hashes.contains(index.msgIdHash(i))) {
+                continue;
+            }
+            LogRecord record = readMessage(recipient, index, i);
+            if (record != null && wanted.contains(record.msgId) && index.ack(i)) {
+                acked.add(record.msgId);
+            }
+        }
+        if (!acked.isEmpty()) {
+            index.advanceHead();
+        }
+        return acked;
+    }
+
+    private void applyAckAll(RecipientIndex index, long upTo) {
+        long count = index.count();
+        for (long i = index.head(); i < count; i++) {
+            if (index.position(i) < upTo) {
+                index.ack(i);
+            }
+        }
+        index.advanceHead();
+    }
+
+    private List<String> applyRead(String recipient, RecipientIndex index, Collection<String> msgIds) throws IOException {
+        Set<String> wanted = msgIds instanceof Set ? (Set<String>) msgIds : new HashSet<>(msgIds);
+        Set<Integer> hashes = hashesOf(wanted);
+        List<String> matched = new ArrayList<>();
+        long count = index.count();
+        for (long i = index.head(); i < count && matched.size() < wanted.size(); i++) {
+            if (index.isAcked(i) || !hashes.contains(index.msgIdHash(i))) {
+                continue;
+            }
+            LogRecord record = readMessage(recipient, index, i);
+            if (record != null && wanted.contains(record.msgId)) {
+                index.setRead(i);
+                matched.add(record.msgId);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * 读取索引第 i 条指向的消息记录，并核对类型、收件人和 msgId 摘要，不一致时返回 null
+     */
+    private LogRecord readMessage(String recipient, RecipientIndex index, long i) throws IOException {
+        long position = index.position(i);
+        Map.Entry<Long, LogSegment> entry = segments.floorEntry(position);
+        if (entry == null) {
+            return null;
+        }
+        LogRecord record;
+        try {
+            record = entry.getValue().read(position);
+        } catch (ClosedChannelException e) {
+            // segment 刚被保留策略删除
+            return null;
+        }
+        if (record == null || record.type != LogRecord.TYPE_MESSAGE || !recipient.equals(record.recipient)
+                || LogRecord.hashMsgId(record.msgId) != index.msgIdHash(i)) {
+            return null;
+        }
+        return record;
+    }
+
+    /**
+     * 获取收件人索引，需持有该收件人的锁。create=false 且索引文件不存在时返回 null
+     */
+    private RecipientIndex index(String recipient, boolean create) throws IOException {
+        if (closed && !appendLock.isHeldByCurrentThread()) {
+            throw new MessageStoreException("消息存储已关闭");
+        }
+        synchronized (indexCache) {
+            RecipientIndex index = indexCache.get(recipient);
+            if (index != null) {
+                return index;
+            }
+        }
+        File file = indexFile(recipient);
+        if (!create && !file.exists()) {
+            return null;
+        }
+        RecipientIndex index = RecipientIndex.open(file);
+        synchronized (indexCache) {
+            indexCache.put(recipient, index);
+        }
+        return index;
+    }
+
+    /**
+     * 淘汰索引时不单独 fsync：写入已在 page cache 中，进程崩溃不受影响；
+     * 逐个刷盘会让收件人多于缓存容量时每次写入都触发一次 msync。
+     * 整机掉电后若发现索引缺失，删除 index.checkpoint 即可从日志全量重建。
+     */
+    private void releaseIndex(RecipientIndex index) {
+        index.close();
+    }
+
+    /**
+     * index/{hash 低 8 位}/{收件人 UTF-8 的十六进制}.idx，按哈希分散到 256 个子目录
+     */
+    private File indexFile(String recipient) {
+        byte[] bytes = recipient.getBytes(StandardCharsets.UTF_8);
+        StringBuilder name = new StringBuilder(bytes.length * 2 + RecipientIndex.SUFFIX.length());
+        for (byte b : bytes) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        name.append(RecipientIndex.SUFFIX);
+        String bucket = String.format("%02x", recipient.hashCode() & 0xFF);
+        return new File(new File(indexDir, bucket), name.toString());
+    }
+
+    private List<Map.Entry<String, RecipientIndex>> cachedIndexes() {
+        synchronized (indexCache) {
+            return new ArrayList<>(indexCache.entrySet());
+        }
+    }
+
+    private ReentrantLock lockFor(String recipient) {
+        return stripes[(recipient.hashCode() & 0x7FFFFFFF) % LOCK_STRIPES];
+    }
+
+    private static Set<Integer> hashesOf(Set<String> msgIds) {
+        Set<Integer> hashes = new HashSet<>(msgIds.size() * 2);
+        for (String msgId : msgIds) {
+            hashes.add(LogRecord.hashMsgId(msgId));
+        }
+        return hashes;
+    }
+
+    /* ======================= 恢复 ======================= */
+
+    private void recover() throws IOException {
+        long startNanos = System.nanoTime();
+        if (!logDir.exists() && !logDir.mkdirs()) {
+            throw new IOException("创建日志目录失败: " + logDir);
+        }
+        File[] files = logDir.listFiles((dir, name) -> name.endsWith(LogSegment.SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                long base = LogSegment.parseBaseOffset(file.getName());
+                segments.put(base, LogSegment.open(logDir, base));
+            }
+        }
+        if (segments.isEmpty()) {
+            LogSegment first = LogSegment.open(logDir, 0);
+            segments.put(first.baseOffset, first);
+        }
+        active = segments.lastEntry().getValue();
+        for (LogSegment segment : segments.headMap(active.baseOffset).values()) {
+            segment.seal();
+        }
+
+        if (sequenced) {
+            readSeqFloors();
+        }
+        long logStart = segments.firstKey();
+        long checkpoint = readCheckpoint();
+        boolean rebuild = checkpoint < 0 || !indexDir.exists() || checkpoint > active.endOffset();
+        long replayFrom;
+        if (rebuild) {
+            deleteRecursively(indexDir);
+            replayFrom = logStart;
+            log.info("离线消息索引不可用，开始从日志全量重建");
+        } else {
+            replayFrom = Math.max(checkpoint, logStart);
+        }
+
+        long replayed = 0;
+        for (LogSegment segment : segments.tailMap(segments.floorKey(replayFrom), true).values()) {
+            replayed += replaySegment(segment, Math.max(0, replayFrom - segment.baseOffset), segment == active);
+        }
+        if (rebuild && sequenced) {
+            padToSeqFloors();
+        }
+
+        writtenOffset = active.endOffset();
+        durableOffset = writtenOffset;
+        checkpoint();
+        log.info("离线消息存储恢复完成: segments={}, 重放记录={}, 日志区间=[{}, {}), 耗时={}ms",
+                segments.size(), replayed, logStart, writtenOffset, (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    /**
+     * 顺序扫描 segment 中 from 之后的记录并应用到索引，返回重放条数。
+     * 只有尾部 segment 可能存在写了一半的记录：校验 CRC，遇到第一条坏记录即截断。
+     */
+    private long replaySegment(LogSegment segment, long from, boolean tail) throws IOException {
+        if (from >= segment.size()) {
+            return 0;
+        }
+        MappedByteBuffer buf = segment.mapForScan(from);
+        try {
+            return replayMapped(segment, from, tail, buf);
+        } finally {
+            MappedBuffers.unmap(buf);
+        }
+    }
+
+    private long replayMapped(LogSegment segment, long from, boolean tail, MappedByteBuffer buf) throws IOException {
+        ReplayBuffer batch = new ReplayBuffer();
+        // buf 的 0 位置对应的全局日志位置
+        long scanBase = segment.baseOffset + from;
+        long replayed = 0;
+        while (buf.hasRemaining()) {
+            int start = buf.position();
+            long position = scanBase + start;
+            LogRecord record = LogRecord.decode(buf, tail, false);
+            if (record == null) {
+                long validSize = from + buf.position();
+                if (tail) {
+                    log.warn("截断消息日志尾部不完整的记录: {}@{}, 丢弃 {} 字节",
+                            segment.file.getName(), validSize, segment.size() - validSize);
+                    segment.truncate(validSize);
+                } else {
+                    log.error("segment 中存在损坏记录，跳过其余部分: {}@{}", segment.file.getName(), validSize);
+                }
+                break;
+            }
+            if (record.type == LogRecord.TYPE_MESSAGE) {
+                // 会话日志需要记录中的 seq 来对齐条目下标
+                batch.add(record.recipient, position, LogRecord.hashMsgId(record.msgId), sequenced ? seqOf(record, buf, start) : 0);
+            } else {
+                replayControl(record, position, buf, scanBase, batch);
+            }
+            replayed++;
+            if (batch.isFull()) {
+                flushReplayBuffer(batch);
+            }
+        }
+        flushReplayBuffer(batch);
+        return replayed;
+    }
+
+    /**
+     * 重放 ack / 已读记录：目标消息还在缓冲里时直接改缓冲，否则作用到已落盘的索引
+     */
+    private void replayControl(LogRecord record, long position, MappedByteBuffer buf, long scanBase, ReplayBuffer batch) throws IOException {
+        ReplayBuffer.Pending pending = batch.get(record.recipient);
+        switch (record.type) {
+            case LogRecord.TYPE_ACK:
+            case LogRecord.TYPE_READ: {
+                boolean ack = record.type == LogRecord.TYPE_ACK;
+                if (pending != null && markBuffered(pending, record.msgId, position, buf, scanBase, ack)) {
+                    return;
+                }
+                ReentrantLock lock = lockFor(record.recipient);
+                lock.lock();
+                try {
+                    RecipientIndex index = index(record.recipient, false);
+                    if (index == null) {
+                        return;
+                    }
+                    if (ack) {
+                        applyAck(record.recipient, index, Collections.singleton(record.msgId), position);
+                    } else {
+                        applyRead(record.recipient, index, Collections.singleton(record.msgId));
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            case LogRecord.TYPE_ACK_ALL: {
+                // payload 为 8 字节的 upTo，位于记录末尾
+                long upTo = buf.getLong(buf.position() - 8);
+                if (pending != null) {
+                    pending.ackBefore(upTo);
+                }
+                ReentrantLock lock = lockFor(record.recipient);
+                lock.lock();
+                try {
+                    RecipientIndex index = index(record.recipient, false);
+                    if (index != null) {
+                        applyAckAll(index, upTo);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            default:
+                log.warn("未知的日志记录类型: {}@{}", record.type, position);
+        }
+    }
+
+    /**
+     * 在缓冲中查找位置早于 before 的同一 msgId 的消息并打标记；msgId 通过映射区中的原记录核对
+     */
+    private static boolean markBuffered(ReplayBuffer.Pending pending, String msgId, long before,
+                                        MappedByteBuffer buf, long scanBase, boolean ack) {
+        int hash = LogRecord.hashMsgId(msgId);
+        for (int i = 0; i < pending.count; i++) {
+            if (pending.isAcked(i) || pending.hashes[i] != hash || pending.positions[i] >= before) {
+                continue;
+            }
+            ByteBuffer dup = buf.duplicate();
+            dup.position((int) (pending.positions[i] - scanBase));
+            LogRecord target = LogRecord.decode(dup, false, false);
+            if (target != null && (msgId == null ? target.msgId == null : msgId.equals(target.msgId))) {
+                pending.flags[i] |= ack ? RecipientIndex.FLAG_ACKED : RecipientIndex.FLAG_READ;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把缓冲中仍未确认的条目批量写入各收件人索引，每个收件人只打开一次索引
+     */
+    private void flushReplayBuffer(ReplayBuffer batch) throws IOException {
+        for (Map.Entry<String, ReplayBuffer.Pending> entry : batch.drain().entrySet()) {
+            String recipient = entry.getKey();
+            ReplayBuffer.Pending pending = entry.getValue();
+            boolean live = false;
+            for (int i = 0; i < pending.count && !live; i++) {
+                live = !pending.isAcked(i);
+            }
+            if (!live) {
+                continue;
+            }
+            ReentrantLock lock = lockFor(recipient);
+            lock.lock();
+            try {
+                RecipientIndex index = index(recipient, true);
+                // 重放区间可能与 checkpoint 之前已落盘的索引重叠，按位置去重
+                long last = index.lastPosition();
+                for (int i = 0; i < pending.count; i++) {
+                    if (pending.isAcked(i) || pending.positions[i] <= last) {
+                        continue;
+                    }
+                    // 会话日志：更早的 seq 所在 segment 已被删除时补占位条目，第 i 个条目仍对应 seq = i + 1
+                    while (pending.seqs[i] > 0 && index.count() < pending.seqs[i] - 1) {
+                        index.add(PLACEHOLDER_POSITION, 0);
+                    }
+                    index.add(pending.positions[i], pending.hashes[i]);
+                    if ((pending.flags[i] & RecipientIndex.FLAG_READ) != 0) {
+                        index.setRead(index.count() - 1);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /* ======================= checkpoint 与保留策略 ======================= */
+
+    private void startBackgroundTasks() {
+        flusher = new Thread(this::flushLoop, "message-store-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "message-store-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(100, config.getCheckpointIntervalMs());
+        maintenance.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+                applyRetention();
+            } catch (Throwable e) {
+                log.error("消息存储维护任务失败", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 先刷所有打开的索引，再记录已刷盘的日志位置；重启时从该位置重放即可补齐索引
+     */
+    private void checkpoint() throws IOException {
+        long upTo = durableOffset;
+        if (upTo == checkpointOffset && checkpointFile.exists()) {
+            return;
+        }
+        // 逐个持收件人锁刷盘：索引扩容会替换映射，不能与其并发访问
+        for (Map.Entry<String, RecipientIndex> entry : cachedIndexes()) {
+            ReentrantLock lock = lockFor(entry.getKey());
+            lock.lock();
+            try {
+                RecipientIndex current;
+                synchronized (indexCache) {
+                    current = indexCache.get(entry.getKey());
+                }
+                if (current == entry.getValue()) {
+                    current.force();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        File tmp = new File(checkpointFile.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(fos)) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeLong(upTo);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), checkpointFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpointOffset = upTo;
+    }
+
+    private long readCheckpoint() {
+        if (!checkpointFile.exists()) {
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(checkpointFile))) {
+            if (in.readInt() != CHECKPOINT_MAGIC) {
+                return -1;
+            }
+            return in.readLong();
+        } catch (IOException e) {
+            log.warn("读取索引 checkpoint 失败，将全量重建", e);
+            return -1;
+        }
+    }
+
+    /**
+     * 删除过期或超出总大小上限的旧 segment（当前 segment 与 checkpoint 之后的 segment 不删除）
+     */
+    private void applyRetention() throws IOException {
+        long retentionMs = config.getRetentionMs();
+        long retentionBytes = config.getRetentionBytes();
+        if (retentionMs <= 0 && retentionBytes <= 0) {
+            return;
+        }
+        long total = 0;
+        for (LogSegment segment : segments.values()) {
+            total += segment.size();
+        }
+        long now = System.currentTimeMillis();
+        Iterator<LogSegment> it = segments.values().iterator();
+        while (it.hasNext()) {
+            LogSegment segment = it.next();
+            if (segment == active || segment.endOffset() > checkpointOffset) {
+                break;
+            }
+            boolean expired = retentionMs > 0 && now - segment.file.lastModified() > retentionMs;
+            boolean oversize = retentionBytes > 0 && total > retentionBytes;
+            if (!expired && !oversize) {
+                break;
+            }
+            if (sequenced) {
+                // 先记下各会话的条目数再删除，索引丢失后重建时不会少算
+                recordSeqFloors(segment);
+            }
+            it.remove();
+            total -= segment.size();
+            segment.delete();
+            log.info("按保留策略删除 segment: {} (expired={}, oversize={})", segment.file.getName(), expired, oversize);
+        }
+    }
+
+    /* ======================= 会话日志的条目数下限 ======================= */
+
+    /**
+     * 消息记录的 seq：取记录头中的 seq；旧版本写入的记录没有，再从 start 处重新解码 payload 取出
+     */
+    private static long seqOf(LogRecord record, MappedByteBuffer buf, int start) {
+        if (record.seq > 0) {
+            return record.seq;
+        }
+        ByteBuffer dup = buf.duplicate();
+        dup.position(start);
+        LogRecord full = LogRecord.decode(dup, false, true);
+        ChatMessage msg = full == null || full.payload == null ? null : JsonChatCodec.decodeFull(full.payload);
+        return msg == null || msg.getSeq() == null ? 0 : msg.getSeq();
+    }
+
+    /**
+     * 记录 segment 中出现的每个 key 当前的条目数（不小于该 segment 中任何消息的 seq），写入 seq.floor 后才允许删除
+     */
+    private void recordSeqFloors(LogSegment segment) throws IOException {
+        Set<String> keys = new HashSet<>();
+        MappedByteBuffer buf = segment.mapForScan(0);
+        try {
+            LogRecord record;
+            while ((record = LogRecord.decode(buf, false, false)) != null) {
+                if (record.type == LogRecord.TYPE_MESSAGE) {
+                    keys.add(record.recipient);
+                }
+            }
+        } finally {
+            MappedBuffers.unmap(buf);
+        }
+        synchronized (seqFloors) {
+            for (String key : keys) {
+                long count = entryCount(key);
+                Long floor = seqFloors.get(key);
+                if (floor == null || floor < count) {
+                    seqFloors.put(key, count);
+                }
+            }
+            File tmp = new File(seqFloorFile.getPath() + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+                out.writeInt(SEQ_FLOOR_MAGIC);
+                out.writeInt(seqFloors.size());
+                for (Map.Entry<String, Long> entry : seqFloors.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+                out.flush();
+                fos.getFD().sync();
+            }
+            Files.move(tmp.toPath(), seqFloorFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private void readSeqFloors() throws IOException {
+        if (!seqFloorFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(seqFloorFile)))) {
+            if (in.readInt() != SEQ_FLOOR_MAGIC) {
+                throw new IOException("seq.floor 格式不匹配: " + seqFloorFile);
+            }
+            int n = in.readInt();
+            synchronized (seqFloors) {
+                for (int i = 0; i < n; i++) {
+                    seqFloors.put(in.readUTF(), in.readLong());
+                }
+            }
+        }
+    }
+
+    /**
+     * 全量重建后，条目数小于 seq.floor 的 key（消息已全部或部分随 segment 删除）补占位条目到该数
+     */
+    private void padToSeqFloors() throws IOException {
+        List<Map.Entry<String, Long>> floors;
+        synchronized (seqFloors) {
+            floors = new ArrayList<>(seqFloors.entrySet());
+        }
+        for (Map.Entry<String, Long> floor : floors) {
+            ReentrantLock lock = lockFor(floor.getKey());
+            lock.lock();
+            try {
+                RecipientIndex index = index(floor.getKey(), true);
+                while (index.count() < floor.getValue()) {
+                    index.add(PLACEHOLDER_POSITION, 0);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IOException("删除失败: " + file);
+        }
+    }
+
+    private static void sleepQuietly(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package org.tio.chat.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * BatchingPipeline
+ *
+ * 仿 disruptor 的多生产者环形缓冲 + 串联处理阶段，每个阶段一个线程、按批处理。
+ *
+ * 设计要点：
+ *  - 槽位预先分配、循环复用；生产者 CAS 领取序号，写入元素后在 published 数组中发布该序号，无锁；
+ *  - 第一个阶段读取连续已发布的序号，后续阶段只处理前一阶段已完成的序号，所有元素按发布顺序依次经过每个阶段；
+ *  - 批大小自适应：阶段每次取走当前已就绪的全部元素（不超过 maxBatch），不为凑批等待，
+ *    低负载时一批一条、延迟不变，高负载时批次自然变大、摊薄每批的固定开销（如一次 fsync）；
+ *  - 背压：最后一个阶段未处理完的元素占满环时 offer 等待空位，超过超时时间返回 false，由调用方拒绝请求；
+ *  - 空闲的阶段线程 park，生产者/前一阶段推进后只在对方确实在等待时才 unpark。
+ *
+ * 阶段实现自行处理单个元素的失败；onBatch 抛出的异常只记录日志，该批仍视为已处理。
+ */
+public class BatchingPipeline<E> {
+    private static final Logger log = LoggerFactory.getLogger(BatchingPipeline.class);
+
+    /** 阶段线程空闲时的最长 park 时间，防止唤醒信号丢失时永久等待 */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    /** 环满时生产者的轮询间隔 */
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /**
+     * 处理阶段
+     */
+    public interface Stage<E> {
+        /**
+         * 按发布顺序处理一批元素，batch 只在调用期间有效
+         */
+        void onBatch(List<E> batch);
+    }
+
+    private final String name;
+    private final int mask;
+    private final int maxBatch;
+    private final Object[] slots;
+    private final AtomicLongArray published;
+    /** 下一个待领取的序号 */
+    private final AtomicLong claim = new AtomicLong();
+    private final StageRunner[] runners;
+
+    private volatile boolean accepting = true;
+    private volatile boolean running;
+
+    /**
+     * @param ringSize 环容量，向上取整为 2 的幂
+     * @param maxBatch 单批最多处理的元素数
+     */
+    @SafeVarargs
+    @SuppressWarnings("unchecked")
+    public BatchingPipeline(String name, int ringSize, int maxBatch, Stage<E>... stages) {
+        if (stages.length == 0) {
+            throw new IllegalArgumentException("至少需要一个处理阶段");
+        }
+        int size = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+        this.name = name;
+        this.mask = size - 1;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.slots = new Object[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        this.runners = (StageRunner[]) new BatchingPipeline.StageRunner[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            runners[i] = new StageRunner(i, stages[i]);
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (StageRunner runner : runners) {
+            runner.thread = new Thread(runner, name + "-stage-" + runner.index);
+            runner.thread.setDaemon(true);
+            runner.thread.start();
+        }
+    }
+
+    /**
+     * 发布一个元素，环满时最多等待 timeoutMs 毫秒（0 表示不等待）
+     * @return 是否已进入管道；已停止或等待超时返回 false
+     */
+    public boolean offer(E element, long timeoutMs) {
+        long deadline = 0;
+        long seq;
+        while (true) {
+            if (!accepting) {
+                return false;
+            }
+            seq = claim.get();
+            if (seq - runners[runners.length - 1].sequence > capacity()) {
+                // 环已满：最后一个阶段还没处理完一整圈之前的元素
+                long now = System.nanoTime();
+                if (deadline == 0) {
+                    if (timeoutMs <= 0) {
+                        return false;
+                    }
+                    deadline = now + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+                } else if (now - deadline >= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+                continue;
+            }
+            if (claim.compareAndSet(seq, seq + 1)) {
+                break;
+            }
+        }
+        int index = (int) seq & mask;
+        slots[index] = element;
+        // published 的 volatile 写保证元素对阶段线程可见
+        published.set(index, seq);
+        runners[0].wake();
+        return true;
+    }
+
+    /**
+     * 已发布但最后一个阶段尚未处理完的元素数
+     */
+    public long backlog() {
+        return claim.get() - 1 - runners[runners.length - 1].sequence;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * 停止接收新元素，等待已发布的元素处理完（最多 timeoutMs 毫秒）后停止阶段线程
+     * @return 是否全部处理完
+     */
+    public boolean stop(long timeoutMs) {
+        accepting = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        // 已领取序号的生产者可能还没发布，等到最后一个阶段追上 claim
+        while (runners[runners.length - 1].sequence < claim.get() - 1 && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        boolean drained = backlog() == 0;
+        running = false;
+        for (StageRunner runner : runners) {
+            if (runner.thread != null) {
+                LockSupport.unpark(runner.thread);
+                try {
+                    runner.thread.join(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (!drained) {
+            log.warn("管道 {} 停止时仍有 {} 个元素未处理完", name, backlog());
+        }
+        return drained;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elementAt(long seq) {
+        return (E) slots[(int) seq & mask];
+    }
+
+    private final class StageRunner implements Runnable {
+        final int index;
+        final Stage<E> stage;
+        final List<E> batch;
+        /** 本阶段已处理完的最大序号 */
+        volatile long sequence = -1;
+        volatile boolean waiting;
+        Thread thread;
+
+        StageRunner(int index, Stage<E> stage) {
+            this.index = index;
+            this.stage = stage;
+            this.batch = new ArrayList<>(Math.min(maxBatch, 1024));
+        }
+
+        void wake() {
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        /**
+         * 本阶段可以处理到的最大序号
+         */
+        long available(long next) {
+            if (index > 0) {
+                return Math.min(runners[index - 1].sequence, next + maxBatch - 1);
+            }
+            long hi = next - 1;
+            long limit = next + maxBatch;
+            while (hi + 1 < limit && published.get((int) (hi + 1) & mask) == hi + 1) {
+                hi++;
+            }
+            return hi;
+        }
+
+        @Override
+        public void run() {
+            boolean last = index == runners.length - 1;
+            while (true) {
+                long next = sequence + 1;
+                long hi = available(next);
+                if (hi < next) {
+                    if (!running) {
+                        return;
+                    }
+                    waiting = true;
+                    // 设置等待标记后再检查一次，避免错过 park 之前发布的唤醒
+                    if (available(next) < next && running) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    waiting = false;
+                    continue;
+                }
+                batch.clear();
+                for (long seq = next; seq <= hi; seq++) {
+                    batch.add(elementAt(seq));
+                }
+                try {
+                    stage.onBatch(batch);
+                } catch (Throwable e) {
+                    log.error("管道 {} 阶段 {} 处理异常，批大小 {}", name, index, batch.size(), e);
+                }
+                if (last) {
+                    for (long seq = next; seq <= hi; seq++) {
+                        slots[(int) seq & mask] = null;
+                    }
+                }
+                batch.clear();
+                sequence = hi;
+                if (!last) {
+                    runners[index + 1].wake();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.tio.chat.util;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DedupWindow 发送方幂等窗口：记录最近收到的 (发送方, msgId)，用于识别客户端 ACK 超时后的重发。
+ *
+ * 不按用户分配集合，所有发送方共用固定大小的开放寻址表，内存只由 maxEntries 决定（约 maxEntries × 64 字节），与在线用户数无关：
+ *  - 键为 (发送方, msgId) 的 64 位指纹，值为原消息的会话 seq（或 {@link #PENDING}），不保存字符串；
+ *  - 按指纹分为 16 段，每段两代（当前 / 上一代），查询两代都查，只写当前代；
+ *  - 当前代存满或已存在 windowMs 时轮换：上一代整体丢弃，当前代变为上一代。因此一条记录至少保留 windowMs，
+ *    除非写入速度超过 maxEntries / windowMs，此时窗口缩短为最近的 maxEntries 条左右。
+ *
+ * 不同的 (发送方, msgId) 指纹相同时会被误判为重发，概率约为 表中记录数 / 2^64，可以忽略。
+ */
+public class DedupWindow {
+
+    /** {@link #acquire} 返回：窗口中没有，已登记为处理中 */
+    public static final long ABSENT = -1;
+    /** {@link #acquire} 返回：原消息仍在处理中，尚未回复 ACK */
+    public static final long PENDING = -2;
+    /** 原消息被拒绝，同一 msgId 可以重新处理 */
+    private static final long RELEASED = -3;
+
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long windowNanos;
+
+    /**
+     * 一段的两代表，只在该段的监视器内访问；指纹 0 表示空槽
+     */
+    private static final class Stripe {
+        final int capacity;
+        long[] keys;
+        long[] values;
+        long[] oldKeys;
+        long[] oldValues;
+        int size;
+        int oldSize;
+        long rotatedNanos;
+
+        Stripe(int capacity, int tableSize, long now) {
+            this.capacity = capacity;
+            this.keys = new long[tableSize];
+            this.values = new long[tableSize];
+            this.oldKeys = new long[tableSize];
+            this.oldValues = new long[tableSize];
+            this.rotatedNanos = now;
+        }
+
+        void rotate(long now) {
+            long[] k = oldKeys;
+            long[] v = oldValues;
+            oldKeys = keys;
+            oldValues = values;
+            oldSize = size;
+            Arrays.fill(k, 0L);
+            keys = k;
+            values = v;
+            size = 0;
+            rotatedNanos = now;
+        }
+    }
+
+    /**
+     * @param maxEntries 每代最多记录数（所有段合计）
+     * @param windowMs   记录至少保留的毫秒数（未达到容量上限时）
+     */
+    public DedupWindow(int maxEntries, long windowMs) {
+        if (maxEntries <= 0 || windowMs <= 0) {
+            throw new IllegalArgumentException("maxEntries 与 windowMs 必须大于 0");
+        }
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        int capacity = Math.max(1, (maxEntries + STRIPES - 1) / STRIPES);
+        // 装载率不超过 1/2，线性探测的查找长度保持很短
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        long now = System.nanoTime();
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(capacity, tableSize, now);
+        }
+    }
+
+    /**
+     * 收到消息时调用：窗口中没有时登记为处理中
+     * @return {@link #ABSENT} 表示首次收到（须在处理结束后调用 complete 或 release），
+     *         {@link #PENDING} 表示原消息仍在处理中，否则为原消息 ACK 中的 seq（没有会话 seq 时为 0）
+     */
+    public long acquire(String senderId, String msgId) {
+        return acquire(fingerprint(senderId, msgId), System.nanoTime());
+    }
+
+    long acquire(long fp, long now) {
+        Stripe s = stripeOf(fp);
+        synchronized (s) {
+            if (now - s.rotatedNanos >= windowNanos) {
+                s.rotate(now);
+            }
+            int slot = find(s.keys, fp);
+            if (slot >= 0) {
+                long v = s.values[slot];
+                if (v == RELEASED) {
+                    s.values[slot] = PENDING;
+                    return ABSENT;
+                }
+                return v;
+            }
+            slot = find(s.oldKeys, fp);
+            if (slot >= 0 && s.oldValues[slot] != RELEASED) {
+                return s.oldValues[slot];
+            }
+            if (s.size >= s.capacity) {
+                s.rotate(now);
+            }
+            insert(s, fp, PENDING);
+            return ABSENT;
+        }
+    }
+
+    /**
+     * 原消息已落盘并回复 ACK：之后的重发回复同一 seq
+     * @param seq 原消息的会话 seq，没有时传 0
+     */
+    public void complete(String senderId, String msgId, long seq) {
+        update(fingerprint(senderId, msgId), Math.max(0, seq));
+    }
+
+    /**
+     * 原消息被拒绝（BUSY / STORE_ERROR）：客户端用同一 msgId 重发时重新处理
+     */
+    public void release(String senderId, String msgId) {
+        update(fingerprint(senderId, msgId), RELEASED);
+    }
+
+    private void update(long fp, long value) {
+        Stripe s = stripeOf(fp);
+        synchronized (s) {
+            int slot = find(s.keys, fp);
+            if (slot >= 0) {
+                s.values[slot] = value;
+                return;
+            }
+            slot = find(s.oldKeys, fp);
+            if (slot >= 0) {
+                s.oldValues[slot] = value;
+            }
+            // 已轮换出窗口：不再记录
+        }
+    }
+
+    /**
+     * 两代中的记录总数
+     */
+    public int size() {
+        int n = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                n += s.size + s.oldSize;
+            }
+        }
+        return n;
+    }
+
+    private Stripe stripeOf(long fp) {
+        return stripes[(int) (fp >>> 60)];
+    }
+
+    private static int find(long[] keys, long fp) {
+        int mask = keys.length - 1;
+        for (int i = (int) fp & mask; ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == fp) {
+                return i;
+            }
+            if (k == 0) {
+                return -1;
+            }
+        }
+    }
+
+    private static void insert(Stripe s, long fp, long value) {
+        int mask = s.keys.length - 1;
+        int i = (int) fp & mask;
+        while (s.keys[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        s.keys[i] = fp;
+        s.values[i] = value;
+        s.size++;
+    }
+
+    /**
+     * (发送方, msgId) 的 64 位指纹：FNV-1a 后做一次 murmur3 fmix64，0 保留给空槽
+     */
+    static long fingerprint(String senderId, String msgId) {
+        long h = 0xcbf29ce484222325L;
+        // 先混入发送方长度，("ab", "c") 与 ("a", "bc") 不会得到同一输入序列
+        h = (h ^ senderId.length()) * 0x100000001b3L;
+        for (int i = 0; i < senderId.length(); i++) {
+            h = (h ^ senderId.charAt(i)) * 0x100000001b3L;
+        }
+        for (int i = 0; i < msgId.length(); i++) {
+            h = (h ^ msgId.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+}
@@ -0,0 +1,65 @@
+package org.tio.chat.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * DeflaterPool
+ *
+ * 原始 deflate 格式（nowrap，无 zlib 头尾）的 Deflater / Inflater 对象池。
+ * 每个 Deflater 持有约 256KB 的本地内存，逐条消息新建再 end() 开销大；池中对象用完后 reset() 放回，
+ * 池满时直接 end() 释放。借出的对象只由借用方使用，用完必须归还。
+ */
+public final class DeflaterPool {
+
+    private final int level;
+    private final BlockingQueue<Deflater> deflaters;
+    private final BlockingQueue<Inflater> inflaters;
+
+    /**
+     * @param level    压缩级别（0-9，-1 为默认）
+     * @param capacity 每种对象最多缓存的个数
+     */
+    public DeflaterPool(int level, int capacity) {
+        this.level = level;
+        this.deflaters = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.inflaters = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    public int level() {
+        return level;
+    }
+
+    public Deflater borrowDeflater() {
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(level, true);
+    }
+
+    public void release(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    public Inflater borrowInflater() {
+        Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    public void release(Inflater inflater) {
+        inflater.reset();
+        if (!inflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 池中空闲的 Deflater 数
+     */
+    public int idleDeflaters() {
+        return deflaters.size();
+    }
+}
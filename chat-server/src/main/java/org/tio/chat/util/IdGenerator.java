@@ -0,0 +1,12 @@
+package org.tio.chat.util;
+
+/**
+ * 消息 id 生成器，实现需线程安全（所有业务线程共用一个实例）
+ */
+public interface IdGenerator {
+
+    /**
+     * 生成下一个全局唯一的 id 字符串
+     */
+    String nextId();
+}
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 import java.text.SimpleDateFormat;
 
@@ -24,6 +25,8 @@ import java.text.SimpleDateFormat;
  */
 public class JsonUtil {
     private static final ObjectMapper objectMapper = createDefaultMapper();
+    // 预先构建的 ObjectWriter，避免每次调用都按 mapper 配置重新构造序列化上下文
+    private static final ObjectWriter objectWriter = objectMapper.writer();
 
     private static ObjectMapper createDefaultMapper() {
         ObjectMapper mapper = new ObjectMapper();
@@ -36,18 +39,48 @@ public class JsonUtil {
         return mapper;
     }
 
+    /**
+     * 全局共享的 ObjectMapper，供需要预构建 ObjectReader / ObjectWriter 的编解码器使用，调用方不得修改其配置
+     */
+    public static ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
     /**
      * 对象转 JSON 字符串。
      * 注意：序列化失败时抛出 RuntimeException（可根据情况改为自定义异常）。
      */
     public static String toJson(Object obj) {
         try {
-            return objectMapper.writeValueAsString(obj);
+            return objectWriter.writeValueAsString(obj);
         } catch (JsonProcessingException e) {
             throw new RuntimeException("Json序列化失败", e);
         }
     }
 
+    /**
+     * 对象转 UTF-8 编码的 JSON 字节，省去中间 String（用于落盘等场景）
+     */
+    public static byte[] toJsonBytes(Object obj) {
+        try {
+            return objectWriter.writeValueAsBytes(obj);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Json序列化失败", e);
+        }
+    }
+
+    /**
+     * UTF-8 编码的 JSON 字节转对象
+     */
+    public static <T> T fromJson(byte[] json, Class<T> clazz) {
+        if (json == null) return null;
+        try {
+            return objectMapper.readValue(json, clazz);
+        } catch (Exception e) {
+            throw new RuntimeException("Json反序列化失败, 长度: " + json.length, e);
+        }
+    }
+
     /**
      * JSON 字符串转对象（支持普通类型）
      */
@@ -56,7 +89,7 @@ public class JsonUtil {
         try {
             return objectMapper.readValue(json, clazz);
         } catch (Exception e) {
-            throw new RuntimeException("Json反序列化失败: " + json, e);
+            throw new RuntimeException("Json反序列化失败, 长度: " + json.length(), e);
         }
     }
 
@@ -70,7 +103,7 @@ public class JsonUtil {
         try {
             return objectMapper.readValue(json, typeRef);
         } catch (Exception e) {
-            throw new RuntimeException("Json反序列化失败: " + json, e);
+            throw new RuntimeException("Json反序列化失败, 长度: " + json.length(), e);
         }
     }
 }
\ No newline at end of file
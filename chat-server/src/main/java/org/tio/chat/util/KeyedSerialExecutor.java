@@ -0,0 +1,162 @@
+package org.tio.chat.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * KeyedSerialExecutor
+ *
+ * 每个 key 一个串行队列，队列从空变为非空时向底层执行器提交一次排空任务，排空后移除该队列：
+ *  - 同一 key 同时最多一个任务在执行，按提交顺序执行；空闲的 key 不占线程，也不占内存；
+ *  - 底层为每任务一个虚拟线程的执行器时（见 {@link VirtualThreads}），任务中的阻塞（存储、鉴权、推送）
+ *    只挂起该虚拟线程，不占平台线程，活跃用户再多也不需要按最坏情况配置线程数；
+ *  - 所有 key 已提交未执行完的任务总数受 maxPending 限制，达到上限时提交方阻塞（背压），与 {@link PartitionedExecutor} 一致。
+ *
+ * 队列的入队、出队与移除都在 ConcurrentHashMap 的 compute 中完成（同一 key 互斥），
+ * 因此队列在表中当且仅当其中有任务或正在排空，不会出现同一 key 的两个队列并行执行。
+ */
+public class KeyedSerialExecutor implements OrderedExecutor {
+    private static final Logger log = LoggerFactory.getLogger(KeyedSerialExecutor.class);
+
+    private final String name;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final Semaphore permits;
+    private final ConcurrentHashMap<Object, Lane> lanes = new ConcurrentHashMap<>();
+    private volatile boolean stopped;
+
+    /**
+     * 一个 key 的串行队列，只在该 key 的 compute 中访问
+     */
+    private final class Lane implements Runnable {
+        final Object key;
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>(4);
+
+        Lane(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            Runnable task;
+            while ((task = next(this)) != null) {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    log.error("{} 执行任务失败, key: {}", name, key, e);
+                } finally {
+                    permits.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param executor   承载排空任务的执行器，归本对象所有，停止时一并关闭
+     * @param maxPending 已提交未执行完的任务上限
+     */
+    public KeyedSerialExecutor(String name, ExecutorService executor, int maxPending) {
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("maxPending 必须大于 0");
+        }
+        this.name = name;
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.permits = new Semaphore(maxPending);
+    }
+
+    @Override
+    public void execute(Object key, Runnable task) {
+        if (stopped) {
+            throw new RejectedExecutionException(name + " 已停止");
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(name + " 提交任务时被中断", e);
+        }
+        Lane[] created = new Lane[1];
+        lanes.compute(key, (k, lane) -> {
+            if (lane == null) {
+                lane = new Lane(k);
+                created[0] = lane;
+            }
+            lane.tasks.add(task);
+            return lane;
+        });
+        if (created[0] != null) {
+            try {
+                executor.execute(created[0]);
+            } catch (RejectedExecutionException e) {
+                // 底层执行器已关闭：撤回刚建立的队列，其间其他线程加入的任务一并丢弃
+                discard(created[0]);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 取出队首任务；队列为空时将其移除，之后同一 key 的提交会建立新队列
+     */
+    private Runnable next(Lane lane) {
+        Runnable[] task = new Runnable[1];
+        lanes.computeIfPresent(lane.key, (k, current) -> {
+            if (current != lane) {
+                return current;
+            }
+            task[0] = lane.tasks.poll();
+            return task[0] == null ? null : lane;
+        });
+        return task[0];
+    }
+
+    private void discard(Lane lane) {
+        int[] dropped = new int[1];
+        lanes.computeIfPresent(lane.key, (k, current) -> {
+            if (current != lane) {
+                return current;
+            }
+            dropped[0] = lane.tasks.size();
+            return null;
+        });
+        permits.release(dropped[0]);
+    }
+
+    /**
+     * 当前有任务排队或执行中的 key 数
+     */
+    public int activeKeys() {
+        return lanes.size();
+    }
+
+    @Override
+    public int backlog() {
+        return maxPending - permits.availablePermits();
+    }
+
+    @Override
+    public boolean shutdown(long timeoutMs) {
+        stopped = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try {
+            // 拿回全部许可即已提交的任务都执行完了
+            boolean drained = permits.tryAcquire(maxPending, timeoutMs, TimeUnit.MILLISECONDS);
+            if (drained) {
+                permits.release(maxPending);
+            }
+            executor.shutdown();
+            return drained && executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
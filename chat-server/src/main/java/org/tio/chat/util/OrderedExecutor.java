@@ -0,0 +1,30 @@
+package org.tio.chat.util;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * OrderedExecutor
+ *
+ * 按 key 保序的执行器：同一 key 的任务按提交顺序逐个执行，不同 key 的任务可以并行。
+ * 实现见 {@link PartitionedExecutor}（固定线程数，按 key 哈希分到通道）与
+ * {@link KeyedSerialExecutor}（每个 key 一个串行队列，可由虚拟线程承载）。
+ */
+public interface OrderedExecutor {
+
+    /**
+     * 提交任务，排队任务达到上限时阻塞（背压）
+     * @throws RejectedExecutionException 已停止或等待时被中断
+     */
+    void execute(Object key, Runnable task);
+
+    /**
+     * 已提交尚未执行完的任务数
+     */
+    int backlog();
+
+    /**
+     * 停止接收新任务，执行完已排队的任务后停止
+     * @return 是否在超时前全部停止
+     */
+    boolean shutdown(long timeoutMs);
+}
@@ -0,0 +1,151 @@
+package org.tio.chat.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PartitionedExecutor
+ *
+ * 固定数量的通道（lane），每个通道一个线程、一个有界队列：
+ *  - 同一通道的任务按提交顺序执行，同一个 key 总是落在同一通道，因此同一 key 的任务有序；
+ *  - 队列满时提交方阻塞等待（背压），既不丢任务，也不在调用线程上执行（那样会打乱顺序）。
+ */
+public class PartitionedExecutor implements OrderedExecutor {
+    private static final Logger log = LoggerFactory.getLogger(PartitionedExecutor.class);
+
+    private static final Runnable STOP = () -> {
+    };
+
+    private final String name;
+    private final BlockingQueue<Runnable>[] queues;
+    private final Thread[] threads;
+    private volatile boolean stopped;
+
+    /**
+     * @param lanes         通道数（线程数）
+     * @param queueCapacity 每个通道排队的任务上限
+     */
+    @SuppressWarnings("unchecked")
+    public PartitionedExecutor(String name, int lanes, int queueCapacity) {
+        if (lanes <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("lanes / queueCapacity 必须大于 0");
+        }
+        this.name = name;
+        this.queues = (BlockingQueue<Runnable>[]) new BlockingQueue[lanes];
+        this.threads = new Thread[lanes];
+        for (int i = 0; i < lanes; i++) {
+            BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(queueCapacity);
+            queues[i] = queue;
+            Thread t = new Thread(() -> run(queue), name + "-" + i);
+            t.setDaemon(true);
+            threads[i] = t;
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+    }
+
+    public int lanes() {
+        return queues.length;
+    }
+
+    /**
+     * key 对应的通道
+     */
+    public int laneFor(Object key) {
+        int h = key.hashCode();
+        return ((h ^ (h >>> 16)) & 0x7FFFFFFF) % queues.length;
+    }
+
+    /**
+     * 提交到 key 对应的通道，队列满时阻塞
+     * @throws RejectedExecutionException 已停止或等待时被中断
+     */
+    @Override
+    public void execute(Object key, Runnable task) {
+        execute(laneFor(key), task);
+    }
+
+    /**
+     * 提交到指定通道，队列满时阻塞
+     * @throws RejectedExecutionException 已停止或等待时被中断
+     */
+    public void execute(int lane, Runnable task) {
+        if (stopped) {
+            throw new RejectedExecutionException(name + " 已停止");
+        }
+        try {
+            queues[lane].put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(name + " 提交任务时被中断", e);
+        }
+    }
+
+    /**
+     * 所有通道排队中的任务数
+     */
+    @Override
+    public int backlog() {
+        int n = 0;
+        for (BlockingQueue<Runnable> queue : queues) {
+            n += queue.size();
+        }
+        return n;
+    }
+
+    /**
+     * 停止接收新任务，执行完已排队的任务后停止
+     * @return 是否在超时前全部停止
+     */
+    @Override
+    public boolean shutdown(long timeoutMs) {
+        stopped = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try {
+            for (BlockingQueue<Runnable> queue : queues) {
+                if (!queue.offer(STOP, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            }
+            for (Thread t : threads) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    return false;
+                }
+                t.join(left);
+                if (t.isAlive()) {
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    private void run(BlockingQueue<Runnable> queue) {
+        while (true) {
+            Runnable task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == STOP) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable e) {
+                log.error("{} 执行任务失败", name, e);
+            }
+        }
+    }
+}
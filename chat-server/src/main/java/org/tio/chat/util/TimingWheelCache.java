@@ -0,0 +1,283 @@
+package org.tio.chat.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * TimingWheelCache
+ *
+ * 容量与存活时间双重受限的并发 KV 缓存，过期由哈希时间轮驱动。
+ *
+ * 设计要点：
+ *  - get / put / merge / remove 均为 O(1)：查找走 ConcurrentHashMap，过期链表节点挂在时间轮槽位上，删除时 O(1) 摘除；
+ *  - 后台线程每个 tick 只处理当前槽位，不做全表扫描；
+ *  - 超过 maxSize 时从即将到期的槽位开始淘汰（TTL 相同时即最早写入的条目）；
+ *  - tick 取 ttl / wheelSize 向上取整，ttl 不超过一整圈，新条目都在本圈内到期，过期精度为一个 tick。
+ */
+public class TimingWheelCache<K, V> implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(TimingWheelCache.class);
+
+    private static final int DEFAULT_WHEEL_SIZE = 1024;
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        /** 还需转过几整圈才到期 */
+        int rounds;
+        Node<K, V> prev;
+        Node<K, V> next;
+        /** 所在槽位，已摘除时为 null（受槽位锁保护） */
+        Bucket<K, V> bucket;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final class Bucket<K, V> {
+        Node<K, V> head;
+        Node<K, V> tail;
+
+        void link(Node<K, V> node) {
+            node.bucket = this;
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+        }
+
+        void unlink(Node<K, V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            node.bucket = null;
+        }
+    }
+
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+    private final Bucket<K, V>[] wheel;
+    private final int mask;
+    private final int maxSize;
+    private final long ttlTicks;
+    private final ScheduledExecutorService ticker;
+    /** 当前指针，只由 ticker 线程推进 */
+    private volatile long tick;
+
+    /**
+     * @param name    后台线程名
+     * @param maxSize 最大条目数
+     * @param ttlMs   条目存活时间，毫秒
+     */
+    public TimingWheelCache(String name, int maxSize, long ttlMs) {
+        this(name, maxSize, ttlMs, DEFAULT_WHEEL_SIZE);
+    }
+
+    @SuppressWarnings("unchecked")
+    public TimingWheelCache(String name, int maxSize, long ttlMs, int wheelSize) {
+        if (maxSize <= 0 || ttlMs <= 0) {
+            throw new IllegalArgumentException("maxSize 与 ttlMs 必须为正数");
+        }
+        int size = wheelSize <= 16 ? 16 : Integer.highestOneBit((wheelSize - 1) << 1);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket<>();
+        }
+        this.mask = size - 1;
+        this.maxSize = maxSize;
+        // 向上取整：ttl 不整除时向下取整会让 ttlTicks 超过一圈，新条目都带 rounds=1，容量淘汰找不到可淘汰的节点
+        long tickMs = Math.max(10, (ttlMs + size - 1) / size);
+        this.ttlTicks = Math.max(1, (ttlMs + tickMs - 1) / tickMs);
+        this.map = new ConcurrentHashMap<>(Math.min(maxSize, 1 << 16));
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name + "-wheel");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::advance, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    public V get(K key) {
+        Node<K, V> node = map.get(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * 写入（覆盖）条目并重新计时，返回旧值
+     */
+    public V put(K key, V value) {
+        Node<K, V> node = new Node<>(key, value);
+        Node<K, V> old = map.put(key, node);
+        if (old != null) {
+            unlink(old);
+        }
+        schedule(node);
+        if (map.size() > maxSize) {
+            evictSoonest();
+        }
+        return old == null ? null : old.value;
+    }
+
+    /**
+     * 仅在不存在时写入，返回已存在的值（写入成功时返回 null）
+     */
+    public V putIfAbsent(K key, V value) {
+        Node<K, V> node = new Node<>(key, value);
+        Node<K, V> existing = map.putIfAbsent(key, node);
+        if (existing != null) {
+            return existing.value;
+        }
+        schedule(node);
+        if (map.size() > maxSize) {
+            evictSoonest();
+        }
+        return null;
+    }
+
+    /**
+     * 原子地合并条目：不存在时写入 value，存在时写入 remapping(旧值, value)；
+     * remapping 返回旧值本身时不改写、不重新计时，否则与 put 一样重新计时
+     * @param remapping 不得返回 null
+     * @return 合并前的值，不存在时为 null
+     */
+    @SuppressWarnings("unchecked")
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remapping) {
+        Node<K, V>[] previous = new Node[1];
+        Node<K, V> current = map.compute(key, (k, old) -> {
+            previous[0] = old;
+            if (old == null) {
+                return new Node<>(k, value);
+            }
+            V merged = remapping.apply(old.value, value);
+            return merged == old.value ? old : new Node<>(k, merged);
+        });
+        Node<K, V> old = previous[0];
+        if (current != old) {
+            if (old != null) {
+                unlink(old);
+            }
+            schedule(current);
+            if (map.size() > maxSize) {
+                evictSoonest();
+            }
+        }
+        return old == null ? null : old.value;
+    }
+
+    public V remove(K key) {
+        Node<K, V> node = map.remove(key);
+        if (node == null) {
+            return null;
+        }
+        unlink(node);
+        return node.value;
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+
+    private void schedule(Node<K, V> node) {
+        long now = tick;
+        long deadline = now + ttlTicks;
+        node.rounds = (int) ((deadline - now - 1) / wheel.length);
+        Bucket<K, V> bucket = wheel[(int) (deadline & mask)];
+        synchronized (bucket) {
+            // 并发 remove 可能已先把 map 中的节点删掉，此时不再挂到时间轮上
+            if (map.get(node.key) == node) {
+                bucket.link(node);
+            }
+        }
+    }
+
+    private void unlink(Node<K, V> node) {
+        Bucket<K, V> bucket = node.bucket;
+        if (bucket == null) {
+            return;
+        }
+        synchronized (bucket) {
+            if (node.bucket == bucket) {
+                bucket.unlink(node);
+            }
+        }
+    }
+
+    /**
+     * ticker 线程：推进一格并清理该槽位中到期的条目
+     */
+    private void advance() {
+        try {
+            long next = tick + 1;
+            Bucket<K, V> bucket = wheel[(int) (next & mask)];
+            synchronized (bucket) {
+                Node<K, V> node = bucket.head;
+                while (node != null) {
+                    Node<K, V> following = node.next;
+                    if (node.rounds > 0) {
+                        node.rounds--;
+                    } else {
+                        bucket.unlink(node);
+                        map.remove(node.key, node);
+                    }
+                    node = following;
+                }
+            }
+            tick = next;
+        } catch (Throwable e) {
+            log.error("时间轮推进失败", e);
+        }
+    }
+
+    /**
+     * 超出容量时，从下一个即将到期的槽位开始淘汰，直到回到容量以内。
+     * 先淘汰本圈内到期的节点；仍超出时（只可能是 tick 下限 10ms 之外的情况）再按槽位顺序淘汰其余节点
+     */
+    private void evictSoonest() {
+        long from = tick + 1;
+        for (int pass = 0; pass < 2 && map.size() > maxSize; pass++) {
+            for (int i = 0; i < wheel.length && map.size() > maxSize; i++) {
+                Bucket<K, V> bucket = wheel[(int) ((from + i) & mask)];
+                synchronized (bucket) {
+                    Node<K, V> node = bucket.head;
+                    while (node != null && map.size() > maxSize) {
+                        Node<K, V> following = node.next;
+                        if (pass == 1 || node.rounds == 0) {
+                            bucket.unlink(node);
+                            map.remove(node.key, node);
+                        }
+                        node = following;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package org.tio.chat.util;
+
+import java.util.UUID;
+
+/**
+ * 随机 UUID id（旧行为）：36 个字符、无序，每次生成都要经过共享的 SecureRandom。
+ * 仅为兼容依赖 UUID 格式的旧客户端保留，默认使用 {@link SnowflakeIdGenerator}。
+ */
+public class UuidIdGenerator implements IdGenerator {
+
+    @Override
+    public String nextId() {
+        return UUID.randomUUID().toString();
+    }
+}
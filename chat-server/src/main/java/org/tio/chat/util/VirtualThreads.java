@@ -0,0 +1,31 @@
+package org.tio.chat.util;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * VirtualThreads
+ *
+ * 虚拟线程的入口。本类是 JDK 8 版本，不支持虚拟线程；JDK 21 版本在 src/main/java21 下，
+ * 由 jdk21 profile 编译进多版本 jar 的 META-INF/versions/21，在 JDK 21+ 上运行该 jar 时自动替换本类。
+ * 直接从 target/classes 运行（IDE）时总是使用本类。
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * 当前运行环境是否可以使用虚拟线程
+     */
+    public static boolean supported() {
+        return false;
+    }
+
+    /**
+     * 每个任务一个虚拟线程的执行器
+     * @throws UnsupportedOperationException 不支持虚拟线程时
+     */
+    public static ExecutorService newExecutor(String name) {
+        throw new UnsupportedOperationException("虚拟线程需要在 JDK 21+ 上运行以 jdk21 profile 构建的 jar");
+    }
+}
@@ -0,0 +1,73 @@
+package org.tio.chat.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * WsFrameEncoder
+ *
+ * 服务端 → 客户端的 WebSocket 帧编码（RFC 6455 5.2，服务端帧不加掩码）。
+ *
+ * 与 t-io 自带编码器的输出一致，区别在于可以脱离 ChannelContext 预先编码一次，
+ * 再通过 Packet.setPreEncodedByteBuffer 交给多个连接共享，用于群发。
+ */
+public class WsFrameEncoder {
+
+    /** FIN + opcode=1（文本帧） */
+    public static final int OPCODE_TEXT = 0x1;
+    /** FIN + opcode=2（二进制帧） */
+    public static final int OPCODE_BINARY = 0x2;
+    /** RSV1：负载经 permessage-deflate 压缩，与 opcode 按位或后传入 */
+    public static final int RSV1 = 0x40;
+
+    private WsFrameEncoder() {
+    }
+
+    /**
+     * 编码一个完整的文本帧
+     */
+    public static ByteBuffer encodeText(byte[] payload) {
+        return encode(OPCODE_TEXT, payload);
+    }
+
+    /**
+     * 编码一个完整的单帧消息，返回的 ByteBuffer position=0、limit=帧长度
+     */
+    public static ByteBuffer encode(int opcode, byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(headerLength(payload.length) + payload.length);
+        writeHeader(frame, opcode, payload.length);
+        frame.put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * 帧头长度：2 字节基本头 + 扩展长度（126 以下 0 字节，65535 以下 2 字节，否则 8 字节）
+     */
+    public static int headerLength(int payloadLength) {
+        return payloadLength < 126 ? 2 : (payloadLength <= 0xFFFF ? 4 : 10);
+    }
+
+    /**
+     * 已编码帧的负载起始位置（绝对位置），frame 的 position 为帧头
+     */
+    public static int payloadOffset(ByteBuffer frame) {
+        int length = frame.get(frame.position() + 1) & 0x7F;
+        return frame.position() + (length < 126 ? 2 : (length == 126 ? 4 : 10));
+    }
+
+    /**
+     * 写入帧头，调用方随后直接把 payloadLength 字节的负载写进同一个 buffer，省去一次拷贝
+     */
+    public static void writeHeader(ByteBuffer frame, int opcode, int payloadLength) {
+        frame.put((byte) (0x80 | (opcode & (RSV1 | 0x0F))));
+        if (payloadLength < 126) {
+            frame.put((byte) payloadLength);
+        } else if (payloadLength <= 0xFFFF) {
+            frame.put((byte) 126);
+            frame.putShort((short) payloadLength);
+        } else {
+            frame.put((byte) 127);
+            frame.putLong(payloadLength);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.tio.chat.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * VirtualThreads
+ *
+ * JDK 21 版本，编译进多版本 jar 的 META-INF/versions/21（见 chat-server/pom.xml 的 jdk21 profile），
+ * 与 src/main/java 下的 JDK 8 版本公开方法保持一致。
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    public static boolean supported() {
+        return true;
+    }
+
+    /**
+     * 每个任务一个虚拟线程的执行器，线程名为 name-序号
+     */
+    public static ExecutorService newExecutor(String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+    }
+}
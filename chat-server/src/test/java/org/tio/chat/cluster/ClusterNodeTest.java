@@ -0,0 +1,175 @@
+package org.tio.chat.cluster;
+
+import junit.framework.TestCase;
+import org.tio.chat.model.ChatMessage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 同一 JVM 内多个节点的路由复制与转发测试（loopback 与 TCP 传输）
+ */
+public class ClusterNodeTest extends TestCase {
+
+    /**
+     * 记录本地投递，格式 "user:userId:msgId" / "group:groupId:msgId"
+     */
+    private static final class Recorder implements ClusterNode.LocalDelivery {
+        final List<String> delivered = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void toUser(String userId, ChatMessage message) {
+            delivered.add("user:" + userId + ":" + message.getMsgId());
+        }
+
+        @Override
+        public void toGroup(String groupId, ChatMessage message) {
+            delivered.add("group:" + groupId + ":" + message.getMsgId());
+        }
+    }
+
+    public void testLoopbackRoutingAndForwarding() throws Exception {
+        String network = getName();
+        Recorder ra = new Recorder();
+        Recorder rb = new Recorder();
+        Recorder rc = new Recorder();
+        ClusterNode a = new ClusterNode(new LoopbackClusterBus(network, "a"), ra, 1024, 64);
+        ClusterNode b = new ClusterNode(new LoopbackClusterBus(network, "b"), rb, 1024, 64);
+        a.start();
+        b.start();
+        b.userOnline("bob");
+        // c 晚加入：通过快照拿到 bob 的路由
+        ClusterNode c = new ClusterNode(new LoopbackClusterBus(network, "c"), rc, 1024, 64);
+        c.start();
+        c.userOnline("carol");
+        try {
+            await(() -> a.isOnlineElsewhere("bob") && a.isOnlineElsewhere("carol") && c.isOnlineElsewhere("bob"));
+            assertFalse(a.isOnlineElsewhere("nobody"));
+
+            assertEquals(1, a.forwardToUser("bob", message("m1")));
+            assertEquals(0, a.forwardToUser("nobody", message("m2")));
+            a.forwardToGroup("group1", message("m3"));
+            await(() -> rb.delivered.size() == 2 && rc.delivered.size() == 1);
+            assertEquals("user:bob:m1", rb.delivered.get(0));
+            assertEquals("group:group1:m3", rb.delivered.get(1));
+            assertEquals("group:group1:m3", rc.delivered.get(0));
+            assertTrue(ra.delivered.isEmpty());
+
+            // 同一用户同时连在两个节点上
+            c.userOnline("bob");
+            await(() -> a.forwardToUser("bob", message("m4")) == 2);
+
+            b.userOffline("bob");
+            c.close();
+            await(() -> !a.isOnlineElsewhere("bob") && !a.isOnlineElsewhere("carol"));
+        } finally {
+            a.close();
+            b.close();
+            c.close();
+        }
+    }
+
+    public void testTcpTransport() throws Exception {
+        Recorder ra = new Recorder();
+        Recorder rb = new Recorder();
+        TcpClusterBus busA = tcpBus("a", "secret");
+        TcpClusterBus busB = tcpBus("b", "secret");
+        ClusterNode a = new ClusterNode(busA, ra, 1024, 64);
+        ClusterNode b = new ClusterNode(busB, rb, 1024, 64);
+        a.start();
+        b.start();
+        busA.addPeer("b", new InetSocketAddress("127.0.0.1", busB.localPort()));
+        busB.addPeer("a", new InetSocketAddress("127.0.0.1", busA.localPort()));
+        try {
+            b.userOnline("bob");
+            // 转发是至多一次：a 到 b 的出站连接建立前发出的会被丢弃
+            await(() -> a.isOnlineElsewhere("bob") && busA.isConnected("b"));
+            long droppedBefore = a.getDropped();
+            for (int i = 0; i < 1000; i++) {
+                a.forwardToUser("bob", message("m" + i));
+            }
+            await(() -> rb.delivered.size() == 1000);
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("user:bob:m" + i, rb.delivered.get(i));
+            }
+            assertEquals(droppedBefore, a.getDropped());
+            assertTrue(a.getFrames() <= a.getForwarded());
+
+            // b 停止后 a 清除它的路由
+            b.close();
+            await(() -> !a.isOnlineElsewhere("bob"));
+        } finally {
+            a.close();
+            b.close();
+        }
+    }
+
+    public void testTcpRejectsUnauthenticatedPeers() throws Exception {
+        TcpClusterBus busA = tcpBus("a", "secret");
+        TcpClusterBus busB = tcpBus("b", "other-secret");
+        ClusterNode a = new ClusterNode(busA, new Recorder(), 1024, 64);
+        ClusterNode b = new ClusterNode(busB, new Recorder(), 1024, 64);
+        a.start();
+        b.start();
+        busA.addPeer("b", new InetSocketAddress("127.0.0.1", busB.localPort()));
+        busB.addPeer("a", new InetSocketAddress("127.0.0.1", busA.localPort()));
+        try {
+            // 密钥不同：双方的出站连接都握手失败
+            Thread.sleep(500);
+            assertFalse(busA.isConnected("b"));
+            assertFalse(busB.isConnected("a"));
+
+            // 冒充已配置的节点 id 但不知道密钥、未配置的节点 id：都在确认前被关闭
+            assertFalse(handshake(busA.localPort(), "b", new byte[32]));
+            assertFalse(handshake(busA.localPort(), "x", new byte[32]));
+        } finally {
+            a.close();
+            b.close();
+        }
+    }
+
+    private static TcpClusterBus tcpBus(String nodeId, String secret) {
+        return new TcpClusterBus(nodeId, new InetSocketAddress("127.0.0.1", 0), 50, secret, 8, 1024 * 1024);
+    }
+
+    /**
+     * 按握手格式发送节点 id 与给定的 HMAC，返回是否收到确认
+     */
+    private static boolean handshake(int port, String node, byte[] mac) throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            socket.setSoTimeout(5000);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            in.readFully(new byte[16]);
+            out.writeUTF(node);
+            out.write(mac);
+            out.flush();
+            return in.read() == 1;
+        }
+    }
+
+    private static ChatMessage message(String msgId) {
+        ChatMessage msg = new ChatMessage();
+        msg.setCmd(2);
+        msg.setMsgId(msgId);
+        msg.setFrom("alice");
+        msg.setTo("bob");
+        msg.setMessage("hi");
+        return msg;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("等待超时");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.tio.chat.codec;
+
+import junit.framework.TestCase;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.util.JsonUtil;
+import org.tio.chat.util.SnowflakeIdGenerator;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * BinaryChatCodec 的往返、与 JSON 的互转及异常输入测试
+ */
+public class BinaryChatCodecTest extends TestCase {
+
+    public void testRoundTripAllFields() {
+        ChatMessage msg = new ChatMessage();
+        msg.setCmd(-1);
+        msg.setType("private");
+        msg.setFrom("张三");
+        msg.setTo("user-2");
+        msg.setNickname("😀 emoji");
+        msg.setMessage(repeat("你好，world ", 30));
+        msg.setTimestamp(1700000000123L);
+        msg.setMsgId("3f2b8c1e-9a4d-4e2f-8b1a-0c9d8e7f6a5b");
+        msg.setRead(Boolean.FALSE);
+        msg.setMsgIds(Arrays.asList("42", "0", "9223372036854775807", "0123", "ABC-not-uuid",
+                "00000000-0000-0000-0000-000000000000", "3F2B8C1E-9A4D-4E2F-8B1A-0C9D8E7F6A5B"));
+        msg.setSeq(1L << 40);
+        msg.setConv("p:user-2:张三");
+        Map<String, Long> cursors = new LinkedHashMap<>();
+        cursors.put("g:showcase-websocket", 0L);
+        cursors.put("p:a:b", 300L);
+        msg.setCursors(cursors);
+        msg.setLimit(200);
+
+        byte[] bytes = BinaryChatCodec.encode(msg);
+        assertEquals(BinaryChatCodec.sizeOf(msg), bytes.length);
+        assertEquals(JsonUtil.toJson(msg), JsonUtil.toJson(BinaryChatCodec.decode(bytes)));
+    }
+
+    public void testServerIdsTravelAsUint64() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(7);
+        String serverId = generator.nextId();
+        assertEquals(11, serverId.length());
+        ChatMessage msg = new ChatMessage();
+        msg.setCmd(-1);
+        msg.setMsgId(serverId);
+        // 同时是合法十进制数与 base62 的 11 位串按 base62 编码，仍能还原
+        msg.setMsgIds(Arrays.asList(generator.nextId(), "00000000000", "12345678901", "42", "9223372036854775807"));
+
+        byte[] bytes = BinaryChatCodec.encode(msg);
+        assertEquals(BinaryChatCodec.sizeOf(msg), bytes.length);
+        // cmd 之后紧跟字段 8（varint）：服务端 id 不按字符串传输
+        assertEquals(8 << 3, bytes[2]);
+        ChatMessage back = BinaryChatCodec.decode(bytes);
+        assertEquals(serverId, back.getMsgId());
+        assertEquals(msg.getMsgIds(), back.getMsgIds());
+    }
+
+    public void testNestedBatchAndFrame() {
+        ChatMessage a = new ChatMessage();
+        a.setCmd(2);
+        a.setMsgId("1");
+        a.setMessage("a");
+        ChatMessage b = new ChatMessage();
+        b.setCmd(3);
+        b.setMsgId("2");
+        b.setMessage(repeat("b", 300));
+        ChatMessage batch = new ChatMessage();
+        batch.setCmd(102);
+        batch.setMsgId("batch");
+        batch.setMessages(Arrays.asList(a, b));
+
+        ByteBuffer frame = BinaryChatCodec.encodeFrame(batch);
+        assertEquals((byte) 0x82, frame.get(0));
+        assertEquals((byte) 126, frame.get(1));
+        int length = frame.getShort(2) & 0xFFFF;
+        assertEquals(frame.remaining() - 4, length);
+
+        ChatMessage decoded = BinaryChatCodec.decode(frame.array(), 4, length);
+        assertEquals(JsonUtil.toJson(batch), JsonUtil.toJson(decoded));
+    }
+
+    public void testCrossFormat() {
+        String json = "{\"cmd\":100,\"from\":\"u1\",\"msgIds\":[\"5ce0e9a5-5ffa-454a-8a8b-31a4b1c3d2e1\","
+                + "\"7a0b9c8d-1e2f-4a3b-9c8d-7e6f5a4b3c2d\"],\"timestamp\":1700000000000}";
+        ChatMessage fromJson = JsonUtil.fromJson(json, ChatMessage.class);
+        byte[] bytes = BinaryChatCodec.encode(fromJson);
+        ChatMessage back = BinaryChatCodec.decode(bytes);
+        assertEquals(JsonUtil.toJson(fromJson), JsonUtil.toJson(back));
+        assertTrue("binary " + bytes.length + " vs json " + json.length(), bytes.length * 2 < json.length());
+    }
+
+    public void testUnknownFieldsAreSkipped() {
+        ChatMessage msg = new ChatMessage();
+        msg.setCmd(99);
+        msg.setMsgId("123");
+        byte[] known = BinaryChatCodec.encode(msg);
+        // 字段 30 varint、字段 31 长度前缀、字段 32 fixed32
+        byte[] unknown = {(byte) 0xF0, 0x01, 0x05, (byte) 0xFA, 0x01, 0x02, 'h', 'i', (byte) 0x85, 0x02, 1, 2, 3, 4};
+        byte[] bytes = Arrays.copyOf(known, known.length + unknown.length);
+        System.arraycopy(unknown, 0, bytes, known.length, unknown.length);
+
+        ChatMessage decoded = BinaryChatCodec.decode(bytes);
+        assertEquals(Integer.valueOf(99), decoded.getCmd());
+        assertEquals("123", decoded.getMsgId());
+    }
+
+    public void testMalformedInputReturnsNull() {
+        ChatMessage msg = new ChatMessage();
+        msg.setCmd(2);
+        msg.setMessage("hello");
+        msg.setMsgIds(Collections.singletonList("3f2b8c1e-9a4d-4e2f-8b1a-0c9d8e7f6a5b"));
+        byte[] bytes = BinaryChatCodec.encode(msg);
+        // cmd 占 2 字节、message 占 7 字节：恰好截在字段边界上是合法的前缀，其余截断位置都必须失败
+        for (int len = 1; len < bytes.length; len++) {
+            ChatMessage decoded = BinaryChatCodec.decode(bytes, 0, len);
+            if (len == 2 || len == 9) {
+                assertNotNull("truncated at " + len, decoded);
+            } else {
+                assertNull("truncated at " + len, decoded);
+            }
+        }
+        assertNull(BinaryChatCodec.decode(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF}));
+        assertNull(BinaryChatCodec.decode(new byte[]{0x0A, 0x05, 'a'}));
+        assertNull(BinaryChatCodec.decode(bytes, 2, bytes.length));
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package org.tio.chat.codec;
+
+import junit.framework.TestCase;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.util.JsonUtil;
+
+import java.util.Arrays;
+
+/**
+ * JsonChatCodec 的按 cmd 绑定、与 databind 结果一致性及异常输入测试
+ */
+public class JsonChatCodecTest extends TestCase {
+
+    public void testFullMessageMatchesDatabind() {
+        String json = "{\"cmd\":2,\"type\":\"private\",\"from\":\"u1\",\"to\":\"u2\",\"nickname\":\"小明\","
+                + "\"text\":\"你好 \\\"quoted\\\"\",\"timestamp\":1700000000000,\"msgId\":\"m-1\",\"read\":false,"
+                + "\"msgIds\":[\"a\",\"b\"],\"seq\":7,\"conv\":\"p:u1:u2\",\"cursors\":{\"g:g1\":3,\"p:u1:u3\":0},"
+                + "\"extra\":{\"nested\":[1,2,{\"x\":null}]}}";
+        ChatMessage streamed = JsonChatCodec.decode(json);
+        ChatMessage bound = JsonUtil.fromJson(json, ChatMessage.class);
+        assertEquals(JsonUtil.toJson(bound), JsonUtil.toJson(streamed));
+    }
+
+    public void testAckBindsOnlyMsgId() {
+        ChatMessage ack = JsonChatCodec.decode("{\"cmd\":99,\"msgId\":\"m-1\",\"message\":\"ignored\",\"msgIds\":[\"x\"]}");
+        assertEquals(Integer.valueOf(99), ack.getCmd());
+        assertEquals("m-1", ack.getMsgId());
+        assertNull(ack.getMessage());
+        assertNull(ack.getMsgIds());
+
+        ChatMessage read = JsonChatCodec.decode("{\"cmd\":100,\"msgIds\":[\"a\",\"b\"],\"from\":\"ignored\"}");
+        assertEquals(Arrays.asList("a", "b"), read.getMsgIds());
+        assertNull(read.getFrom());
+
+        ChatMessage watermark = JsonChatCodec.decode("{\"cmd\":100,\"to\":\"u2\",\"timestamp\":1700000000000,\"message\":\"ignored\"}");
+        assertEquals("u2", watermark.getTo());
+        assertEquals(Long.valueOf(1700000000000L), watermark.getTimestamp());
+        assertNull(watermark.getMessage());
+    }
+
+    public void testSyncBindsCursors() {
+        ChatMessage sync = JsonChatCodec.decode("{\"cmd\":104,\"msgId\":\"s-1\",\"cursors\":{\"p:u1:u2\":12,\"g:g1\":\"5\",\"bad\":\"x\"},\"to\":\"ignored\"}");
+        assertEquals("s-1", sync.getMsgId());
+        assertEquals(2, sync.getCursors().size());
+        assertEquals(Long.valueOf(12), sync.getCursors().get("p:u1:u2"));
+        assertEquals(Long.valueOf(5), sync.getCursors().get("g:g1"));
+        assertNull(sync.getTo());
+
+        ChatMessage login = JsonChatCodec.decode("{\"cmd\":1,\"from\":\"u1\",\"cursors\":{\"p:u1:u2\":1}}");
+        assertEquals(Long.valueOf(1), login.getCursors().get("p:u1:u2"));
+        assertNull(JsonChatCodec.decode("{\"cmd\":104,\"cursors\":[1]}").getCursors());
+
+        ChatMessage history = JsonChatCodec.decode("{\"cmd\":108,\"conv\":\"g:g1\",\"seq\":40,\"limit\":20,\"message\":\"ignored\"}");
+        assertEquals("g:g1", history.getConv());
+        assertEquals(Long.valueOf(40), history.getSeq());
+        assertEquals(Integer.valueOf(20), history.getLimit());
+        assertNull(history.getMessage());
+    }
+
+    public void testCmdNotFirstBindsEverything() {
+        ChatMessage ack = JsonChatCodec.decode("{\"msgId\":\"m-1\",\"message\":\"kept\",\"cmd\":\"99\"}");
+        assertEquals(Integer.valueOf(99), ack.getCmd());
+        assertEquals("kept", ack.getMessage());
+    }
+
+    public void testMalformedInputReturnsNull() {
+        assertNull(JsonChatCodec.decode(null));
+        assertNull(JsonChatCodec.decode(""));
+        assertNull(JsonChatCodec.decode("   "));
+        assertNull(JsonChatCodec.decode("null"));
+        assertNull(JsonChatCodec.decode("[1,2]"));
+        assertNull(JsonChatCodec.decode("{\"cmd\":2,\"message\":\"unterminated"));
+        assertNull(JsonChatCodec.decode("{\"cmd\":2,"));
+        assertNull(JsonChatCodec.decode("{cmd:2}"));
+
+        ChatMessage wrongTypes = JsonChatCodec.decode("{\"cmd\":{\"a\":1},\"timestamp\":\"abc\",\"msgIds\":\"x\",\"from\":[1]}");
+        assertNotNull(wrongTypes);
+        assertNull(wrongTypes.getCmd());
+        assertNull(wrongTypes.getTimestamp());
+        assertNull(wrongTypes.getMsgIds());
+        assertNull(wrongTypes.getFrom());
+
+        assertNull(JsonChatCodec.decode("{\"cmd\":99999999999}").getCmd());
+    }
+}
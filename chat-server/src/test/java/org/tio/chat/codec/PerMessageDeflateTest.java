@@ -0,0 +1,212 @@
+package org.tio.chat.codec;
+
+import junit.framework.TestCase;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.util.WsFrameEncoder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * PerMessageDeflate 的测试：扩展协商、压缩帧格式、上下文接管、群发共享、按 RSV1 解压客户端消息与解压上限
+ */
+public class PerMessageDeflateTest extends TestCase {
+
+    @Override
+    protected void tearDown() {
+        PerMessageDeflate.disable();
+    }
+
+    public void testNegotiation() {
+        assertNull(PerMessageDeflate.negotiate("permessage-deflate"));
+
+        PerMessageDeflate.configure(6, 64, true, 4, 1 << 20);
+        assertFalse(PerMessageDeflate.negotiate("permessage-deflate; client_max_window_bits").isStateless());
+        assertTrue(PerMessageDeflate.negotiate("permessage-deflate; server_no_context_takeover").isStateless());
+        // 不能按更小的窗口压缩，跳过该提议
+        assertTrue(PerMessageDeflate.negotiate(
+                "permessage-deflate; server_max_window_bits=10, permessage-deflate; server_no_context_takeover").isStateless());
+        assertNull(PerMessageDeflate.negotiate("permessage-deflate; server_max_window_bits=10"));
+        assertNull(PerMessageDeflate.negotiate("permessage-deflate; unknown_param"));
+        assertNull(PerMessageDeflate.negotiate("x-webkit-deflate-frame"));
+
+        PerMessageDeflate.configure(6, 64, false, 4, 1 << 20);
+        assertTrue(PerMessageDeflate.negotiate("permessage-deflate").isStateless());
+    }
+
+    public void testStatelessFramesAreSharedAndRoundTrip() {
+        PerMessageDeflate.configure(6, 64, false, 4, 1 << 20);
+        PerMessageDeflate.Session session = PerMessageDeflate.negotiate("permessage-deflate");
+        byte[] payload = json(20);
+        ByteBuffer frame = WsFrameEncoder.encodeText(payload);
+
+        PerMessageDeflate.SharedFrame shared = new PerMessageDeflate.SharedFrame();
+        ByteBuffer compressed = PerMessageDeflate.compress(session, frame, shared);
+        assertSame(compressed, PerMessageDeflate.compress(session, frame.duplicate(), shared));
+        assertEquals(0xC1, compressed.get(0) & 0xFF);
+        byte[] body = payloadOf(compressed);
+        assertTrue(body.length < payload.length / 2);
+        assertTrue(Arrays.equals(payload, PerMessageDeflate.inflate(body)));
+        assertEquals(0, frame.position());
+
+        // 小于阈值的帧原样发送
+        ByteBuffer small = WsFrameEncoder.encodeText("{\"cmd\":-1}".getBytes(StandardCharsets.UTF_8));
+        assertSame(small, PerMessageDeflate.compress(session, small, null));
+    }
+
+    public void testContextTakeover() throws Exception {
+        PerMessageDeflate.configure(6, 0, true, 4, 1 << 20);
+        PerMessageDeflate.Session session = PerMessageDeflate.negotiate("permessage-deflate");
+        byte[] first = json(3);
+        byte[] second = json(3);
+        byte[] body1 = payloadOf(PerMessageDeflate.compress(session, WsFrameEncoder.encodeText(first), null));
+        byte[] body2 = payloadOf(PerMessageDeflate.compress(session, WsFrameEncoder.encodeText(second), null));
+        // 第二条与第一条相同，几乎全部是对窗口的引用
+        assertTrue(body2.length < body1.length / 3);
+
+        // 客户端用同一个 Inflater 按顺序解压
+        Inflater inflater = new Inflater(true);
+        assertTrue(Arrays.equals(first, inflate(inflater, body1)));
+        assertTrue(Arrays.equals(second, inflate(inflater, body2)));
+        inflater.end();
+    }
+
+    public void testInflateRejectsOversizedAndCorrupt() {
+        PerMessageDeflate.configure(6, 0, false, 4, 1024);
+        PerMessageDeflate.Session session = PerMessageDeflate.negotiate("permessage-deflate");
+        byte[] large = payloadOf(PerMessageDeflate.compress(session, WsFrameEncoder.encodeText(json(50)), null));
+        assertNull(PerMessageDeflate.inflate(large));
+        byte[] small = payloadOf(PerMessageDeflate.compress(session, WsFrameEncoder.encodeText(json(1)), null));
+        assertTrue(Arrays.equals(json(1), PerMessageDeflate.inflate(small)));
+        assertNull(PerMessageDeflate.inflate(new byte[]{(byte) 0xFF, (byte) 0xFF, 0x12, 0x34}));
+    }
+
+    public void testInboundFollowsRsv1() {
+        PerMessageDeflate.configure(6, 0, false, 4, 1 << 20);
+        PerMessageDeflate.Session session = PerMessageDeflate.negotiate("permessage-deflate");
+        // 带 BOM 的 JSON 用固定 Huffman 压缩（BFINAL=1）时第一个字节是 0x7B '{'，只看 RSV1 不会当作未压缩
+        byte[] text = "\uFEFF{\"cmd\":2,\"to\":\"bob\",\"message\":\"hi\"}".getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = deflateFinal(text);
+        assertEquals('{', compressed[0]);
+        assertTrue(Arrays.equals(text, PerMessageDeflate.inbound(session, 0x80 | WsFrameEncoder.RSV1 | 0x1, true, compressed)));
+
+        // 长度为 0xF7 的 stored 块：块头 08 F7 00 08 FF 按未压缩也能解析，置 RSV1 时仍按压缩处理
+        ChatMessage original = new ChatMessage();
+        original.setCmd(9);
+        original.setType(repeat("t", 17));
+        original.setTo("bob");
+        original.setMessage(repeat("m", 218));
+        byte[] body = BinaryChatCodec.encode(original);
+        assertEquals(0xF7, body.length);
+        byte[] stored = storedBlock(body);
+        assertNotNull(BinaryChatCodec.decode(stored));
+        ChatMessage msg = BinaryChatCodec.decode(PerMessageDeflate.inbound(session, 0x80 | WsFrameEncoder.RSV1 | 0x2, true, stored));
+        assertEquals(Integer.valueOf(9), msg.getCmd());
+        assertEquals("bob", msg.getTo());
+
+        // 未置 RSV1 的消息原样交给上层，即使负载恰好是合法的压缩数据
+        assertSame(stored, PerMessageDeflate.inbound(session, 0x80 | 0x2, true, stored));
+    }
+
+    public void testInboundFragmentedMessage() {
+        PerMessageDeflate.configure(6, 0, false, 4, 1 << 20);
+        PerMessageDeflate.Session session = PerMessageDeflate.negotiate("permessage-deflate");
+        byte[] payload = json(5);
+        byte[] compressed = deflateFinal(payload);
+        byte[] head = Arrays.copyOf(compressed, 10);
+
+        // RSV1 只在首帧；中间插入的控制帧不影响当前消息
+        assertSame(head, PerMessageDeflate.inbound(session, WsFrameEncoder.RSV1 | 0x1, false, head));
+        byte[] ping = {1, 2};
+        assertSame(ping, PerMessageDeflate.inbound(session, 0x80 | 0x9, true, ping));
+        // t-io 在最后一帧给出拼接后的完整负载
+        assertTrue(Arrays.equals(payload, PerMessageDeflate.inbound(session, 0x80, true, compressed)));
+
+        // 下一条未压缩的消息不再解压
+        assertSame(payload, PerMessageDeflate.inbound(session, 0x80 | 0x1, true, payload));
+    }
+
+    public void testInboundRejectsInvalidRsv1() {
+        PerMessageDeflate.configure(6, 0, false, 4, 1 << 20);
+        PerMessageDeflate.Session session = PerMessageDeflate.negotiate("permessage-deflate");
+        byte[] compressed = deflateFinal(json(1));
+
+        // 未协商的连接不得置 RSV1，未置时原样返回
+        assertNull(PerMessageDeflate.inbound(null, 0x80 | WsFrameEncoder.RSV1 | 0x1, true, compressed));
+        assertSame(compressed, PerMessageDeflate.inbound(null, 0x80 | 0x2, true, compressed));
+        // 延续帧与控制帧不得置 RSV1
+        assertNull(PerMessageDeflate.inbound(session, 0x80 | WsFrameEncoder.RSV1, true, compressed));
+        assertNull(PerMessageDeflate.inbound(session, 0x80 | WsFrameEncoder.RSV1 | 0x9, true, new byte[0]));
+        // 置了 RSV1 但数据损坏
+        assertNull(PerMessageDeflate.inbound(session, 0x80 | WsFrameEncoder.RSV1 | 0x1, true,
+                new byte[]{(byte) 0xFF, (byte) 0xFF, 0x12, 0x34}));
+        // 空负载按空消息处理
+        assertEquals(0, PerMessageDeflate.inbound(session, 0x80 | 0x1, true, null).length);
+    }
+
+    private static byte[] deflateFinal(byte[] input) {
+        Deflater deflater = new Deflater(6, true);
+        deflater.setInput(input);
+        deflater.finish();
+        byte[] out = new byte[input.length + 64];
+        int n = deflater.deflate(out);
+        deflater.end();
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * 单个未压缩的 stored 块，头部填充位置 1 使首字节为 0x08（解压时填充位被忽略）
+     */
+    private static byte[] storedBlock(byte[] data) {
+        byte[] block = new byte[5 + data.length];
+        block[0] = 0x08;
+        block[1] = (byte) data.length;
+        block[2] = (byte) (data.length >>> 8);
+        block[3] = (byte) ~data.length;
+        block[4] = (byte) (~data.length >>> 8);
+        System.arraycopy(data, 0, block, 5, data.length);
+        return block;
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] json(int messages) {
+        StringBuilder sb = new StringBuilder("{\"cmd\":102,\"messages\":[");
+        for (int i = 0; i < messages; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"cmd\":3,\"from\":\"user").append(i % 4).append("\",\"to\":\"group1\",\"message\":\"你好，第")
+                    .append(i).append("条消息\",\"timestamp\":1700000000000,\"msgId\":\"0Abc").append(i).append("\"}");
+        }
+        return sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] payloadOf(ByteBuffer frame) {
+        int offset = WsFrameEncoder.payloadOffset(frame);
+        byte[] body = new byte[frame.limit() - offset];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = frame.get(offset + i);
+        }
+        return body;
+    }
+
+    private static byte[] inflate(Inflater inflater, byte[] body) throws Exception {
+        byte[] input = Arrays.copyOf(body, body.length + 4);
+        input[body.length + 2] = (byte) 0xFF;
+        input[body.length + 3] = (byte) 0xFF;
+        inflater.setInput(input);
+        byte[] out = new byte[64 * 1024];
+        int n = inflater.inflate(out);
+        return Arrays.copyOf(out, n);
+    }
+}
@@ -0,0 +1,93 @@
+package org.tio.chat.group;
+
+import junit.framework.TestCase;
+import org.tio.chat.store.GroupStore;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * GroupRegistry 的创建 / 加入 / 退出、开放群组，以及经 GroupStore 持久化后的恢复测试
+ */
+public class GroupRegistryTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("group-store").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(dir);
+    }
+
+    public void testMembership() {
+        GroupRegistry registry = new GroupRegistry(4, Arrays.asList("lobby"), null, null);
+
+        assertEquals(GroupRegistry.Result.OK, registry.create("g1", "alice"));
+        assertEquals(GroupRegistry.Result.EXISTS, registry.create("g1", "bob"));
+        assertEquals(GroupRegistry.Result.EXISTS, registry.create("lobby", "bob"));
+        assertEquals(GroupRegistry.Result.INVALID, registry.create(" ", "bob"));
+        assertEquals(GroupRegistry.Result.NOT_FOUND, registry.join("g2", "bob"));
+        assertEquals(GroupRegistry.Result.OK, registry.join("g1", "bob"));
+        assertEquals(GroupRegistry.Result.ALREADY_MEMBER, registry.join("g1", "bob"));
+        assertEquals(2, registry.memberCount("g1"));
+        assertTrue(registry.isMember("g1", "bob"));
+        assertFalse(registry.isMember("g1", "carol"));
+        assertEquals(Collections.singleton("g1"), registry.groupsOf("bob"));
+
+        // 开放群组所有人都是成员，不能退出
+        assertTrue(registry.isMember("lobby", "carol"));
+        assertEquals(GroupRegistry.Result.OPEN_GROUP, registry.leave("lobby", "carol"));
+
+        assertEquals(GroupRegistry.Result.NOT_MEMBER, registry.leave("g1", "carol"));
+        assertEquals(GroupRegistry.Result.OK, registry.leave("g1", "alice"));
+        assertEquals(GroupRegistry.Result.OK, registry.leave("g1", "bob"));
+        // 最后一个成员退出后群组删除，id 可以重新创建
+        assertFalse(registry.exists("g1"));
+        assertEquals(0, registry.groupCount());
+        assertTrue(registry.groupsOf("bob").isEmpty());
+        assertEquals(GroupRegistry.Result.OK, registry.create("g1", "carol"));
+    }
+
+    public void testRestoreFromStore() throws Exception {
+        GroupStore store = GroupStore.open(dir);
+        GroupRegistry registry = new GroupRegistry(8, Collections.<String>emptyList(), store, store.groups());
+        registry.create("g1", "alice");
+        registry.join("g1", "bob");
+        registry.join("g1", "carol");
+        registry.leave("g1", "alice");
+        registry.create("g2", "dave");
+        registry.leave("g2", "dave");
+        registry.create("g3", "erin");
+        store.close();
+
+        GroupStore reopened = GroupStore.open(dir);
+        try {
+            GroupRegistry restored = new GroupRegistry(8, Collections.<String>emptyList(), reopened, reopened.groups());
+            assertEquals(2, restored.groupCount());
+            assertEquals(2, restored.memberCount("g1"));
+            assertTrue(restored.isMember("g1", "bob"));
+            assertFalse(restored.isMember("g1", "alice"));
+            assertFalse(restored.exists("g2"));
+            assertEquals(Collections.singleton("g3"), restored.groupsOf("erin"));
+            assertEquals(GroupRegistry.Result.OK, restored.join("g3", "bob"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,61 @@
+package org.tio.chat.metrics;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MetricsRegistry 的 Prometheus 文本导出测试
+ */
+public class MetricsRegistryTest extends TestCase {
+
+    public void testCounterAndGaugeFormat() {
+        MetricsRegistry registry = new MetricsRegistry(60_000);
+        LongAdder ok = registry.counter("test_sent_total", "sent", "result", "ok");
+        LongAdder failed = registry.counter("test_sent_total", "sent", "result", "failed");
+        assertSame(ok, registry.counter("test_sent_total", "sent", "result", "ok"));
+        ok.add(3);
+        failed.increment();
+        registry.gauge("test_queue", "queue \"depth\"", () -> 42);
+
+        String text = registry.scrape();
+        assertTrue(text, text.contains("# TYPE test_sent_total counter\n"));
+        assertTrue(text, text.contains("test_sent_total{result=\"ok\"} 3\n"));
+        assertTrue(text, text.contains("test_sent_total{result=\"failed\"} 1\n"));
+        assertTrue(text, text.contains("# TYPE test_queue gauge\n"));
+        assertTrue(text, text.contains("test_queue 42\n"));
+        // 同一指标族的样本连续输出
+        assertTrue(text.indexOf("test_queue 42") > text.indexOf("test_sent_total{result=\"failed\"}"));
+
+        try {
+            registry.gauge("test_sent_total", "sent", () -> 0);
+            fail("同名不同类型应拒绝");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testTimerSummary() {
+        MetricsRegistry registry = new MetricsRegistry(60_000);
+        LatencyTimer timer = registry.timer("test_latency_seconds", "latency", "cmd", "2");
+        for (int i = 1; i <= 1000; i++) {
+            timer.recordMicros(i * 1000L);
+        }
+
+        String text = registry.scrape();
+        assertTrue(text, text.contains("# TYPE test_latency_seconds summary\n"));
+        assertTrue(text, text.contains("test_latency_seconds_count{cmd=\"2\"} 1000\n"));
+        double p50 = value(text, "test_latency_seconds{cmd=\"2\",quantile=\"0.5\"} ");
+        assertEquals(0.5, p50, 0.01);
+        double max = value(text, "test_latency_seconds{cmd=\"2\",quantile=\"1\"} ");
+        assertEquals(1.0, max, 0.01);
+        double sum = value(text, "test_latency_seconds_sum{cmd=\"2\"} ");
+        assertEquals(500.5, sum, 0.01);
+    }
+
+    private static double value(String text, String prefix) {
+        int start = text.indexOf(prefix);
+        assertTrue(text, start >= 0);
+        start += prefix.length();
+        return Double.parseDouble(text.substring(start, text.indexOf('\n', start)));
+    }
+}
@@ -0,0 +1,173 @@
+package org.tio.chat.search;
+
+import junit.framework.TestCase;
+import org.tio.chat.model.ChatMessage;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SearchIndex 的测试：CJK 分词、写段 / 合并 / 重新打开、会话过滤与原文确认、崩溃后重建
+ */
+public class SearchIndexTest extends TestCase {
+
+    private File dir;
+    private final Map<String, ChatMessage> messages = new ConcurrentHashMap<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("search-index").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(dir);
+    }
+
+    public void testTokenizer() {
+        Set<String> terms = CjkTokenizer.indexTerms("北京大学 Ｈｅｌｌｏ, world!");
+        assertTrue(terms.contains("北京"));
+        assertTrue(terms.contains("京大"));
+        assertTrue(terms.contains("大学"));
+        assertTrue(terms.contains("北"));
+        assertTrue(terms.contains("hello"));
+        assertTrue(terms.contains("world"));
+        assertFalse(terms.contains("北京大学"));
+
+        Set<String> query = CjkTokenizer.queryTerms("北京大学");
+        assertEquals(3, query.size());
+        assertTrue(query.contains("京大"));
+        assertEquals(1, CjkTokenizer.queryTerms("京").size());
+        assertTrue(CjkTokenizer.queryTerms("，。！").isEmpty());
+    }
+
+    public void testFlushMergeAndReopen() throws Exception {
+        SearchIndex index = open();
+        try {
+            for (int seq = 1; seq <= 55; seq++) {
+                add(index, "g:g1", seq, seq % 5 == 0 ? "第" + seq + "条 在北京大学开会" : "第" + seq + "条 普通消息");
+            }
+            add(index, "g:g2", 1, "北京大学在海淀");
+            add(index, "p:a:b", 1, "大学在北京，京大");
+        } finally {
+            index.close();
+        }
+
+        index = open();
+        try {
+            assertEquals(57, index.docCount());
+            // 10 条一段、两两合并（关闭前来不及合并的，重新打开后在后台合并），57 条最终不超过 4 个段
+            long deadline = System.currentTimeMillis() + 5000;
+            while (index.segmentCount() > 4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue("segments: " + index.segmentCount(), index.segmentCount() <= 4);
+
+            // 包含全部 bigram 但不连续的消息经原文确认排除；从新到旧
+            SearchIndex.Page page = index.search("北京大学", null, Integer.MAX_VALUE, 3, null);
+            assertHits(page, "g:g2#1", "g:g1#55", "g:g1#50");
+            page = index.search("北京大学", null, page.nextCursor, 100, null);
+            assertEquals(9, page.hits.size());
+            assertEquals("g:g1#5", key(page.hits.get(8)));
+            assertEquals(0, page.nextCursor);
+
+            // 限定会话与权限过滤
+            assertHits(index.search("北京大学", "g:g2", Integer.MAX_VALUE, 10, null), "g:g2#1");
+            page = index.search("北京大学", null, Integer.MAX_VALUE, 100, conv -> !conv.equals("g:g1"));
+            assertHits(page, "g:g2#1");
+            assertHits(index.search("京大", null, Integer.MAX_VALUE, 1, conv -> conv.startsWith("p:")), "p:a:b#1");
+            assertTrue(index.search("上海", null, Integer.MAX_VALUE, 10, null).hits.isEmpty());
+        } finally {
+            index.close();
+        }
+    }
+
+    public void testRebuildsUnflushedDocs() throws Exception {
+        SearchIndex index = open();
+        try {
+            for (int seq = 1; seq <= 25; seq++) {
+                add(index, "g:g1", seq, "message " + seq + (seq % 2 == 0 ? " even" : " odd"));
+            }
+            // 内存段中的文档同样可查
+            long deadline = System.currentTimeMillis() + 5000;
+            while (index.search("odd", null, Integer.MAX_VALUE, 100, null).hits.size() < 13
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(13, index.search("odd", null, Integer.MAX_VALUE, 100, null).hits.size());
+        } finally {
+            index.close();
+        }
+
+        // 模拟段文件丢失：文档表仍在，重新打开后按会话日志重建
+        for (File file : dir.listFiles()) {
+            if (file.getName().endsWith(IndexSegment.SUFFIX) || file.getName().equals("segments.meta")) {
+                assertTrue(file.delete());
+            }
+        }
+        assertEquals(0, segmentFiles());
+        // 重建在索引线程上进行，打开后可能立即写出新段，不在此断言段数
+        index = open();
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (index.search("even", null, Integer.MAX_VALUE, 100, null).hits.size() < 12
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            SearchIndex.Page page = index.search("even", null, Integer.MAX_VALUE, 100, null);
+            assertEquals(12, page.hits.size());
+            assertEquals("g:g1#24", key(page.hits.get(0)));
+        } finally {
+            index.close();
+        }
+    }
+
+    private int segmentFiles() {
+        int count = 0;
+        for (File file : dir.listFiles()) {
+            if (file.getName().endsWith(IndexSegment.SUFFIX)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private SearchIndex open() throws Exception {
+        return SearchIndex.open(dir, 10, 2, 1024,
+                (conv, seq) -> messages.get(conv + "#" + seq));
+    }
+
+    private void add(SearchIndex index, String conv, long seq, String text) {
+        ChatMessage msg = new ChatMessage();
+        msg.setCmd(3);
+        msg.setConv(conv);
+        msg.setSeq(seq);
+        msg.setMessage(text);
+        messages.put(conv + "#" + seq, msg);
+        assertTrue(index.offer(conv, seq, text));
+    }
+
+    private static String key(SearchIndex.Hit hit) {
+        return hit.conv + "#" + hit.seq;
+    }
+
+    private static void assertHits(SearchIndex.Page page, String... expected) {
+        assertEquals(expected.length, page.hits.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], key(page.hits.get(i)));
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
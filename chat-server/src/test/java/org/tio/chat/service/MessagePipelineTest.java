@@ -0,0 +1,178 @@
+package org.tio.chat.service;
+
+import junit.framework.TestCase;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.store.ConversationLog;
+import org.tio.chat.store.MessageStore;
+import org.tio.chat.store.MessageStoreConfig;
+import org.tio.chat.store.MessageStoreException;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MessagePipeline 持久化阶段的提交点测试：写入会话日志之后的失败不拒绝消息
+ */
+public class MessagePipelineTest extends TestCase {
+
+    private File dir;
+    private ConversationLog conversations;
+    private MessageStore previousStore;
+    private ConversationLog previousLog;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("message-pipeline").toFile();
+        conversations = ConversationLog.open(new MessageStoreConfig().setDir(dir));
+        previousStore = ChatService.getMessageStore();
+        previousLog = ConversationService.getConversationLog();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ChatService.setMessageStore(previousStore);
+        ConversationService.setConversationLog(previousLog);
+        conversations.close();
+        deleteRecursively(dir);
+    }
+
+    public void testOfflineCopyFailureAfterAssignIsAcked() {
+        FailingStore store = new FailingStore(true, false);
+        ChatService.setMessageStore(store);
+        ConversationService.setConversationLog(conversations);
+
+        MessagePipeline.Pending first = pending("m1");
+        MessagePipeline.Pending second = pending("m2");
+        MessagePipeline.persist(Arrays.asList(first, second));
+
+        // 已写入会话日志：不回复拒绝，按已分配的 seq 回复 ACK
+        assertTrue(first.committed);
+        assertFalse(first.failed);
+        assertFalse(second.failed);
+        assertEquals(Long.valueOf(1), first.msg.getSeq());
+        assertEquals(Long.valueOf(2), second.msg.getSeq());
+        assertEquals("p:alice:bob", first.msg.getConv());
+        // 离线副本失败后重试一次
+        assertEquals(4, store.appends.get());
+        assertEquals(2, conversations.lastSeq("p:alice:bob"));
+    }
+
+    public void testOfflineAwaitFailureAfterAssignIsAcked() {
+        ChatService.setMessageStore(new FailingStore(false, true));
+        ConversationService.setConversationLog(conversations);
+
+        MessagePipeline.Pending pending = pending("m1");
+        MessagePipeline.persist(Collections.singletonList(pending));
+
+        assertTrue(pending.committed);
+        assertFalse(pending.failed);
+        assertEquals(Long.valueOf(1), pending.msg.getSeq());
+    }
+
+    public void testOfflineFailureWithoutConversationLogIsRejected() {
+        FailingStore store = new FailingStore(true, false);
+        ChatService.setMessageStore(store);
+        ConversationService.setConversationLog(null);
+
+        MessagePipeline.Pending pending = pending("m1");
+        MessagePipeline.persist(Collections.singletonList(pending));
+
+        // 没有写入任何存储：回复拒绝，客户端重发
+        assertFalse(pending.committed);
+        assertTrue(pending.failed);
+        assertEquals(1, store.appends.get());
+    }
+
+    private static MessagePipeline.Pending pending(String msgId) {
+        ChatMessage msg = new ChatMessage();
+        msg.setCmd(2);
+        msg.setFrom("alice");
+        msg.setTo("bob");
+        msg.setMsgId(msgId);
+        msg.setMessage("hello " + msgId);
+        return new MessagePipeline.Pending(msg, null, System.nanoTime(), null);
+    }
+
+    /**
+     * appendNoWait / awaitDurable 按需抛出异常的离线存储
+     */
+    private static final class FailingStore implements MessageStore {
+        final AtomicInteger appends = new AtomicInteger();
+        private final boolean failAppend;
+        private final boolean failAwait;
+
+        FailingStore(boolean failAppend, boolean failAwait) {
+            this.failAppend = failAppend;
+            this.failAwait = failAwait;
+        }
+
+        @Override
+        public void append(ChatMessage msg) {
+            awaitDurable(appendNoWait(msg));
+        }
+
+        @Override
+        public long appendNoWait(ChatMessage msg) {
+            int n = appends.incrementAndGet();
+            if (failAppend) {
+                throw new MessageStoreException("磁盘已满");
+            }
+            return n;
+        }
+
+        @Override
+        public void awaitDurable(long position) {
+            if (failAwait && position >= 0) {
+                throw new MessageStoreException("刷盘失败");
+            }
+        }
+
+        @Override
+        public List<ChatMessage> read(String recipient, int max) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public int ack(String recipient, Collection<String> msgIds) {
+            return 0;
+        }
+
+        @Override
+        public void ackAll(String recipient) {
+        }
+
+        @Override
+        public List<String> markRead(String recipient, Collection<String> msgIds) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<String> markReadUpTo(String recipient, String from, long upToTimestamp) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public long pendingCount(String recipient) {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
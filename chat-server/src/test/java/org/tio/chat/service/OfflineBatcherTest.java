@@ -0,0 +1,207 @@
+package org.tio.chat.service;
+
+import junit.framework.TestCase;
+import org.tio.chat.codec.BinaryChatCodec;
+import org.tio.chat.codec.JsonChatCodec;
+import org.tio.chat.model.ChatMessage;
+import org.tio.chat.util.WsFrameEncoder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * OfflineBatcher 的分批（条数 / 字节数）、单个在途批次、确认后删除与跳过会话同步已覆盖消息的测试。
+ * 离线存储以内存列表代替
+ */
+public class OfflineBatcherTest extends TestCase {
+
+    /**
+     * 内存中的离线消息，记录每次读取的条数上限
+     */
+    private static final class MemorySource implements OfflineBatcher.Source {
+        final List<ChatMessage> messages = new ArrayList<>();
+        final List<Integer> limits = new ArrayList<>();
+
+        @Override
+        public List<ChatMessage> read(int limit) {
+            limits.add(limit);
+            return new ArrayList<>(messages.subList(0, Math.min(limit, messages.size())));
+        }
+
+        @Override
+        public int ack(List<String> msgIds) {
+            int before = messages.size();
+            messages.removeIf(msg -> msgIds.contains(msg.getMsgId()));
+            return before - messages.size();
+        }
+
+        MemorySource add(int count, String conv, long firstSeq, int contentLength) {
+            char[] content = new char[contentLength];
+            Arrays.fill(content, 'x');
+            for (int i = 0; i < count; i++) {
+                ChatMessage msg = new ChatMessage();
+                msg.setCmd(2);
+                msg.setMsgId("m" + messages.size());
+                msg.setFrom("bob");
+                msg.setTo("alice");
+                msg.setMessage(new String(content));
+                msg.setConv(conv);
+                msg.setSeq(firstSeq + i);
+                messages.add(msg);
+            }
+            return this;
+        }
+    }
+
+    public void testSplitsByPageSize() {
+        MemorySource source = new MemorySource().add(10, "p:alice:bob", 1, 10);
+        OfflineBatcher batcher = new OfflineBatcher(source, null, false, 4, 64 * 1024);
+
+        List<String> sent = new ArrayList<>();
+        for (OfflineBatcher.Batch batch = batcher.next(); batch != null; batch = batcher.next()) {
+            assertTrue(batch.getMsgIds().size() <= 4);
+            assertEquals(batch.getMsgIds(), ids(jsonMessages(batch)));
+            sent.addAll(batch.getMsgIds());
+            assertSame(batch, batcher.ack(batch.getBatchId()));
+        }
+        assertEquals(Arrays.asList(4, 4, 4, 4), source.limits);
+        assertEquals(10, sent.size());
+        assertEquals(10, new HashSet<>(sent).size());
+        assertTrue(source.messages.isEmpty());
+    }
+
+    public void testSplitsByMaxBytes() {
+        int maxBytes = 1000;
+        for (boolean binary : new boolean[]{false, true}) {
+            MemorySource source = new MemorySource().add(20, "p:alice:bob", 1, 200);
+            OfflineBatcher batcher = new OfflineBatcher(source, null, binary, 200, maxBytes);
+
+            int batches = 0;
+            int sent = 0;
+            for (OfflineBatcher.Batch batch = batcher.next(); batch != null; batch = batcher.next()) {
+                batches++;
+                List<ChatMessage> messages = binary ? binaryMessages(batch) : jsonMessages(batch);
+                assertEquals(batch.getMsgIds(), ids(messages));
+                assertTrue(payload(batch).length <= maxBytes);
+                // 按字节截断，每批远少于 200 条
+                assertTrue(messages.size() > 1 && messages.size() < 10);
+                sent += messages.size();
+                batcher.ack(batch.getBatchId());
+            }
+            assertEquals(20, sent);
+            assertTrue(batches > 2);
+        }
+    }
+
+    public void testOversizedMessageSentAlone() {
+        MemorySource source = new MemorySource().add(1, "p:alice:bob", 1, 5000).add(1, "p:alice:bob", 2, 10);
+        OfflineBatcher batcher = new OfflineBatcher(source, null, false, 200, 1000);
+
+        OfflineBatcher.Batch batch = batcher.next();
+        assertEquals(Collections.singletonList("m0"), batch.getMsgIds());
+        batcher.ack(batch.getBatchId());
+        assertEquals(Collections.singletonList("m1"), batcher.next().getMsgIds());
+    }
+
+    public void testOneBatchInFlightAndDeleteOnlyAfterAck() {
+        MemorySource source = new MemorySource().add(6, "p:alice:bob", 1, 10);
+        OfflineBatcher batcher = new OfflineBatcher(source, null, true, 3, 64 * 1024);
+
+        OfflineBatcher.Batch first = batcher.next();
+        assertEquals(Arrays.asList("m0", "m1", "m2"), first.getMsgIds());
+        // 未确认前不再下发，也不删除
+        assertNull(batcher.next());
+        assertEquals(6, source.messages.size());
+
+        // 不是在途批次的确认不算数
+        assertNull(batcher.ack("m0"));
+        assertNull(batcher.ack("other-batch"));
+        assertEquals(6, source.messages.size());
+
+        assertSame(first, batcher.ack(first.getBatchId()));
+        assertEquals(3, source.messages.size());
+        assertEquals("m3", source.messages.get(0).getMsgId());
+        // 重复确认无效
+        assertNull(batcher.ack(first.getBatchId()));
+
+        OfflineBatcher.Batch second = batcher.next();
+        assertEquals(Arrays.asList("m3", "m4", "m5"), second.getMsgIds());
+        assertFalse(first.getBatchId().equals(second.getBatchId()));
+        batcher.ack(second.getBatchId());
+        assertTrue(source.messages.isEmpty());
+        assertNull(batcher.next());
+    }
+
+    public void testSkipsMessagesCoveredBySync() {
+        // 会话 a 已同步到 seq 5：seq 1..5 直接删除，不下发；会话 b 与没有会话的消息照常下发
+        MemorySource source = new MemorySource()
+                .add(8, "p:alice:a", 1, 10)
+                .add(2, "p:alice:b", 1, 10)
+                .add(1, null, 0, 10);
+        Map<String, Long> synced = new HashMap<>();
+        synced.put("p:alice:a", 5L);
+        OfflineBatcher batcher = new OfflineBatcher(source, synced, false, 200, 64 * 1024);
+
+        OfflineBatcher.Batch batch = batcher.next();
+        assertEquals(Arrays.asList("m5", "m6", "m7", "m8", "m9", "m10"), batch.getMsgIds());
+        assertEquals(6, source.messages.size());
+        batcher.ack(batch.getBatchId());
+        assertTrue(source.messages.isEmpty());
+    }
+
+    public void testSkipsWholePagesCoveredBySync() {
+        // 前两页都被覆盖：继续读，直到有需要下发的消息
+        MemorySource source = new MemorySource().add(7, "p:alice:a", 1, 10).add(1, "p:alice:b", 1, 10);
+        OfflineBatcher batcher = new OfflineBatcher(source, Collections.singletonMap("p:alice:a", 7L), false, 3, 64 * 1024);
+
+        OfflineBatcher.Batch batch = batcher.next();
+        assertEquals(Collections.singletonList("m7"), batch.getMsgIds());
+        assertEquals(1, source.messages.size());
+        batcher.ack(batch.getBatchId());
+        assertNull(batcher.next());
+
+        // 全部被覆盖时没有批次
+        MemorySource covered = new MemorySource().add(5, "p:alice:a", 1, 10);
+        assertNull(new OfflineBatcher(covered, Collections.singletonMap("p:alice:a", 5L), false, 2, 64 * 1024).next());
+        assertTrue(covered.messages.isEmpty());
+    }
+
+    private static byte[] payload(OfflineBatcher.Batch batch) {
+        ByteBuffer frame = batch.frame.duplicate();
+        int offset = WsFrameEncoder.payloadOffset(frame);
+        byte[] payload = new byte[frame.limit() - offset];
+        frame.position(offset);
+        frame.get(payload);
+        return payload;
+    }
+
+    private static List<ChatMessage> jsonMessages(OfflineBatcher.Batch batch) {
+        assertFalse(batch.binary);
+        ChatMessage decoded = JsonChatCodec.decodeFull(payload(batch));
+        assertEquals(Integer.valueOf(102), decoded.getCmd());
+        assertEquals(batch.getBatchId(), decoded.getMsgId());
+        return decoded.getMessages();
+    }
+
+    private static List<ChatMessage> binaryMessages(OfflineBatcher.Batch batch) {
+        assertTrue(batch.binary);
+        ChatMessage decoded = BinaryChatCodec.decode(payload(batch));
+        assertEquals(Integer.valueOf(102), decoded.getCmd());
+        assertEquals(batch.getBatchId(), decoded.getMsgId());
+        return decoded.getMessages();
+    }
+
+    private static List<String> ids(List<ChatMessage> messages) {
+        List<String> ids = new ArrayList<>();
+        for (ChatMessage msg : messages) {
+            ids.add(msg.getMsgId());
+        }
+        return ids;
+    }
+}
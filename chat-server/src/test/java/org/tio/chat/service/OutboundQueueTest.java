@@ -0,0 +1,90 @@
+package org.tio.chat.service;
+
+import junit.framework.TestCase;
+import org.tio.websocket.common.WsResponse;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OutboundQueue 的水位策略测试：低水位合并上下线通知、高水位跳过聊天消息并记录补齐游标、超限断开
+ */
+public class OutboundQueueTest extends TestCase {
+
+    private static final OutboundQueue.Watermarks WATERMARKS =
+            new OutboundQueue.Watermarks(100, 300, 1000, TimeUnit.SECONDS.toNanos(10));
+
+    public void testCoalescesPresenceAndDefersChat() {
+        OutboundQueue.Totals totals = new OutboundQueue.Totals();
+        OutboundQueue queue = new OutboundQueue(totals);
+
+        assertEquals(OutboundQueue.Decision.SEND, offer(queue, OutboundQueue.MessageClass.CHAT, 150, null, null, 0));
+        WsResponse first = new WsResponse();
+        WsResponse second = new WsResponse();
+        assertEquals(OutboundQueue.Decision.COALESCED, offer(queue, OutboundQueue.MessageClass.PRESENCE, 10, first, null, null, 0));
+        assertEquals(OutboundQueue.Decision.REPLACED, offer(queue, OutboundQueue.MessageClass.PRESENCE, 10, second, null, null, 0));
+        // 低于高水位的聊天消息照常发送
+        assertEquals(OutboundQueue.Decision.SEND, offer(queue, OutboundQueue.MessageClass.CHAT, 200, "g:1", 7L, 0));
+        assertEquals(1, totals.slowConnections.get());
+
+        assertEquals(OutboundQueue.Decision.DEFERRED, offer(queue, OutboundQueue.MessageClass.CHAT, 50, "g:1", 9L, 0));
+        assertEquals(OutboundQueue.Decision.DEFERRED, offer(queue, OutboundQueue.MessageClass.CHAT, 50, "g:1", 8L, 0));
+        assertEquals(OutboundQueue.Decision.DEFERRED, offer(queue, OutboundQueue.MessageClass.CHAT, 50, "p:a:b", 3L, 0));
+        // 控制帧不受高水位限制
+        assertEquals(OutboundQueue.Decision.SEND, offer(queue, OutboundQueue.MessageClass.CONTROL, 20, null, null, 0));
+        assertEquals(3, queue.packets());
+        assertEquals(370, totals.bytes.get());
+
+        assertFalse(queue.onSent(200, WATERMARKS));
+        assertEquals(0, totals.slowConnections.get());
+        // 降到低水位（100）以下才补发，且只安排一次
+        assertTrue(queue.onSent(150, WATERMARKS));
+        assertFalse(queue.onSent(20, WATERMARKS));
+        assertEquals(0, totals.packets.get());
+
+        OutboundQueue.Recovery recovery = queue.takeRecovery();
+        assertSame(second, recovery.presence);
+        assertEquals(2, recovery.cursors.size());
+        assertEquals(Long.valueOf(7), recovery.cursors.get("g:1"));
+        assertEquals(Long.valueOf(2), recovery.cursors.get("p:a:b"));
+        assertNull(queue.takeRecovery().presence);
+    }
+
+    public void testDisconnectsOverMaxOrLagging() {
+        OutboundQueue.Totals totals = new OutboundQueue.Totals();
+        OutboundQueue queue = new OutboundQueue(totals);
+        assertEquals(OutboundQueue.Decision.SEND, offer(queue, OutboundQueue.MessageClass.CONTROL, 900, null, null, 0));
+        assertEquals(OutboundQueue.Decision.DISCONNECT, offer(queue, OutboundQueue.MessageClass.CONTROL, 200, null, null, 0));
+        assertEquals(OutboundQueue.Decision.CLOSED, offer(queue, OutboundQueue.MessageClass.CONTROL, 1, null, null, 0));
+        queue.close();
+        assertEquals(0, totals.packets.get());
+        assertEquals(0, totals.bytes.get());
+        assertEquals(0, totals.slowConnections.get());
+
+        OutboundQueue lagging = new OutboundQueue(totals);
+        long start = 1_000_000L;
+        assertEquals(OutboundQueue.Decision.SEND, offer(lagging, OutboundQueue.MessageClass.CONTROL, 400, null, null, start));
+        assertEquals(OutboundQueue.Decision.SEND, offer(lagging, OutboundQueue.MessageClass.CONTROL, 10, null, null,
+                start + TimeUnit.SECONDS.toNanos(5)));
+        assertEquals(OutboundQueue.Decision.DISCONNECT, offer(lagging, OutboundQueue.MessageClass.CONTROL, 10, null, null,
+                start + TimeUnit.SECONDS.toNanos(11)));
+    }
+
+    public void testDisabledOnlyCounts() {
+        OutboundQueue queue = new OutboundQueue(new OutboundQueue.Totals());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(OutboundQueue.Decision.SEND, queue.offer(OutboundQueue.MessageClass.PRESENCE, 1000, new WsResponse(),
+                    null, null, OutboundQueue.Watermarks.NONE, 0));
+        }
+        assertEquals(100, queue.packets());
+    }
+
+    private static OutboundQueue.Decision offer(OutboundQueue queue, OutboundQueue.MessageClass messageClass, int size,
+                                                String conv, Long seq, long now) {
+        return offer(queue, messageClass, size, new WsResponse(), conv, seq, now);
+    }
+
+    private static OutboundQueue.Decision offer(OutboundQueue queue, OutboundQueue.MessageClass messageClass, int size,
+                                                WsResponse packet, String conv, Long seq, long now) {
+        return queue.offer(messageClass, size, packet, conv, seq, WATERMARKS, now);
+    }
+}
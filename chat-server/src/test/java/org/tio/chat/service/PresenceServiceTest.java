@@ -0,0 +1,102 @@
+package org.tio.chat.service;
+
+import junit.framework.TestCase;
+import org.tio.chat.model.PresenceMessage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * PresenceService 的增量合并（同一周期内上下线相互抵消）与单帧列出人数上限的测试。
+ * 连接以字符串 channelId 代替 ChannelContext，周期由测试手动取出（drainDelta）
+ */
+public class PresenceServiceTest extends TestCase {
+
+    @Override
+    protected void setUp() {
+        // 丢弃其他测试留下的增量
+        PresenceService.drainDelta();
+    }
+
+    public void testLeaveThenRejoinInOneTickCancelsOut() {
+        PresenceService.online("rejoin-c1", "rejoin-alice");
+        PresenceMessage joined = PresenceService.drainDelta();
+        assertEquals(Collections.singletonList("rejoin-alice"), joined.getOnline());
+
+        // 同一周期内断开又重连：不产生任何通知
+        PresenceService.offline("rejoin-c1");
+        PresenceService.online("rejoin-c2", "rejoin-alice");
+        assertNull(PresenceService.drainDelta());
+        assertTrue(PresenceService.isOnline("rejoin-alice"));
+
+        PresenceService.offline("rejoin-c2");
+        PresenceMessage left = PresenceService.drainDelta();
+        assertNull(left.getOnline());
+        assertEquals(Collections.singletonList("rejoin-alice"), left.getOffline());
+    }
+
+    public void testJoinThenLeaveInOneTickCancelsOut() {
+        PresenceService.online("flap-c1", "flap-alice");
+        PresenceService.online("flap-c2", "flap-bob");
+        PresenceService.offline("flap-c1");
+
+        // alice 上线又下线相互抵消，只剩 bob 上线
+        PresenceMessage delta = PresenceService.drainDelta();
+        assertEquals(Collections.singletonList("flap-bob"), delta.getOnline());
+        assertNull(delta.getOffline());
+        assertNull(delta.getOmitted());
+        assertFalse(PresenceService.isOnline("flap-alice"));
+
+        PresenceService.online("flap-c3", "flap-carol");
+        PresenceService.offline("flap-c3");
+        assertNull(PresenceService.drainDelta());
+        PresenceService.offline("flap-c2");
+        PresenceService.drainDelta();
+    }
+
+    public void testSecondConnectionProducesNoEvent() {
+        PresenceService.online("multi-c1", "multi-alice");
+        PresenceService.drainDelta();
+
+        // 同一用户的第二个连接上线、第一个连接断开都不产生事件
+        PresenceService.online("multi-c2", "multi-alice");
+        PresenceService.offline("multi-c1");
+        assertNull(PresenceService.drainDelta());
+
+        PresenceService.offline("multi-c2");
+        assertEquals(Collections.singletonList("multi-alice"), PresenceService.drainDelta().getOffline());
+    }
+
+    public void testDeltaTruncatedWithOmittedCount() {
+        Set<String> joined = new LinkedHashSet<>(Arrays.asList("u1", "u2", "u3", "u4"));
+        Set<String> left = new LinkedHashSet<>(Arrays.asList("u5", "u6"));
+
+        // 先列上线的，再用剩余名额列下线的
+        PresenceMessage msg = PresenceService.buildDelta(joined, left, 5);
+        assertEquals(Arrays.asList("u1", "u2", "u3", "u4"), msg.getOnline());
+        assertEquals(Collections.singletonList("u5"), msg.getOffline());
+        assertEquals(Integer.valueOf(1), msg.getOmitted());
+        assertEquals(Integer.valueOf(PresenceService.onlineUserCount()), msg.getCount());
+        assertTrue(msg.getMessage(), msg.getMessage().contains("u5 等 2 人 离开了"));
+
+        msg = PresenceService.buildDelta(joined, left, 3);
+        assertEquals(Arrays.asList("u1", "u2", "u3"), msg.getOnline());
+        assertNull(msg.getOffline());
+        assertEquals(Integer.valueOf(3), msg.getOmitted());
+        assertTrue(msg.getMessage(), msg.getMessage().contains("u1、u2、u3 等 4 人 进来了"));
+        assertTrue(msg.getMessage(), msg.getMessage().contains("2 人 离开了"));
+
+        // 上限为 0 时只有人数
+        msg = PresenceService.buildDelta(joined, left, 0);
+        assertNull(msg.getOnline());
+        assertNull(msg.getOffline());
+        assertEquals(Integer.valueOf(6), msg.getOmitted());
+
+        // 未超出上限时不带 omitted
+        msg = PresenceService.buildDelta(joined, left, 6);
+        assertEquals(Arrays.asList("u5", "u6"), msg.getOffline());
+        assertNull(msg.getOmitted());
+    }
+}
@@ -0,0 +1,140 @@
+package org.tio.chat.service;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SessionRegistry 的恢复 / 过期 / 令牌归属，以及 PresenceService 在宽限期内保留、交还在线计数的测试。
+ * 连接以字符串代替 ChannelContext，时钟手动推进
+ */
+public class SessionRegistryTest extends TestCase {
+
+    private static final long GRACE = TimeUnit.SECONDS.toNanos(60);
+
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+    private SessionRegistry<String> registry;
+
+    @Override
+    protected void setUp() {
+        registry = new SessionRegistry<>(GRACE, 100, clock::get);
+    }
+
+    public void testResumeWithinGraceWindow() {
+        PresenceService.online("c1", "resume-alice");
+        SessionRegistry.Attached<String> first = registry.attach("resume-alice", "c1", null);
+        assertFalse(first.resumed);
+        String token = first.session.getToken();
+
+        // 断线：进入宽限期，保留在线计数
+        assertTrue(registry.detach(first.session, "c1"));
+        assertTrue(PresenceService.suspend("c1"));
+        assertTrue(PresenceService.isOnline("resume-alice"));
+
+        clock.addAndGet(GRACE - 1);
+        PresenceService.online("c2", "resume-alice");
+        SessionRegistry.Attached<String> resumed = registry.attach("resume-alice", "c2", token);
+        assertTrue(resumed.resumed);
+        assertSame(first.session, resumed.session);
+        // 原会话在宽限期内：没有要关闭的旧连接，调用方交还保留的计数
+        assertNull(resumed.previous);
+        PresenceService.release("resume-alice");
+        assertTrue(PresenceService.isOnline("resume-alice"));
+
+        // 换发新令牌，旧令牌失效
+        assertFalse(token.equals(resumed.session.getToken()));
+        assertFalse(registry.attach("resume-alice", "c3", token).resumed);
+
+        // 已恢复的会话不会再被判定过期
+        clock.addAndGet(GRACE * 2);
+        assertTrue(registry.expire().isEmpty());
+        PresenceService.offline("c2");
+        assertFalse(PresenceService.isOnline("resume-alice"));
+    }
+
+    public void testResumeReplacesHalfOpenConnection() {
+        SessionRegistry.Attached<String> first = registry.attach("alice", "c1", null);
+        // 旧连接还没有断开（半开连接）时恢复：交给调用方关闭
+        SessionRegistry.Attached<String> resumed = registry.attach("alice", "c2", first.session.getToken());
+        assertTrue(resumed.resumed);
+        assertEquals("c1", resumed.previous);
+        // 旧连接随后的关闭回调不会让会话进入宽限期
+        assertFalse(registry.detach(resumed.session, "c1"));
+        assertEquals(1, registry.size());
+    }
+
+    public void testResumeAfterExpiry() {
+        PresenceService.online("e1", "expire-alice");
+        SessionRegistry.Attached<String> first = registry.attach("expire-alice", "e1", null);
+        String token = first.session.getToken();
+        assertTrue(registry.detach(first.session, "e1"));
+        assertTrue(PresenceService.suspend("e1"));
+
+        clock.addAndGet(GRACE - 1);
+        assertTrue(registry.expire().isEmpty());
+        clock.addAndGet(1);
+        List<SessionRegistry.Session<String>> expired = registry.expire();
+        assertEquals(1, expired.size());
+        assertEquals("expire-alice", expired.get(0).getUserId());
+        assertEquals(0, registry.size());
+        // 到期时交还保留的计数，产生下线
+        PresenceService.release("expire-alice");
+        assertFalse(PresenceService.isOnline("expire-alice"));
+
+        // 过期后的令牌不能恢复，只能建立新会话
+        SessionRegistry.Attached<String> again = registry.attach("expire-alice", "e2", token);
+        assertFalse(again.resumed);
+        assertNotSame(first.session, again.session);
+        assertTrue(registry.expire().isEmpty());
+    }
+
+    public void testTokenPresentedByDifferentUser() {
+        SessionRegistry.Attached<String> alice = registry.attach("alice", "c1", null);
+        String token = alice.session.getToken();
+        assertTrue(registry.detach(alice.session, "c1"));
+
+        // 别的用户拿到令牌：不接管，得到自己的新会话
+        SessionRegistry.Attached<String> mallory = registry.attach("mallory", "c2", token);
+        assertFalse(mallory.resumed);
+        assertNull(mallory.previous);
+        assertEquals("mallory", mallory.session.getUserId());
+        assertNotSame(alice.session, mallory.session);
+        assertEquals(2, registry.size());
+
+        // 原会话不受影响，本人仍能在宽限期内恢复
+        SessionRegistry.Attached<String> resumed = registry.attach("alice", "c3", token);
+        assertTrue(resumed.resumed);
+        assertSame(alice.session, resumed.session);
+    }
+
+    public void testMaxSessionsAndEnd() {
+        SessionRegistry<String> small = new SessionRegistry<>(GRACE, 1, clock::get);
+        SessionRegistry.Attached<String> first = small.attach("alice", "c1", null);
+        assertNull(small.attach("bob", "c2", null));
+        // 恢复不新增会话，不受上限限制
+        assertTrue(small.attach("alice", "c3", first.session.getToken()).resumed);
+
+        small.end(first.session);
+        assertEquals(0, small.size());
+        assertNotNull(small.attach("bob", "c2", null));
+    }
+
+    public void testSuspendOnlyCountedConnections() {
+        assertFalse(PresenceService.suspend("never-online"));
+        PresenceService.online("s1", "suspend-alice");
+        PresenceService.online("s2", "suspend-alice");
+        int connections = PresenceService.connectionCount();
+        assertTrue(PresenceService.suspend("s1"));
+        // 重复的关闭回调不会重复扣减
+        assertFalse(PresenceService.suspend("s1"));
+        assertEquals(connections - 1, PresenceService.connectionCount());
+
+        // 另一个连接正常下线：保留的那份计数仍让用户在线，直到交还
+        PresenceService.offline("s2");
+        assertTrue(PresenceService.isOnline("suspend-alice"));
+        PresenceService.release("suspend-alice");
+        assertFalse(PresenceService.isOnline("suspend-alice"));
+    }
+}
@@ -0,0 +1,202 @@
+package org.tio.chat.store;
+
+import junit.framework.TestCase;
+import org.tio.chat.codec.JsonChatCodec;
+import org.tio.chat.model.ChatMessage;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * ConversationLog 的历史翻页测试：按 seq / 时间定位、尾部缓存与滚动后 segment 的映射读取，以及按记录头中的 seq 重建索引
+ */
+public class ConversationLogTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("conversation-log").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(dir);
+    }
+
+    public void testPagesBackwardsAcrossSegments() throws Exception {
+        // 小 segment 让前面的消息落在已滚动（只读映射）的 segment 上
+        ConversationLog log = open(4, 10);
+        try {
+            for (int i = 1; i <= 45; i++) {
+                log.append("g:g1", message("m" + i));
+                if (i % 2 == 0) {
+                    log.append("g:g2", message("other" + i));
+                }
+            }
+            // 最新一页来自缓存，再往前的页超出缓存范围，走存储
+            assertSeqs(log.readBefore("g:g1", Long.MAX_VALUE, 5), 41, 45);
+            assertSeqs(log.readBefore("g:g1", 41, 5), 36, 40);
+            assertSeqs(log.readBefore("g:g1", 30, 20), 10, 29);
+            assertSeqs(log.readBefore("g:g1", 4, 20), 1, 3);
+            assertTrue(log.readBefore("g:g1", 1, 20).isEmpty());
+            assertTrue(log.readBefore("g:none", Long.MAX_VALUE, 20).isEmpty());
+
+            // 新消息追加到已缓存的尾部
+            log.append("g:g1", message("m46"));
+            List<ChatMessage> latest = log.readBefore("g:g1", Long.MAX_VALUE, 3);
+            assertSeqs(latest, 44, 46);
+            assertEquals("m46", latest.get(2).getMessage());
+        } finally {
+            log.close();
+        }
+    }
+
+    public void testLocatesByWriteTime() throws Exception {
+        ConversationLog log = open(0, 0);
+        try {
+            long[] written = new long[6];
+            for (int i = 0; i < 6; i++) {
+                log.append("p:a:b", message("m" + (i + 1)));
+                written[i] = System.currentTimeMillis();
+                Thread.sleep(5);
+            }
+            assertEquals(1, log.seqAtOrAfter("p:a:b", 0));
+            assertEquals(7, log.seqAtOrAfter("p:a:b", Long.MAX_VALUE));
+            // written[2] 在第 3 条写入之后、第 4 条写入之前
+            long seq = log.seqAtOrAfter("p:a:b", written[2] + 1);
+            assertEquals(4, seq);
+            assertSeqs(log.readBefore("p:a:b", seq, 10), 1, 3);
+        } finally {
+            log.close();
+        }
+    }
+
+    public void testSeqNotReassignedAfterRetentionAndIndexRebuild() throws Exception {
+        MessageStoreConfig config = new MessageStoreConfig()
+                .setDir(dir)
+                .setSegmentBytes(2048)
+                .setRetentionBytes(6144)
+                .setCheckpointIntervalMs(100)
+                .setIndexCacheSize(2);
+        ConversationLog log = ConversationLog.open(config, 0, 0);
+        try {
+            // g:gone 只在最早的 segment 中，保留策略会把它的消息全部删掉
+            for (int i = 1; i <= 5; i++) {
+                log.append("g:gone", message("gone" + i));
+            }
+            for (int i = 1; i <= 200; i++) {
+                log.append("g:g1", message("m" + i));
+            }
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (log.readAfter("g:g1", 0, 1).get(0).getSeq() == 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue("保留策略应已删除最早的 segment", log.readAfter("g:g1", 0, 1).get(0).getSeq() > 1);
+            assertTrue(log.readAfter("g:gone", 0, 10).isEmpty());
+        } finally {
+            log.close();
+        }
+
+        // 模拟索引丢失：删除索引目录与 checkpoint，重开时全量重建
+        deleteRecursively(new File(dir, "index"));
+        assertTrue(new File(dir, "index.checkpoint").delete());
+
+        log = ConversationLog.open(config, 0, 0);
+        try {
+            assertEquals(5, log.lastSeq("g:gone"));
+            assertEquals(200, log.lastSeq("g:g1"));
+            // 第 i 个条目仍对应 seq = i + 1：按游标读取拿到的正是游标之后的消息
+            List<ChatMessage> tail = log.readAfter("g:g1", 195, 10);
+            assertSeqs(tail, 196, 200);
+            assertEquals("m196", tail.get(0).getMessage());
+            assertEquals(201, log.append("g:g1", message("m201")));
+            assertEquals(6, log.append("g:gone", message("gone6")));
+        } finally {
+            log.close();
+        }
+    }
+
+    public void testRebuildReadsSeqFromRecordHeader() throws Exception {
+        MessageStoreConfig config = new MessageStoreConfig().setDir(dir);
+        ConversationLog log = ConversationLog.open(config, 0, 0);
+        try {
+            for (int i = 1; i <= 3; i++) {
+                log.append("p:a:b", message("m" + i));
+            }
+        } finally {
+            log.close();
+        }
+
+        // 旧版本写入的记录头中没有 seq，重建时从 payload 中取
+        ChatMessage legacy = message("m4");
+        legacy.setConv("p:a:b");
+        legacy.setSeq(4L);
+        ByteBuffer record = LogRecord.encode(LogRecord.TYPE_MESSAGE, System.currentTimeMillis(), "p:a:b", "m4",
+                JsonChatCodec.encode(legacy));
+        File segment = new File(new File(dir, "log"), LogSegment.fileName(0));
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.APPEND)) {
+            channel.write(record);
+        }
+        deleteRecursively(new File(dir, "index"));
+        assertTrue(new File(dir, "index.checkpoint").delete());
+
+        log = ConversationLog.open(config, 0, 0);
+        try {
+            assertEquals(4, log.lastSeq("p:a:b"));
+            assertSeqs(log.readAfter("p:a:b", 0, 10), 1, 4);
+            assertEquals(5, log.append("p:a:b", message("m5")));
+        } finally {
+            log.close();
+        }
+    }
+
+    public void testSeqInRecordHeader() {
+        ByteBuffer encoded = LogRecord.encode(LogRecord.TYPE_MESSAGE, 1L, "g:1", "m1", 42, new byte[]{1, 2, 3});
+        LogRecord record = LogRecord.decode(encoded, true, false);
+        assertEquals(LogRecord.TYPE_MESSAGE, record.type);
+        assertEquals(42, record.seq);
+        assertEquals("m1", record.msgId);
+        assertNull(record.payload);
+
+        record = LogRecord.decode(LogRecord.encode(LogRecord.TYPE_MESSAGE, 1L, "g:1", "m1", new byte[]{1}), true, true);
+        assertEquals(0, record.seq);
+        assertEquals(1, record.payload.length);
+    }
+
+    private ConversationLog open(int cacheConversations, int cacheTailSize) throws Exception {
+        return ConversationLog.open(new MessageStoreConfig()
+                .setDir(dir)
+                .setSegmentBytes(2048)
+                .setIndexCacheSize(2), cacheConversations, cacheTailSize);
+    }
+
+    private static ChatMessage message(String text) {
+        ChatMessage msg = new ChatMessage();
+        msg.setCmd(3);
+        msg.setMsgId(text);
+        msg.setMessage(text);
+        return msg;
+    }
+
+    private static void assertSeqs(List<ChatMessage> page, long first, long last) {
+        assertEquals(last - first + 1, page.size());
+        for (int i = 0; i < page.size(); i++) {
+            assertEquals(Long.valueOf(first + i), page.get(i).getSeq());
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,105 @@
+package org.tio.chat.store;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+/**
+ * GroupCursorStore 的游标推进、合并刷盘、重放与尾部截断测试
+ */
+public class GroupCursorStoreTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("group-cursors").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(dir);
+    }
+
+    public void testAdvanceIsMonotonicAndCoalesced() throws Exception {
+        GroupCursorStore store = GroupCursorStore.open(dir);
+        try {
+            assertEquals(-1, store.delivered("g1", "alice"));
+            assertTrue(store.init("g1", "alice", 10));
+            assertFalse(store.init("g1", "alice", 99));
+            assertEquals(10, store.delivered("g1", "alice"));
+
+            store.advance("g1", "alice", 12, -1);
+            store.advance("g1", "alice", 15, -1);
+            store.advance("g1", "alice", 11, -1);
+            assertEquals(15, store.delivered("g1", "alice"));
+            // 已读同时计为已送达
+            store.advance("g1", "alice", -1, 20);
+            assertEquals(20, store.delivered("g1", "alice"));
+            assertEquals(20, store.read("g1", "alice"));
+
+            // 两次刷盘之间多次推进只写一条
+            assertEquals(1, store.flush());
+            assertEquals(0, store.flush());
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testReplaysAfterReopen() throws Exception {
+        GroupCursorStore store = GroupCursorStore.open(dir);
+        store.init("g1", "alice", 3);
+        store.init("g1", "bob", 3);
+        store.advance("g1", "alice", 7, 5);
+        store.flush();
+        store.advance("g2", "alice", 4, -1);
+        store.remove("g1", "bob");
+        // close 写入最后一批
+        store.close();
+
+        store = GroupCursorStore.open(dir);
+        try {
+            assertEquals(2, store.size());
+            assertEquals(7, store.delivered("g1", "alice"));
+            assertEquals(5, store.read("g1", "alice"));
+            assertEquals(4, store.delivered("g2", "alice"));
+            assertEquals(-1, store.delivered("g1", "bob"));
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testTruncatesIncompleteTail() throws Exception {
+        GroupCursorStore store = GroupCursorStore.open(dir);
+        store.advance("g1", "alice", 9, -1);
+        store.close();
+
+        // 模拟写入时崩溃：末尾多出半条记录
+        File file = new File(dir, "cursors.log");
+        long valid = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(valid);
+            raf.write(new byte[]{0, 0, 0, 40, 1, 2, 3});
+        }
+
+        store = GroupCursorStore.open(dir);
+        try {
+            assertEquals(valid, file.length());
+            assertEquals(9, store.delivered("g1", "alice"));
+        } finally {
+            store.close();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,212 @@
+package org.tio.chat.store;
+
+import junit.framework.TestCase;
+import org.tio.chat.model.ChatMessage;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SegmentedMessageStore 的读写、确认、滚动与崩溃恢复测试
+ */
+public class SegmentedMessageStoreTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("message-store").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(dir);
+    }
+
+    public void testAppendReadAck() throws Exception {
+        SegmentedMessageStore store = open(1024 * 1024);
+        try {
+            for (int i = 0; i < 5; i++) {
+                store.append(message("m" + i, "user2", "hello " + i));
+            }
+            store.append(message("x0", "user3", "other"));
+
+            List<ChatMessage> page = store.read("user2", 3);
+            assertEquals(3, page.size());
+            assertEquals("m0", page.get(0).getMsgId());
+            assertEquals("hello 2", page.get(2).getMessage());
+            assertEquals(5, store.pendingCount("user2"));
+
+            assertEquals(2, store.ack("user2", Arrays.asList("m0", "m2")));
+            assertEquals(Arrays.asList("m1"), store.markRead("user2", Arrays.asList("m1", "missing")));
+
+            page = store.read("user2", 10);
+            assertEquals(3, page.size());
+            assertEquals("m1", page.get(0).getMsgId());
+            assertEquals(Boolean.TRUE, page.get(0).getRead());
+            assertEquals("m3", page.get(1).getMsgId());
+
+            store.ackAll("user2");
+            assertTrue(store.read("user2", 10).isEmpty());
+            assertEquals(1, store.read("user3", 10).size());
+            assertTrue(store.read("nobody", 10).isEmpty());
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testMarkReadUpToWatermark() throws Exception {
+        SegmentedMessageStore store = open(1024 * 1024);
+        try {
+            for (int i = 0; i < 4; i++) {
+                ChatMessage msg = message("m" + i, "user2", "hello " + i);
+                msg.setTimestamp(1000L + i);
+                store.append(msg);
+            }
+            ChatMessage other = message("o0", "user2", "from someone else");
+            other.setFrom("user8");
+            other.setTimestamp(1001L);
+            store.append(other);
+
+            assertEquals(Arrays.asList("m0", "m1", "m2"), store.markReadUpTo("user2", "user9", 1002L));
+            // 已读的不重复命中，水位前进只命中新增部分
+            assertEquals(Arrays.asList("m3"), store.markReadUpTo("user2", "user9", 2000L));
+            assertTrue(store.markReadUpTo("user2", "user9", 2000L).isEmpty());
+            assertTrue(store.markReadUpTo("nobody", "user9", 2000L).isEmpty());
+        } finally {
+            store.close();
+        }
+
+        store = open(1024 * 1024);
+        try {
+            List<ChatMessage> page = store.read("user2", 10);
+            assertEquals(5, page.size());
+            assertEquals(Boolean.TRUE, page.get(3).getRead());
+            assertEquals("o0", page.get(4).getMsgId());
+            assertNull(page.get(4).getRead());
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testRecoverFromCheckpointAndFullRebuild() throws Exception {
+        SegmentedMessageStore store = open(512);
+        for (int i = 0; i < 50; i++) {
+            store.append(message("m" + i, "user" + (i % 3), "payload " + i));
+        }
+        store.ack("user0", Arrays.asList("m0", "m3"));
+        store.ackAll("user1");
+        store.close();
+
+        store = open(512);
+        try {
+            assertEquals(15, store.read("user0", 100).size());
+            assertTrue(store.read("user1", 100).isEmpty());
+            assertEquals(16, store.read("user2", 100).size());
+        } finally {
+            store.close();
+        }
+
+        // 删除 checkpoint，强制从日志全量重建索引
+        assertTrue(new File(dir, "index.checkpoint").delete());
+        store = open(512);
+        try {
+            List<ChatMessage> user0 = store.read("user0", 100);
+            assertEquals(15, user0.size());
+            assertEquals("m6", user0.get(0).getMsgId());
+            assertTrue(store.read("user1", 100).isEmpty());
+            assertEquals(16, store.read("user2", 100).size());
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testTruncatesTornTail() throws Exception {
+        SegmentedMessageStore store = open(1024 * 1024);
+        store.append(message("a", "user1", "first"));
+        store.append(message("b", "user1", "second"));
+        store.close();
+
+        // 模拟崩溃：尾部追加半条记录并删除 checkpoint
+        File segment = new File(new File(dir, "log"), "00000000000000000000.log");
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(raf.length());
+            raf.writeInt(100);
+            raf.writeInt(12345);
+            raf.write(new byte[10]);
+        }
+        assertTrue(new File(dir, "index.checkpoint").delete());
+
+        store = open(1024 * 1024);
+        try {
+            assertEquals(2, store.read("user1", 10).size());
+            store.append(message("c", "user1", "third"));
+            assertEquals("c", store.read("user1", 10).get(2).getMsgId());
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testConversationLogSeqAndReadAfter() throws Exception {
+        MessageStoreConfig config = new MessageStoreConfig().setDir(dir).setSegmentBytes(512).setIndexCacheSize(2);
+        ConversationLog conversations = ConversationLog.open(config);
+        try {
+            for (int i = 1; i <= 5; i++) {
+                assertEquals(i, conversations.append("p:user1:user2", message("p" + i, "user2", "hi " + i)));
+            }
+            assertEquals(1, conversations.append("g:group1", message("g1", "group1", "group")));
+            assertEquals(5, conversations.lastSeq("p:user1:user2"));
+            assertEquals(0, conversations.lastSeq("p:user1:user3"));
+
+            List<ChatMessage> gap = conversations.readAfter("p:user1:user2", 2, 2);
+            assertEquals(2, gap.size());
+            assertEquals(Long.valueOf(3), gap.get(0).getSeq());
+            assertEquals("p:user1:user2", gap.get(0).getConv());
+            assertEquals("p4", gap.get(1).getMsgId());
+            assertTrue(conversations.readAfter("p:user1:user2", 5, 10).isEmpty());
+        } finally {
+            conversations.close();
+        }
+
+        // 重启后 seq 接着分配，不回退
+        conversations = ConversationLog.open(config);
+        try {
+            assertEquals(5, conversations.lastSeq("p:user1:user2"));
+            assertEquals(6, conversations.append("p:user1:user2", message("p6", "user2", "again")));
+            assertEquals(6, conversations.readAfter("p:user1:user2", 0, 100).size());
+        } finally {
+            conversations.close();
+        }
+    }
+
+    private SegmentedMessageStore open(long segmentBytes) throws Exception {
+        return SegmentedMessageStore.open(new MessageStoreConfig()
+                .setDir(dir)
+                .setSegmentBytes(segmentBytes)
+                .setIndexCacheSize(2));
+    }
+
+    private static ChatMessage message(String msgId, String to, String text) {
+        ChatMessage msg = new ChatMessage();
+        msg.setCmd(2);
+        msg.setFrom("user9");
+        msg.setTo(to);
+        msg.setMessage(text);
+        msg.setMsgId(msgId);
+        msg.setTimestamp(System.currentTimeMillis());
+        return msg;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
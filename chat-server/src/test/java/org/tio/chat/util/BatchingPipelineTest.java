@@ -0,0 +1,91 @@
+package org.tio.chat.util;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BatchingPipeline 的阶段顺序、批处理与背压测试
+ */
+public class BatchingPipelineTest extends TestCase {
+
+    public void testOrderedAcrossStagesWithManyProducers() throws Exception {
+        final int producers = 4;
+        final int perProducer = 20_000;
+        final List<Integer> first = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> second = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger maxBatch = new AtomicInteger();
+        BatchingPipeline<Integer> pipeline = new BatchingPipeline<>("test", 1024, 64,
+                batch -> {
+                    maxBatch.accumulateAndGet(batch.size(), Math::max);
+                    first.addAll(batch);
+                },
+                second::addAll);
+        pipeline.start();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    assertTrue(pipeline.offer(base + i, 10_000));
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(pipeline.stop(10_000));
+
+        assertEquals(producers * perProducer, first.size());
+        // 第二阶段看到的顺序与第一阶段完全一致
+        assertEquals(first, second);
+        // 同一生产者的元素保持发布顺序
+        int[] lastSeen = new int[producers];
+        java.util.Arrays.fill(lastSeen, -1);
+        for (int value : first) {
+            int producer = value / perProducer;
+            assertTrue(value > lastSeen[producer]);
+            lastSeen[producer] = value;
+        }
+        assertTrue(maxBatch.get() <= 64);
+        assertEquals(0, pipeline.backlog());
+        assertFalse(pipeline.offer(1, 0));
+    }
+
+    public void testBackpressureWhenFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger processed = new AtomicInteger();
+        BatchingPipeline<Integer> pipeline = new BatchingPipeline<>("test", 8, 4, batch -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processed.addAndGet(batch.size());
+        });
+        assertEquals(8, pipeline.capacity());
+        pipeline.start();
+
+        // 阶段阻塞期间环最多容纳 capacity 个未处理元素
+        for (int i = 0; i < 8; i++) {
+            assertTrue(pipeline.offer(i, 0));
+        }
+        assertFalse(pipeline.offer(8, 0));
+        long start = System.nanoTime();
+        assertFalse(pipeline.offer(8, 50));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+
+        release.countDown();
+        assertTrue(pipeline.offer(8, 5_000));
+        assertTrue(pipeline.stop(5_000));
+        assertEquals(9, processed.get());
+    }
+}
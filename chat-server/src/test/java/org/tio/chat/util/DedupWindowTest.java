@@ -0,0 +1,51 @@
+package org.tio.chat.util;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DedupWindow 的重发识别、释放、按时间与容量轮换测试
+ */
+public class DedupWindowTest extends TestCase {
+
+    public void testAcquireCompleteRelease() {
+        DedupWindow window = new DedupWindow(1024, 60_000);
+        assertEquals(DedupWindow.ABSENT, window.acquire("alice", "m1"));
+        // 原消息尚未 ACK
+        assertEquals(DedupWindow.PENDING, window.acquire("alice", "m1"));
+        // 不同发送方的同一 msgId 互不影响
+        assertEquals(DedupWindow.ABSENT, window.acquire("bob", "m1"));
+
+        window.complete("alice", "m1", 42);
+        assertEquals(42, window.acquire("alice", "m1"));
+
+        // 被拒绝的消息释放后重发按新消息处理
+        window.release("bob", "m1");
+        assertEquals(DedupWindow.ABSENT, window.acquire("bob", "m1"));
+        assertEquals(DedupWindow.PENDING, window.acquire("bob", "m1"));
+        assertEquals(2, window.size());
+    }
+
+    public void testExpiresAfterTwoGenerations() {
+        DedupWindow window = new DedupWindow(1024, 1_000);
+        long fp = DedupWindow.fingerprint("alice", "m1");
+        long t0 = System.nanoTime();
+        long second = TimeUnit.SECONDS.toNanos(1);
+        assertEquals(DedupWindow.ABSENT, window.acquire(fp, t0));
+        // 第一次轮换后仍在上一代中
+        assertEquals(DedupWindow.PENDING, window.acquire(fp, t0 + second));
+        assertEquals(DedupWindow.ABSENT, window.acquire(fp, t0 + 2 * second + 1));
+    }
+
+    public void testMemoryBoundedByCapacity() {
+        int maxEntries = 1024;
+        DedupWindow window = new DedupWindow(maxEntries, 3_600_000);
+        for (int i = 0; i < 100_000; i++) {
+            window.acquire("user-" + (i % 5000), "m" + i);
+        }
+        assertTrue(window.size() <= 2 * maxEntries);
+        // 最近的记录仍在窗口中
+        assertEquals(DedupWindow.PENDING, window.acquire("user-" + (99_999 % 5000), "m99999"));
+    }
+}
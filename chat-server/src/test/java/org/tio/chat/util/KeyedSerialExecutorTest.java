@@ -0,0 +1,101 @@
+package org.tio.chat.util;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * KeyedSerialExecutor 的按 key 保序、同 key 互斥、背压与停止测试
+ */
+public class KeyedSerialExecutorTest extends TestCase {
+
+    public void testOrderedPerKeyAndNeverConcurrent() throws Exception {
+        final int keys = 50;
+        final int perKey = 2_000;
+        KeyedSerialExecutor executor = new KeyedSerialExecutor("test", Executors.newFixedThreadPool(8), 1024);
+        final int[] last = new int[keys];
+        final AtomicInteger[] running = new AtomicInteger[keys];
+        final AtomicBoolean violated = new AtomicBoolean();
+        for (int k = 0; k < keys; k++) {
+            running[k] = new AtomicInteger();
+            last[k] = -1;
+        }
+
+        // 多个线程提交，同一 key 只由一个线程按顺序提交
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            final int first = p;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < perKey; i++) {
+                    for (int k = first; k < keys; k += 4) {
+                        final int key = k;
+                        final int seq = i;
+                        executor.execute("user-" + key, () -> {
+                            if (running[key].incrementAndGet() != 1 || last[key] != seq - 1) {
+                                violated.set(true);
+                            }
+                            last[key] = seq;
+                            running[key].decrementAndGet();
+                        });
+                    }
+                }
+            });
+            producers.add(t);
+            t.start();
+        }
+        for (Thread t : producers) {
+            t.join();
+        }
+        assertTrue(executor.shutdown(10_000));
+
+        assertFalse(violated.get());
+        for (int k = 0; k < keys; k++) {
+            assertEquals(perKey - 1, last[k]);
+        }
+        assertEquals(0, executor.activeKeys());
+        assertEquals(0, executor.backlog());
+        try {
+            executor.execute("user-0", () -> {
+            });
+            fail("停止后应拒绝提交");
+        } catch (RejectedExecutionException expected) {
+            // ok
+        }
+    }
+
+    public void testBackpressureBlocksSubmitter() throws Exception {
+        KeyedSerialExecutor executor = new KeyedSerialExecutor("test", Executors.newCachedThreadPool(), 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        executor.execute("a", blocked);
+        executor.execute("b", blocked);
+        assertEquals(2, executor.backlog());
+
+        // 已达上限，第三个提交等到有任务完成才返回
+        final CountDownLatch submitted = new CountDownLatch(1);
+        Thread t = new Thread(() -> {
+            executor.execute("c", () -> {
+            });
+            submitted.countDown();
+        });
+        t.start();
+        assertFalse(submitted.await(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+        assertTrue(executor.shutdown(5_000));
+        assertEquals(0, executor.backlog());
+    }
+}
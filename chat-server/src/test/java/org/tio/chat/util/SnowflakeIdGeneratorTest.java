@@ -0,0 +1,99 @@
+package org.tio.chat.util;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SnowflakeIdGenerator 的布局、单调性、时钟回拨与多线程唯一性测试
+ */
+public class SnowflakeIdGeneratorTest extends TestCase {
+
+    public void testLayoutAndCompactString() {
+        long now = System.currentTimeMillis();
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(37, () -> now);
+        long id = generator.nextLong();
+        assertEquals(now, SnowflakeIdGenerator.timestampOf(id));
+        assertEquals(37, SnowflakeIdGenerator.nodeOf(id));
+
+        String compact = SnowflakeIdGenerator.toCompactString(id);
+        assertEquals(11, compact.length());
+        assertEquals(id, SnowflakeIdGenerator.parseCompact(compact));
+        assertEquals(Long.MAX_VALUE, SnowflakeIdGenerator.parseCompact(SnowflakeIdGenerator.toCompactString(Long.MAX_VALUE)));
+        assertEquals(-1, SnowflakeIdGenerator.parseCompact("zzzzzzzzzzz"));
+        assertEquals(-1, SnowflakeIdGenerator.parseCompact("abc"));
+        assertEquals(-1, SnowflakeIdGenerator.parseCompact("0000000000-"));
+
+        try {
+            new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE + 1);
+            fail("节点号越界应报错");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testSequenceOverflowAndClockBackwards() {
+        AtomicLong clock = new AtomicLong(SnowflakeIdGenerator.EPOCH + 1_000_000);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, clock::get);
+        long previous = -1;
+        String previousCompact = "";
+        // 同一毫秒内超过 4096 个：借用下一毫秒，仍严格递增
+        for (int i = 0; i < 10_000; i++) {
+            long id = generator.nextLong();
+            String compact = SnowflakeIdGenerator.toCompactString(id);
+            assertTrue(id > previous);
+            assertTrue(compact.compareTo(previousCompact) > 0);
+            previous = id;
+            previousCompact = compact;
+        }
+        assertEquals(0, generator.getClockBackwards());
+
+        // 时钟回拨 5 秒：不阻塞、不重复，继续递增
+        clock.addAndGet(-5000);
+        for (int i = 0; i < 100; i++) {
+            long id = generator.nextLong();
+            assertTrue(id > previous);
+            previous = id;
+        }
+        assertEquals(100, generator.getClockBackwards());
+
+        // 时钟追上后恢复使用当前时间
+        clock.addAndGet(10_000);
+        long id = generator.nextLong();
+        assertTrue(id > previous);
+        assertEquals(clock.get(), SnowflakeIdGenerator.timestampOf(id));
+    }
+
+    public void testUniqueAcrossThreads() throws Exception {
+        final SnowflakeIdGenerator generator = new SnowflakeIdGenerator(2);
+        final int threads = 8;
+        final int perThread = 50_000;
+        final long[][] results = new long[threads][perThread];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final long[] out = results[t];
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    out[i] = generator.nextLong();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Set<Long> seen = new HashSet<>(threads * perThread * 2);
+        for (long[] out : results) {
+            for (int i = 0; i < perThread; i++) {
+                assertTrue(seen.add(out[i]));
+                if (i > 0) {
+                    assertTrue(out[i] > out[i - 1]);
+                }
+            }
+        }
+    }
+}
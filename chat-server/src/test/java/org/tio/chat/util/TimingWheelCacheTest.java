@@ -0,0 +1,103 @@
+package org.tio.chat.util;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * TimingWheelCache 的过期、容量上限与原子合并测试
+ */
+public class TimingWheelCacheTest extends TestCase {
+
+    public void testExpiresAfterTtl() throws Exception {
+        TimingWheelCache<String, String> cache = new TimingWheelCache<>("test", 100, 200, 16);
+        try {
+            cache.put("a", "1");
+            assertEquals("1", cache.get("a"));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (cache.get("a") != null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertNull(cache.get("a"));
+            assertEquals(0, cache.size());
+        } finally {
+            cache.close();
+        }
+    }
+
+    public void testEvictsOldestWhenFull() {
+        TimingWheelCache<Integer, Integer> cache = new TimingWheelCache<>("test", 10, 60_000, 16);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                cache.put(i, i);
+            }
+            assertTrue(cache.size() <= 10);
+            assertEquals(Integer.valueOf(999), cache.get(999));
+            assertNull(cache.get(0));
+
+            assertEquals(Integer.valueOf(999), cache.putIfAbsent(999, -1));
+            assertEquals(Integer.valueOf(999), cache.remove(999));
+            assertNull(cache.get(999));
+        } finally {
+            cache.close();
+        }
+    }
+
+    public void testEvictsWhenTtlNotDivisibleByWheel() {
+        // 60 分钟 / 1024 槽：tick 不整除，曾导致新条目都多转一圈、容量上限失效
+        TimingWheelCache<Integer, Integer> cache = new TimingWheelCache<>("test", 10, 60 * 60_000L, 1024);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                cache.put(i, i);
+            }
+            assertTrue(cache.size() <= 10);
+            assertEquals(Integer.valueOf(999), cache.get(999));
+            assertNull(cache.get(0));
+        } finally {
+            cache.close();
+        }
+    }
+
+    public void testMergeKeepsMaximumAtomically() throws Exception {
+        TimingWheelCache<String, Long> cache = new TimingWheelCache<>("test", 100, 60_000, 16);
+        try {
+            assertNull(cache.merge("k", 5L, Math::max));
+            assertEquals(Long.valueOf(5), cache.merge("k", 3L, (a, b) -> a >= b ? a : b));
+            assertEquals(Long.valueOf(5), cache.get("k"));
+
+            // 多个线程并发上报同一组水位：每个值最多被一个线程推进，最终为最大值
+            int values = 2000;
+            AtomicIntegerArray advanced = new AtomicIntegerArray(values + 1);
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (long v = 1; v <= values; v++) {
+                        Long previous = cache.merge("w", v, (a, b) -> a >= b ? a : b);
+                        if (previous == null || previous < v) {
+                            advanced.incrementAndGet((int) v);
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(Long.valueOf(values), cache.get("w"));
+            for (int v = 1; v <= values; v++) {
+                assertTrue("值 " + v + " 被推进了 " + advanced.get(v) + " 次", advanced.get(v) <= 1);
+            }
+        } finally {
+            cache.close();
+        }
+    }
+}